@@ -5,6 +5,9 @@ import henplus.HenPlus;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -21,6 +24,12 @@ public class Prompt {
         }
         
         List<String> params = new ArrayList(Arrays.asList(args));
+        if ("load".equals(params.get(0))) {
+            params.remove(0);
+            runAsLoad(params);
+            return;
+        }
+
         boolean web = false;
         for (Iterator<String> i = params.iterator(); i.hasNext();) {
             String arg = i.next();
@@ -45,12 +54,104 @@ public class Prompt {
     
     static void printUsageAndExit() {
         System.out.println("Usage: geodb [options] <database>");
+        System.out.println("       geodb load [load options] <file> <database>");
         System.out.println();
         System.out.println("Options:");
         System.out.println("\t --web, -w\t\trun as web application");
+        System.out.println();
+        System.out.println("Load options:");
+        System.out.println("\t --format <format>\twkt, wkb, csv or geojson, guessed from the file");
+        System.out.println("\t --table <table>\ttable to load into, named after the file by default");
+        System.out.println("\t --schema <schema>\tschema of the table, PUBLIC by default");
+        System.out.println("\t --column <column>\tgeometry column, GEOM by default");
+        System.out.println("\t --srid <srid>\t\tspatial reference system of the geometries");
+        System.out.println("\t --no-index\t\tdo not create a spatial index");
+        System.out.println();
+        System.out.println("A file of - loads from standard input.");
         System.exit(-1);
     }
     
+    static void runAsLoad(List<String> params) throws Exception {
+        String format = null, table = null, column = null, schema = null;
+        int srid = -1;
+        boolean index = true;
+        for (Iterator<String> i = params.iterator(); i.hasNext();) {
+            String arg = i.next();
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            i.remove();
+            if ("--no-index".equals(arg)) {
+                index = false;
+                continue;
+            }
+            if (!i.hasNext()) {
+                printUsageAndExit();
+            }
+            String value = i.next();
+            i.remove();
+            if ("--format".equals(arg)) {
+                format = value;
+            }
+            else if ("--table".equals(arg)) {
+                table = value;
+            }
+            else if ("--schema".equals(arg)) {
+                schema = value;
+            }
+            else if ("--column".equals(arg)) {
+                column = value;
+            }
+            else if ("--srid".equals(arg)) {
+                srid = Integer.parseInt(value);
+            }
+            else {
+                printUsageAndExit();
+            }
+        }
+        if (params.size() != 2) {
+            printUsageAndExit();
+        }
+
+        String file = params.get(0);
+        String database = params.get(1);
+        boolean stdin = "-".equals(file);
+        if (table == null) {
+            if (stdin) {
+                printUsageAndExit();
+            }
+            table = new File(file).getName().replaceAll("\\..*$", "").toUpperCase();
+        }
+
+        Class.forName("org.h2.Driver");
+        Connection cx = DriverManager.getConnection("jdbc:h2:" + database);
+        InputStream in = stdin ? System.in : new FileInputStream(file);
+        try {
+            GeoDB.InitGeoDB(cx);
+
+            BulkLoader loader = new BulkLoader(cx, schema, table);
+            loader.setFormat(format != null ? BulkLoader.Format.parse(format) :
+                BulkLoader.Format.guess(file));
+            loader.setSrid(srid);
+            loader.setIndex(index);
+            if (column != null) {
+                loader.setColumn(column);
+            }
+
+            long t = System.currentTimeMillis();
+            long count = loader.load(in);
+            t = Math.max(1, System.currentTimeMillis() - t);
+            System.out.println("Loaded " + count + " rows into " + table + " in " + t + " ms (" +
+                (count * 1000 / t) + " rows/s)");
+        }
+        finally {
+            if (!stdin) {
+                in.close();
+            }
+            cx.close();
+        }
+    }
+
     static void runAsWeb() throws Exception {
         Server.main(new String[]{});
     }
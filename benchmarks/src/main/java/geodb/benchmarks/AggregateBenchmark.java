@@ -0,0 +1,68 @@
+package geodb.benchmarks;
+
+import geodb.aggregate.Extent;
+import geodb.aggregate.GeoAggregateFunction;
+import geodb.aggregate.Union;
+
+import java.io.ByteArrayInputStream;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The <tt>ST_Extent</tt> and <tt>ST_Union_Aggregate</tt> aggregates over a set of rows, called
+ * the way H2 calls them, with each value as a stream over its WKB.
+ * <p>
+ * The extent is over the <tt>points</tt> dataset, and the union over {@link Data#parcels}, a grid
+ * of squares that overlap their neighbours, like parcels dissolved into districts.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregateBenchmark {
+
+    @Param({"1000", "10000"})
+    int rows;
+
+    byte[][] points;
+    byte[][] polygons;
+
+    @Setup
+    public void setUp() {
+        points = Data.wkb(Data.geometries("points", rows, 1, Data.SEED));
+        polygons = Data.wkb(Data.parcels(rows, Data.SEED));
+    }
+
+    @Benchmark
+    public Object extent() throws SQLException {
+        return aggregate(new Extent(), points);
+    }
+
+    @Benchmark
+    public Object union() throws SQLException {
+        return aggregate(new Union(), polygons);
+    }
+
+    static Object aggregate(GeoAggregateFunction agg, byte[][] values) throws SQLException {
+        agg.init(null);
+        for (int i = 0; i < values.length; i++) {
+            agg.add(new ByteArrayInputStream(values[i]));
+        }
+        return agg.getResult();
+    }
+}
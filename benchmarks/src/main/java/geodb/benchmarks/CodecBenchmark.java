@@ -0,0 +1,96 @@
+package geodb.benchmarks;
+
+import geodb.GeoDB;
+import geodb.WKBEnvelope;
+
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of geometries, per geometry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    static final int N = 1000;
+
+    @Param({"points", "lines", "polygons"})
+    String kind;
+
+    @Param({"32"})
+    int vertices;
+
+    Geometry[] geometries;
+    byte[][] wkb;
+    byte[][] ewkb;
+    double[] bounds = WKBEnvelope.bounds();
+
+    @Setup
+    public void setUp() {
+        geometries = Data.geometries(kind, N, vertices, Data.SEED);
+        wkb = Data.wkb(geometries);
+        ewkb = new byte[N][];
+        for (int i = 0; i < N; i++) {
+            ewkb[i] = GeoDB.gToEWKB(geometries[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void gFromWKB(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.gFromWKB(wkb[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void gFromEWKB(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.gFromEWKB(ewkb[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void gToWKB(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.gToWKB(geometries[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void gToEWKB(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.gToEWKB(geometries[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void envelope(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(WKBEnvelope.envelope(wkb[i], bounds));
+        }
+    }
+}
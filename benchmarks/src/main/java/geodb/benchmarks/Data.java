@@ -0,0 +1,172 @@
+package geodb.benchmarks;
+
+import geodb.GeoDB;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Synthetic datasets for the benchmarks.
+ * <p>
+ * Datasets are generated from a fixed seed so that every run, on every machine, measures the
+ * same geometries. Geometries are spread over the WGS84 bounds and carry srid 4326:
+ * </p>
+ * <ul>
+ * <li><tt>points</tt>: uniformly distributed points</li>
+ * <li><tt>lines</tt>: random walks of <tt>vertices</tt> vertices, about a degree long</li>
+ * <li><tt>polygons</tt>: star shaped polygons of <tt>vertices</tt> vertices, about a degree
+ *   across</li>
+ * </ul>
+ * <p>
+ * {@link #parcels} generates a grid of slightly overlapping squares instead, for aggregates
+ * which are only interesting over geometries that touch.
+ * </p>
+ */
+public final class Data {
+
+    public static final long SEED = 20100101L;
+
+    static final GeometryFactory factory = new GeometryFactory();
+
+    private Data() {
+    }
+
+    /**
+     * Generates <tt>n</tt> geometries of a kind, see the class comment.
+     */
+    public static Geometry[] geometries(String kind, int n, int vertices, long seed) {
+        Random r = new Random(seed);
+        Geometry[] g = new Geometry[n];
+        for (int i = 0; i < n; i++) {
+            double x = -180 + r.nextDouble() * 359, y = -90 + r.nextDouble() * 179;
+            if ("points".equals(kind)) {
+                g[i] = factory.createPoint(new Coordinate(x, y));
+            }
+            else if ("lines".equals(kind)) {
+                g[i] = factory.createLineString(walk(r, x, y, vertices));
+            }
+            else if ("polygons".equals(kind)) {
+                g[i] = factory.createPolygon(star(r, x, y, vertices));
+            }
+            else {
+                throw new IllegalArgumentException("Unknown dataset: " + kind);
+            }
+            g[i].setSRID(4326);
+        }
+        return g;
+    }
+
+    /**
+     * Generates <tt>n</tt> unit squares on a square grid, each jittered by up to a tenth of a unit
+     * so that neighbours overlap.
+     */
+    public static Geometry[] parcels(int n, long seed) {
+        Random r = new Random(seed);
+        int side = (int) Math.ceil(Math.sqrt(n));
+        Geometry[] g = new Geometry[n];
+        for (int i = 0; i < n; i++) {
+            double x = (i % side) + (r.nextDouble() - 0.5) * 0.2;
+            double y = (i / side) + (r.nextDouble() - 0.5) * 0.2;
+            g[i] = factory.toGeometry(new Envelope(x, x + 1.05, y, y + 1.05));
+            g[i].setSRID(4326);
+        }
+        return g;
+    }
+
+    static Coordinate[] walk(Random r, double x, double y, int vertices) {
+        Coordinate[] c = new Coordinate[Math.max(2, vertices)];
+        double step = 1.0 / c.length;
+        for (int i = 0; i < c.length; i++) {
+            c[i] = new Coordinate(x, y);
+            x += (r.nextDouble() - 0.5) * 2 * step;
+            y += (r.nextDouble() - 0.5) * 2 * step;
+        }
+        return c;
+    }
+
+    static Coordinate[] star(Random r, double x, double y, int vertices) {
+        int n = Math.max(3, vertices);
+        Coordinate[] c = new Coordinate[n + 1];
+        for (int i = 0; i < n; i++) {
+            double a = 2 * Math.PI * i / n;
+            double d = 0.25 + r.nextDouble() * 0.25;
+            c[i] = new Coordinate(x + Math.cos(a) * d, y + Math.sin(a) * d);
+        }
+        c[n] = c[0];
+        return c;
+    }
+
+    /**
+     * Encodes geometries as WKB.
+     */
+    public static byte[][] wkb(Geometry[] geometries) {
+        byte[][] wkb = new byte[geometries.length][];
+        for (int i = 0; i < wkb.length; i++) {
+            wkb[i] = GeoDB.gToWKB(geometries[i]);
+        }
+        return wkb;
+    }
+
+    /**
+     * Opens a connection to a new, spatially enabled, in memory database.
+     */
+    public static Connection connect(String name) throws SQLException {
+        try {
+            Class.forName("org.h2.Driver");
+        }
+        catch (ClassNotFoundException e) {
+            throw (SQLException) new SQLException("H2 driver not found").initCause(e);
+        }
+        Connection cx = DriverManager.getConnection("jdbc:h2:mem:" + name);
+        GeoDB.InitGeoDB(cx);
+        return cx;
+    }
+
+    /**
+     * Creates a table <tt>(ID INT PRIMARY KEY, GEOM BLOB)</tt> holding geometries.
+     */
+    public static void table(Connection cx, String table, byte[][] wkb) throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TABLE IF EXISTS " + table);
+            st.execute("CREATE TABLE " + table + " (ID INT PRIMARY KEY, GEOM BLOB)");
+        }
+        finally {
+            st.close();
+        }
+        insert(cx, table, wkb, 0);
+    }
+
+    /**
+     * Inserts geometries into a table created by {@link #table}, in batches, with ids starting
+     * at <tt>id</tt>.
+     */
+    public static void insert(Connection cx, String table, byte[][] wkb, int id)
+        throws SQLException {
+        PreparedStatement ps = cx.prepareStatement("INSERT INTO " + table +
+            " (ID, GEOM) VALUES (?, ?)");
+        try {
+            for (int i = 0; i < wkb.length; i++) {
+                ps.setInt(1, id + i);
+                ps.setBytes(2, wkb[i]);
+                ps.addBatch();
+                if (i % 1000 == 999) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        finally {
+            ps.close();
+        }
+    }
+}
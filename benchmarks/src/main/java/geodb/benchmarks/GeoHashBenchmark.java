@@ -0,0 +1,93 @@
+package geodb.benchmarks;
+
+import geodb.GeoHash;
+import geodb.GeoString;
+import geodb.Hilbert;
+
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Geohash and Hilbert key encoding, per envelope.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoHashBenchmark {
+
+    static final int N = 1000;
+
+    /** minx, miny, maxx, maxy of each envelope */
+    double[] boxes;
+
+    @Setup
+    public void setUp() {
+        Geometry[] g = Data.geometries("polygons", N, 8, Data.SEED);
+        boxes = new double[N * 4];
+        for (int i = 0; i < N; i++) {
+            Envelope e = g[i].getEnvelopeInternal();
+            boxes[i*4] = e.getMinX();
+            boxes[i*4+1] = e.getMinY();
+            boxes[i*4+2] = e.getMaxX();
+            boxes[i*4+3] = e.getMaxY();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void geoString(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(new GeoString(boxes[i*4], boxes[i*4+1]).toString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void geohash(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoHash.geohash(boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void geohashKey(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoHash.key(boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void hilbertKey(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(Hilbert.key(boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void cover(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoHash.cover(boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3],
+                GeoHash.COVER_CELLS));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package geodb.benchmarks;
+
+import geodb.GeoDB;
+import geodb.index.RTree;
+import geodb.index.SpatialIndex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building and querying the spatial index of a table through an H2 connection.
+ * <p>
+ * Queries are windows of 1 by 1 degree spread over the WGS84 bounds, run through
+ * <tt>ST_IndexIntersects</tt> joined back to the table, and straight against the in memory tree.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+
+    static final int QUERIES = 100;
+
+    @Param({"100000"})
+    int rows;
+
+    @Param({"points", "polygons"})
+    String kind;
+
+    Connection cx;
+    double[] windows;
+
+    @Setup
+    public void setUp() throws SQLException {
+        cx = Data.connect("index");
+        Data.table(cx, "SPATIAL", Data.wkb(Data.geometries(kind, rows, 16, Data.SEED)));
+        GeoDB.CreateSpatialIndex(cx, null, "SPATIAL", "GEOM", "4326");
+
+        Random r = new Random(Data.SEED);
+        windows = new double[QUERIES * 2];
+        for (int i = 0; i < windows.length; i += 2) {
+            windows[i] = -180 + r.nextDouble() * 359;
+            windows[i+1] = -90 + r.nextDouble() * 179;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        cx.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void build() throws SQLException {
+        GeoDB.CreateSpatialIndex(cx, null, "SPATIAL", "GEOM", "4326");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void tree(Blackhole bh) throws SQLException {
+        SpatialIndex index = SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM");
+        final long[] count = new long[1];
+        for (int i = 0; i < windows.length; i += 2) {
+            index.query(windows[i], windows[i+1], windows[i] + 1, windows[i+1] + 1,
+                new RTree.Visitor() {
+                    public void visit(long id) {
+                        count[0]++;
+                    }
+                });
+        }
+        bh.consume(count[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public void indexIntersects(Blackhole bh) throws SQLException {
+        PreparedStatement ps = cx.prepareStatement("SELECT t.GEOM FROM " +
+            "ST_IndexIntersects('PUBLIC', 'SPATIAL', ?, ?, ?, ?) i, SPATIAL t WHERE t.ID = i.ID");
+        try {
+            query(ps, bh);
+        }
+        finally {
+            ps.close();
+        }
+    }
+
+    void query(PreparedStatement ps, Blackhole bh) throws SQLException {
+        for (int i = 0; i < windows.length; i += 2) {
+            ps.setDouble(1, windows[i]);
+            ps.setDouble(2, windows[i+1]);
+            ps.setDouble(3, windows[i] + 1);
+            ps.setDouble(4, windows[i+1] + 1);
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    bh.consume(rs.getBytes(1));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package geodb.benchmarks;
+
+import geodb.GeoDB;
+
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The <tt>ST_*</tt> predicates over WKB, per pair of geometries.
+ * <p>
+ * Each geometry of one dataset is tested against a geometry of a second dataset, generated from
+ * another seed, placed next to it so that about half the pairs interact.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredicateBenchmark {
+
+    static final int N = 1000;
+
+    @Param({"points", "lines", "polygons"})
+    String kind;
+
+    @Param({"32"})
+    int vertices;
+
+    byte[][] a;
+    byte[][] b;
+
+    @Setup
+    public void setUp() {
+        a = Data.wkb(Data.geometries("polygons", N, vertices, Data.SEED));
+        b = Data.wkb(Data.geometries(kind, N, vertices, Data.SEED + 1));
+
+        //move the second geometry of each pair next to the first one
+        for (int i = 0; i < N; i++) {
+            Geometry g1 = GeoDB.gFromWKB(a[i]);
+            Geometry g2 = GeoDB.gFromWKB(b[i]);
+            double dx = g1.getCentroid().getX() - g2.getCentroid().getX() + (i % 2) * 0.6;
+            double dy = g1.getCentroid().getY() - g2.getCentroid().getY();
+            AffineTransformation t = AffineTransformation.translationInstance(dx, dy);
+            g2 = t.transform(g2);
+            g2.setSRID(4326);
+            b[i] = GeoDB.gToWKB(g2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void bbox(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_BBox(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void intersects(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Intersects(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void disjoint(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Disjoint(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void contains(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Contains(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void within(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Within(b[i], a[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void crosses(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Crosses(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void overlaps(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Overlaps(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void touches(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Touches(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void equals(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Equals(a[i], b[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void dwithin(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_DWithin(a[i], b[i], 0.1));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void relate(Blackhole bh) {
+        for (int i = 0; i < N; i++) {
+            bh.consume(GeoDB.ST_Relate(a[i], b[i], "T*T***T**"));
+        }
+    }
+}
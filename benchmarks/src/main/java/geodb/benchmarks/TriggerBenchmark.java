@@ -0,0 +1,86 @@
+package geodb.benchmarks;
+
+import geodb.GeoDB;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert throughput through an H2 connection, per row, with the triggers maintaining the geohash
+ * columns or the spatial index of the table, or with none as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggerBenchmark {
+
+    static final int N = 1000;
+
+    @Param({"none", "geohash", "hilbert", "index"})
+    String trigger;
+
+    @Param({"points", "polygons"})
+    String kind;
+
+    Connection cx;
+    byte[][] wkb;
+
+    @Setup
+    public void setUp() throws SQLException {
+        wkb = Data.wkb(Data.geometries(kind, N, 32, Data.SEED));
+        cx = Data.connect("trigger");
+        Data.table(cx, "SPATIAL", new byte[0][]);
+
+        if ("geohash".equals(trigger)) {
+            GeoDB.CreateSpatialIndex_GeoHash(cx, null, "SPATIAL", "GEOM", "BIGINT");
+        }
+        else if ("hilbert".equals(trigger)) {
+            GeoDB.CreateSpatialIndex_GeoHash(cx, null, "SPATIAL", "GEOM", "HILBERT");
+        }
+        else if ("index".equals(trigger)) {
+            GeoDB.CreateSpatialIndex(cx, null, "SPATIAL", "GEOM", "4326");
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void truncate() throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DELETE FROM SPATIAL");
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        cx.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public void insert() throws SQLException {
+        Data.insert(cx, "SPATIAL", wkb, 0);
+    }
+}
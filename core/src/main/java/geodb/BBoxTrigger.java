@@ -0,0 +1,113 @@
+package geodb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.api.Trigger;
+
+/**
+ * An H2 trigger which converts the values of geometry columns using the <tt>BBOX</tt> storage
+ * format to {@link BoxedWKB boxed} WKB as they are inserted or updated.
+ * <p>
+ * The trigger is created by {@link GeoDB#SetGeometryStorage} and handles every column of its table
+ * registered with <tt>BBOX</tt> storage in the <tt>geometry_columns</tt> table.
+ * </p>
+ */
+public class BBoxTrigger implements Trigger {
+
+    List<Integer> columns;
+
+    public void init(Connection cx, String schemaName, String triggerName, String tableName,
+        boolean before, int type) throws SQLException {
+        
+        //look up the columns using the bbox storage format
+        List<String> names = new ArrayList<String>();
+        PreparedStatement ps = cx.prepareStatement("SELECT f_geometry_column FROM geometry_columns"
+            + " WHERE f_table_schema = ? AND f_table_name = ? AND storage = 'BBOX'");
+        try {
+            ps.setString(1, schemaName);
+            ps.setString(2, tableName);
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            ps.close();
+        }
+        
+        //map them to row indexes
+        columns = new ArrayList<Integer>();
+        DatabaseMetaData md = cx.getMetaData();
+        ResultSet rs = md.getColumns(null, schemaName, tableName, "%");
+        try {
+            for (int i = 0; rs.next(); i++) {
+                if (names.contains(rs.getString("COLUMN_NAME"))) {
+                    columns.add(i);
+                }
+            }
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    public void fire(Connection cx, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (newRow == null) {
+            //delete
+            return;
+        }
+        
+        for (Integer i : columns) {
+            Object value = newRow[i];
+            if (value == null) {
+                continue;
+            }
+            
+            byte[] wkb = null;
+            if (value instanceof byte[]) {
+                wkb = (byte[]) value;
+            }
+            else if (value instanceof InputStream) {
+                wkb = read((InputStream) value);
+            }
+            
+            if (wkb != null && wkb.length > 0) {
+                newRow[i] = BoxedWKB.box(wkb);
+            }
+        }
+    }
+
+    static byte[] read(InputStream in) throws SQLException {
+        try {
+            WKBCodec codec = WKBCodec.get();
+            int n = codec.load(in);
+            
+            byte[] b = new byte[n];
+            System.arraycopy(codec.scratch, 0, b, 0, n);
+            codec.releaseScratch();
+            return b;
+        }
+        catch (IOException e) {
+            throw (SQLException) new SQLException("Error reading geometry").initCause(e);
+        }
+    }
+
+    public void close() throws SQLException {
+    }
+
+    public void remove() throws SQLException {
+    }
+}
@@ -0,0 +1,147 @@
+package geodb;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * WKB prefixed with the bounding box of the geometry.
+ * <p>
+ * Binary format:
+ * <pre>
+ * |--1 byte--|--32 bytes--|--WKB--|
+ * </pre>
+ * The first byte is the marker {@link #MARKER}, which can never start a plain WKB value since
+ * that byte is always the byte order (0 or 1). It is followed by the minx, miny, maxx, maxy of the
+ * geometry as big endian doubles (NaN for an empty geometry) and then the geometry itself.
+ * </p>
+ * <p>
+ * Columns opt in to this format with {@link GeoDB#SetGeometryStorage}. Every function that
+ * accepts a geometry understands both formats, and the binary predicates use the stored box to
+ * reject pairs of geometries without decoding either of them.
+ * </p>
+ */
+public final class BoxedWKB {
+
+    /**
+     * first byte of a boxed geometry
+     */
+    public static final byte MARKER = 'B';
+
+    /**
+     * length of the header preceding the WKB
+     */
+    public static final int HEADER = 33;
+
+    private BoxedWKB() {
+    }
+
+    /**
+     * Returns true if the bytes are in boxed format.
+     */
+    public static boolean isBoxed(byte[] b) {
+        return b.length > HEADER && b[0] == MARKER;
+    }
+
+    /**
+     * Returns true if the bytes at the specified offset are in boxed format.
+     */
+    public static boolean isBoxed(byte[] b, int off, int len) {
+        return len > HEADER && b[off] == MARKER;
+    }
+
+    /**
+     * Encodes a geometry in boxed format.
+     */
+    public static byte[] encode(Geometry g) {
+        byte[] b = WKBCodec.get().write(g, HEADER);
+        writeHeader(g.getEnvelopeInternal(), b);
+        return b;
+    }
+
+    /**
+     * Converts plain WKB to boxed format. Values that are already boxed are returned as is.
+     */
+    public static byte[] box(byte[] wkb) {
+        if (isBoxed(wkb)) {
+            return wkb;
+        }
+
+        double[] bounds = WKBCodec.get().bounds1;
+        WKBEnvelope.envelope(wkb, bounds);
+
+        byte[] b = new byte[HEADER + wkb.length];
+        System.arraycopy(wkb, 0, b, HEADER, wkb.length);
+        writeHeader(WKBEnvelope.isEmpty(bounds) ? null : bounds, b);
+        return b;
+    }
+
+    /**
+     * Converts boxed format back to plain WKB. Values that are not boxed are returned as is.
+     */
+    public static byte[] unbox(byte[] b) {
+        if (!isBoxed(b)) {
+            return b;
+        }
+
+        byte[] wkb = new byte[b.length - HEADER];
+        System.arraycopy(b, HEADER, wkb, 0, wkb.length);
+        return wkb;
+    }
+
+    /**
+     * Reads the stored bounds of a boxed value, returning false if the geometry is empty.
+     */
+    public static boolean bounds(byte[] b, int off, double[] bounds) {
+        WKBEnvelope.reset(bounds);
+
+        double minx = GeoDB.bytesToDouble(b, off + 1);
+        if (Double.isNaN(minx)) {
+            return false;
+        }
+
+        bounds[WKBEnvelope.MINX] = minx;
+        bounds[WKBEnvelope.MINY] = GeoDB.bytesToDouble(b, off + 9);
+        bounds[WKBEnvelope.MAXX] = GeoDB.bytesToDouble(b, off + 17);
+        bounds[WKBEnvelope.MAXY] = GeoDB.bytesToDouble(b, off + 25);
+        return true;
+    }
+
+    /**
+     * Expands a bounds array with the stored bounds of a boxed value.
+     */
+    public static void expand(byte[] b, int off, double[] bounds) {
+        double minx = GeoDB.bytesToDouble(b, off + 1);
+        if (Double.isNaN(minx)) {
+            return;
+        }
+
+        double miny = GeoDB.bytesToDouble(b, off + 9);
+        double maxx = GeoDB.bytesToDouble(b, off + 17);
+        double maxy = GeoDB.bytesToDouble(b, off + 25);
+
+        bounds[WKBEnvelope.MINX] = Math.min(bounds[WKBEnvelope.MINX], minx);
+        bounds[WKBEnvelope.MINY] = Math.min(bounds[WKBEnvelope.MINY], miny);
+        bounds[WKBEnvelope.MAXX] = Math.max(bounds[WKBEnvelope.MAXX], maxx);
+        bounds[WKBEnvelope.MAXY] = Math.max(bounds[WKBEnvelope.MAXY], maxy);
+    }
+
+    static void writeHeader(Envelope e, byte[] b) {
+        writeHeader(e.isNull() ? null : new double[]{
+            e.getMinX(), e.getMinY(), e.getMaxX(), e.getMaxY()}, b);
+    }
+
+    static void writeHeader(double[] bounds, byte[] b) {
+        b[0] = MARKER;
+        if (bounds == null) {
+            for (int i = 0; i < 4; i++) {
+                GeoDB.doubleToBytes(b, 1 + i*8, Double.NaN);
+            }
+        }
+        else {
+            GeoDB.doubleToBytes(b, 1, bounds[WKBEnvelope.MINX]);
+            GeoDB.doubleToBytes(b, 9, bounds[WKBEnvelope.MINY]);
+            GeoDB.doubleToBytes(b, 17, bounds[WKBEnvelope.MAXX]);
+            GeoDB.doubleToBytes(b, 25, bounds[WKBEnvelope.MAXY]);
+        }
+    }
+}
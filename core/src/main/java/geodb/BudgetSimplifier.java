@@ -0,0 +1,189 @@
+package geodb;
+
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Puntal;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Simplifies a geometry down to a maximum number of vertices.
+ * <p>
+ * Rather than searching for a tolerance by simplifying over and over, the Douglas-Peucker
+ * recursion is run once over the coordinate sequences of the geometry, recording for every
+ * vertex the largest tolerance at which {@link DouglasPeuckerSimplifier} keeps it: its distance to
+ * the segment it splits, capped by the tolerance of the vertex that split the enclosing segment.
+ * The tolerance meeting the budget is then read off the sorted tolerances, and the geometry
+ * simplified once.
+ * </p>
+ */
+class BudgetSimplifier {
+
+    /**
+     * Simplifies a geometry with the smallest Douglas-Peucker tolerance leaving at most
+     * <tt>maxVertices</tt> vertices, or as few as the geometry allows: the end points of its lines
+     * are always kept, and points are not simplified.
+     */
+    static Geometry simplify(Geometry g, int maxVertices) {
+        if (g.getNumPoints() <= maxVertices || g instanceof Puntal) {
+            return g;
+        }
+
+        Ranks ranks = new Ranks(g.getNumPoints());
+        rank(g, ranks);
+        double[] tols = ranks.sorted();
+
+        //vertices with a tolerance above the n-th largest are kept, ties dropped with it
+        int n = Math.max(1, maxVertices - ranks.fixed + 1);
+        int i = Math.max(0, tols.length - n);
+        while (true) {
+            double tol = i < tols.length ? tols[i] : Double.MAX_VALUE;
+            Geometry s = DouglasPeuckerSimplifier.simplify(g, tol);
+
+            //repairing polygons may add vertices back, try the next tolerance up
+            if (s.getNumPoints() <= maxVertices || i >= tols.length) {
+                s.setSRID(g.getSRID());
+                return s;
+            }
+            double t = tols[i];
+            while (i < tols.length && tols[i] == t) {
+                i++;
+            }
+        }
+    }
+
+    static void rank(Geometry g, Ranks ranks) {
+        if (g instanceof LineString) {
+            rank(((LineString) g).getCoordinateSequence(), ranks);
+        }
+        else if (g instanceof Polygon) {
+            Polygon p = (Polygon) g;
+            rank(p.getExteriorRing().getCoordinateSequence(), ranks);
+            for (int i = 0; i < p.getNumInteriorRing(); i++) {
+                rank(p.getInteriorRingN(i).getCoordinateSequence(), ranks);
+            }
+        }
+        else if (g instanceof Puntal) {
+            ranks.fixed += g.getNumPoints();
+        }
+        else {
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                rank(g.getGeometryN(i), ranks);
+            }
+        }
+    }
+
+    /**
+     * Records the tolerances of the interior vertices of a line, walking the Douglas-Peucker
+     * recursion with a stack of <tt>[from, to, cap]</tt> spans.
+     */
+    static void rank(CoordinateSequence seq, Ranks ranks) {
+        int n = seq.size();
+        ranks.fixed += Math.min(n, 2);
+        if (n < 3) {
+            return;
+        }
+
+        Coordinate a = new Coordinate(), b = new Coordinate(), p = new Coordinate();
+        int[] spans = new int[64];
+        double[] caps = new double[32];
+        spans[0] = 0;
+        spans[1] = n - 1;
+        caps[0] = Double.MAX_VALUE;
+        int top = 1;
+
+        while (top > 0) {
+            top--;
+            int from = spans[top * 2], to = spans[top * 2 + 1];
+            double cap = caps[top];
+            if (to - from < 2) {
+                continue;
+            }
+
+            seq.getCoordinate(from, a);
+            seq.getCoordinate(to, b);
+            double max = -1;
+            int split = from + 1;
+            for (int k = from + 1; k < to; k++) {
+                seq.getCoordinate(k, p);
+                double d = distance(p, a, b);
+                if (d > max) {
+                    max = d;
+                    split = k;
+                }
+            }
+
+            double tol = Math.min(max, cap);
+            ranks.add(tol);
+
+            if (top + 2 > caps.length) {
+                int[] s = new int[spans.length * 2];
+                System.arraycopy(spans, 0, s, 0, top * 2);
+                spans = s;
+                double[] c = new double[caps.length * 2];
+                System.arraycopy(caps, 0, c, 0, top);
+                caps = c;
+            }
+            spans[top * 2] = from;
+            spans[top * 2 + 1] = split;
+            caps[top++] = tol;
+            spans[top * 2] = split;
+            spans[top * 2 + 1] = to;
+            caps[top++] = tol;
+        }
+    }
+
+    /**
+     * Distance from a point to a segment, as computed by <tt>LineSegment.distance</tt>.
+     */
+    static double distance(Coordinate p, Coordinate a, Coordinate b) {
+        double dx = b.x - a.x, dy = b.y - a.y;
+        double len2 = dx * dx + dy * dy;
+        if (len2 == 0) {
+            return p.distance(a);
+        }
+        double r = ((p.x - a.x) * dx + (p.y - a.y) * dy) / len2;
+        if (r <= 0) {
+            return p.distance(a);
+        }
+        if (r >= 1) {
+            return p.distance(b);
+        }
+        double s = ((a.y - p.y) * dx - (a.x - p.x) * dy) / len2;
+        return Math.abs(s) * Math.sqrt(len2);
+    }
+
+    /**
+     * The tolerances of the interior vertices of a geometry, and the number of vertices kept at
+     * any tolerance.
+     */
+    static class Ranks {
+        double[] tols;
+        int n;
+        int fixed;
+
+        Ranks(int capacity) {
+            tols = new double[Math.max(16, capacity)];
+        }
+
+        void add(double tol) {
+            if (n == tols.length) {
+                double[] t = new double[n * 2];
+                System.arraycopy(tols, 0, t, 0, n);
+                tols = t;
+            }
+            tols[n++] = tol;
+        }
+
+        double[] sorted() {
+            double[] sorted = new double[n];
+            System.arraycopy(tols, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,912 @@
+package geodb;
+
+import geodb.index.RTree;
+import geodb.index.RTreeBuilder;
+import geodb.index.SpatialIndex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+
+/**
+ * Loads geometries into a table in bulk.
+ * <p>
+ * Records are read from a stream on the calling thread and handed to the {@link Parallel} worker
+ * pool in batches. Workers parse the geometries, encode them, and compute their envelopes and the
+ * values of the geohash columns of the table in the same pass. The rows are written back on the
+ * calling thread, in the order they were read, with batched prepared statements, and committed
+ * together at the end: a load that fails part way is rolled back as a whole.
+ * </p>
+ * <p>
+ * The geohash and bounding box triggers of the table are dropped for the duration of the load,
+ * since the loader computes their values itself, and the spatial index of the geometry column is
+ * built once at the end: straight from the envelopes computed during the load when the table
+ * started out empty, or from a scan of the table otherwise. Both are put back when the load fails.
+ * </p>
+ * <pre>
+ * BulkLoader loader = new BulkLoader(cx, null, "ROADS");
+ * loader.setFormat(BulkLoader.Format.GEOJSON);
+ * loader.setSrid(4326);
+ * long count = loader.load(new FileInputStream("roads.geojson"));
+ * </pre>
+ * <p>
+ * A table that does not exist is created, with a <tt>BIGINT</tt> primary key named <tt>ID</tt>, the
+ * geometry column, and a column per CSV field or property of the first GeoJSON feature. Rows are
+ * given primary keys following the largest one in the table unless the input has a field or
+ * property named after the primary key, or GeoJSON features carry an id. A record given an id
+ * that was already generated for an earlier record without one fails the load.
+ * </p>
+ */
+public class BulkLoader {
+
+    /**
+     * Input formats.
+     */
+    public static enum Format {
+        /** one geometry in Well-Known Text per line, optionally prefixed with <tt>SRID=n;</tt> */
+        WKT,
+        /** one geometry in hex encoded Well-Known Binary per line */
+        WKB,
+        /**
+         * comma separated values with a header row, the geometry column holding WKT or hex
+         * encoded WKB
+         */
+        CSV,
+        /** a GeoJSON feature collection, or a sequence of features or geometries */
+        GEOJSON;
+
+        /**
+         * Looks up a format by name.
+         */
+        public static Format parse(String name) throws SQLException {
+            String n = name.trim().toUpperCase();
+            if ("JSON".equals(n)) {
+                return GEOJSON;
+            }
+            try {
+                return valueOf(n);
+            }
+            catch (IllegalArgumentException e) {
+                throw new SQLException("Unsupported format: " + name);
+            }
+        }
+
+        /**
+         * Guesses the format of a file from its extension, defaulting to WKT.
+         */
+        public static Format guess(String fileName) {
+            String n = fileName.toLowerCase();
+            if (n.endsWith(".csv")) {
+                return CSV;
+            }
+            if (n.endsWith(".json") || n.endsWith(".geojson")) {
+                return GEOJSON;
+            }
+            if (n.endsWith(".wkb") || n.endsWith(".hex")) {
+                return WKB;
+            }
+            return WKT;
+        }
+    }
+
+    static final int GEOHASH = GeoHashTrigger.GEOHASH;
+    static final int GEOHASH_KEY = GeoHashTrigger.GEOHASH_KEY;
+    static final int HILBERT = GeoHashTrigger.HILBERT;
+
+    final Connection cx;
+    final String schema;
+    final String table;
+
+    String column = "GEOM";
+    int srid = -1;
+    Format format = Format.WKT;
+    int batchSize = Parallel.BATCH;
+    boolean index = true;
+
+    /** columns the attributes of the input are written to */
+    List<String> attributes;
+    /** geohash columns and their encodings */
+    List<String> hashColumns = new ArrayList<String>();
+    List<Integer> hashKinds = new ArrayList<Integer>();
+    String primaryKey;
+    boolean boxed;
+
+    /** fields of a CSV input */
+    String[] header;
+    int geomField = -1, idField = -1;
+    int[] attributeFields;
+
+    public BulkLoader(Connection cx, String schema, String table) {
+        this.cx = cx;
+        this.schema = schema == null || "".equals(schema) ? "PUBLIC" : schema;
+        this.table = table;
+    }
+
+    /**
+     * Sets the geometry column, <tt>GEOM</tt> by default.
+     */
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    /**
+     * Sets the spatial reference system of the geometries, overriding the one of EWKT and EWKB
+     * values.
+     */
+    public void setSrid(int srid) {
+        this.srid = srid;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Sets the number of records parsed per task and written per batch.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets whether to create a spatial index on the geometry column if it has none. An existing
+     * index is always rebuilt.
+     */
+    public void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    public long load(InputStream in) throws SQLException, IOException {
+        return load(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * Loads the records of a stream, returning the number of rows written.
+     */
+    public long load(Reader in) throws SQLException, IOException {
+        final Source source = format == Format.GEOJSON ?
+            new FeatureSource(new GeoJSON(in)) : new LineSource(new BufferedReader(in, 65536));
+
+        //peek at the first record, for the layout of a new table
+        Object[] first = new Object[1];
+        int n = source.read(first, 1);
+        if (format == Format.CSV) {
+            if (n == 0) {
+                return 0;
+            }
+            header = fields((String) first[0]);
+            n = source.read(first, 1);
+        }
+
+        if (!exists()) {
+            create(n > 0 ? first[0] : null);
+        }
+        layout();
+
+        long count = count();
+        final Ids ids = new Ids(count > 0 && primaryKey != null ? max() + 1 : 1);
+
+        //drop what would otherwise be maintained row by row
+        SpatialIndex existing = SpatialIndex.get(cx, schema, table, column);
+        boolean indexed = existing != null || (index && primaryKey != null);
+        int indexSrid = existing != null ? existing.getSrid() : srid;
+        if (existing != null) {
+            SpatialIndex.drop(cx, schema, table, existing.getColumn());
+        }
+        final RTreeBuilder entries = indexed && count == 0 ? new RTreeBuilder(
+            existing != null ? existing.getCapacity() : RTree.DEFAULT_CAPACITY) : null;
+        List<String> triggers = dropTriggers();
+
+        boolean autoCommit = cx.getAutoCommit();
+        cx.setAutoCommit(false);
+
+        final long[] loaded = new long[1];
+        boolean done = false;
+        final PreparedStatement ps = cx.prepareStatement(insert());
+        Parallel.Pipeline<Rows> pipeline = new Parallel.Pipeline<Rows>() {
+            protected void collect(Rows rows) throws Exception {
+                write(ps, rows, ids, entries);
+                loaded[0] += rows.n;
+            }
+        };
+        try {
+            long read = 0;
+            Object[] records = new Object[batchSize];
+            if (n > 0) {
+                records[0] = first[0];
+            }
+            while (true) {
+                n += source.read(records, n, batchSize - n);
+                if (n == 0) {
+                    break;
+                }
+
+                final Object[] batch = records;
+                final int size = n;
+                final long offset = read;
+                pipeline.submit(new Callable<Rows>() {
+                    public Rows call() throws Exception {
+                        return parse(batch, size, offset);
+                    }
+                });
+
+                read += n;
+                records = new Object[batchSize];
+                n = 0;
+            }
+            pipeline.finish();
+            cx.commit();
+            done = true;
+        }
+        finally {
+            if (!done) {
+                pipeline.cancel();
+                cx.rollback();
+            }
+            ps.close();
+            cx.setAutoCommit(autoCommit);
+            restoreTriggers(triggers);
+
+            //the entries of a failed load were rolled back with its rows, rebuild from the table
+            try {
+                if (done && entries != null) {
+                    SpatialIndex.create(cx, schema, table, column, indexSrid, entries);
+                }
+                else if ((done && indexed) || existing != null) {
+                    SpatialIndex.create(cx, schema, table, column, indexSrid,
+                        existing != null ? existing.getCapacity() : RTree.DEFAULT_CAPACITY);
+                }
+            }
+            catch (SQLException e) {
+                if (done) {
+                    throw e;
+                }
+                //ignore, report the error of the load
+            }
+        }
+        return loaded[0];
+    }
+
+    /**
+     * Parses a batch of records, on a worker thread.
+     */
+    Rows parse(Object[] records, int n, long offset) throws SQLException {
+        Rows rows = new Rows(n, hashColumns.size(), attributes.size());
+        WKTReader reader = GeoDB.wktreader();
+
+        for (int i = 0; i < n; i++) {
+            Geometry g;
+            try {
+                g = geometry(records[i], reader, rows, i);
+            }
+            catch (Exception e) {
+                throw (SQLException) new SQLException("Error parsing record " +
+                    (offset + i + 1)).initCause(e);
+            }
+
+            if (g != null) {
+                if (srid != -1 || g.getSRID() == 0) {
+                    g.setSRID(srid);
+                }
+                rows.wkb[i] = boxed ? BoxedWKB.encode(g) : GeoDB.gToWKB(g);
+
+                if (!g.isEmpty()) {
+                    Envelope e = g.getEnvelopeInternal();
+                    double x1 = e.getMinX(), y1 = e.getMinY(), x2 = e.getMaxX(), y2 = e.getMaxY();
+                    rows.boxes[i*4] = x1;
+                    rows.boxes[i*4+1] = y1;
+                    rows.boxes[i*4+2] = x2;
+                    rows.boxes[i*4+3] = y2;
+
+                    for (int j = 0; j < hashKinds.size(); j++) {
+                        switch(hashKinds.get(j)) {
+                        case GEOHASH_KEY:
+                            rows.hashes[i][j] = GeoHash.key(x1, y1, x2, y2);
+                            break;
+                        case HILBERT:
+                            rows.hashes[i][j] = Hilbert.key(x1, y1, x2, y2);
+                            break;
+                        default:
+                            rows.hashes[i][j] = GeoHash.geohash(x1, y1, x2, y2);
+                        }
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Parses the geometry of a record, filling in its id and attributes along the way.
+     */
+    @SuppressWarnings("unchecked")
+    Geometry geometry(Object record, WKTReader reader, Rows rows, int i) throws Exception {
+        switch(format) {
+        case WKB:
+            return wkb((String) record);
+        case CSV:
+            String[] fields = fields((String) record);
+            if (idField != -1 && idField < fields.length && !"".equals(fields[idField])) {
+                rows.ids[i] = Long.parseLong(fields[idField].trim());
+                rows.hasId[i] = true;
+            }
+            for (int j = 0; j < attributeFields.length; j++) {
+                int f = attributeFields[j];
+                rows.attributes[i][j] = f < fields.length && !"".equals(fields[f]) ? fields[f] : null;
+            }
+            String value = geomField < fields.length ? fields[geomField].trim() : "";
+            if ("".equals(value)) {
+                return null;
+            }
+            return isHex(value) ? wkb(value) : wkt(value, reader);
+        case GEOJSON:
+            Map<String,Object> feature = (Map<String,Object>) record;
+            Map<String,Object> properties = (Map<String,Object>) feature.get("properties");
+            Object id = feature.get("id");
+            if (properties != null) {
+                for (int j = 0; j < attributes.size(); j++) {
+                    Object v = property(properties, attributes.get(j));
+                    rows.attributes[i][j] = v instanceof Map || v instanceof List ?
+                        v.toString() : v;
+                }
+                if (id == null && primaryKey != null) {
+                    id = property(properties, primaryKey);
+                }
+            }
+            if (id instanceof Number && primaryKey != null) {
+                rows.ids[i] = ((Number) id).longValue();
+                rows.hasId[i] = true;
+            }
+            return GeoJSON.geometry(GeoJSON.geometryOf(feature), GeoDB.gfactory);
+        default:
+            return wkt((String) record, reader);
+        }
+    }
+
+    static Geometry wkt(String wkt, WKTReader reader) throws Exception {
+        if (wkt.regionMatches(true, 0, "SRID=", 0, 5)) {
+            return GeoDB.gFromEWKT(wkt);
+        }
+        return reader.read(wkt);
+    }
+
+    static Geometry wkb(String hex) throws Exception {
+        hex = hex.trim();
+        byte[] b = new byte[hex.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(i*2, i*2+2), 16);
+        }
+        return WKBCodec.get().read(BoxedWKB.unbox(b));
+    }
+
+    static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) == -1) {
+                return false;
+            }
+        }
+        return s.length() % 2 == 0;
+    }
+
+    static Object property(Map<String,Object> properties, String name) {
+        Object v = properties.get(name);
+        if (v == null) {
+            for (Map.Entry<String,Object> e : properties.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name)) {
+                    return e.getValue();
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Writes a batch of parsed rows, on the calling thread.
+     */
+    void write(PreparedStatement ps, Rows rows, Ids ids, RTreeBuilder entries)
+        throws SQLException, IOException {
+        for (int i = 0; i < rows.n; i++) {
+            int p = 1;
+            long id = 0;
+            if (primaryKey != null) {
+                id = rows.hasId[i] ? ids.use(rows.ids[i]) : ids.generate();
+                ps.setLong(p++, id);
+            }
+            ps.setBytes(p++, rows.wkb[i]);
+            for (int j = 0; j < hashColumns.size(); j++) {
+                ps.setObject(p++, rows.hashes[i][j]);
+            }
+            for (int j = 0; j < attributes.size(); j++) {
+                ps.setObject(p++, rows.attributes[i][j]);
+            }
+            ps.addBatch();
+
+            if (entries != null && rows.wkb[i] != null && !Double.isNaN(rows.boxes[i*4])) {
+                entries.add(id, rows.boxes[i*4], rows.boxes[i*4+1], rows.boxes[i*4+2],
+                    rows.boxes[i*4+3]);
+            }
+        }
+        ps.executeBatch();
+    }
+
+    //
+    // table layout
+    //
+    boolean exists() throws SQLException {
+        ResultSet rs = cx.getMetaData().getTables(null, schema, table, null);
+        try {
+            return rs.next();
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Creates the table, with columns for the attributes of the first record.
+     */
+    @SuppressWarnings("unchecked")
+    void create(Object first) throws SQLException {
+        Map<String,String> columns = new LinkedHashMap<String,String>();
+        if (format == Format.CSV) {
+            for (String h : header) {
+                if (!isGeometryField(h) && !"ID".equalsIgnoreCase(h)) {
+                    columns.put(h.trim().toUpperCase(), "VARCHAR");
+                }
+            }
+        }
+        else if (format == Format.GEOJSON && first != null) {
+            Map<String,Object> properties =
+                (Map<String,Object>) ((Map<String,Object>) first).get("properties");
+            if (properties != null) {
+                for (Map.Entry<String,Object> e : properties.entrySet()) {
+                    String name = e.getKey().toUpperCase();
+                    if ("ID".equals(name) || name.equalsIgnoreCase(column)) {
+                        continue;
+                    }
+                    Object v = e.getValue();
+                    columns.put(name, v instanceof Number ? "DOUBLE" :
+                        v instanceof Boolean ? "BOOLEAN" : "VARCHAR");
+                }
+            }
+        }
+
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + GeoDB.tbl(schema, table) +
+            " (\"ID\" BIGINT PRIMARY KEY");
+        for (Map.Entry<String,String> e : columns.entrySet()) {
+            sql.append(", ").append(GeoDB.esc(e.getKey())).append(" ").append(e.getValue());
+        }
+        sql.append(")");
+
+        Statement st = cx.createStatement();
+        try {
+            st.execute(sql.toString());
+        }
+        finally {
+            st.close();
+        }
+        GeoDB.AddGeometryColumn(cx, schema, table, column, srid, "GEOMETRY", 2);
+    }
+
+    boolean isGeometryField(String name) {
+        name = name.trim();
+        return name.equalsIgnoreCase(column) || name.equalsIgnoreCase("WKT")
+            || name.equalsIgnoreCase("WKB") || name.equalsIgnoreCase("GEOMETRY")
+            || name.equalsIgnoreCase("THE_GEOM");
+    }
+
+    /**
+     * Works out which columns of the table the parts of a record are written to.
+     */
+    void layout() throws SQLException {
+        try {
+            primaryKey = SpatialIndex.primaryKey(cx, schema, table);
+        }
+        catch (SQLException e) {
+            //no numeric primary key, let the table sort it out
+            primaryKey = null;
+        }
+
+        List<String> names = new ArrayList<String>();
+        ResultSet rs = cx.getMetaData().getColumns(null, schema, table, "%");
+        try {
+            while (rs.next()) {
+                String name = rs.getString("COLUMN_NAME");
+                int type = rs.getInt("DATA_TYPE");
+                if (name.equalsIgnoreCase("_" + column + "_GEOHASH")) {
+                    hashColumns.add(name);
+                    hashKinds.add(type == Types.BIGINT ? GEOHASH_KEY : GEOHASH);
+                }
+                else if (name.equalsIgnoreCase("_" + column + "_HILBERT")) {
+                    hashColumns.add(name);
+                    hashKinds.add(HILBERT);
+                }
+                else if (!name.equals(primaryKey)) {
+                    names.add(name);
+                }
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        //use the case of the table
+        for (String name : names) {
+            if (name.equalsIgnoreCase(column)) {
+                column = name;
+            }
+        }
+        if (!names.remove(column)) {
+            throw new SQLException("No column " + column + " in " + table);
+        }
+
+        attributes = new ArrayList<String>();
+        if (format == Format.CSV) {
+            List<Integer> fields = new ArrayList<Integer>();
+            for (int i = 0; i < header.length; i++) {
+                String h = header[i].trim();
+                if (primaryKey != null && h.equalsIgnoreCase(primaryKey)) {
+                    idField = i;
+                }
+                else if (geomField == -1 && isGeometryField(h)) {
+                    geomField = i;
+                }
+                else {
+                    for (String name : names) {
+                        if (name.equalsIgnoreCase(h)) {
+                            attributes.add(name);
+                            fields.add(i);
+                        }
+                    }
+                }
+            }
+            if (geomField == -1) {
+                throw new SQLException("No geometry field in CSV header");
+            }
+            attributeFields = new int[fields.size()];
+            for (int i = 0; i < attributeFields.length; i++) {
+                attributeFields[i] = fields.get(i);
+            }
+        }
+        else if (format == Format.GEOJSON) {
+            attributes.addAll(names);
+        }
+
+        Statement st = cx.createStatement();
+        try {
+            rs = st.executeQuery("SELECT storage FROM geometry_columns WHERE f_table_schema = " +
+                GeoDB.str(schema) + " AND f_table_name = " + GeoDB.str(table) +
+                " AND f_geometry_column = " + GeoDB.str(column));
+            try {
+                boxed = rs.next() && "BBOX".equals(rs.getString(1));
+            }
+            finally {
+                rs.close();
+            }
+        }
+        catch (SQLException e) {
+            //no geometry_columns table
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    String insert() {
+        StringBuilder cols = new StringBuilder();
+        int n = 0;
+        if (primaryKey != null) {
+            cols.append(GeoDB.esc(primaryKey)).append(", ");
+            n++;
+        }
+        cols.append(GeoDB.esc(column));
+        n++;
+        for (String c : hashColumns) {
+            cols.append(", ").append(GeoDB.esc(c));
+            n++;
+        }
+        for (String c : attributes) {
+            cols.append(", ").append(GeoDB.esc(c));
+            n++;
+        }
+
+        StringBuilder sql = new StringBuilder("INSERT INTO " + GeoDB.tbl(schema, table) +
+            " (" + cols + ") VALUES (");
+        for (int i = 0; i < n; i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        return sql.append(")").toString();
+    }
+
+    long count() throws SQLException {
+        return single("SELECT COUNT(*) FROM " + GeoDB.tbl(schema, table));
+    }
+
+    long max() throws SQLException {
+        return single("SELECT MAX(" + GeoDB.esc(primaryKey) + ") FROM " +
+            GeoDB.tbl(schema, table));
+    }
+
+    long single(String sql) throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery(sql);
+            try {
+                rs.next();
+                return rs.getLong(1);
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Drops the geohash and bounding box triggers of the table, returning the statements to
+     * create them again.
+     */
+    List<String> dropTriggers() throws SQLException {
+        List<String> names = new ArrayList<String>();
+        List<String> triggers = new ArrayList<String>();
+
+        PreparedStatement ps = cx.prepareStatement("SELECT TRIGGER_NAME, SQL FROM " +
+            "INFORMATION_SCHEMA.TRIGGERS WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? " +
+            "AND JAVA_CLASS IN (?, ?)");
+        try {
+            ps.setString(1, schema);
+            ps.setString(2, table);
+            ps.setString(3, GeoHashTrigger.class.getName());
+            ps.setString(4, BBoxTrigger.class.getName());
+            ResultSet rs = ps.executeQuery();
+            try {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                    triggers.add(rs.getString(2));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            ps.close();
+        }
+
+        Statement st = cx.createStatement();
+        try {
+            for (String name : names) {
+                st.execute("DROP TRIGGER " + GeoDB.tbl(schema, name));
+            }
+        }
+        finally {
+            st.close();
+        }
+        return triggers;
+    }
+
+    void restoreTriggers(List<String> triggers) throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            for (String sql : triggers) {
+                st.execute(sql);
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    //
+    // input
+    //
+    /**
+     * Splits a CSV record into its fields.
+     */
+    static String[] fields(String record) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    }
+                    else {
+                        quoted = false;
+                    }
+                }
+                else {
+                    sb.append(c);
+                }
+            }
+            else if (c == '"') {
+                quoted = true;
+            }
+            else if (c == ',') {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        fields.add(sb.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * Reads records, on the calling thread.
+     */
+    static interface Source {
+        int read(Object[] records, int n) throws IOException;
+
+        int read(Object[] records, int off, int n) throws IOException;
+    }
+
+    /**
+     * Reads non blank lines, joining the lines of quoted CSV values spanning several.
+     */
+    static class LineSource implements Source {
+        final BufferedReader in;
+
+        LineSource(BufferedReader in) {
+            this.in = in;
+        }
+
+        public int read(Object[] records, int n) throws IOException {
+            return read(records, 0, n);
+        }
+
+        public int read(Object[] records, int off, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                while (quotes(line) % 2 == 1) {
+                    String more = in.readLine();
+                    if (more == null) {
+                        break;
+                    }
+                    line += "\n" + more;
+                }
+                records[off + i++] = line;
+            }
+            return i;
+        }
+
+        static int quotes(String s) {
+            int count = 0;
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == '"') {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    static class FeatureSource implements Source {
+        final GeoJSON in;
+
+        FeatureSource(GeoJSON in) {
+            this.in = in;
+        }
+
+        public int read(Object[] records, int n) throws IOException {
+            return read(records, 0, n);
+        }
+
+        public int read(Object[] records, int off, int n) throws IOException {
+            int i = 0;
+            while (i < n) {
+                Map<String,Object> feature = in.next();
+                if (feature == null) {
+                    break;
+                }
+                records[off + i++] = feature;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Primary keys of a load, keeping the runs of generated ids to check explicit ids against.
+     */
+    static class Ids {
+        long next;
+        List<long[]> generated = new ArrayList<long[]>();
+
+        Ids(long next) {
+            this.next = next;
+        }
+
+        long generate() {
+            long[] last = generated.isEmpty() ? null : generated.get(generated.size() - 1);
+            if (last != null && last[1] == next) {
+                last[1]++;
+            }
+            else {
+                generated.add(new long[]{next, next + 1});
+            }
+            return next++;
+        }
+
+        long use(long id) throws SQLException {
+            if (id >= next) {
+                next = id + 1;
+                return id;
+            }
+
+            //runs are in ascending order, look for the last one starting at or before the id
+            int lo = 0, hi = generated.size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long[] run = generated.get(mid);
+                if (id < run[0]) {
+                    hi = mid - 1;
+                }
+                else if (id >= run[1]) {
+                    lo = mid + 1;
+                }
+                else {
+                    throw new SQLException("Id " + id + " was already generated for an earlier " +
+                        "record without one, give ids for every record or none");
+                }
+            }
+            return id;
+        }
+    }
+
+    /**
+     * A batch of parsed rows.
+     */
+    static class Rows {
+        final int n;
+        final long[] ids;
+        final boolean[] hasId;
+        final byte[][] wkb;
+        final double[] boxes;
+        final Object[][] hashes;
+        final Object[][] attributes;
+
+        Rows(int n, int hashes, int attributes) {
+            this.n = n;
+            ids = new long[n];
+            hasId = new boolean[n];
+            wkb = new byte[n][];
+            boxes = new double[n * 4];
+            Arrays.fill(boxes, Double.NaN);
+            this.hashes = new Object[n][hashes];
+            this.attributes = new Object[n][attributes];
+        }
+    }
+}
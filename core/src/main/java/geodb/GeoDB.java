@@ -11,21 +11,35 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 
+import geodb.aggregate.GeoAggregateFunction;
+import geodb.index.RTree;
+import geodb.index.RTreeBuilder;
+import geodb.index.SpatialIndex;
+import geodb.index.SpatialJoin;
+
 import net.sourceforge.hatbox.MetaNode;
-import net.sourceforge.hatbox.jts.Proc;
 import net.sourceforge.hatbox.tools.CmdLine;
 
+import org.h2.tools.SimpleResultSet;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.IntersectionMatrix;
 import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.locationtech.jts.io.InputStreamInStream;
 import org.locationtech.jts.io.OutputStreamOutStream;
 import org.locationtech.jts.io.ParseException;
@@ -34,6 +48,8 @@ import org.locationtech.jts.io.WKBWriter;
 import org.locationtech.jts.io.WKTReader;
 import org.locationtech.jts.io.WKTWriter;
 import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.locationtech.jts.simplify.VWSimplifier;
 
 public class GeoDB {
 
@@ -86,7 +102,7 @@ public class GeoDB {
      * Returns the internal version of the GeoH2 bindings in order to track upgrades.
      */
     public static String Version() {
-        return "9";
+        return "10";
     }
     
     //
@@ -152,7 +168,15 @@ public class GeoDB {
                 //create the geometry columns table
                 st.execute("CREATE TABLE IF NOT EXISTS geometry_columns (f_table_schema VARCHAR, " +
                     "f_table_name VARCHAR, f_geometry_column VARCHAR, coord_dimension INT, " +
-                    "srid INT, type VARCHAR(30))");
+                    "srid INT, type VARCHAR(30), storage VARCHAR(10) DEFAULT 'WKB')");
+                
+                //upgrade from versions prior to the storage column
+                try {
+                    st.execute("ALTER TABLE geometry_columns ADD storage VARCHAR(10) DEFAULT 'WKB'");
+                }
+                catch(SQLException e) {
+                    //already there
+                }
             }
             finally {
                 st.close();
@@ -202,7 +226,8 @@ public class GeoDB {
                     esc(geotypeConstraint(schema,table,column)) + " CHECK " + esc(column) + 
                     " IS NULL OR " + "GeometryType(" + esc(column) + ") = '" + type + "'");
             }
-            st.execute("INSERT INTO geometry_columns VALUES (" + 
+            st.execute("INSERT INTO geometry_columns (f_table_schema, f_table_name, " +
+                "f_geometry_column, coord_dimension, srid, type) VALUES (" + 
                 str(schema) + ", " + str(table) + ", " + str(column) + ", " + 
                 dim + ", "  + srid + ", " + str(type) + ")");
         }
@@ -277,6 +302,76 @@ public class GeoDB {
         }
     }
     
+    /**
+     * Sets the storage format of a geometry column.
+     * <p>
+     * With <tt>BBOX</tt> storage values are stored as {@link BoxedWKB}, the geometry prefixed 
+     * with its bounding box, allowing the spatial predicates to reject pairs of geometries on 
+     * their boxes without parsing them. Existing values are converted and a trigger keeps new 
+     * values in that format. <tt>WKB</tt> storage, the default, converts the values back.
+     * </p>
+     * @param schema The table schema, may be <code>null</code> to specify default schema
+     * @param table The table name, not null
+     * @param column The geometry column name, not null
+     * @param storage The storage format, one of "WKB", "BBOX"
+     */
+    public static void SetGeometryStorage(Connection cx, String schema, String table, 
+        String column, String storage) throws SQLException {
+        
+        storage = storage.toUpperCase();
+        if (!"WKB".equals(storage) && !"BBOX".equals(storage)) {
+            throw new SQLException("Unknown geometry storage: " + storage);
+        }
+        
+        schema = schema != null ? schema : "PUBLIC";
+        Statement st = cx.createStatement();
+        try {
+            //register the column if need be
+            String where = " WHERE f_table_schema = " + str(schema) + " AND f_table_name = " + 
+                str(table) + " AND f_geometry_column = " + str(column);
+            ResultSet rs = st.executeQuery("SELECT * FROM geometry_columns" + where);
+            try {
+                if (!rs.next()) {
+                    st.execute("INSERT INTO geometry_columns (f_table_schema, f_table_name, " +
+                        "f_geometry_column, coord_dimension, srid, type) VALUES (" + str(schema) + 
+                        ", " + str(table) + ", " + str(column) + ", 2, -1, 'GEOMETRY')");
+                }
+            }
+            finally {
+                rs.close();
+            }
+            st.execute("UPDATE geometry_columns SET storage = " + str(storage) + where);
+            
+            //recreate the triggers so they pick up the current set of columns
+            st.execute("DROP TRIGGER IF EXISTS " + tbl(schema, table + "_BBOX_INSERT"));
+            st.execute("DROP TRIGGER IF EXISTS " + tbl(schema, table + "_BBOX_UPDATE"));
+            
+            rs = st.executeQuery("SELECT count(*) FROM geometry_columns WHERE f_table_schema = " + 
+                str(schema) + " AND f_table_name = " + str(table) + " AND storage = 'BBOX'");
+            try {
+                rs.next();
+                if (rs.getInt(1) > 0) {
+                    for (String event : new String[]{"INSERT", "UPDATE"}) {
+                        st.execute("CREATE TRIGGER " + tbl(schema, table + "_BBOX_" + event) + 
+                            " BEFORE " + event + " ON " + tbl(schema, table) + " FOR EACH ROW CALL \"" + 
+                            BBoxTrigger.class.getName() + "\"");
+                    }
+                }
+            }
+            finally {
+                rs.close();
+            }
+            
+            //convert the existing values
+            String function = "BBOX".equals(storage) ? "ST_AddBBox" : "ST_DropBBox";
+            st.execute("UPDATE " + tbl(schema, table) + " SET " + esc(column) + " = " + function + 
+                "(" + esc(column) + ") WHERE " + esc(column) + " IS NOT NULL");
+        }
+        finally {
+            st.close();
+        }
+    }
+    
     //
     // Geometry Outputs
     //
@@ -308,20 +403,64 @@ public class GeoDB {
      * Return the Well-Known Binary (WKB) representation of the geometry with SRID meta data.
      */
     public static byte[] ST_AsEWKB( byte[] wkb ) {
-        return wkb;
+        if ( wkb == null ) {
+            return null;
+        }
+        return BoxedWKB.unbox(wkb);
     }
     
     /**
      * Returns a Geometry in HEXEWKB format (as text).
      */
     public static String ST_AsHexEWKB( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
+        
+        wkb = BoxedWKB.unbox(wkb);
         StringBuffer sb = new StringBuffer();
         for (int i=0; i < wkb.length; i++) {
           sb.append( Integer.toString( ( wkb[i] & 0xff ) + 0x100, 16).substring( 1 ) );
         }
         return sb.toString();
     }
-    
+
+    /**
+     * Transforms a geometry into the coordinate space of a Mapbox Vector Tile, for the
+     * <tt>ST_AsMVT</tt> aggregate, clipped to the tile bounds with a margin of 256 units out of
+     * 4096. Returns null if nothing of the geometry is left in the tile.
+     *
+     * @param bounds The bounds of the tile, as a box from <tt>ST_MakeBox2D</tt> or a geometry
+     */
+    public static byte[] ST_AsMVTGeom( byte[] wkb, byte[] bounds ) {
+        return ST_AsMVTGeom(wkb, bounds, MVT.DEFAULT_EXTENT, MVT.DEFAULT_BUFFER, true);
+    }
+
+    /**
+     * Transforms a geometry into the coordinate space of a Mapbox Vector Tile.
+     *
+     * @param bounds The bounds of the tile, as a box from <tt>ST_MakeBox2D</tt> or a geometry
+     * @param extent The size of the tile in tile units
+     * @param buffer The width of the margin kept around the tile, in tile units
+     * @param clip Whether to clip the geometry to the tile and its margin
+     */
+    public static byte[] ST_AsMVTGeom( byte[] wkb, byte[] bounds, int extent, int buffer,
+        boolean clip ) {
+        if ( wkb == null || bounds == null ) {
+            return null;
+        }
+
+        //the box of ST_MakeBox2D, or a geometry covering the tile
+        Envelope tile = bounds.length == 32 ? new Envelope(bytesToDouble(bounds, 0),
+            bytesToDouble(bounds, 16), bytesToDouble(bounds, 8), bytesToDouble(bounds, 24)) :
+            envFromWKB(bounds);
+        if (tile.isNull()) {
+            return null;
+        }
+        Geometry g = MVT.geometry(wkb, tile, extent, buffer, clip);
+        return g != null ? gToWKB(g) : null;
+    }
+
     /**
      * Return a GeoHash representation (geohash.org) of the geometry.
      */
@@ -330,12 +469,62 @@ public class GeoDB {
             return null;
         }
         
-        Geometry g = gFromWKB(wkb);
-        Envelope e = g.getEnvelopeInternal();
-        GeoString gs1 = new GeoString(e.getMinX(),e.getMinY());
-        GeoString gs2 = new GeoString(e.getMaxX(),e.getMaxY());
+        double[] e = WKBCodec.get().bounds1;
+        if (!WKBEnvelope.envelope(wkb, e)) {
+            return null;
+        }
+        return GeoHash.geohash(e[WKBEnvelope.MINX], e[WKBEnvelope.MINY], 
+            e[WKBEnvelope.MAXX], e[WKBEnvelope.MAXY]);
+    }
+    
+    /**
+     * Return the GeoHash of the geometry in the base 32 form of geohash.org.
+     */
+    public static String ST_GeoHashBase32( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
+        
+        double[] e = WKBCodec.get().bounds1;
+        if (!WKBEnvelope.envelope(wkb, e)) {
+            return null;
+        }
+        return GeoHash.base32(e[WKBEnvelope.MINX], e[WKBEnvelope.MINY], 
+            e[WKBEnvelope.MAXX], e[WKBEnvelope.MAXY]);
+    }
+    
+    /**
+     * Return the GeoHash of the geometry packed into a BIGINT key which sorts like the hash, 
+     * see {@link GeoHash#key}.
+     */
+    public static Long ST_GeoHashKey( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
+        
+        double[] e = WKBCodec.get().bounds1;
+        if (!WKBEnvelope.envelope(wkb, e)) {
+            return null;
+        }
+        return GeoHash.key(e[WKBEnvelope.MINX], e[WKBEnvelope.MINY], 
+            e[WKBEnvelope.MAXX], e[WKBEnvelope.MAXY]);
+    }
+    
+    /**
+     * Return the key of the center of the geometry along a Hilbert curve, see {@link Hilbert}. 
+     * Ordering by it keeps nearby geometries together.
+     */
+    public static Long ST_HilbertKey( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
         
-        return gs1.union(gs2).toString();
+        double[] e = WKBCodec.get().bounds1;
+        if (!WKBEnvelope.envelope(wkb, e)) {
+            return null;
+        }
+        return Hilbert.key(e[WKBEnvelope.MINX], e[WKBEnvelope.MINY], 
+            e[WKBEnvelope.MAXX], e[WKBEnvelope.MAXY]);
     }
     
     //
@@ -380,7 +569,7 @@ public class GeoDB {
         }
         
         try {
-            Geometry g = wkbreader().read(wkb);
+            Geometry g = WKBCodec.get().read(wkb);
             g.setSRID(srid);
             
             return gToWKB(g);
@@ -468,7 +657,7 @@ public class GeoDB {
         if ( wkb == null ) {
             return null;
         }
-        return gFromWKB(wkb).getEnvelopeInternal();
+        return envFromWKB(wkb);
         //return envToWKB(envFromWKB(wkb));
     }
     
@@ -603,6 +792,26 @@ public class GeoDB {
         return gToWKB(g);
     }
     
+    /**
+     * Adds a bounding box to the geometry, see {@link BoxedWKB}.
+     */
+    public static byte[] ST_AddBBox( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
+        return BoxedWKB.box(wkb);
+    }
+    
+    /**
+     * Drops the bounding box from the geometry, see {@link BoxedWKB}.
+     */
+    public static byte[] ST_DropBBox( byte[] wkb ) {
+        if ( wkb == null ) {
+            return null;
+        }
+        return BoxedWKB.unbox(wkb);
+    }
+    
     /*
     ST_AddPoint - Adds a point to a LineString before point <position> (0-based index).
     ST_Affine - Applies a 3d affine transformation to the geometry to do things like translate, rotate, scale in one step.
@@ -635,6 +844,18 @@ public class GeoDB {
     //
     //Spatial Relationships and Measurements
 
+    //statistics of the predicates, see Metrics
+    static final Metrics.Stats BBOX_STATS = Metrics.stats("ST_BBox");
+    static final Metrics.Stats CONTAINS_STATS = Metrics.stats("ST_Contains");
+    static final Metrics.Stats CROSSES_STATS = Metrics.stats("ST_Crosses");
+    static final Metrics.Stats DISJOINT_STATS = Metrics.stats("ST_Disjoint");
+    static final Metrics.Stats DWITHIN_STATS = Metrics.stats("ST_DWithin");
+    static final Metrics.Stats EQUALS_STATS = Metrics.stats("ST_Equals");
+    static final Metrics.Stats INTERSECTS_STATS = Metrics.stats("ST_Intersects");
+    static final Metrics.Stats OVERLAPS_STATS = Metrics.stats("ST_Overlaps");
+    static final Metrics.Stats TOUCHES_STATS = Metrics.stats("ST_Touches");
+    static final Metrics.Stats WITHIN_STATS = Metrics.stats("ST_Within");
+
     /**
      * Returns the area of the geometry if it is a polygon or multi-polygon.
      */
@@ -655,10 +876,14 @@ public class GeoDB {
             return false;
         }
         
-        Envelope e1 = envFromWKB(b1);
-        Envelope e2 = envFromWKB(b2);
-        
-        return e1.intersects(e2);
+        long t = BBOX_STATS.start();
+        try {
+            WKBCodec c = bounds(b1, b2);
+            return WKBEnvelope.intersects(c.bounds1, c.bounds2);
+        }
+        finally {
+            BBOX_STATS.end(t);
+        }
     }
     
     /**
@@ -682,10 +907,22 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = CROSSES_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.intersects(c.bounds1, c.bounds2)) {
+                CROSSES_STATS.reject();
+                return false;
+            }
+        
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
         
-        return g1.crosses( g2 );
+            return g1.crosses( g2 );
+        }
+        finally {
+            CROSSES_STATS.end(t);
+        }
     }
     
     /**
@@ -697,10 +934,27 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = CONTAINS_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.contains(c.bounds1, c.bounds2)) {
+                CONTAINS_STATS.reject();
+                return false;
+            }
+        
+            PreparedGeometry p = PreparedGeometryCache.lookup(wkb1);
+            if (p != null) {
+                return p.contains( gFromWKB(wkb2) );
+            }
+        
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
         
-        return g1.contains( g2 );
+            return g1.contains( g2 );
+        }
+        finally {
+            CONTAINS_STATS.end(t);
+        }
     }
     
     /**
@@ -711,10 +965,22 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = DISJOINT_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.intersects(c.bounds1, c.bounds2)) {
+                DISJOINT_STATS.reject();
+                return true;
+            }
+        
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
         
-        return g1.disjoint( g2 );
+            return g1.disjoint( g2 );
+        }
+        finally {
+            DISJOINT_STATS.end(t);
+        }
     }
 
     /**
@@ -739,10 +1005,23 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = DWITHIN_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.isEmpty(c.bounds1) && !WKBEnvelope.isEmpty(c.bounds2) 
+                && WKBEnvelope.distance(c.bounds1, c.bounds2) > distance) {
+                DWITHIN_STATS.reject();
+                return false;
+            }
+        
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
         
-        return g1.distance(g2) <= distance;
+            return g1.distance(g2) <= distance;
+        }
+        finally {
+            DWITHIN_STATS.end(t);
+        }
     }
     
     /**
@@ -753,10 +1032,16 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = EQUALS_STATS.start();
+        try {
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
         
-        return g1.equals( g2 );
+            return g1.equals( g2 );
+        }
+        finally {
+            EQUALS_STATS.end(t);
+        }
     }
     
     /**
@@ -768,10 +1053,32 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = INTERSECTS_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.intersects(c.bounds1, c.bounds2)) {
+                INTERSECTS_STATS.reject();
+                return false;
+            }
+        
+            //the constant side of the predicate is usually the second argument
+            PreparedGeometry p = PreparedGeometryCache.lookup(wkb2);
+            if (p != null) {
+                return p.intersects( gFromWKB(wkb1) );
+            }
+            p = PreparedGeometryCache.lookup(wkb1);
+            if (p != null) {
+                return p.intersects( gFromWKB(wkb2) );
+            }
         
-        return g1.intersects( g2 );
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
+        
+            return g1.intersects( g2 );
+        }
+        finally {
+            INTERSECTS_STATS.end(t);
+        }
     }
     
     /**
@@ -783,10 +1090,22 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = OVERLAPS_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.intersects(c.bounds1, c.bounds2)) {
+                OVERLAPS_STATS.reject();
+                return false;
+            }
         
-        return g1.overlaps( g2 );
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
+        
+            return g1.overlaps( g2 );
+        }
+        finally {
+            OVERLAPS_STATS.end(t);
+        }
     }
     
     /**
@@ -798,10 +1117,22 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = TOUCHES_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.intersects(c.bounds1, c.bounds2)) {
+                TOUCHES_STATS.reject();
+                return false;
+            }
         
-        return g1.touches( g2 );
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
+        
+            return g1.touches( g2 );
+        }
+        finally {
+            TOUCHES_STATS.end(t);
+        }
     }
     
     /**
@@ -812,10 +1143,28 @@ public class GeoDB {
             return false;
         }
         
-        Geometry g1 = gFromWKB(wkb1);
-        Geometry g2 = gFromWKB(wkb2);
+        long t = WITHIN_STATS.start();
+        try {
+            WKBCodec c = bounds(wkb1, wkb2);
+            if (!WKBEnvelope.contains(c.bounds2, c.bounds1)) {
+                WITHIN_STATS.reject();
+                return false;
+            }
         
-        return g1.within( g2 );
+            //A within B is B contains A
+            PreparedGeometry p = PreparedGeometryCache.lookup(wkb2);
+            if (p != null) {
+                return p.contains( gFromWKB(wkb1) );
+            }
+        
+            Geometry g1 = gFromWKB(wkb1);
+            Geometry g2 = gFromWKB(wkb2);
+        
+            return g1.within( g2 );
+        }
+        finally {
+            WITHIN_STATS.end(t);
+        }
     }
     /*
     
@@ -882,9 +1231,79 @@ public class GeoDB {
         return gToWKB(DouglasPeuckerSimplifier.simplify(g,tol));
     }
     
+    /**
+     * Returns a simplified version of the given geometry using the Douglas-Peuker algorithm, 
+     * without collapsing polygons or making their rings cross each other or themselves.
+     */
+    public static byte[] ST_SimplifyPreserveTopology( byte[] wkb, double tol ) {
+        if ( wkb == null ) {
+           return null;
+        }
+        
+        Geometry g = gFromWKB(wkb);
+        Geometry s = TopologyPreservingSimplifier.simplify(g, tol);
+        s.setSRID(g.getSRID());
+        return gToWKB(s);
+    }
+    
+    /**
+     * Returns a simplified version of the given geometry using the Visvalingam-Whyatt algorithm, 
+     * which drops the vertices forming triangles of area under <tt>tol * tol</tt> with their 
+     * neighbours. It tends to keep the shape of natural features better than Douglas-Peucker.
+     */
+    public static byte[] ST_SimplifyVW( byte[] wkb, double tol ) {
+        if ( wkb == null ) {
+           return null;
+        }
+        
+        Geometry g = gFromWKB(wkb);
+        Geometry s = VWSimplifier.simplify(g, tol);
+        s.setSRID(g.getSRID());
+        return gToWKB(s);
+    }
+    
+    /**
+     * Returns the given geometry simplified using the Douglas-Peuker algorithm with the smallest 
+     * tolerance leaving it at most <tt>maxVertices</tt> vertices, or as few as it can: line end 
+     * points are always kept and points are not simplified. The tolerance is found in a single 
+     * pass over the coordinates, see {@link BudgetSimplifier}.
+     */
+    public static byte[] ST_SimplifyToBudget( byte[] wkb, int maxVertices ) {
+        if ( wkb == null ) {
+           return null;
+        }
+        
+        Geometry g = gFromWKB(wkb);
+        Geometry s = BudgetSimplifier.simplify(g, maxVertices);
+        return s == g ? wkb : gToWKB(s);
+    }
+    
+    /**
+     * Returns the geometry of a row simplified by {@link #ST_Simplify} to the coarsest level of 
+     * the simplification pyramid of its column not exceeding the tolerance, or the geometry itself
+     * if the tolerance is below the finest level, see {@link #CreateSimplificationPyramid}.
+     * 
+     * @param id The primary key of the row
+     */
+    public static byte[] ST_SimplifyCached( Connection cx, String tableName, String columnName, 
+        long id, double tol ) throws SQLException {
+        return ST_SimplifyCached(cx, null, tableName, columnName, id, tol);
+    }
+    
+    /**
+     * Returns the geometry of a row simplified to a level of the simplification pyramid of its 
+     * column, see {@link #ST_SimplifyCached(Connection, String, String, long, double)}.
+     * 
+     * @param schemaName The table schema, may be <code>null</code> to specify default schema
+     */
+    public static byte[] ST_SimplifyCached( Connection cx, String schemaName, String tableName, 
+        String columnName, long id, double tol ) throws SQLException {
+        schemaName = schemaName == null || "".equals(schemaName) ? "PUBLIC" : schemaName;
+        return SimplificationPyramid.lookup(cx, schemaName, tableName, columnName, id, tol);
+    }
+    
     /*
     ST_BuildArea - Creates an areal geometry formed by the constituent linework of given geometry
-    ST_Collect - Return a specified ST_Geometry value from a collection of other geometries.
     ST_ConvexHull - The convex hull of a geometry represents the minimum convex geometry that encloses all geometries within the set.
     ST_CurveToLine - Converts a CIRCULARSTRING/CURVEDPOLYGON to a LINESTRING/POLYGON
     ST_Difference - Returns a geometry that represents that part of geometry A that does not intersect with geometry B.
@@ -894,10 +1313,8 @@ public class GeoDB {
     ST_LineToCurve - Converts a LINESTRING/POLYGON to a CIRCULARSTRING, CURVED POLYGON
     ST_MemUnion - Same as ST_Union, only memory-friendly (uses less memory and more processor time).
     ST_MinimumBoundingCircle - Returns the smallest circle polygon that can fully contain a geometry. Default uses 48 segments per quarter circle.
-    ST_Polygonize - Aggregate. Creates a GeometryCollection containing possible polygons formed from the constituent linework of a set of geometries.
     ST_Shift_Longitude - Reads every point/vertex in every component of every feature in a geometry, and if the longitude coordinate is <0, adds 360 to it. The result would be a 0-360 version of the data to be plotted in a 180 centric map
     
-    ST_SimplifyPreserveTopology - Returns a "simplified" version of the given geometry using the Douglas-Peuker algorithm. Will avoid creating derived geometries (polygons in particular) that are invalid.
     ST_SymDifference - Returns a geometry that represents the portions of A and B that do not intersect. It is called a symmetric difference because ST_SymDifference(A,B) = ST_SymDifference(B,A).
     ST_Union - Returns a geometry that represents the point set union of the Geometries.
     */
@@ -1027,10 +1444,8 @@ public class GeoDB {
     // Miscellaneous Functions
     //
     /*
-    ST_Accum - Aggregate. Constructs an array of geometries.
     ST_Box2D - Returns a BOX2D representing the maximum extents of the geometry.
     ST_Box3D - Returns a BOX3D representing the maximum extents of the geometry.
-    ST_Estimated_Extent - Return the 'estimated' extent of the given spatial table. The estimated is taken from the geometry column's statistics. The current schema will be used if not specified.
     ST_Expand - Returns bounding box expanded in all directions from the bounding box of the input geometry
     ST_Extent - an aggregate function that returns the bounding box that bounds rows of geometries.
     ST_Extent3D - an aggregate function that returns the box3D bounding box that bounds rows of geometries.
@@ -1045,31 +1460,98 @@ public class GeoDB {
     ST_ZMin - Returns Z minima of a bounding box 2d or 3d or a geometry.
     */
     
+    /**
+     * Returns the estimated extent of a geometry column, in the default schema.
+     * 
+     * @see #ST_Estimated_Extent(Connection, String, String, String)
+     */
+    public static byte[] ST_Estimated_Extent( Connection cx, String tableName, String columnName ) 
+        throws SQLException {
+        return ST_Estimated_Extent(cx, null, tableName, columnName);
+    }
+    
+    /**
+     * Returns the estimated extent of a geometry column, as the bounds of the root of its 
+     * spatial index.
+     * <p>
+     * Neither the table nor the rest of the index is read, so the extent is returned in constant 
+     * time whatever the size of the table. Index bounds are rounded outwards to floats, so the 
+     * extent may be slightly larger than the actual extent of the column. Columns without a 
+     * spatial index, or with one created by an earlier version, have no estimated extent and 
+     * <code>null</code> is returned. 
+     * </p>
+     * @param schemaName The table schema, may be <code>null</code> to specify default schema
+     */
+    public static byte[] ST_Estimated_Extent( Connection cx, String schemaName, String tableName, 
+        String columnName ) throws SQLException {
+        double[] b = SpatialIndex.extent(cx, schemaName, tableName, columnName);
+        if (b == null) {
+            return null;
+        }
+        
+        Geometry g = gfactory.toGeometry(new Envelope(b[0], b[2], b[1], b[3]));
+        if (b[4] > 0) {
+            g.setSRID((int) b[4]);
+        }
+        return gToWKB(g);
+    }
+    
     //
     // Management functions
     //
+    /**
+     * Creates a spatial index on a geometry column, replacing any existing one.
+     * <p>
+     * The index is an R-tree bulk loaded from the current contents of the table and maintained 
+     * by a trigger from then on, see {@link SpatialIndex}. The table must have a single numeric 
+     * primary key column. Use {@link #ST_IndexIntersects} to query it.
+     * </p>
+     * @param schemaName The table schema, may be <code>null</code> to specify default schema
+     * @param tableName The table name, not null
+     * @param columnName The geometry column name, not null
+     * @param srid The spatial reference system identifier, may be <code>null</code>
+     */
     public static void CreateSpatialIndex( Connection cx, String schemaName, String tableName,
             String columnName, String srid) throws SQLException {
-        HashMap<String,String> args = new HashMap();
-        if (schemaName == null) {
-            schemaName = "PUBLIC";
-        }
-        
-        args.put("s", schemaName);
-        args.put("t", tableName);
-        args.put("geom", columnName);
-        args.put("srid", srid);
-        try {
-            CmdLine.spatialize(cx, args);
-            Proc.buildIndex(cx, schemaName, tableName, 10000, null);
-        } 
-        catch (Exception e) {
-            throw (SQLException) new SQLException("Error creating spatial index").initCause(e);
-        }
+        CreateSpatialIndex(cx, schemaName, tableName, columnName, srid, 
+            (int) (RTreeBuilder.DEFAULT_MEMORY / (1024 * 1024)));
     }
     
-    public static void CreateSpatialIndex_GeoHash( Connection cx, String schemaName, String tableName,
+    /**
+     * Creates a spatial index on a geometry column, sorting the entries of the index within the 
+     * specified memory budget. Tables too large for the budget are sorted externally, in 
+     * temporary files.
+     * 
+     * @param memory The memory budget in megabytes
+     */
+    public static void CreateSpatialIndex( Connection cx, String schemaName, String tableName,
+            String columnName, String srid, int memory) throws SQLException {
+        int s = srid != null && !"".equals(srid.trim()) ? Integer.parseInt(srid.trim()) : -1;
+        SpatialIndex.create(cx, schemaName, tableName, columnName, s, RTree.DEFAULT_CAPACITY, 
+            memory * 1024L * 1024L);
+    }
+    
+    public static void CreateSpatialIndex_GeoHash( Connection cx, String schemaName, String tableName,
             String columnName ) throws SQLException {
+        CreateSpatialIndex_GeoHash(cx, schemaName, tableName, columnName, "VARCHAR");
+    }
+    
+    /**
+     * Creates a geohash index on a geometry column, storing the geohashes in a hidden column of 
+     * the specified type: <tt>VARCHAR</tt> for the bit string of {@link #ST_GeoHash}, or 
+     * <tt>BIGINT</tt> for the packed key of {@link #ST_GeoHashKey}. <tt>HILBERT</tt> stores the 
+     * {@link #ST_HilbertKey} of the geometry in a <tt>BIGINT</tt> column named 
+     * <tt>_&lt;column&gt;_HILBERT</tt> instead, to order rows by rather than to probe with 
+     * {@link #ST_GeoHashCover}.
+     */
+    public static void CreateSpatialIndex_GeoHash( Connection cx, String schemaName, String tableName,
+            String columnName, String type ) throws SQLException {
+        
+        type = type != null ? type.trim().toUpperCase() : "VARCHAR";
+        if (!"VARCHAR".equals(type) && !"BIGINT".equals(type) && !"HILBERT".equals(type)) {
+            throw new SQLException("Unsupported geohash column type: " + type);
+        }
+        String suffix = "HILBERT".equals(type) ? "_HILBERT" : "_GEOHASH";
         
         schemaName = "".equals( schemaName ) ? null : schemaName;
         
@@ -1078,16 +1560,33 @@ public class GeoDB {
             String table = "\"" + tableName + "\"";
             table = schemaName != null ? "\""+schemaName+"\"." + table : table;
             
-            String column = "\"_" + columnName + "_GEOHASH\"";  
+            String column = "\"_" + columnName + suffix + "\"";  
                
-            String sql = "ALTER TABLE " + table + " ADD " + column + " VARCHAR";
+            String sql = "ALTER TABLE " + table + " ADD " + column + " " + 
+                ("VARCHAR".equals(type) ? "VARCHAR" : "BIGINT");
             st.execute( sql );
             
-            sql = "UPDATE " + table + 
-                " SET " + column + " = ST_GeoHash(\"" + columnName + "\")";
-            st.execute( sql );
+            String pk = null;
+            try {
+                pk = SpatialIndex.primaryKey(cx, 
+                    schemaName != null ? schemaName : "PUBLIC", tableName);
+            }
+            catch(SQLException e) {
+                //no primary key to partition on
+            }
+            
+            if (pk != null) {
+                updateGeoHash(cx, table, esc(pk), esc(columnName), column, type);
+            }
+            else {
+                String f = "BIGINT".equals(type) ? "ST_GeoHashKey" : 
+                    "HILBERT".equals(type) ? "ST_HilbertKey" : "ST_GeoHash";
+                sql = "UPDATE " + table + " SET " + column + " = " + f + 
+                    "(\"" + columnName + "\")";
+                st.execute( sql );
+            }
             
-            sql = "CREATE INDEX \"_"+columnName+"_GEOHASH_INDEX\" " +
+            sql = "CREATE INDEX \"_"+columnName+suffix+"_INDEX\" " +
                 "ON " + table + "(" + column + ")";
             st.execute( sql );
         }
@@ -1096,14 +1595,293 @@ public class GeoDB {
         }
     }
     
+    /**
+     * Fills in a geohash column, computing the hashes of each primary key range on the 
+     * {@link Parallel} worker pool and writing them back in batches.
+     */
+    static void updateGeoHash(Connection cx, String table, String pk, String column, 
+        String hashColumn, final String type) throws SQLException {
+        final PreparedStatement ps = cx.prepareStatement("UPDATE " + table + " SET " + 
+            hashColumn + " = ? WHERE " + pk + " = ?");
+        try {
+            Parallel.scan(cx, table, pk, column, Parallel.BATCH, 
+                new Parallel.Task<Object[]>() {
+                    public Object[] process(long[] ids, byte[][] values, int n) {
+                        Object[] hashes = new Object[n];
+                        for (int i = 0; i < n; i++) {
+                            hashes[i] = "BIGINT".equals(type) ? ST_GeoHashKey(values[i]) : 
+                                "HILBERT".equals(type) ? ST_HilbertKey(values[i]) : 
+                                ST_GeoHash(values[i]);
+                        }
+                        return hashes;
+                    }
+                }, 
+                new Parallel.Collector<Object[]>() {
+                    public void collect(long[] ids, int n, Object[] hashes) throws SQLException {
+                        for (int i = 0; i < n; i++) {
+                            ps.setObject(1, hashes[i]);
+                            ps.setLong(2, ids[i]);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                });
+        }
+        finally {
+            ps.close();
+        }
+    }
+    
+    /**
+     * Turns the collection of the statistics returned by {@link #GeoDB_Stats} on or off. 
+     */
+    public static void GeoDB_EnableStats( boolean enabled ) {
+        Metrics.setEnabled(enabled);
+    }
+    
+    /**
+     * Zeroes the statistics returned by {@link #GeoDB_Stats}.
+     */
+    public static void GeoDB_ResetStats() {
+        Metrics.reset();
+    }
+    
+    /**
+     * Returns the statistics of the spatial predicates and aggregates called since collection was
+     * turned on, one row per function called, see {@link Metrics}. Times are in nanoseconds.
+     * <pre>
+     * CALL GeoDB_EnableStats(true);
+     * SELECT * FROM GeoDB_Stats() ORDER BY CALLS * MEAN_NANOS DESC;
+     * </pre>
+     */
+    public static ResultSet GeoDB_Stats( Connection cx ) throws SQLException {
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("NAME", Types.VARCHAR, 255, 0);
+        rs.addColumn("CALLS", Types.BIGINT, 19, 0);
+        rs.addColumn("REJECTS", Types.BIGINT, 19, 0);
+        rs.addColumn("DECODES", Types.BIGINT, 19, 0);
+        rs.addColumn("BYTES_DECODED", Types.BIGINT, 19, 0);
+        rs.addColumn("PARSE_NANOS", Types.BIGINT, 19, 0);
+        rs.addColumn("MEAN_NANOS", Types.BIGINT, 19, 0);
+        rs.addColumn("P50_NANOS", Types.BIGINT, 19, 0);
+        rs.addColumn("P90_NANOS", Types.BIGINT, 19, 0);
+        rs.addColumn("P99_NANOS", Types.BIGINT, 19, 0);
+        rs.addColumn("MAX_NANOS", Types.BIGINT, 19, 0);
+        if (isColumnList(cx)) {
+            return rs;
+        }
+        
+        List<Metrics.Stats> all = Metrics.all();
+        Collections.sort(all, new Comparator<Metrics.Stats>() {
+            public int compare(Metrics.Stats s1, Metrics.Stats s2) {
+                return s1.getName().compareTo(s2.getName());
+            }
+        });
+        for (Metrics.Stats s : all) {
+            if (s.getCalls() == 0 && s.getDecodes() == 0) {
+                continue;
+            }
+            rs.addRow(new Object[]{s.getName(), s.getCalls(), s.getRejects(), s.getDecodes(), 
+                s.getBytesDecoded(), s.getParseNanos(), s.getMeanNanos(), s.percentile(50), 
+                s.percentile(90), s.percentile(99), s.getMaxNanos()});
+        }
+        return rs;
+    }
+    
+    /**
+     * Computes a geometry aggregate, such as <tt>ST_Union_Aggregate</tt>, over the geometry column
+     * of a whole table on all cores. Each primary key range of the table is aggregated on the
+     * {@link Parallel} pool and the partial aggregates merged, see 
+     * {@link GeoAggregateFunction#aggregate}.
+     * <pre>
+     * CALL ParallelAggregate(null, 'PARCELS', 'GEOM', 'ST_Union_Aggregate')
+     * </pre>
+     * @param schemaName The table schema, may be <code>null</code> to specify default schema
+     * @param aggregate The name of the aggregate, or the name of its class
+     */
+    public static byte[] ParallelAggregate( Connection cx, String schemaName, String tableName, 
+        String columnName, String aggregate ) throws SQLException {
+        
+        schemaName = schemaName == null || "".equals(schemaName) ? "PUBLIC" : schemaName;
+        GeoAggregateFunction agg = GeoAggregateFunction.forName(aggregate);
+        if (agg.getType(null) != Types.BLOB) {
+            throw new SQLException(aggregate + " does not compute a geometry");
+        }
+        
+        String pk = SpatialIndex.primaryKey(cx, schemaName, tableName);
+        GeoAggregateFunction.aggregate(cx, tbl(schemaName, tableName), esc(pk), 
+            esc(columnName), agg);
+        return (byte[]) agg.getResult();
+    }
+    
+    /**
+     * Applies a geometry function to the rows of a query on all cores, returning the rows in
+     * order. The geometry is the last column of the query, the other columns are returned as is
+     * followed by the result of the function, see {@link ParallelMap}.
+     * <pre>
+     * SELECT * FROM GeoDB_ParallelMap('SELECT id, geom FROM roads', 'ST_Buffer', 10)
+     * </pre>
+     * Arguments of the function are passed as strings, converted to the types of its parameters,
+     * and geometry arguments as hex encoded WKB.
+     * @param function The name of the function, which takes the geometry first
+     */
+    public static ResultSet GeoDB_ParallelMap( Connection cx, String sql, String function ) 
+        throws SQLException {
+        return ParallelMap.map(cx, sql, function, new String[]{});
+    }
+    
+    /**
+     * Applies a geometry function taking an argument after the geometry, see 
+     * {@link #GeoDB_ParallelMap(Connection, String, String)}.
+     */
+    public static ResultSet GeoDB_ParallelMap( Connection cx, String sql, String function, 
+        String arg ) throws SQLException {
+        return ParallelMap.map(cx, sql, function, new String[]{arg});
+    }
+    
+    /**
+     * Applies a geometry function taking two arguments after the geometry, see 
+     * {@link #GeoDB_ParallelMap(Connection, String, String)}.
+     */
+    public static ResultSet GeoDB_ParallelMap( Connection cx, String sql, String function, 
+        String arg1, String arg2 ) throws SQLException {
+        return ParallelMap.map(cx, sql, function, new String[]{arg1, arg2});
+    }
+    
+    /**
+     * Applies a geometry function taking three arguments after the geometry, see 
+     * {@link #GeoDB_ParallelMap(Connection, String, String)}.
+     */
+    public static ResultSet GeoDB_ParallelMap( Connection cx, String sql, String function, 
+        String arg1, String arg2, String arg3 ) throws SQLException {
+        return ParallelMap.map(cx, sql, function, new String[]{arg1, arg2, arg3});
+    }
+    
+    /**
+     * Rewrites the rows of a table in the order of the {@link #ST_HilbertKey} of a geometry 
+     * column, so that rows close in space are stored close together, much like the 
+     * <tt>CLUSTER</tt> command of other databases. The order is not maintained for rows inserted 
+     * afterwards.
+     * <p>
+     * The rows are copied out to a <tt>&lt;table&gt;_CLUSTER</tt> table, the table truncated, 
+     * which frees its storage, and the rows inserted back in order. If that fails the rows are 
+     * copied back as they were, and the copy is only kept if that fails too. The spatial indexes 
+     * and simplification pyramids of the table are dropped first and rebuilt at the end, failure 
+     * or not, rather than updated row by row.
+     * </p>
+     */
+    public static void ClusterSpatialTable( Connection cx, String schemaName, String tableName, 
+        String columnName ) throws SQLException {
+        
+        schemaName = schemaName == null || "".equals(schemaName) ? "PUBLIC" : schemaName;
+        String table = esc(schemaName) + "." + esc(tableName);
+        String copy = esc(schemaName) + "." + esc(tableName + "_CLUSTER");
+        
+        List<SpatialIndex> indexes = SpatialIndex.list(cx, schemaName, tableName);
+        for (SpatialIndex index : indexes) {
+            SpatialIndex.drop(cx, schemaName, tableName, index.getColumn());
+        }
+        Map<String,double[]> pyramids = SimplificationPyramid.list(cx, schemaName, tableName);
+        for (String column : pyramids.keySet()) {
+            SimplificationPyramid.drop(cx, schemaName, tableName, column);
+        }
+        
+        boolean done = false;
+        Statement st = cx.createStatement();
+        try {
+            st.execute("CREATE TABLE " + copy + " AS SELECT * FROM " + table);
+            try {
+                st.execute("TRUNCATE TABLE " + table);
+                st.execute("INSERT INTO " + table + " SELECT * FROM " + copy + 
+                    " ORDER BY ST_HilbertKey(" + esc(columnName) + ")");
+            }
+            catch(SQLException e) {
+                //truncate commits, put the rows back as they were
+                try {
+                    st.execute("DELETE FROM " + table);
+                    st.execute("INSERT INTO " + table + " SELECT * FROM " + copy);
+                }
+                catch(SQLException e2) {
+                    throw (SQLException) new SQLException("Error clustering " + tableName + 
+                        ", its rows are kept in " + tableName + "_CLUSTER").initCause(e);
+                }
+                st.execute("DROP TABLE " + copy);
+                throw (SQLException) new SQLException("Error clustering " + tableName)
+                    .initCause(e);
+            }
+            st.execute("DROP TABLE " + copy);
+            done = true;
+        }
+        finally {
+            st.close();
+            
+            for (SpatialIndex index : indexes) {
+                try {
+                    SpatialIndex.create(cx, schemaName, tableName, index.getColumn(), 
+                        index.getSrid(), index.getCapacity());
+                }
+                catch(SQLException e) {
+                    if (done) {
+                        throw e;
+                    }
+                    //ignore, the error that got us here is more telling
+                }
+            }
+            for (Map.Entry<String,double[]> p : pyramids.entrySet()) {
+                try {
+                    SimplificationPyramid.create(cx, schemaName, tableName, p.getKey(), 
+                        p.getValue());
+                }
+                catch(SQLException e) {
+                    if (done) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Creates a simplification pyramid on a geometry column: the geometries simplified ahead of 
+     * time at each of a list of tolerances, kept up to date by a trigger and looked up with 
+     * {@link #ST_SimplifyCached}. The table must have a single numeric primary key column.
+     * <pre>
+     * CALL CreateSimplificationPyramid(null, 'COASTLINES', 'GEOM', '0.001, 0.01, 0.1, 1')
+     * </pre>
+     * @param schemaName The table schema, may be <code>null</code> to specify default schema
+     * @param tolerances The tolerances of the levels, separated by commas or spaces
+     * @see SimplificationPyramid
+     */
+    public static void CreateSimplificationPyramid( Connection cx, String schemaName, 
+        String tableName, String columnName, String tolerances ) throws SQLException {
+        schemaName = schemaName == null || "".equals(schemaName) ? "PUBLIC" : schemaName;
+        SimplificationPyramid.create(cx, schemaName, tableName, columnName, 
+            SimplificationPyramid.parse(tolerances));
+    }
+    
+    public static void DropSimplificationPyramid( Connection cx, String schemaName, 
+        String tableName, String columnName ) throws SQLException {
+        schemaName = schemaName == null || "".equals(schemaName) ? "PUBLIC" : schemaName;
+        SimplificationPyramid.drop(cx, schemaName, tableName, columnName);
+    }
+    
     public static void DropSpatialIndex( Connection cx, String schemaName, String tableName) 
         throws SQLException {
         
-        HashMap<String,String> args = new HashMap();
         if (schemaName == null) {
             schemaName = "PUBLIC";
         }
         
+        for (SpatialIndex index : SpatialIndex.list(cx, schemaName, tableName)) {
+            SpatialIndex.drop(cx, schemaName, tableName, index.getColumn());
+        }
+        
+        if (!hasHatboxIndex(cx, schemaName, tableName)) {
+            return;
+        }
+        
+        //index created by an earlier version
+        HashMap<String,String> args = new HashMap();
         args.put("s", schemaName);
         args.put("t", tableName);
         try {
@@ -1117,17 +1895,14 @@ public class GeoDB {
     public static int GetSRID( Connection cx, String schemaName, String tableName ) throws SQLException {
         //TODO: some logging here
         
-        DatabaseMetaData dbmd = cx.getMetaData();
-        ResultSet tables = 
-            dbmd.getTables(null, schemaName, tableName + "_HATBOX", new String[]{"TABLE"});
-        try {
-            if (!tables.next()) {
-                //no spatial index / metadata
-                return -1;
-            }
+        SpatialIndex index = SpatialIndex.find(cx, schemaName, tableName);
+        if (index != null) {
+            return index.getSrid();
         }
-        finally {
-            tables.close();
+        
+        if (!hasHatboxIndex(cx, schemaName, tableName)) {
+            //no spatial index / metadata
+            return -1;
         }
         
         String table = "";
@@ -1161,181 +1936,312 @@ public class GeoDB {
         return -1;
     }
     
-//    public static ResultSet SpatialQuery( Connection cx, String sql ) throws SQLException {
-//        sql = transformToSpatialQuery(cx,sql);
-//        
-//        Statement st = cx.createStatement();
-//        return st.executeQuery( sql );
-//    }
-//    
-//    public static String DebugSpatialQuery(Connection cx, String sql) throws SQLException {
-//        return transformToSpatialQuery(cx, sql);
-//    }
-//    
-//    static String transformToSpatialQuery(Connection cx, String sql) throws SQLException {
-//        PlainSelect select = null;
-//        Table table = null;
-//        BBoxFunctionVisitor bbv = new BBoxFunctionVisitor(); 
-//        try {
-//            CCJSqlParser p = new CCJSqlParser(new StringReader(sql));
-//            net.sf.jsqlparser.statement.Statement st  = p.Statement();
-//            if ( st instanceof Select ) {
-//                select = (PlainSelect) ((Select) st).getSelectBody();
-//            }
-//        }
-//        catch( Exception e ) {
-//            //syntax error in the query? just pass it through
-//        }
-//        
-//        if ( select != null ) {
-//            if ( select.getFromItem() instanceof Table ) {
-//                table = ((Table)select.getFromItem());
-//            }
-//            select.getWhere().accept(bbv);
-//        }
-//        
-//        if ( table != null && bbv.geometryColumn != null ) {
-//            //rewrite the query to utilize the spatial index, if one eixsts
-//            String indexColumnName = "_" + dequote(bbv.geometryColumn) + "_GEOHASH";
-//            boolean useIndex = false;
-//            
-//            DatabaseMetaData md = cx.getMetaData();
-//            ResultSet cols = md.getColumns(null, dequote(table.getSchemaName()), dequote(table.getName()),indexColumnName);
-//            useIndex = cols.next();
-//            cols.close();
-//        
-//            if ( useIndex ) {
-//                //compute the geohash for the specified bounding box
-//                String geohash = GeoHash.geohash(bbv.x1, bbv.y1, bbv.x2, bbv.y2);
-//                
-//                //compute all the parent geohashes
-//                List<String> geohashes = new ArrayList<String>();
-//                for ( int i = geohash.length(); i > 0; i-- ) {
-//                    geohashes.add( geohash.substring(0,i) );
-//                }
-//                
-//                boolean includeGeometryColumn = true;
-//                StringBuffer sb = new StringBuffer();
-//                for (SelectItem si : (List<SelectItem>) select.getSelectItems() ) {
-//                    sb.append(si.toString()).append(",");
-//                    if ( si.toString().equals( bbv.geometryColumn ) ) {
-//                        includeGeometryColumn = false;
-//                    }
-//                }
-//                if ( includeGeometryColumn ) {
-//                    sb.append( bbv.geometryColumn );
-//                }
-//                else {
-//                    sb.setLength(sb.length()-1);    
-//                }
-//                
-//                String selectClause = "SELECT " + sb.toString();
-//                
-//                StringBuffer rsql = new StringBuffer();
-//                
-//                //start outer select
-//                rsql.append( selectClause );
-//                rsql.append( " FROM ");
-//                
-//                //start inner select 
-//                rsql.append("(").append( selectClause );
-//                rsql.append( " FROM ").append( table.getWholeTableName() );
-//                rsql.append( " WHERE " ).append("\"").append( indexColumnName ).append("\"");
-//                rsql.append(" IN (");
-//                for ( String gh : geohashes ) {
-//                    rsql.append("'").append(gh).append("'").append(",");
-//                }
-//                rsql.setLength(rsql.length()-1);
-//                rsql.append( ")" );
-//                //end inner select
-//                
-//                rsql.append( " UNION " );
-//                
-//                //start inner select
-//                rsql.append("(").append( selectClause );
-//                rsql.append( " FROM ").append( table.getWholeTableName() );
-//                rsql.append( " WHERE " ).append("\"").append( indexColumnName ).append("\"");
-//                rsql.append(" LIKE '").append(geohash).append("%'");
-//                rsql.append(")");
-//                //end inner select
-//                
-//                rsql.append( ") ");
-//                rsql.append( " WHERE ").append( select.getWhere().toString() );
-//                sql = rsql.toString();
-//            }
-//        }
-//        
-//        return sql;
-//    }
-//    
-//    static String dequote(String name) {
-//        if ( name == null ) {
-//            return null;
-//        }
-//        if ( name.startsWith( "\"") ) {
-//            name = name.substring(1,name.length()-1);
-//        }
-//        return name;
-//    }
+    static boolean hasHatboxIndex(Connection cx, String schemaName, String tableName) 
+        throws SQLException {
+        DatabaseMetaData dbmd = cx.getMetaData();
+        ResultSet tables = 
+            dbmd.getTables(null, schemaName, tableName + "_HATBOX", new String[]{"TABLE"});
+        try {
+            return tables.next();
+        }
+        finally {
+            tables.close();
+        }
+    }
+    
+    /**
+     * Returns the ids of the rows of a table whose geometry bounding box intersects the specified
+     * box, looked up in the spatial index of the table. Join the result back to the table to 
+     * fetch the rows:
+     * <pre>
+     * SELECT t.* FROM ST_IndexIntersects('PUBLIC', 'SPATIAL', -2, -2, 2, 2) i, spatial t 
+     *  WHERE t.id = i.id
+     * </pre>
+     * Prefer the join to an <tt>id IN (SELECT id FROM ST_IndexIntersects(...))</tt> sub query,
+     * which H2 evaluates again for every row of the outer query.
+     */
+    public static ResultSet ST_IndexIntersects( Connection cx, String schemaName, String tableName,
+        double x1, double y1, double x2, double y2) throws SQLException {
+        return ST_IndexIntersects(cx, schemaName, tableName, null, x1, y1, x2, y2);
+    }
+    
+    /**
+     * Returns the ids of the rows of a table whose geometry bounding box intersects the specified
+     * box, looked up in the spatial index of the specified geometry column.
+     */
+    public static ResultSet ST_IndexIntersects( Connection cx, String schemaName, String tableName,
+        String columnName, double x1, double y1, double x2, double y2) throws SQLException {
+        
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("ID", Types.BIGINT, 19, 0);
+        if (isColumnList(cx)) {
+            return rs;
+        }
+        
+        final List<Long> ids = new ArrayList<Long>();
+        SpatialIndex index = spatialIndex(cx, schemaName, tableName, columnName);
+        index.query(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), 
+            new RTree.Visitor() {
+                public void visit(long id) {
+                    ids.add(id);
+                }
+            });
+        
+        for (Long id : ids) {
+            rs.addRow(new Object[]{id});
+        }
+        return rs;
+    }
+    
+    /**
+     * Returns the ids of the <tt>k</tt> rows of a table nearest to a geometry along with their 
+     * distance to it, nearest first, looked up in the spatial index of the table:
+     * <pre>
+     * SELECT t.*, n.distance FROM ST_KNN('PUBLIC', 'SPATIAL', ST_MakePoint(1, 1), 10) n, spatial t
+     *  WHERE t.id = n.id ORDER BY n.distance
+     * </pre>
+     */
+    public static ResultSet ST_KNN( Connection cx, String schemaName, String tableName, 
+        byte[] wkb, int k ) throws SQLException {
+        return ST_KNN(cx, schemaName, tableName, null, wkb, k);
+    }
+    
+    /**
+     * Returns the ids of the <tt>k</tt> rows of a table nearest to a geometry along with their 
+     * distance to it, looked up in the spatial index of the specified geometry column.
+     */
+    public static ResultSet ST_KNN( Connection cx, String schemaName, String tableName, 
+        String columnName, byte[] wkb, int k ) throws SQLException {
+        
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("ID", Types.BIGINT, 19, 0);
+        rs.addColumn("DISTANCE", Types.DOUBLE, 17, 0);
+        if (isColumnList(cx) || wkb == null) {
+            return rs;
+        }
+        
+        SpatialIndex index = spatialIndex(cx, schemaName, tableName, columnName);
+        for (SpatialIndex.Neighbor n : index.nearest(cx, wkb, k)) {
+            rs.addRow(new Object[]{n.getId(), n.getDistance()});
+        }
+        return rs;
+    }
+    
+    /**
+     * Joins the rows of two spatially indexed tables on a spatial predicate, returning the ids of
+     * the matching pairs of rows. The predicate is one of "BBOX", "INTERSECTS", "CONTAINS", 
+     * "WITHIN", "COVERS", "COVEREDBY", "OVERLAPS", "TOUCHES", "CROSSES", "EQUALS", and is 
+     * evaluated with the geometry of the first table as its first argument:
+     * <pre>
+     * SELECT p.id, z.zone FROM ST_SpatialJoin('PUBLIC', 'PARCELS', 'PUBLIC', 'ZONING', 
+     *  'WITHIN') j, parcels p, zoning z WHERE p.id = j.id1 AND z.id = j.id2
+     * </pre>
+     * @see SpatialJoin
+     */
+    public static ResultSet ST_SpatialJoin( Connection cx, String schemaName1, String tableName1,
+        String schemaName2, String tableName2, String predicate ) throws SQLException {
+        return ST_SpatialJoin(cx, schemaName1, tableName1, null, schemaName2, tableName2, null, 
+            predicate);
+    }
+    
+    /**
+     * Joins the rows of two spatially indexed geometry columns on a spatial predicate, returning
+     * the ids of the matching pairs of rows.
+     */
+    public static ResultSet ST_SpatialJoin( Connection cx, String schemaName1, String tableName1,
+        String columnName1, String schemaName2, String tableName2, String columnName2, 
+        String predicate ) throws SQLException {
+        
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("ID1", Types.BIGINT, 19, 0);
+        rs.addColumn("ID2", Types.BIGINT, 19, 0);
+        if (isColumnList(cx)) {
+            return rs;
+        }
+        
+        SpatialJoin join = new SpatialJoin(
+            spatialIndex(cx, schemaName1, tableName1, columnName1), 
+            spatialIndex(cx, schemaName2, tableName2, columnName2), 
+            SpatialJoin.Predicate.parse(predicate));
+        
+        final List<long[]> pairs = new ArrayList<long[]>();
+        join.run(cx, new RTree.PairVisitor() {
+            public void visit(long id1, long id2) {
+                pairs.add(new long[]{id1, id2});
+            }
+        });
+        
+        for (long[] pair : pairs) {
+            rs.addRow(new Object[]{pair[0], pair[1]});
+        }
+        return rs;
+    }
+    
+    /**
+     * Covers a box with geohash cells, see {@link GeoHash#cover}, returning the ranges of 
+     * geohashes to probe a geohash index with. Each cell gives one row for the geohashes starting 
+     * with it, and each distinct prefix of the cells one row for that exact geohash, so that the 
+     * rows match every geohash of a geometry which may intersect the box. 
+     * <p>
+     * The <tt>PATTERN</tt>, <tt>LO</tt> and <tt>HI</tt> columns apply to <tt>VARCHAR</tt> geohash
+     * columns, with <tt>LIKE</tt> or <tt>BETWEEN</tt>, and <tt>KEY_LO</tt> and <tt>KEY_HI</tt> to 
+     * <tt>BIGINT</tt> ones:
+     * </p>
+     * <pre>
+     * SELECT t.* FROM ST_GeoHashCover(-1, -1, 1, 1) c, spatial t 
+     *  WHERE t."_GEOM_GEOHASH" BETWEEN c.lo AND c.hi 
+     *    AND ST_Intersects(t.geom,
+     *      ST_GeomFromText('POLYGON((-1 -1,-1 1,1 1,1 -1,-1 -1))', 4326))
+     * </pre>
+     */
+    public static ResultSet ST_GeoHashCover( Connection cx, double x1, double y1, double x2, 
+        double y2 ) throws SQLException {
+        return ST_GeoHashCover(cx, x1, y1, x2, y2, GeoHash.COVER_CELLS);
+    }
+    
+    /**
+     * Covers a box with at most <tt>maxCells</tt> geohash cells, returning the ranges of geohashes
+     * to probe a geohash index with.
+     */
+    public static ResultSet ST_GeoHashCover( Connection cx, double x1, double y1, double x2, 
+        double y2, int maxCells ) throws SQLException {
+        
+        SimpleResultSet rs = new SimpleResultSet();
+        rs.addColumn("PATTERN", Types.VARCHAR, 65, 0);
+        rs.addColumn("LO", Types.VARCHAR, 65, 0);
+        rs.addColumn("HI", Types.VARCHAR, 65, 0);
+        rs.addColumn("KEY_LO", Types.BIGINT, 19, 0);
+        rs.addColumn("KEY_HI", Types.BIGINT, 19, 0);
+        if (isColumnList(cx)) {
+            return rs;
+        }
+        
+        long[] cells = GeoHash.cover(x1, y1, x2, y2, maxCells);
+        for (long cell : cells) {
+            long p = GeoHash.keyPrefix(cell);
+            int n = GeoHash.keyLength(cell);
+            String bits = GeoHash.toBitString(p, n, n);
+            rs.addRow(new Object[]{bits + "%", bits, bits + "2", GeoHash.minKey(p, n), 
+                GeoHash.maxKey(p, n)});
+        }
+        
+        //the geometries spanning more than a cell
+        Set<Long> prefixes = new TreeSet<Long>();
+        for (long cell : cells) {
+            long p = GeoHash.keyPrefix(cell);
+            int n = GeoHash.keyLength(cell);
+            for (int m = 0; m < n; m++) {
+                prefixes.add(GeoHash.key(p, n, m));
+            }
+        }
+        for (long key : prefixes) {
+            long p = GeoHash.keyPrefix(key);
+            int n = GeoHash.keyLength(key);
+            String bits = GeoHash.toBitString(p, n, n);
+            rs.addRow(new Object[]{bits, bits, bits, key, key});
+        }
+        return rs;
+    }
+    
+    static SpatialIndex spatialIndex( Connection cx, String schemaName, String tableName, 
+        String columnName ) throws SQLException {
+        SpatialIndex index = columnName != null ? 
+            SpatialIndex.get(cx, schemaName, tableName, columnName) : 
+            SpatialIndex.find(cx, schemaName, tableName);
+        if (index == null) {
+            throw new SQLException("No spatial index on " + tableName + 
+                (columnName != null ? "." + columnName : ""));
+        }
+        return index;
+    }
+    
+    /**
+     * Determines if a table function is only being asked for its columns.
+     */
+    static boolean isColumnList(Connection cx) throws SQLException {
+        return "jdbc:columnlist:connection".equals(cx.getMetaData().getURL());
+    }
+    
+    /**
+     * Executes a query, rewriting it to use the spatial index of the table it queries when it 
+     * filters on <tt>ST_BBox</tt>, <tt>ST_Intersects</tt> or <tt>ST_DWithin</tt> against a 
+     * constant geometry.
+     * 
+     * @see QueryRewriter
+     */
+    public static ResultSet SpatialQuery( Connection cx, String sql ) throws SQLException {
+        sql = new QueryRewriter(cx).rewrite(sql);
+        
+        Statement st = cx.createStatement();
+        if (isColumnList(cx)) {
+            //only the columns are needed
+            return st.executeQuery("SELECT * FROM (" + sql + ") WHERE 1=0");
+        }
+        return st.executeQuery( sql );
+    }
+    
+    /**
+     * Returns the query {@link #SpatialQuery} would execute.
+     */
+    public static String ExplainSpatialQuery( Connection cx, String sql ) throws SQLException {
+        return new QueryRewriter(cx).rewrite(sql);
+    }
     
     //
     // helper/utility functions
     //
     public static byte[] gToWKB( Geometry g ) {
-        return wkbwriter().write( g );
+        return WKBCodec.get().write( g );
     }
     
     public static byte[] gToEWKB( Geometry g ) {
-        try {
-            // binary format:
-            // |--32 bytes--|--EWKB--|
-            // 
-            // first 32 bytes is the bounding box
+        // binary format:
+        // |--32 bytes--|--EWKB--|
+        // 
+        // first 32 bytes is the bounding box
+        
+        //convert to postgis style ewkb which has the srid
+        //jts versions < 1.12 don't really do this properly so we have to hack the bytes
+        // ourselves
+        byte[] ewkb;
+        if (PRE_JTS12) {
+            byte[] b = gToWKB( g );
+            ewkb = new byte[32+b.length+4];
             
-            //write the geometry
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-            wkbwriter().write( g , new OutputStreamOutStream( bytes ) );
-            byte[] b = bytes.toByteArray();
-
-            //convert to postgis style ewkb which has the srid
-            //jts versions < 1.12 don't really do this properly so we have to hack the bytes
-            // ourselves
-
-            byte[] ewkb = PRE_JTS12 ? new byte[32+b.length+4] : new byte[32+b.length];
+            //first byte (endianess) + 4 bytes (type)
+            System.arraycopy(b, 0, ewkb, 32, 5);
             
-            //first 32 bytes is the boundaing box
-            Envelope bbox = g.getEnvelopeInternal();
-            envToWKB(bbox,ewkb,0);
-
-            if (PRE_JTS12) {
-                //first byte (endianess) + 4 bytes (type)
-                System.arraycopy(b, 0, ewkb, 32, 5);
-                
-                //set the srid flag in the type byte
-                ewkb[33] |= 0x20;
-                
-                //insert the srid (assuming big endian)
-                int srid = g.getSRID();
-                ewkb[37] = (byte)(srid >>> 24);
-                ewkb[38] = (byte)(srid >> 16 & 0xff);
-                ewkb[39] = (byte)(srid >> 8 & 0xff);
-                ewkb[40] = (byte)(srid & 0xff);
-                
-                //copy the geometry
-                System.arraycopy(b,5,ewkb,41,b.length-5);
-            }
-            else {
-                System.arraycopy(b,0,ewkb,32,b.length);
-            }
-            return ewkb;
-        } 
-        catch (IOException e) {
-            throw new RuntimeException( e );
+            //set the srid flag in the type byte
+            ewkb[33] |= 0x20;
+            
+            //insert the srid (assuming big endian)
+            int srid = g.getSRID();
+            ewkb[37] = (byte)(srid >>> 24);
+            ewkb[38] = (byte)(srid >> 16 & 0xff);
+            ewkb[39] = (byte)(srid >> 8 & 0xff);
+            ewkb[40] = (byte)(srid & 0xff);
+            
+            //copy the geometry
+            System.arraycopy(b,5,ewkb,41,b.length-5);
+        }
+        else {
+            //write the geometry directly after the space reserved for the bounding box
+            ewkb = WKBCodec.get().write( g, 32 );
         }
+        
+        //first 32 bytes is the boundaing box
+        Envelope bbox = g.getEnvelopeInternal();
+        envToWKB(bbox,ewkb,0);
+        return ewkb;
     }
     
     public static Geometry gFromWKB( byte[] wkb ) {
-        return gFromWKB( wkb, wkbreader() );
+        try {
+            return WKBCodec.get().read( wkb );
+        } 
+        catch (ParseException e) {
+            throw new RuntimeException( e );
+        }
     }
     
     public static Geometry gFromWKB( byte[] wkb, WKBReader wkbreader ) {
@@ -1349,8 +2255,15 @@ public class GeoDB {
     
     
     public static Geometry gFromEWKB( byte[] wkb ) {
-        return gFromEWKB(wkb,wkbreader());
+        try {
+            //just read back everything after the first 32 bytes normally
+            return WKBCodec.get().read( wkb, 32, wkb.length-32 );
+        } 
+        catch( Exception e ) {
+            throw new RuntimeException( e );
+        }
     }
+    
     public static Geometry gFromEWKB( byte[] wkb, WKBReader wkbreader ) {
         
         try {
@@ -1391,13 +2304,22 @@ public class GeoDB {
         return wkb;
     }
     
+    /**
+     * Computes the bounds of two geometries into the scratch arrays of the codec for the calling 
+     * thread, reading the stored box of {@link BoxedWKB boxed} values and scanning plain ones.
+     */
+    static WKBCodec bounds( byte[] wkb1, byte[] wkb2 ) {
+        WKBCodec codec = WKBCodec.get();
+        WKBEnvelope.envelope(wkb1, codec.bounds1);
+        WKBEnvelope.envelope(wkb2, codec.bounds2);
+        return codec;
+    }
+    
     public static Envelope envFromWKB( byte[] wkb ) {
-        try {
-            return wkbreader().read(wkb).getEnvelopeInternal();
-        } 
-        catch (ParseException e) {
-            throw new RuntimeException(e);
-        } 
+        //scan the coordinates rather than parsing the geometry
+        double[] bounds = WKBCodec.get().bounds1;
+        WKBEnvelope.envelope(wkb, bounds);
+        return WKBEnvelope.toEnvelope(bounds);
         //double x1 = bytesToDouble(wkb,0);
         //double y1 = bytesToDouble(wkb,8);
         //double x2 = bytesToDouble(wkb,16);
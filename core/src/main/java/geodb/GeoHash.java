@@ -1,11 +1,334 @@
 package geodb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Geohash encoding, packed into a <tt>long</tt>.
+ * <p>
+ * A geohash interleaves the bits of the x and y cell coordinates of a point (Z-order or Morton
+ * order), starting with x. At the default depth of 32 levels the hash is 64 bits, held right
+ * aligned in a long and handled by bit twiddling only. Three forms are derived from it:
+ * </p>
+ * <ul>
+ * <li>a string of '0' and '1' characters, see {@link #toBitString}, the form used by
+ * {@link GeoDB#ST_GeoHash} and {@link GeoString}</li>
+ * <li>the base 32 text of <a href="http://geohash.org">geohash.org</a>, see {@link #toBase32}</li>
+ * <li>a sortable <tt>BIGINT</tt> key for a prefix of a hash, see {@link #key}</li>
+ * </ul>
+ */
 public class GeoHash {
 
+    /**
+     * maximum number of levels of a hash, each level taking one bit per axis
+     */
+    public static final int MAX_DEPTH = 32;
+
+    /**
+     * maximum number of bits of a prefix held by a {@link #key}
+     */
+    public static final int MAX_KEY_BITS = 62;
+
+    /**
+     * default maximum number of cells of a {@link #cover}
+     */
+    public static final int COVER_CELLS = 16;
+
+    static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
     public static String geohash( double x1, double y1, double x2, double y2 ) {
-        GeoString s1 = new GeoString(x1,y1);
-        GeoString s2 = new GeoString(x2,y2);
-        
-        return s1.union(s2).toString();
+        long h1 = encode(x1, y1, Box.WGS84, MAX_DEPTH);
+        long h2 = encode(x2, y2, Box.WGS84, MAX_DEPTH);
+
+        return toBitString(h1, 2*MAX_DEPTH, commonPrefix(h1, h2, 2*MAX_DEPTH));
+    }
+
+    /**
+     * Returns the geohash of a box in base 32.
+     */
+    public static String base32( double x1, double y1, double x2, double y2 ) {
+        long h1 = encode(x1, y1, Box.WGS84, MAX_DEPTH);
+        long h2 = encode(x2, y2, Box.WGS84, MAX_DEPTH);
+
+        return toBase32(h1, 2*MAX_DEPTH, commonPrefix(h1, h2, 2*MAX_DEPTH));
+    }
+
+    /**
+     * Returns the geohash of a box as a {@link #key}.
+     */
+    public static long key( double x1, double y1, double x2, double y2 ) {
+        long h1 = encode(x1, y1, Box.WGS84, MAX_DEPTH);
+        long h2 = encode(x2, y2, Box.WGS84, MAX_DEPTH);
+
+        return key(h1, 2*MAX_DEPTH, commonPrefix(h1, h2, 2*MAX_DEPTH));
+    }
+
+    /**
+     * Encodes a point into a hash of <tt>2*depth</tt> bits.
+     */
+    public static long encode(double x, double y, Box bound, int depth) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Geohash depth must be between 0 and " + MAX_DEPTH);
+        }
+        long xi = quantize((x - bound.l) / (bound.r - bound.l), depth);
+        long yi = quantize((y - bound.b) / (bound.t - bound.b), depth);
+        return (spread(xi) << 1) | spread(yi);
+    }
+
+    /**
+     * Returns the cell coordinate of a position in [0,1] as its low <tt>depth</tt> bits.
+     */
+    static long quantize(double f, int depth) {
+        f *= (1L << depth);
+        return depth == 0 ? 0 : ((long) f) & (-1L >>> (64 - depth));
+    }
+
+    /**
+     * Spreads the low 32 bits of a value out to the even bits.
+     */
+    static long spread(long v) {
+        v &= 0xffffffffL;
+        v = (v | (v << 16)) & 0x0000ffff0000ffffL;
+        v = (v | (v << 8)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+
+    /**
+     * Gathers the even bits of a value into its low 32 bits, the inverse of {@link #spread}.
+     */
+    static long compact(long v) {
+        v &= 0x5555555555555555L;
+        v = (v | (v >>> 1)) & 0x3333333333333333L;
+        v = (v | (v >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        v = (v | (v >>> 4)) & 0x00ff00ff00ff00ffL;
+        v = (v | (v >>> 8)) & 0x0000ffff0000ffffL;
+        v = (v | (v >>> 16)) & 0x00000000ffffffffL;
+        return v;
+    }
+
+    /**
+     * Returns the first <tt>n</tt> bits of a hash of <tt>bits</tt> bits, right aligned.
+     */
+    public static long prefix(long hash, int bits, int n) {
+        return n == 0 ? 0 : hash >>> (bits - n);
+    }
+
+    /**
+     * Returns the length of the common prefix of two hashes of <tt>bits</tt> bits.
+     */
+    public static int commonPrefix(long h1, long h2, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        long diff = (h1 ^ h2) << (64 - bits);
+        return Math.min(bits, Long.numberOfLeadingZeros(diff));
+    }
+
+    /**
+     * Writes the first <tt>n</tt> bits of a hash of <tt>bits</tt> bits as '0' and '1' characters.
+     */
+    public static String toBitString(long hash, int bits, int n) {
+        char[] c = new char[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = ((hash >>> (bits - 1 - i)) & 1) == 1 ? '1' : '0';
+        }
+        return new String(c);
+    }
+
+    /**
+     * Reads a hash written by {@link #toBitString}, right aligned.
+     */
+    public static long fromBitString(String s) {
+        if (s.length() > 64) {
+            throw new IllegalArgumentException("Geohash longer than 64 bits: " + s);
+        }
+        long hash = 0;
+        for (int i = 0; i < s.length(); i++) {
+            hash = (hash << 1) | (s.charAt(i) == '1' ? 1 : 0);
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the first <tt>n</tt> bits of a hash of <tt>bits</tt> bits in base 32, five bits per
+     * character. Trailing bits not filling a character are dropped.
+     */
+    public static String toBase32(long hash, int bits, int n) {
+        char[] c = new char[n / 5];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = BASE32[(int) ((hash >>> (bits - 5 * (i + 1))) & 0x1f)];
+        }
+        return new String(c);
+    }
+
+    /**
+     * Reads a base 32 hash, right aligned, of <tt>5 * s.length()</tt> bits.
+     */
+    public static long fromBase32(String s) {
+        if (s.length() > 12) {
+            throw new IllegalArgumentException("Geohash longer than 64 bits: " + s);
+        }
+        long hash = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = Character.toLowerCase(s.charAt(i));
+            int v = -1;
+            for (int j = 0; j < BASE32.length; j++) {
+                if (BASE32[j] == ch) {
+                    v = j;
+                    break;
+                }
+            }
+            if (v == -1) {
+                throw new IllegalArgumentException("Invalid geohash character: " + ch);
+            }
+            hash = (hash << 5) | v;
+        }
+        return hash;
+    }
+
+    /**
+     * Encodes the first <tt>n</tt> bits of a hash of <tt>bits</tt> bits into a key. Prefixes of
+     * more than {@link #MAX_KEY_BITS} bits are truncated.
+     * <p>
+     * The prefix is stored left aligned below the sign bit, followed by a single 1 bit marking its
+     * end. Keys are positive and sort in the same order as the prefixes they encode, so that all
+     * the keys of the hashes starting with some prefix fall in the range given by
+     * {@link #minKey} and {@link #maxKey}.
+     * </p>
+     */
+    public static long key(long hash, int bits, int n) {
+        n = Math.min(n, MAX_KEY_BITS);
+        long p = prefix(hash, bits, n);
+        return (p << (63 - n)) | (1L << (62 - n));
+    }
+
+    /**
+     * Returns the number of bits of the prefix encoded in a key.
+     */
+    public static int keyLength(long key) {
+        return 62 - Long.numberOfTrailingZeros(key);
+    }
+
+    /**
+     * Returns the prefix encoded in a key, right aligned.
+     */
+    public static long keyPrefix(long key) {
+        int n = keyLength(key);
+        return n == 0 ? 0 : key >>> (63 - n);
+    }
+
+    /**
+     * Returns the smallest key of the hashes starting with a prefix of <tt>n</tt> bits.
+     */
+    public static long minKey(long prefix, int n) {
+        return (n == 0 ? 0 : prefix << (63 - n)) | 1;
+    }
+
+    /**
+     * Returns the largest key of the hashes starting with a prefix of <tt>n</tt> bits.
+     */
+    public static long maxKey(long prefix, int n) {
+        return minKey(prefix, n) | (-1L >>> (n + 1));
+    }
+
+    /**
+     * Decodes the box of the cell of a prefix of <tt>n</tt> bits, as
+     * <tt>[minx, miny, maxx, maxy]</tt>.
+     */
+    public static double[] cell(long prefix, int n, Box bound) {
+        int nx = (n + 1) / 2, ny = n / 2;
+        long xi = compact(n % 2 == 0 ? prefix >>> 1 : prefix);
+        long yi = compact(n % 2 == 0 ? prefix : prefix >>> 1);
+
+        double w = (bound.r - bound.l) / (1L << nx);
+        double h = (bound.t - bound.b) / (1L << ny);
+        return new double[]{bound.l + xi * w, bound.b + yi * h,
+            bound.l + (xi + 1) * w, bound.b + (yi + 1) * h};
+    }
+
+    /**
+     * Covers a box with at most <tt>maxCells</tt> disjoint geohash cells, returned as the sorted
+     * {@link #key}s of their prefixes.
+     * <p>
+     * Starting from the whole world, the largest cell crossing the boundary of the box is split in
+     * two, dropping the halves outside the box, for as long as the cover stays within the
+     * limit. Cells within the box are not split any further. Unlike the common prefix of the
+     * corners of the box the cover stays tight for boxes straddling the boundary of a large cell,
+     * such as the equator or the prime meridian.
+     * </p>
+     * <p>
+     * The geohash of a geometry intersecting the box either starts with one of the cells, or is a
+     * prefix of one of them.
+     * </p>
+     */
+    public static long[] cover(double x1, double y1, double x2, double y2, int maxCells) {
+        Box world = Box.WGS84;
+        double[] box = new double[]{Math.max(Math.min(x1, x2), world.l),
+            Math.max(Math.min(y1, y2), world.b), Math.min(Math.max(x1, x2), world.r),
+            Math.min(Math.max(y1, y2), world.t)};
+        if (box[0] > box[2] || box[1] > box[3]) {
+            return new long[0];
+        }
+        maxCells = Math.max(1, maxCells);
+
+        List<Long> cells = new ArrayList<Long>();
+        PriorityQueue<Long> partial = new PriorityQueue<Long>(16, new Comparator<Long>() {
+            public int compare(Long k1, Long k2) {
+                return keyLength(k1) - keyLength(k2);
+            }
+        });
+
+        if (contains(box, cell(0, 0, world))) {
+            cells.add(key(0, 0, 0));
+        }
+        else {
+            partial.add(key(0, 0, 0));
+        }
+
+        while (!partial.isEmpty()) {
+            long k = partial.peek();
+            int n = keyLength(k);
+            if (n == MAX_KEY_BITS) {
+                break;
+            }
+
+            long p = keyPrefix(k);
+            double[] c0 = cell(p << 1, n + 1, world);
+            double[] c1 = cell((p << 1) | 1, n + 1, world);
+            boolean i0 = intersects(box, c0), i1 = intersects(box, c1);
+            if (i0 && i1 && cells.size() + partial.size() + 1 > maxCells) {
+                break;
+            }
+
+            partial.poll();
+            if (i0) {
+                (contains(box, c0) ? cells : partial).add(key(p << 1, n + 1, n + 1));
+            }
+            if (i1) {
+                (contains(box, c1) ? cells : partial).add(key((p << 1) | 1, n + 1, n + 1));
+            }
+        }
+        cells.addAll(partial);
+
+        long[] keys = new long[cells.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = cells.get(i);
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    static boolean intersects(double[] a, double[] b) {
+        return a[0] <= b[2] && a[2] >= b[0] && a[1] <= b[3] && a[3] >= b[1];
+    }
+
+    static boolean contains(double[] a, double[] b) {
+        return a[0] <= b[0] && a[2] >= b[2] && a[1] <= b[1] && a[3] >= b[3];
     }
 }
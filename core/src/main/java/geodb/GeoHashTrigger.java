@@ -1,10 +1,10 @@
 package geodb;
 
-import java.io.ByteArrayInputStream;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,86 +12,124 @@ import org.h2.api.Trigger;
 
 /**
  * An H2 trigger which keeps a geometric column in sync with its geohash.
- * 
+ * <p>
+ * The geohash columns of a table are the ones created by
+ * {@link GeoDB#CreateSpatialIndex_GeoHash}: <tt>_&lt;column&gt;_GEOHASH</tt>, holding the
+ * {@link GeoDB#ST_GeoHash} of the geometry, or its {@link GeoDB#ST_GeoHashKey} when the column is
+ * a <tt>BIGINT</tt>, and <tt>_&lt;column&gt;_HILBERT</tt>, holding its
+ * {@link GeoDB#ST_HilbertKey}. The trigger fills them in before rows are inserted or updated:
+ * </p>
+ * <pre>
+ * CREATE TRIGGER spatial_geohash BEFORE INSERT, UPDATE ON spatial
+ *  FOR EACH ROW CALL "geodb.GeoHashTrigger"
+ * </pre>
+ * <p>
+ * Geometries are not parsed, their envelope is scanned from the WKB read into the buffer of the
+ * {@link WKBCodec} of the thread and hashed straight from it.
+ * </p>
+ *
  * @author Justin Deoliveira, jdeolive@opengeo.org
  *
  */
 public class GeoHashTrigger implements Trigger {
 
-    int type;
-    List<Integer[]> gindex;
-    
+    static final int GEOHASH = 0;
+    static final int GEOHASH_KEY = 1;
+    static final int HILBERT = 2;
+
+    /** positions of the geometry columns */
+    int[] geoms;
+    /** positions of the matching hash columns */
+    int[] hashes;
+    /** encodings of the hash columns */
+    int[] kinds;
+
     public void fire(Connection cx, Object[] oldRow, Object[] newRow) throws SQLException {
-        
-        for (Integer[] entry: gindex ) {
-            String hash = null;
-            
-            ByteArrayInputStream input = null;
-            if ( type == INSERT ) {
-                input = (ByteArrayInputStream) newRow[entry[0]];
-            }
-            if ( type == UPDATE ) {
-                input = (ByteArrayInputStream) oldRow[entry[0]];
-            }   
-            
-            if ( input != null ) {
-                byte[] buffer = new byte[input.available()];
-                if ( buffer.length > 0 ) {
-                    input.read(buffer, 0, buffer.length);
-                    hash = GeoDB.ST_GeoHash(buffer);
-                    input.reset();
+        if (newRow == null) {
+            //deleted
+            return;
+        }
+
+        double[] e = WKBCodec.get().bounds1;
+        for (int i = 0; i < geoms.length; i++) {
+            RTreeTrigger.bounds(newRow[geoms[i]], e);
+
+            Object hash = null;
+            if (!WKBEnvelope.isEmpty(e)) {
+                double x1 = e[WKBEnvelope.MINX], y1 = e[WKBEnvelope.MINY];
+                double x2 = e[WKBEnvelope.MAXX], y2 = e[WKBEnvelope.MAXY];
+                switch(kinds[i]) {
+                case GEOHASH_KEY:
+                    hash = GeoHash.key(x1, y1, x2, y2);
+                    break;
+                case HILBERT:
+                    hash = Hilbert.key(x1, y1, x2, y2);
+                    break;
+                default:
+                    hash = GeoHash.geohash(x1, y1, x2, y2);
                 }
             }
-            
-            if ( type == INSERT ) {
-                newRow[entry[1]] = hash;
-            }
-            if ( type == UPDATE ) {
-                oldRow[entry[1]] = hash;
-            }    
-             
+            newRow[hashes[i]] = hash;
         }
-        
     }
 
-    public void init(Connection cx, String schemaName, String triggerName, String tableName, 
+    public void init(Connection cx, String schemaName, String triggerName, String tableName,
         boolean before, int type) throws SQLException {
-        this.type = type;
-        this.gindex = new ArrayList<Integer[]>();
-        
-        //figure out what the geometry columns are
+
+        //figure out what the geometry and hash columns are
         DatabaseMetaData md = cx.getMetaData();
+        List<String> names = new ArrayList<String>();
+        List<Integer> types = new ArrayList<Integer>();
         ResultSet columns = md.getColumns( null, schemaName, tableName, "%" );
-        
-        List<String> gColNames = new ArrayList();
-        for ( int i = 0; columns.next(); i++ ) {
-            String name = columns.getString("COLUMN_NAME");
-            
-            if ( name.startsWith( "_") && name.endsWith( "_geohash") ) {
-                String gColName = name.substring( 1, name.length()-8);
-                gColNames.add( gColName );
-                gindex.add( new Integer[]{null,i} );
+        try {
+            while (columns.next()) {
+                names.add(columns.getString("COLUMN_NAME"));
+                types.add(columns.getInt("DATA_TYPE"));
             }
         }
-        columns.close();
-        columns = md.getColumns( null, schemaName, tableName, "%" );
-        for( int i = 0; columns.next(); i++ ) {
-            String name = columns.getString("COLUMN_NAME");
-            int j = gColNames.indexOf( name );
-            if ( j != -1 ) {
-                gindex.get( j )[0] = i;
+        finally {
+            columns.close();
+        }
+
+        List<int[]> entries = new ArrayList<int[]>();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            String upper = name.toUpperCase();
+            if (!name.startsWith("_") || name.length() < 10) {
+                continue;
+            }
+
+            int kind;
+            if (upper.endsWith("_GEOHASH")) {
+                kind = types.get(i) == Types.BIGINT ? GEOHASH_KEY : GEOHASH;
+            }
+            else if (upper.endsWith("_HILBERT")) {
+                kind = HILBERT;
+            }
+            else {
+                continue;
             }
+
+            int geom = names.indexOf(name.substring(1, name.length() - 8));
+            if (geom != -1) {
+                entries.add(new int[]{geom, i, kind});
+            }
+        }
+
+        geoms = new int[entries.size()];
+        hashes = new int[entries.size()];
+        kinds = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            geoms[i] = entries.get(i)[0];
+            hashes[i] = entries.get(i)[1];
+            kinds[i] = entries.get(i)[2];
         }
     }
 
     public void close() throws SQLException {
-        // TODO Auto-generated method stub
-        
     }
 
     public void remove() throws SQLException {
-        // TODO Auto-generated method stub
-        
     }
 
 }
@@ -0,0 +1,357 @@
+package geodb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * A minimal GeoJSON reader, handing out the features of a feature collection one at a time so
+ * that large collections are never held in memory at once.
+ * <p>
+ * The input is either a feature collection, an array of features, or a sequence of features or
+ * geometries such as one per line. Objects are read into maps of their members, arrays into
+ * lists, and numbers into doubles.
+ * </p>
+ */
+public class GeoJSON {
+
+    final Reader in;
+    int peek = -2;
+
+    /** reading the members of a feature array, of a collection if nested */
+    boolean features, nested;
+
+    public GeoJSON(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next feature, or geometry, returning null at the end of the input.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String,Object> next() throws IOException {
+        while (true) {
+            int c = skip();
+            if (features) {
+                if (c == ',') {
+                    read();
+                    continue;
+                }
+                if (c == ']') {
+                    read();
+                    features = false;
+                    if (nested) {
+                        //skip the remaining members of the collection
+                        members(null);
+                        nested = false;
+                    }
+                    continue;
+                }
+                return (Map<String,Object>) value();
+            }
+
+            if (c == -1) {
+                return null;
+            }
+            if (c == ',') {
+                read();
+                continue;
+            }
+            if (c == '[') {
+                read();
+                features = true;
+                continue;
+            }
+            if (c != '{') {
+                throw error("Expected a GeoJSON object");
+            }
+
+            read();
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            if (members(map)) {
+                features = true;
+                nested = true;
+                continue;
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Reads the members of an object, after its opening brace, up to its closing brace. Stops
+     * early, returning true, at the opening bracket of the features of a collection.
+     */
+    boolean members(Map<String,Object> map) throws IOException {
+        while (true) {
+            int c = skip();
+            if (c == '}') {
+                read();
+                return false;
+            }
+            if (c == ',') {
+                read();
+                continue;
+            }
+
+            String key = string();
+            if (skip() != ':') {
+                throw error("Expected ':'");
+            }
+            read();
+
+            if (map != null && "features".equals(key) && skip() == '[') {
+                read();
+                return true;
+            }
+
+            Object value = value();
+            if (map != null) {
+                map.put(key, value);
+            }
+        }
+    }
+
+    Object value() throws IOException {
+        int c = skip();
+        switch(c) {
+        case '{':
+            read();
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            members(map);
+            return map;
+        case '[':
+            read();
+            List<Object> list = new ArrayList<Object>();
+            while (true) {
+                c = skip();
+                if (c == ']') {
+                    read();
+                    return list;
+                }
+                if (c == ',') {
+                    read();
+                    continue;
+                }
+                list.add(value());
+            }
+        case '"':
+            return string();
+        case 't':
+            literal("true");
+            return Boolean.TRUE;
+        case 'f':
+            literal("false");
+            return Boolean.FALSE;
+        case 'n':
+            literal("null");
+            return null;
+        case -1:
+            throw error("Unexpected end of GeoJSON");
+        default:
+            return number();
+        }
+    }
+
+    String string() throws IOException {
+        if (skip() != '"') {
+            throw error("Expected a string");
+        }
+        read();
+
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch(c) {
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    char[] hex = new char[4];
+                    for (int i = 0; i < 4; i++) {
+                        hex[i] = (char) read();
+                    }
+                    sb.append((char) Integer.parseInt(new String(hex), 16));
+                    break;
+                default:
+                    sb.append((char) c);
+                }
+            }
+            else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    Double number() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c = peek();
+        while (c != -1 && (Character.isDigit(c) || c == '-' || c == '+' || c == '.' || c == 'e'
+            || c == 'E')) {
+            sb.append((char) read());
+            c = peek();
+        }
+        try {
+            return Double.valueOf(sb.toString());
+        }
+        catch (NumberFormatException e) {
+            throw error("Invalid value '" + sb + (char) c + "'");
+        }
+    }
+
+    void literal(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (read() != s.charAt(i)) {
+                throw error("Expected " + s);
+            }
+        }
+    }
+
+    int skip() throws IOException {
+        int c = peek();
+        while (c != -1 && Character.isWhitespace(c)) {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    int peek() throws IOException {
+        if (peek == -2) {
+            peek = in.read();
+        }
+        return peek;
+    }
+
+    int read() throws IOException {
+        int c = peek();
+        peek = -2;
+        return c;
+    }
+
+    IOException error(String msg) {
+        return new IOException(msg);
+    }
+
+    //
+    // geometries
+    //
+    /**
+     * Returns the geometry of a feature, or the geometry itself if the object is not a feature.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String,Object> geometryOf(Map<String,Object> object) {
+        if ("Feature".equals(object.get("type"))) {
+            return (Map<String,Object>) object.get("geometry");
+        }
+        return object;
+    }
+
+    /**
+     * Builds a geometry from a GeoJSON geometry object.
+     */
+    @SuppressWarnings("unchecked")
+    public static Geometry geometry(Map<String,Object> object, GeometryFactory factory) {
+        if (object == null) {
+            return null;
+        }
+
+        String type = (String) object.get("type");
+        Object c = object.get("coordinates");
+        if ("Point".equals(type)) {
+            return point((List<Object>) c, factory);
+        }
+        if ("LineString".equals(type)) {
+            return factory.createLineString(coordinates((List<Object>) c));
+        }
+        if ("Polygon".equals(type)) {
+            return polygon((List<Object>) c, factory);
+        }
+        if ("MultiPoint".equals(type)) {
+            List<Object> list = (List<Object>) c;
+            Point[] points = new Point[list.size()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = point((List<Object>) list.get(i), factory);
+            }
+            return factory.createMultiPoint(points);
+        }
+        if ("MultiLineString".equals(type)) {
+            List<Object> list = (List<Object>) c;
+            LineString[] lines = new LineString[list.size()];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = factory.createLineString(coordinates((List<Object>) list.get(i)));
+            }
+            return factory.createMultiLineString(lines);
+        }
+        if ("MultiPolygon".equals(type)) {
+            List<Object> list = (List<Object>) c;
+            Polygon[] polygons = new Polygon[list.size()];
+            for (int i = 0; i < polygons.length; i++) {
+                polygons[i] = polygon((List<Object>) list.get(i), factory);
+            }
+            return factory.createMultiPolygon(polygons);
+        }
+        if ("GeometryCollection".equals(type)) {
+            List<Object> list = (List<Object>) object.get("geometries");
+            Geometry[] geometries = new Geometry[list.size()];
+            for (int i = 0; i < geometries.length; i++) {
+                geometries[i] = geometry((Map<String,Object>) list.get(i), factory);
+            }
+            return factory.createGeometryCollection(geometries);
+        }
+        throw new IllegalArgumentException("Unsupported GeoJSON geometry type: " + type);
+    }
+
+    static Point point(List<Object> c, GeometryFactory factory) {
+        return factory.createPoint(c == null || c.isEmpty() ? null : coordinate(c));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Polygon polygon(List<Object> rings, GeometryFactory factory) {
+        if (rings.isEmpty()) {
+            return factory.createPolygon((LinearRing) null, null);
+        }
+        LinearRing shell = factory.createLinearRing(coordinates((List<Object>) rings.get(0)));
+        LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; i++) {
+            holes[i] = factory.createLinearRing(coordinates((List<Object>) rings.get(i + 1)));
+        }
+        return factory.createPolygon(shell, holes);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Coordinate[] coordinates(List<Object> list) {
+        Coordinate[] c = new Coordinate[list.size()];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = coordinate((List<Object>) list.get(i));
+        }
+        return c;
+    }
+
+    static Coordinate coordinate(List<Object> c) {
+        double x = ((Number) c.get(0)).doubleValue();
+        double y = ((Number) c.get(1)).doubleValue();
+        return c.size() > 2 ? new Coordinate(x, y, ((Number) c.get(2)).doubleValue()) :
+            new Coordinate(x, y);
+    }
+}
@@ -0,0 +1,92 @@
+package geodb;
+
+/**
+ * Hilbert curve keys.
+ * <p>
+ * Like the Z-order of {@link GeoHash} the Hilbert curve maps the cells of a grid onto a line,
+ * but without its jumps: cells consecutive along the curve always share an edge. Sorting rows
+ * by the Hilbert key of their geometry keeps nearby geometries closer together, so that a window
+ * query reads fewer pages of a table clustered on it.
+ * </p>
+ * <p>
+ * Keys are computed over a grid of <tt>2^order</tt> by <tt>2^order</tt> cells. At the default
+ * order of 31 they take 62 bits and are positive <tt>BIGINT</tt>s.
+ * </p>
+ */
+public class Hilbert {
+
+    /**
+     * default order of the grid, the number of bits per axis
+     */
+    public static final int ORDER = 31;
+
+    /**
+     * Returns the key of the center of a box, over the WGS84 bounds.
+     */
+    public static long key( double x1, double y1, double x2, double y2 ) {
+        return encode((x1 + x2) / 2, (y1 + y2) / 2, Box.WGS84, ORDER);
+    }
+
+    /**
+     * Returns the key of the cell of a point.
+     */
+    public static long encode(double x, double y, Box bound, int order) {
+        if (order < 1 || order > ORDER) {
+            throw new IllegalArgumentException("Hilbert order must be between 1 and " + ORDER);
+        }
+        long max = (1L << order) - 1;
+        long xi = Math.max(0, Math.min(max,
+            (long) ((x - bound.l) / (bound.r - bound.l) * (1L << order))));
+        long yi = Math.max(0, Math.min(max,
+            (long) ((y - bound.b) / (bound.t - bound.b) * (1L << order))));
+        return encode(xi, yi, order);
+    }
+
+    /**
+     * Returns the distance along the curve of a cell.
+     */
+    public static long encode(long x, long y, int order) {
+        long d = 0;
+        for (long s = 1L << (order - 1); s > 0; s >>>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += s * s * ((3 * rx) ^ ry);
+
+            //rotate the quadrant, only the bits below s matter from here on
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = ~x;
+                    y = ~y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Returns the cell at a distance along the curve, as <tt>[x, y]</tt>.
+     */
+    public static long[] decode(long d, int order) {
+        long x = 0, y = 0;
+        for (long s = 1; s < (1L << order); s <<= 1) {
+            long rx = 1 & (d >>> 1);
+            long ry = 1 & (d ^ rx);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                long t = x;
+                x = y;
+                y = t;
+            }
+            x += s * rx;
+            y += s * ry;
+            d >>>= 2;
+        }
+        return new long[]{x, y};
+    }
+}
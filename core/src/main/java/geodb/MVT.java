@@ -0,0 +1,643 @@
+package geodb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.Puntal;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Encodes geometries as Mapbox Vector Tiles.
+ * <p>
+ * Geometries are first brought into the coordinate space of a tile by {@link #geometry}: clipped
+ * to the tile bounds, scaled to the tile extent with the y axis pointing down, simplified to
+ * half a tile unit and snapped to whole units. Features are then encoded from the WKB of these
+ * geometries by {@link #features}, walking the bytes straight into the command stream of the
+ * tile, with no geometry objects built. Consecutive repeated points are dropped, as are rings
+ * collapsed to nothing, and rings are wound as the specification requires: exteriors clockwise
+ * and holes counter clockwise, on screen.
+ * </p>
+ * <pre>
+ * SELECT ST_AsMVT(ST_AsMVTGeom(geom, ST_MakeBox2D(0, 0, 10, 10)), 'roads', 4096, id,
+ *     'name', name) FROM roads WHERE ST_Intersects(geom,
+ *     ST_GeomFromText('POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))', 4326));
+ * </pre>
+ *
+ * @see <a href="https://github.com/mapbox/vector-tile-spec">Vector Tile Specification</a>
+ */
+public final class MVT {
+
+    public static final int DEFAULT_EXTENT = 4096;
+    public static final int DEFAULT_BUFFER = 256;
+
+    /** feature geometry types */
+    public static final int POINT = 1;
+    public static final int LINESTRING = 2;
+    public static final int POLYGON = 3;
+
+    static final int MOVE_TO = 1;
+    static final int LINE_TO = 2;
+    static final int CLOSE_PATH = 7;
+
+    static final GeometryFactory factory = new GeometryFactory();
+
+    private MVT() {
+    }
+
+    /**
+     * Transforms a geometry into the coordinate space of a tile, returning null when nothing of it
+     * is left in the tile.
+     *
+     * @param bounds The bounds of the tile, in the coordinates of the geometry
+     * @param extent The size of the tile in tile units
+     * @param buffer The width of the margin around the tile kept when clipping, in tile units
+     * @param clip Whether to clip the geometry to the tile and its margin
+     */
+    public static Geometry geometry(byte[] wkb, Envelope bounds, int extent, int buffer,
+        boolean clip) {
+        if (bounds.getWidth() <= 0 || bounds.getHeight() <= 0) {
+            throw new IllegalArgumentException("Tile bounds are empty");
+        }
+
+        final double sx = extent / bounds.getWidth(), sy = extent / bounds.getHeight();
+        Envelope margin = new Envelope(bounds);
+        margin.expandBy(buffer / sx, buffer / sy);
+
+        //reject geometries away from the tile before decoding them
+        WKBCodec codec = WKBCodec.get();
+        double[] e = codec.bounds1, m = WKBEnvelope.reset(codec.bounds2);
+        m[WKBEnvelope.MINX] = margin.getMinX();
+        m[WKBEnvelope.MINY] = margin.getMinY();
+        m[WKBEnvelope.MAXX] = margin.getMaxX();
+        m[WKBEnvelope.MAXY] = margin.getMaxY();
+        if (!WKBEnvelope.envelope(wkb, e) || (clip && !WKBEnvelope.intersects(e, m))) {
+            return null;
+        }
+
+        Geometry g = GeoDB.gFromWKB(wkb);
+        if (clip && !margin.contains(g.getEnvelopeInternal())) {
+            g = g.intersection(factory.toGeometry(margin));
+            if (g.isEmpty()) {
+                return null;
+            }
+        }
+
+        //scale in place, the geometry is ours
+        final double minx = bounds.getMinX(), maxy = bounds.getMaxY();
+        g.apply(new CoordinateSequenceFilter() {
+            public void filter(CoordinateSequence seq, int i) {
+                seq.setOrdinate(i, 0, (seq.getOrdinate(i, 0) - minx) * sx);
+                seq.setOrdinate(i, 1, (maxy - seq.getOrdinate(i, 1)) * sy);
+            }
+            public boolean isDone() {
+                return false;
+            }
+            public boolean isGeometryChanged() {
+                return true;
+            }
+        });
+
+        if (!(g instanceof Puntal)) {
+            g = DouglasPeuckerSimplifier.simplify(g, 0.5);
+        }
+        g.apply(new CoordinateSequenceFilter() {
+            public void filter(CoordinateSequence seq, int i) {
+                seq.setOrdinate(i, 0, Math.round(seq.getOrdinate(i, 0)));
+                seq.setOrdinate(i, 1, Math.round(seq.getOrdinate(i, 1)));
+            }
+            public boolean isDone() {
+                return false;
+            }
+            public boolean isGeometryChanged() {
+                return true;
+            }
+        });
+
+        //snapping may make polygons self intersect
+        if (g instanceof Polygonal && !g.isValid()) {
+            g = g.buffer(0);
+        }
+        if (g.isEmpty() || (g.getDimension() > 0 && g.getLength() == 0)) {
+            return null;
+        }
+        g.setSRID(0);
+        return g;
+    }
+
+    /**
+     * A feature of a layer, its geometry already encoded.
+     */
+    public static final class Feature {
+        Long id;
+        int type;
+        int[] geometry;
+        Object[] tags;
+
+        public int getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Encodes the features of a geometry in tile coordinates, given as WKB bytes or as a stream of
+     * them, adding them to a list. A geometry encodes to a single feature, except a geometry
+     * collection which encodes to a feature per member, and to none if nothing is left of it
+     * once rounded to tile units.
+     *
+     * @param id The id of the feature, may be <code>null</code>
+     * @param tags The attributes of the feature, alternating names and values
+     */
+    public static void features(Object value, Long id, Object[] tags, List<Feature> features)
+        throws IOException {
+        byte[] b;
+        int off = 0, len;
+        WKBCodec codec = WKBCodec.get();
+        if (value instanceof byte[]) {
+            b = (byte[]) value;
+            len = b.length;
+        }
+        else {
+            len = codec.load((InputStream) value);
+            b = codec.scratch;
+        }
+        try {
+            if (BoxedWKB.isBoxed(b, off, len)) {
+                off += BoxedWKB.HEADER;
+                len -= BoxedWKB.HEADER;
+            }
+            if (len > 0) {
+                new Encoder(b, off + len, id, tags, features).feature(off);
+            }
+        }
+        finally {
+            codec.releaseScratch();
+        }
+    }
+
+    /**
+     * Walks WKB in tile coordinates, encoding it into features.
+     */
+    static class Encoder {
+        final byte[] b;
+        final int end;
+        final Long id;
+        final Object[] tags;
+        final List<Feature> features;
+
+        //command stream of the current feature, and its cursor
+        int[] out = new int[64];
+        int n;
+        int cx, cy;
+
+        //points of the current ring or line
+        int[] xs = new int[64], ys = new int[64];
+
+        //header of the last geometry read
+        boolean le;
+        int type;
+        int dim;
+
+        Encoder(byte[] b, int end, Long id, Object[] tags, List<Feature> features) {
+            this.b = b;
+            this.end = end;
+            this.id = id;
+            this.tags = tags;
+            this.features = features;
+        }
+
+        int header(int pos) {
+            if (pos + 5 > end) {
+                throw new IllegalArgumentException("Invalid WKB, unexpected end of geometry");
+            }
+            le = b[pos] == 1;
+            int typeInt = WKBEnvelope.readInt(b, pos + 1, le);
+            pos += 5;
+
+            type = typeInt & 0xffff;
+            boolean z = (typeInt & 0x80000000) != 0;
+            boolean m = (typeInt & 0x40000000) != 0;
+            if ((typeInt & 0x20000000) != 0) {
+                //skip the srid
+                pos += 4;
+            }
+            if (type >= 1000) {
+                //iso style type codes
+                int d = type / 1000;
+                z = z || d == 1 || d == 3;
+                m = m || d == 2 || d == 3;
+                type = type % 1000;
+            }
+            dim = 2 + (z ? 1 : 0) + (m ? 1 : 0);
+            return pos;
+        }
+
+        /**
+         * Encodes a geometry into a feature, or a collection into a feature per member, returning
+         * the position following it.
+         */
+        int feature(int pos) {
+            pos = header(pos);
+            int kind;
+            switch (type) {
+            case WKBEnvelope.POINT:
+            case WKBEnvelope.MULTIPOINT:
+                kind = POINT;
+                break;
+            case WKBEnvelope.LINESTRING:
+            case WKBEnvelope.MULTILINESTRING:
+                kind = LINESTRING;
+                break;
+            case WKBEnvelope.POLYGON:
+            case WKBEnvelope.MULTIPOLYGON:
+                kind = POLYGON;
+                break;
+            case WKBEnvelope.GEOMETRYCOLLECTION:
+                int ngeoms = WKBEnvelope.readInt(b, pos, le);
+                pos += 4;
+                for (int i = 0; i < ngeoms; i++) {
+                    pos = feature(pos);
+                }
+                return pos;
+            default:
+                throw new IllegalArgumentException("Invalid WKB, unknown geometry type " + type);
+            }
+
+            n = 0;
+            cx = cy = 0;
+            if (type >= WKBEnvelope.MULTIPOINT) {
+                int ngeoms = WKBEnvelope.readInt(b, pos, le);
+                pos += 4;
+                if (kind == POINT) {
+                    //a single move to covering every point
+                    int cmd = command(MOVE_TO, 0);
+                    int count = 0;
+                    for (int i = 0; i < ngeoms; i++) {
+                        pos = header(pos);
+                        count += points(pos, 1);
+                        pos += dim * 8;
+                    }
+                    out[cmd] = MOVE_TO | count << 3;
+                    if (count == 0) {
+                        n = 0;
+                    }
+                }
+                else {
+                    for (int i = 0; i < ngeoms; i++) {
+                        pos = part(header(pos), kind);
+                    }
+                }
+            }
+            else {
+                pos = part(pos, kind);
+            }
+
+            if (n > 0) {
+                Feature f = new Feature();
+                f.id = id;
+                f.type = kind;
+                f.geometry = new int[n];
+                System.arraycopy(out, 0, f.geometry, 0, n);
+                f.tags = tags;
+                features.add(f);
+            }
+            return pos;
+        }
+
+        /**
+         * Encodes a point, line or polygon, returning the position following it.
+         */
+        int part(int pos, int kind) {
+            if (kind == POINT) {
+                int cmd = command(MOVE_TO, 0);
+                if (points(pos, 1) == 0) {
+                    n = cmd;
+                }
+                else {
+                    out[cmd] = MOVE_TO | 1 << 3;
+                }
+                return pos + dim * 8;
+            }
+
+            if (kind == LINESTRING) {
+                int npoints = WKBEnvelope.readInt(b, pos, le);
+                pos += 4;
+                int count = read(pos, npoints);
+                if (count >= 2) {
+                    line(count, false);
+                }
+                return WKBEnvelope.skip(pos, end, npoints, dim);
+            }
+
+            int nrings = WKBEnvelope.readInt(b, pos, le);
+            pos += 4;
+            boolean shell = true;
+            for (int i = 0; i < nrings; i++) {
+                int npoints = WKBEnvelope.readInt(b, pos, le);
+                pos += 4;
+                int count = read(pos, npoints);
+                pos = WKBEnvelope.skip(pos, end, npoints, dim);
+
+                //the closing point is implied by the close path command
+                if (count > 1 && xs[0] == xs[count - 1] && ys[0] == ys[count - 1]) {
+                    count--;
+                }
+                long area = count >= 3 ? area(count) : 0;
+                if (area == 0) {
+                    if (i == 0) {
+                        //holes are meaningless without their shell
+                        shell = false;
+                    }
+                    continue;
+                }
+                if (!shell) {
+                    continue;
+                }
+                if ((i == 0) != (area > 0)) {
+                    reverse(count);
+                }
+                line(count, true);
+            }
+            return pos;
+        }
+
+        /**
+         * Reads the points of a line or ring, rounded and without consecutive repeats, returning
+         * their number.
+         */
+        int read(int pos, int npoints) {
+            WKBEnvelope.skip(pos, end, npoints, dim);
+            if (xs.length < npoints) {
+                xs = new int[npoints];
+                ys = new int[npoints];
+            }
+            int count = 0;
+            for (int i = 0; i < npoints; i++, pos += dim * 8) {
+                double x = WKBEnvelope.readDouble(b, pos, le);
+                if (Double.isNaN(x)) {
+                    continue;
+                }
+                int ix = (int) Math.round(x);
+                int iy = (int) Math.round(WKBEnvelope.readDouble(b, pos + 8, le));
+                if (count > 0 && xs[count - 1] == ix && ys[count - 1] == iy) {
+                    continue;
+                }
+                xs[count] = ix;
+                ys[count] = iy;
+                count++;
+            }
+            return count;
+        }
+
+        /**
+         * Writes the parameters of <tt>count</tt> points straight from the WKB, returning the
+         * number of points written.
+         */
+        int points(int pos, int count) {
+            int written = 0;
+            for (int i = 0; i < count; i++, pos += dim * 8) {
+                double x = WKBEnvelope.readDouble(b, pos, le);
+                if (!Double.isNaN(x)) {
+                    point((int) Math.round(x),
+                        (int) Math.round(WKBEnvelope.readDouble(b, pos + 8, le)));
+                    written++;
+                }
+            }
+            return written;
+        }
+
+        /**
+         * Twice the signed area of the ring read, by the surveyor's formula.
+         */
+        long area(int count) {
+            long a = 0;
+            for (int i = 0, j = count - 1; i < count; j = i++) {
+                a += (long) xs[j] * ys[i] - (long) xs[i] * ys[j];
+            }
+            return a;
+        }
+
+        void reverse(int count) {
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                int t = xs[i];
+                xs[i] = xs[j];
+                xs[j] = t;
+                t = ys[i];
+                ys[i] = ys[j];
+                ys[j] = t;
+            }
+        }
+
+        void line(int count, boolean ring) {
+            command(MOVE_TO, 1);
+            point(xs[0], ys[0]);
+            command(LINE_TO, count - 1);
+            for (int i = 1; i < count; i++) {
+                point(xs[i], ys[i]);
+            }
+            if (ring) {
+                command(CLOSE_PATH, 1);
+            }
+        }
+
+        /**
+         * Writes a command, returning its position in the stream.
+         */
+        int command(int id, int count) {
+            ensure(1);
+            out[n] = id | count << 3;
+            return n++;
+        }
+
+        void point(int x, int y) {
+            ensure(2);
+            out[n++] = zigzag(x - cx);
+            out[n++] = zigzag(y - cy);
+            cx = x;
+            cy = y;
+        }
+
+        void ensure(int k) {
+            if (n + k > out.length) {
+                int[] o = new int[Math.max(out.length * 2, n + k)];
+                System.arraycopy(out, 0, o, 0, n);
+                out = o;
+            }
+        }
+
+        static int zigzag(int v) {
+            return (v << 1) ^ (v >> 31);
+        }
+    }
+
+    /**
+     * Encodes a tile of a single layer holding the specified features.
+     *
+     * @param name The name of the layer
+     * @param extent The size of the tile in tile units
+     */
+    public static byte[] tile(String name, int extent, List<Feature> features) {
+        if (features.isEmpty()) {
+            return new byte[0];
+        }
+
+        //the attributes of the features are indexes into shared lists of keys and values
+        Map<String,Integer> keys = new HashMap<String,Integer>();
+        Map<Object,Integer> values = new HashMap<Object,Integer>();
+        List<String> keyList = new ArrayList<String>();
+        List<Object> valueList = new ArrayList<Object>();
+
+        Writer layer = new Writer();
+        layer.varint(15, 2);
+        layer.string(1, name);
+
+        Writer feature = new Writer();
+        Writer packed = new Writer();
+        for (Feature f : features) {
+            feature.reset();
+            if (f.id != null && f.id >= 0) {
+                feature.varint(1, f.id);
+            }
+            if (f.tags != null) {
+                packed.reset();
+                for (int i = 0; i + 1 < f.tags.length; i += 2) {
+                    Object value = value(f.tags[i + 1]);
+                    if (f.tags[i] == null || value == null) {
+                        continue;
+                    }
+                    String key = f.tags[i].toString();
+                    Integer k = keys.get(key);
+                    if (k == null) {
+                        keys.put(key, k = keyList.size());
+                        keyList.add(key);
+                    }
+                    Integer v = values.get(value);
+                    if (v == null) {
+                        values.put(value, v = valueList.size());
+                        valueList.add(value);
+                    }
+                    packed.varint(k);
+                    packed.varint(v);
+                }
+                feature.bytes(2, packed);
+            }
+            feature.varint(3, f.type);
+
+            packed.reset();
+            for (int c : f.geometry) {
+                packed.varint(c & 0xffffffffL);
+            }
+            feature.bytes(4, packed);
+            layer.bytes(2, feature);
+        }
+
+        for (String key : keyList) {
+            layer.string(3, key);
+        }
+        Writer v = new Writer();
+        for (Object value : valueList) {
+            v.reset();
+            if (value instanceof String) {
+                v.string(1, (String) value);
+            }
+            else if (value instanceof Double) {
+                v.tag(3, 1);
+                v.fixed64(Double.doubleToLongBits((Double) value));
+            }
+            else if (value instanceof Boolean) {
+                v.varint(7, ((Boolean) value) ? 1 : 0);
+            }
+            else {
+                long l = (Long) value;
+                if (l >= 0) {
+                    v.varint(5, l);
+                }
+                else {
+                    v.varint(6, (l << 1) ^ (l >> 63));
+                }
+            }
+            layer.bytes(4, v);
+        }
+        layer.varint(5, extent);
+
+        Writer tile = new Writer();
+        tile.bytes(3, layer);
+        return tile.toByteArray();
+    }
+
+    /**
+     * Normalizes an attribute value to a string, double, long or boolean, so equal values share an
+     * index.
+     */
+    static Object value(Object value) {
+        if (value == null || value instanceof String || value instanceof Boolean) {
+            return value;
+        }
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return value.toString();
+    }
+
+    /**
+     * Writes protocol buffer fields.
+     */
+    static class Writer extends ByteArrayOutputStream {
+
+        void tag(int field, int wire) {
+            varint(field << 3 | wire);
+        }
+
+        void varint(long v) {
+            while ((v & ~0x7fL) != 0) {
+                write((int) (v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void varint(int field, long v) {
+            tag(field, 0);
+            varint(v);
+        }
+
+        void fixed64(long v) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (v >>> (i * 8)) & 0xff);
+            }
+        }
+
+        void string(int field, String s) {
+            byte[] utf8;
+            try {
+                utf8 = s.getBytes("UTF-8");
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            tag(field, 2);
+            varint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        void bytes(int field, Writer w) {
+            tag(field, 2);
+            varint(w.size());
+            write(w.buf, 0, w.count);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package geodb;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Opt-in instrumentation of the spatial predicates and aggregates.
+ * <p>
+ * Every instrumented function has its {@link Stats}: the number of calls, of calls answered by the
+ * envelope check alone, of geometries decoded and their size in bytes, the time spent decoding,
+ * and a histogram of call latencies. Decoding is attributed to the function being called on the
+ * thread, through its {@link WKBCodec}, or to <tt>decode</tt> outside of one.
+ * </p>
+ * <p>
+ * Collection is off unless the <tt>geodb.stats</tt> system property is set, or it is turned on
+ * with <tt>CALL GeoDB_EnableStats(true)</tt>. While off an instrumented call costs a single
+ * volatile read. While on the statistics are published as <tt>geodb:type=Stats</tt> MBeans and
+ * returned by <tt>SELECT * FROM GeoDB_Stats()</tt>.
+ * </p>
+ */
+public final class Metrics {
+
+    static volatile boolean enabled = Boolean.getBoolean("geodb.stats");
+
+    static final Map<String,Stats> stats = new ConcurrentHashMap<String,Stats>();
+
+    /** statistics of the decoding done outside of an instrumented function */
+    static final Stats DECODE = stats("decode");
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns collection on or off. Statistics are kept when collection is turned off.
+     */
+    public static synchronized void setEnabled(boolean on) {
+        if (on && !enabled) {
+            for (Stats s : stats.values()) {
+                s.register();
+            }
+        }
+        enabled = on;
+    }
+
+    /**
+     * Returns the statistics of a function, creating them if need be.
+     */
+    public static Stats stats(String name) {
+        Stats s = stats.get(name);
+        if (s == null) {
+            synchronized (Metrics.class) {
+                s = stats.get(name);
+                if (s == null) {
+                    s = new Stats(name);
+                    stats.put(name, s);
+                    if (enabled) {
+                        s.register();
+                    }
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Returns the statistics of all the functions.
+     */
+    public static List<Stats> all() {
+        return new ArrayList<Stats>(stats.values());
+    }
+
+    /**
+     * Zeroes the statistics of all the functions.
+     */
+    public static void reset() {
+        for (Stats s : stats.values()) {
+            s.reset();
+        }
+    }
+
+    /**
+     * Records the decoding of a geometry.
+     */
+    static void decoded(Stats current, int bytes, long nanos) {
+        Stats s = current != null ? current : DECODE;
+        s.decodes.add(1);
+        s.bytes.add(bytes);
+        s.parseNanos.add(nanos);
+    }
+
+    /**
+     * The management interface of {@link Stats}.
+     */
+    public static interface StatsMBean {
+        String getName();
+
+        long getCalls();
+
+        long getRejects();
+
+        long getDecodes();
+
+        long getBytesDecoded();
+
+        long getParseNanos();
+
+        long getMeanNanos();
+
+        long getP50Nanos();
+
+        long getP99Nanos();
+
+        long getMaxNanos();
+
+        void reset();
+    }
+
+    /**
+     * The statistics of a function.
+     * <pre>
+     * long t = STATS.start();
+     * try {
+     *     ...
+     * }
+     * finally {
+     *     STATS.end(t);
+     * }
+     * </pre>
+     */
+    public static final class Stats implements StatsMBean {
+
+        final String name;
+        final Counter calls = new Counter();
+        final Counter rejects = new Counter();
+        final Counter decodes = new Counter();
+        final Counter bytes = new Counter();
+        final Counter parseNanos = new Counter();
+        final Histogram latency = new Histogram();
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Marks the start of a call, returning the token to pass to {@link #end}, 0 when
+         * collection is off.
+         */
+        public long start() {
+            if (!enabled) {
+                return 0;
+            }
+            WKBCodec.get().current = this;
+            return System.nanoTime();
+        }
+
+        /**
+         * Marks the end of a call.
+         */
+        public void end(long start) {
+            if (start == 0) {
+                return;
+            }
+            long t = System.nanoTime() - start;
+            WKBCodec.get().current = null;
+            calls.add(1);
+            latency.record(t);
+        }
+
+        /**
+         * Records a call answered by comparing envelopes, without decoding the geometries.
+         */
+        public void reject() {
+            if (enabled) {
+                rejects.add(1);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public long getRejects() {
+            return rejects.sum();
+        }
+
+        public long getDecodes() {
+            return decodes.sum();
+        }
+
+        public long getBytesDecoded() {
+            return bytes.sum();
+        }
+
+        public long getParseNanos() {
+            return parseNanos.sum();
+        }
+
+        public long getMeanNanos() {
+            return latency.mean();
+        }
+
+        public long getP50Nanos() {
+            return latency.percentile(50);
+        }
+
+        public long getP99Nanos() {
+            return latency.percentile(99);
+        }
+
+        public long getMaxNanos() {
+            return latency.max();
+        }
+
+        public long percentile(double p) {
+            return latency.percentile(p);
+        }
+
+        public void reset() {
+            calls.reset();
+            rejects.reset();
+            decodes.reset();
+            bytes.reset();
+            parseNanos.reset();
+            latency.reset();
+        }
+
+        void register() {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName on = new ObjectName("geodb:type=Stats,name=" + ObjectName.quote(name));
+                if (!server.isRegistered(on)) {
+                    server.registerMBean(new StandardMBean(this, StatsMBean.class), on);
+                }
+            }
+            catch (Exception e) {
+                //no jmx, the stats table function still works
+            }
+        }
+    }
+
+    /**
+     * A counter striped across threads, so that threads counting at once do not contend on a
+     * single value.
+     */
+    static final class Counter {
+
+        /** longs per stripe, so that stripes sit on different cache lines */
+        static final int PAD = 8;
+        static final int STRIPES;
+        static {
+            int n = 1;
+            while (n < Math.min(64, Runtime.getRuntime().availableProcessors() * 2)) {
+                n <<= 1;
+            }
+            STRIPES = n;
+        }
+
+        final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+        void add(long n) {
+            int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+            cells.addAndGet(stripe * PAD, n);
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += cells.get(i * PAD);
+            }
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) {
+                cells.set(i * PAD, 0);
+            }
+        }
+    }
+
+    /**
+     * A histogram of positive values with log-linear buckets: 16 buckets per power of two, so
+     * any recorded value is known within about 6%, in under 1000 buckets for the whole range of
+     * longs.
+     */
+    static final class Histogram {
+
+        static final int SUB_BITS = 4;
+        static final int SUB = 1 << SUB_BITS;
+        static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+        final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        final Counter total = new Counter();
+        final AtomicLongArray max = new AtomicLongArray(1);
+
+        static int bucket(long v) {
+            if (v < SUB) {
+                return (int) Math.max(0, v);
+            }
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (e - SUB_BITS)) - SUB;
+            return (e - SUB_BITS + 1) * SUB + sub;
+        }
+
+        /**
+         * Returns the smallest value falling in a bucket.
+         */
+        static long lowest(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int e = bucket / SUB + SUB_BITS - 1;
+            return (long) (SUB + bucket % SUB) << (e - SUB_BITS);
+        }
+
+        void record(long v) {
+            counts.incrementAndGet(bucket(v));
+            total.add(v);
+            long m = max.get(0);
+            while (v > m && !max.compareAndSet(0, m, v)) {
+                m = max.get(0);
+            }
+        }
+
+        long count() {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += counts.get(i);
+            }
+            return n;
+        }
+
+        long mean() {
+            long n = count();
+            return n > 0 ? total.sum() / n : 0;
+        }
+
+        long max() {
+            return max.get(0);
+        }
+
+        /**
+         * Returns the value below which <tt>p</tt> percent of the recorded values fall, as the
+         * upper end of its bucket.
+         */
+        long percentile(double p) {
+            long n = count();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * p / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= Math.max(1, rank)) {
+                    return i + 1 < BUCKETS ? Math.min(max(), lowest(i + 1) - 1) : max();
+                }
+            }
+            return max();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            max.set(0, 0);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package geodb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pool for spreading CPU bound work, such as computing envelopes or geohashes while
+ * building an index, across cores.
+ * <p>
+ * The pool has one thread per available processor unless the <tt>geodb.threads</tt> system
+ * property says otherwise. Its threads are daemons, created on first use.
+ * </p>
+ */
+public final class Parallel {
+
+    /**
+     * default number of rows per partition of a {@link #scan}
+     */
+    public static final int BATCH = 10000;
+
+    static ExecutorService pool;
+
+    private Parallel() {
+    }
+
+    /**
+     * Returns the number of worker threads.
+     */
+    public static int threads() {
+        return Math.max(1, Integer.getInteger("geodb.threads",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the shared worker pool.
+     */
+    public static synchronized ExecutorService pool() {
+        if (pool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(threads(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "geodb-worker-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Processes a partition of rows, given as their primary keys and geometry values, on a worker
+     * thread. Workers must not use the connection being scanned.
+     */
+    public static interface Task<T> {
+        T process(long[] ids, byte[][] values, int n) throws Exception;
+    }
+
+    /**
+     * Receives the result of a {@link Task} on the scanning thread, in primary key order.
+     */
+    public static interface Collector<T> {
+        void collect(long[] ids, int n, T result) throws Exception;
+    }
+
+    /**
+     * Scans the geometry column of a table in primary key ranges of about <tt>batch</tt> rows.
+     * <p>
+     * The rows are read on the calling thread, since H2 executes the statements of a connection
+     * one at a time, and each range is handed to the pool to be processed while the next one is
+     * read. Results are passed to the collector on the calling thread in the order of the ranges.
+     * </p>
+     *
+     * @param table The quoted, and possibly schema qualified, table name
+     * @param pk The quoted name of the numeric primary key column
+     * @param column The quoted name of the geometry column
+     */
+    public static <T> void scan(Connection cx, String table, String pk, String column, int batch,
+        final Task<T> task, final Collector<T> collector) throws SQLException {
+
+        long min, max, count;
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT MIN(" + pk + "), MAX(" + pk + "), COUNT(*) FROM "
+                + table);
+            try {
+                rs.next();
+                min = rs.getLong(1);
+                max = rs.getLong(2);
+                count = rs.getLong(3);
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            st.close();
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        //split the key range evenly, assuming keys are spread evenly as well
+        long partitions = (count + batch - 1) / batch;
+        long width = Math.max(1, (max / partitions - min / partitions) + 1);
+
+        Pipeline<Partition<T>> pipeline = new Pipeline<Partition<T>>() {
+            protected void collect(Partition<T> p) throws Exception {
+                collector.collect(p.ids, p.n, p.result);
+            }
+        };
+
+        PreparedStatement ps = cx.prepareStatement("SELECT " + pk + ", " + column + " FROM "
+            + table + " WHERE " + pk + " >= ? AND " + pk + " <= ?");
+        try {
+            for (long lo = min; lo <= max; lo += width) {
+                long hi = max - lo < width ? max : lo + width - 1;
+                ps.setLong(1, lo);
+                ps.setLong(2, hi);
+
+                final Partition<T> p = new Partition<T>();
+                ResultSet rs = ps.executeQuery();
+                try {
+                    while (rs.next()) {
+                        p.add(rs.getLong(1), rs.getBytes(2));
+                    }
+                }
+                finally {
+                    rs.close();
+                }
+
+                if (p.n == 0) {
+                    if (hi == max) {
+                        break;
+                    }
+                    continue;
+                }
+
+                pipeline.submit(new Callable<Partition<T>>() {
+                    public Partition<T> call() throws Exception {
+                        p.result = task.process(p.ids, p.values, p.n);
+                        return p;
+                    }
+                });
+
+                if (hi == max) {
+                    break;
+                }
+            }
+            pipeline.finish();
+        }
+        finally {
+            pipeline.cancel();
+            ps.close();
+        }
+    }
+
+    /**
+     * Runs tasks on the pool while the calling thread prepares the next ones, handing their
+     * results back on the calling thread in the order the tasks were submitted. At most two tasks
+     * per thread are in flight at once, which bounds the memory held by pending work.
+     */
+    public static abstract class Pipeline<T> {
+
+        final LinkedList<Future<T>> pending = new LinkedList<Future<T>>();
+        final int inflight = threads() * 2;
+
+        /**
+         * Submits a task, first collecting the oldest results if too many are in flight.
+         */
+        public void submit(Callable<T> task) throws SQLException {
+            pending.add(pool().submit(task));
+            while (pending.size() >= inflight) {
+                done(pending.removeFirst());
+            }
+        }
+
+        /**
+         * Waits for and collects the results of all the tasks submitted.
+         */
+        public void finish() throws SQLException {
+            while (!pending.isEmpty()) {
+                done(pending.removeFirst());
+            }
+        }
+
+        /**
+         * Cancels the tasks still in flight, after an error.
+         */
+        public void cancel() {
+            for (Future<T> f : pending) {
+                f.cancel(true);
+            }
+            pending.clear();
+        }
+
+        void done(Future<T> f) throws SQLException {
+            try {
+                collect(f.get());
+            }
+            catch (ExecutionException e) {
+                throw (SQLException) new SQLException("Error processing rows").initCause(e.getCause());
+            }
+            catch (SQLException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw (SQLException) new SQLException("Error processing rows").initCause(e);
+            }
+        }
+
+        /**
+         * Receives the result of a task on the calling thread.
+         */
+        protected abstract void collect(T result) throws Exception;
+    }
+
+    static class Partition<T> {
+        long[] ids = new long[256];
+        byte[][] values = new byte[256][];
+        int n;
+        T result;
+
+        void add(long id, byte[] value) {
+            if (n == ids.length) {
+                long[] l = new long[n * 2];
+                System.arraycopy(ids, 0, l, 0, n);
+                ids = l;
+
+                byte[][] v = new byte[n * 2][];
+                System.arraycopy(values, 0, v, 0, n);
+                values = v;
+            }
+            ids[n] = id;
+            values[n] = value;
+            n++;
+        }
+    }
+}
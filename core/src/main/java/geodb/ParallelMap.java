@@ -0,0 +1,290 @@
+package geodb;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+
+import org.h2.tools.SimpleResultSet;
+import org.h2.tools.SimpleRowSource;
+
+import org.locationtech.jts.io.WKBReader;
+
+/**
+ * Applies a geometry function of {@link GeoDB}, such as <tt>ST_Buffer</tt>, to the rows of a
+ * query on the {@link Parallel} pool.
+ * <p>
+ * The rows of the query are read on the calling thread in chunks, each chunk handed to the pool,
+ * and the results read back in the order of the rows as H2 asks for them. Chunks are small, so
+ * that threads which finish early pick up the next chunk rather than wait on a slow one, and only
+ * two chunks per thread are in flight at once, so the rows of the query are not all held in
+ * memory.
+ * </p>
+ * <p>
+ * The geometry is the last column of the query; the other columns are returned unchanged,
+ * followed by the result of the function in a column named after it.
+ * </p>
+ */
+class ParallelMap implements SimpleRowSource {
+
+    /** rows per task */
+    static final int CHUNK = 64;
+
+    static class Chunk {
+        Object[][] rows = new Object[CHUNK][];
+        int n;
+    }
+
+    final Method method;
+    final String[] args;
+    final int columns;
+    final boolean[] binary;
+
+    Statement st;
+    ResultSet input;
+    Parallel.Pipeline<Chunk> pipeline;
+    final LinkedList<Object[]> ready = new LinkedList<Object[]>();
+
+    ParallelMap(Method method, String[] args, Statement st, ResultSet input) throws SQLException {
+        this.method = method;
+        this.args = args;
+        this.st = st;
+        this.input = input;
+
+        ResultSetMetaData md = input.getMetaData();
+        columns = md.getColumnCount();
+        binary = new boolean[columns];
+        for (int i = 0; i < columns; i++) {
+            binary[i] = isBinary(md.getColumnType(i + 1));
+        }
+
+        pipeline = new Parallel.Pipeline<Chunk>() {
+            protected void collect(Chunk c) {
+                for (int i = 0; i < c.n; i++) {
+                    ready.add(c.rows[i]);
+                }
+            }
+        };
+    }
+
+    /**
+     * Executes a query and returns its rows with the function applied to their geometry.
+     *
+     * @param function The name of a function of {@link GeoDB} taking a geometry first
+     * @param args The arguments of the function following the geometry
+     */
+    static ResultSet map(Connection cx, String sql, String function, String[] args)
+        throws SQLException {
+        Method method = lookup(function, args);
+
+        Statement st = cx.createStatement();
+        try {
+            if (GeoDB.isColumnList(cx)) {
+                //only the columns are needed
+                ResultSet rs = st.executeQuery("SELECT * FROM (" + sql + ") WHERE 1=0");
+                SimpleResultSet result = new SimpleResultSet();
+                columns(result, rs.getMetaData(), method);
+                st.close();
+                return result;
+            }
+
+            ResultSet rs = st.executeQuery(sql);
+            ParallelMap map = new ParallelMap(method, args, st, rs);
+            SimpleResultSet result = new SimpleResultSet(map);
+            columns(result, rs.getMetaData(), method);
+            return result;
+        }
+        catch (SQLException e) {
+            st.close();
+            throw e;
+        }
+    }
+
+    static void columns(SimpleResultSet result, ResultSetMetaData md, Method method)
+        throws SQLException {
+        int n = md.getColumnCount();
+        if (n == 0) {
+            throw new SQLException("Query has no geometry column");
+        }
+        //binary values are handed back as bytes, which H2 does not turn back into a BLOB
+        for (int i = 1; i < n; i++) {
+            int type = isBinary(md.getColumnType(i)) ? Types.VARBINARY : md.getColumnType(i);
+            result.addColumn(md.getColumnLabel(i), type, md.getPrecision(i), md.getScale(i));
+        }
+
+        Class<?> type = method.getReturnType();
+        if (type == byte[].class) {
+            result.addColumn(method.getName().toUpperCase(), Types.VARBINARY, Integer.MAX_VALUE, 0);
+        }
+        else if (type == double.class || type == Double.class) {
+            result.addColumn(method.getName().toUpperCase(), Types.DOUBLE, 17, 0);
+        }
+        else if (type == int.class || type == Integer.class) {
+            result.addColumn(method.getName().toUpperCase(), Types.INTEGER, 10, 0);
+        }
+        else if (type == long.class || type == Long.class) {
+            result.addColumn(method.getName().toUpperCase(), Types.BIGINT, 19, 0);
+        }
+        else if (type == boolean.class || type == Boolean.class) {
+            result.addColumn(method.getName().toUpperCase(), Types.BOOLEAN, 1, 0);
+        }
+        else if (type == String.class) {
+            result.addColumn(method.getName().toUpperCase(), Types.VARCHAR, Integer.MAX_VALUE, 0);
+        }
+        else {
+            result.addColumn(method.getName().toUpperCase(), Types.JAVA_OBJECT, Integer.MAX_VALUE,
+                0);
+        }
+    }
+
+    /**
+     * Looks up a public static function of {@link GeoDB} by name, ignoring case, taking a
+     * geometry followed by as many parameters as there are arguments.
+     */
+    static Method lookup(String function, String[] args) throws SQLException {
+        Method found = null;
+        for (Method m : GeoDB.class.getMethods()) {
+            if (!Modifier.isStatic(m.getModifiers()) || !m.getName().equalsIgnoreCase(function)) {
+                continue;
+            }
+            Class<?>[] params = m.getParameterTypes();
+            if (params.length != args.length + 1 || params[0] != byte[].class) {
+                continue;
+            }
+            if (found == null || accepts(params, args)) {
+                found = m;
+            }
+        }
+        if (found == null) {
+            throw new SQLException("No geometry function " + function + " taking " + args.length +
+                " arguments");
+        }
+        return found;
+    }
+
+    static boolean accepts(Class<?>[] params, String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] != null && convert(args[i], params[i + 1]) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts an argument to a parameter type, returning <code>null</code> if it can not be.
+     */
+    static Object convert(String arg, Class<?> type) {
+        if (arg == null || type == String.class) {
+            return arg;
+        }
+        try {
+            if (type == double.class || type == Double.class) {
+                return Double.valueOf(arg);
+            }
+            if (type == int.class || type == Integer.class) {
+                return Integer.valueOf(arg);
+            }
+            if (type == long.class || type == Long.class) {
+                return Long.valueOf(arg);
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return Boolean.valueOf(arg);
+            }
+            if (type == byte[].class) {
+                //geometries are converted to strings as hex encoded wkb
+                return WKBReader.hexToBytes(arg);
+            }
+        }
+        catch (RuntimeException e) {
+            //not a number, or not hex
+        }
+        return null;
+    }
+
+    static boolean isBinary(int type) {
+        return type == Types.BLOB || type == Types.BINARY || type == Types.VARBINARY ||
+            type == Types.LONGVARBINARY;
+    }
+
+    public Object[] readRow() throws SQLException {
+        while (ready.isEmpty() && input != null) {
+            final Chunk c = new Chunk();
+            while (c.n < CHUNK && input.next()) {
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++) {
+                    row[i] = binary[i] ? input.getBytes(i + 1) : input.getObject(i + 1);
+                }
+                c.rows[c.n++] = row;
+            }
+            if (c.n < CHUNK) {
+                input.close();
+                input = null;
+            }
+            if (c.n > 0) {
+                pipeline.submit(new Callable<Chunk>() {
+                    public Chunk call() throws Exception {
+                        apply(c);
+                        return c;
+                    }
+                });
+            }
+            if (input == null) {
+                pipeline.finish();
+            }
+        }
+        return ready.isEmpty() ? null : ready.removeFirst();
+    }
+
+    void apply(Chunk c) throws Exception {
+        Class<?>[] params = method.getParameterTypes();
+        Object[] values = new Object[params.length];
+        for (int i = 1; i < params.length; i++) {
+            values[i] = convert(args[i - 1], params[i]);
+            if (values[i] == null && params[i].isPrimitive()) {
+                //a null argument gives null results, as it would when calling the function
+                for (int j = 0; j < c.n; j++) {
+                    c.rows[j][columns - 1] = null;
+                }
+                return;
+            }
+        }
+
+        for (int i = 0; i < c.n; i++) {
+            Object[] row = c.rows[i];
+            values[0] = row[columns - 1];
+            try {
+                row[columns - 1] = values[0] != null ? method.invoke(null, values) : null;
+            }
+            catch (InvocationTargetException e) {
+                Throwable t = e.getCause();
+                throw t instanceof Exception ? (Exception) t : e;
+            }
+        }
+    }
+
+    public void close() {
+        pipeline.cancel();
+        try {
+            if (input != null) {
+                input.close();
+            }
+            st.close();
+        }
+        catch (SQLException e) {
+            //ignore
+        }
+        input = null;
+    }
+
+    public void reset() throws SQLException {
+        throw new SQLException("Result of GeoDB_ParallelMap can only be read once");
+    }
+}
@@ -0,0 +1,130 @@
+package geodb;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Per-thread cache of prepared geometries keyed by their WKB bytes.
+ * <p>
+ * Spatial predicates are very often evaluated with one constant argument, as in
+ * <tt>ST_Intersects(geom, ST_GeomFromText('POLYGON(...)'))</tt>. H2 hands the functions a new copy
+ * of the constant for every row, so this cache recognizes it by content: the first time some bytes
+ * are seen they are only remembered, the second time they are parsed into a JTS
+ * {@link PreparedGeometry} which is then reused for as long as the bytes keep coming back.
+ * </p>
+ * <p>
+ * The cache is a small LRU map held per thread, so neither the map nor the lazily built indexes of
+ * the prepared geometries need any synchronization.
+ * </p>
+ */
+final class PreparedGeometryCache {
+
+    /**
+     * maximum number of entries per thread
+     */
+    static final int SIZE = 16;
+
+    static final ThreadLocal<PreparedGeometryCache> caches =
+        new ThreadLocal<PreparedGeometryCache>() {
+        protected PreparedGeometryCache initialValue() {
+            return new PreparedGeometryCache();
+        }
+    };
+
+    /**
+     * Looks up the prepared version of a geometry, returning null if it has not been seen often
+     * enough to be worth preparing.
+     */
+    static PreparedGeometry lookup(byte[] wkb) {
+        return caches.get().get(wkb);
+    }
+
+    final Map<Key,CacheEntry> entries =
+        new LinkedHashMap<Key,CacheEntry>(SIZE * 2, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key,CacheEntry> eldest) {
+            return size() > SIZE;
+        }
+    };
+
+    /**
+     * key reused for lookups so that only insertions allocate
+     */
+    final Key probe = new Key();
+
+    /**
+     * the last hit, to skip hashing when handed the very same array again
+     */
+    byte[] lastBytes;
+    CacheEntry last;
+
+    PreparedGeometry get(byte[] wkb) {
+        if (wkb == lastBytes) {
+            return last.prepared;
+        }
+
+        if (isPoint(wkb)) {
+            //nothing to gain from preparing a point
+            return null;
+        }
+
+        probe.set(wkb);
+        CacheEntry e = entries.get(probe);
+        if (e == null) {
+            Key key = new Key();
+            key.bytes = wkb;
+            key.hash = probe.hash;
+            entries.put(key, new CacheEntry());
+            probe.bytes = null;
+            return null;
+        }
+        probe.bytes = null;
+
+        if (e.prepared == null) {
+            e.prepared = PreparedGeometryFactory.prepare(GeoDB.gFromWKB(wkb));
+        }
+
+        lastBytes = wkb;
+        last = e;
+        return e.prepared;
+    }
+
+    static boolean isPoint(byte[] wkb) {
+        int off = BoxedWKB.isBoxed(wkb) ? BoxedWKB.HEADER : 0;
+        if (wkb.length < off + 5) {
+            return true;
+        }
+
+        int type = WKBEnvelope.readInt(wkb, off + 1, wkb[off] == 1) & 0xffff;
+        return type % 1000 == WKBEnvelope.POINT;
+    }
+
+    static final class Key {
+        byte[] bytes;
+        int hash;
+
+        void set(byte[] b) {
+            bytes = b;
+            hash = Arrays.hashCode(b);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && Arrays.equals(bytes, other.bytes);
+        }
+    }
+
+    static final class CacheEntry {
+        PreparedGeometry prepared;
+    }
+}
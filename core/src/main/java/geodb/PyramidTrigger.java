@@ -0,0 +1,134 @@
+package geodb;
+
+import geodb.index.SpatialIndex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.h2.api.Trigger;
+
+/**
+ * An H2 trigger which keeps a {@link SimplificationPyramid} in sync with its table.
+ * <p>
+ * The trigger is created by {@link SimplificationPyramid#create} for inserts, updates and deletes
+ * at once, the kind of change is inferred from which of the old and new rows are present. The
+ * levels of inserted and updated rows are simplified on the calling thread.
+ * </p>
+ */
+public class PyramidTrigger implements Trigger {
+
+    String schema;
+    String table;
+    String column;
+    int pk = -1;
+    int geom = -1;
+    double[] tolerances;
+
+    public void init(Connection cx, String schemaName, String triggerName, String tableName,
+        boolean before, int type) throws SQLException {
+        schema = schemaName;
+        table = tableName;
+
+        //the trigger is named after the column
+        String key = SpatialIndex.primaryKey(cx, schemaName, tableName);
+        ResultSet rs = cx.getMetaData().getColumns(null, schemaName, tableName, "%");
+        try {
+            for (int i = 0; rs.next(); i++) {
+                String name = rs.getString("COLUMN_NAME");
+                if (triggerName.equals(SimplificationPyramid.triggerName(tableName, name))) {
+                    column = name;
+                    geom = i;
+                }
+                if (name.equals(key)) {
+                    pk = i;
+                }
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        if (column == null) {
+            throw new SQLException("No geometry column for pyramid trigger " + triggerName);
+        }
+        tolerances = SimplificationPyramid.tolerances(cx, schema, table, column);
+    }
+
+    public void fire(Connection cx, Object[] oldRow, Object[] newRow) throws SQLException {
+        long oldId = oldRow != null ? RTreeTrigger.id(oldRow[pk]) : 0;
+        long newId = newRow != null ? RTreeTrigger.id(newRow[pk]) : 0;
+        byte[] wkb = newRow != null ? bytes(newRow[geom]) : null;
+
+        if (oldRow != null && newRow != null && oldId == newId
+            && Arrays.equals(bytes(oldRow[geom]), wkb)) {
+            //geometry not touched by the update
+            return;
+        }
+
+        PreparedStatement ps = cx.prepareStatement("DELETE FROM " +
+            GeoDB.tbl(schema, SimplificationPyramid.levelTable(table, column)) + " WHERE ID = ?");
+        try {
+            if (oldRow != null) {
+                ps.setLong(1, oldId);
+                ps.execute();
+            }
+            if (newRow != null && (oldRow == null || oldId != newId)) {
+                //levels left over from rows removed without firing the trigger, by a truncate
+                ps.setLong(1, newId);
+                ps.execute();
+            }
+        }
+        finally {
+            ps.close();
+        }
+
+        if (newRow != null) {
+            byte[][] levels = SimplificationPyramid.simplify(wkb, tolerances);
+            ps = SimplificationPyramid.insert(cx, schema, table, column);
+            try {
+                SimplificationPyramid.add(ps, newId, tolerances, levels);
+                ps.executeBatch();
+            }
+            finally {
+                ps.close();
+            }
+        }
+    }
+
+    static byte[] bytes(Object value) throws SQLException {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        if (value instanceof InputStream) {
+            InputStream in = (InputStream) value;
+
+            //leave the value readable for whoever comes next
+            boolean mark = in.markSupported();
+            if (mark) {
+                in.mark(Integer.MAX_VALUE);
+            }
+            byte[] b = BBoxTrigger.read(in);
+            try {
+                if (mark) {
+                    in.reset();
+                }
+            }
+            catch (IOException e) {
+                throw (SQLException) new SQLException("Error reading geometry").initCause(e);
+            }
+            return b;
+        }
+        return null;
+    }
+
+    public void close() throws SQLException {
+    }
+
+    public void remove() throws SQLException {
+    }
+}
@@ -0,0 +1,479 @@
+package geodb;
+
+import geodb.index.SpatialIndex;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites single table queries filtering on a spatial predicate against a constant geometry so
+ * they use the spatial index of the table.
+ * <p>
+ * A query such as:
+ * <pre>
+ * SELECT * FROM spatial WHERE ST_Intersects(geom, ST_GeomFromText('POLYGON(...)', 4326))
+ * </pre>
+ * is rewritten into a probe of the index with the envelope of the constant, joined back to the
+ * table, keeping the original condition to refine the candidates:
+ * <pre>
+ * SELECT spatial.* FROM (SELECT ID "_SPATIAL_INDEX_ID" FROM ST_IndexIntersects('PUBLIC',
+ *  'SPATIAL', 'GEOM', ...)) "_SPATIAL_INDEX", spatial
+ *  WHERE spatial."ID" = "_SPATIAL_INDEX"."_SPATIAL_INDEX_ID" AND (ST_Intersects(geom, ...))
+ * </pre>
+ * The id column of the probe is renamed so unqualified references to an <tt>ID</tt> column of the
+ * table stay unambiguous.
+ * The predicates recognized are <tt>ST_BBox</tt>, <tt>ST_Intersects</tt> and <tt>ST_DWithin</tt>,
+ * the latter with its box grown by the distance. They must be one of the top level <tt>AND</tt>
+ * terms of the <tt>WHERE</tt> clause, with one argument an indexed geometry column and the other
+ * an expression not referring to any column. Queries that do not match are left as is.
+ * </p>
+ */
+public class QueryRewriter {
+
+    /**
+     * alias of the index probe in rewritten queries
+     */
+    static final String PROBE = "\"_SPATIAL_INDEX\"";
+
+    /**
+     * id column of the index probe in rewritten queries
+     */
+    static final String PROBE_ID = "\"_SPATIAL_INDEX_ID\"";
+
+    final Connection cx;
+
+    public QueryRewriter(Connection cx) {
+        this.cx = cx;
+    }
+
+    /**
+     * Rewrites a query, returning it unchanged if it can not use a spatial index.
+     */
+    public String rewrite(String sql) throws SQLException {
+        List<Token> tokens = tokenize(sql);
+        if (tokens.isEmpty() || !tokens.get(0).is("SELECT")) {
+            return sql;
+        }
+
+        //locate the top level clauses
+        int from = -1, where = -1, end = tokens.size();
+        for (int i = 1; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            if (t.depth != 0) {
+                continue;
+            }
+            if (from == -1 && t.is("FROM")) {
+                from = i;
+            }
+            else if (from != -1 && where == -1 && t.is("WHERE")) {
+                where = i;
+            }
+            else if (where != -1 && (t.is("GROUP") || t.is("ORDER") || t.is("HAVING")
+                || t.is("LIMIT") || t.is("OFFSET") || t.is("UNION") || t.is("EXCEPT")
+                || t.is("INTERSECT") || t.is("MINUS") || t.is("FOR") || t.text.equals(";"))) {
+                end = i;
+                break;
+            }
+        }
+        if (from == -1 || where == -1) {
+            return sql;
+        }
+
+        Table table = table(tokens.subList(from + 1, where));
+        if (table == null) {
+            return sql;
+        }
+
+        //look for an indexable term
+        for (List<Token> term : split(tokens.subList(where + 1, end))) {
+            String probe = probe(sql, table, term);
+            if (probe != null) {
+                StringBuffer rsql = new StringBuffer();
+                rsql.append("SELECT ").append(selectList(sql, tokens.subList(1, from), table));
+                rsql.append(" FROM (SELECT ID ").append(PROBE_ID).append(" FROM ").append(probe)
+                    .append(") ").append(PROBE).append(", ");
+                rsql.append(text(sql, tokens, from + 1, where));
+                rsql.append(" WHERE ").append(table.qualifier).append(".")
+                    .append(esc(table.index.getPrimaryKey())).append(" = ").append(PROBE)
+                    .append(".").append(PROBE_ID).append(" AND (").append(text(sql, tokens, where + 1, end)).append(")");
+                if (end < tokens.size()) {
+                    rsql.append(" ").append(sql.substring(tokens.get(end).start));
+                }
+                return rsql.toString();
+            }
+        }
+        return sql;
+    }
+
+    /**
+     * Parses the from clause, which must name a single table with a spatial index.
+     */
+    Table table(List<Token> from) throws SQLException {
+        //name [AS] [alias] | schema.name [AS] [alias]
+        int i = 0;
+        if (i >= from.size() || !from.get(i).identifier) {
+            return null;
+        }
+
+        Table t = new Table();
+        t.name = from.get(i++);
+        if (i + 1 < from.size() && from.get(i).text.equals(".") && from.get(i+1).identifier) {
+            t.schema = t.name;
+            t.name = from.get(i+1);
+            i += 2;
+        }
+
+        if (i < from.size() && from.get(i).is("AS")) {
+            i++;
+        }
+        if (i < from.size() && from.get(i).identifier && !from.get(i).keyword()) {
+            t.alias = from.get(i++);
+        }
+        if (i != from.size()) {
+            //joins, sub queries, several tables...
+            return null;
+        }
+
+        t.qualifier = t.alias != null ? t.alias.text : t.name.text;
+        return t;
+    }
+
+    /**
+     * Splits a where clause into its top level AND terms.
+     */
+    List<List<Token>> split(List<Token> where) {
+        List<List<Token>> terms = new ArrayList<List<Token>>();
+        int start = 0;
+        boolean between = false;
+        int depth = where.isEmpty() ? 0 : where.get(0).depth;
+        for (int i = 0; i < where.size(); i++) {
+            Token t = where.get(i);
+            if (t.depth != depth) {
+                continue;
+            }
+            if (t.is("BETWEEN")) {
+                between = true;
+            }
+            else if (t.is("OR")) {
+                //a top level OR, no term holds for every row
+                terms.clear();
+                return terms;
+            }
+            else if (t.is("AND")) {
+                if (between) {
+                    between = false;
+                    continue;
+                }
+                terms.add(where.subList(start, i));
+                start = i + 1;
+            }
+        }
+        terms.add(where.subList(start, where.size()));
+        return terms;
+    }
+
+    /**
+     * Builds the index probe for a term, or returns null if the term can not use the index.
+     */
+    String probe(String sql, Table table, List<Token> term) throws SQLException {
+        //FUNCTION ( args )
+        if (term.size() < 4 || !term.get(0).identifier || !term.get(1).text.equals("(")
+            || !term.get(term.size() - 1).text.equals(")")) {
+            return null;
+        }
+
+        String function = term.get(0).text.toUpperCase();
+        int nargs;
+        if ("ST_BBOX".equals(function) || "ST_INTERSECTS".equals(function)) {
+            nargs = 2;
+        }
+        else if ("ST_DWITHIN".equals(function)) {
+            nargs = 3;
+        }
+        else {
+            return null;
+        }
+
+        //split the arguments
+        int depth = term.get(1).depth + 1;
+        List<List<Token>> args = new ArrayList<List<Token>>();
+        int start = 2;
+        for (int i = 2; i < term.size() - 1; i++) {
+            Token t = term.get(i);
+            if (t.depth == depth && t.text.equals(",")) {
+                args.add(term.subList(start, i));
+                start = i + 1;
+            }
+            else if (t.depth < depth) {
+                //closing parenthesis of the call before the end of the term
+                return null;
+            }
+        }
+        args.add(term.subList(start, term.size() - 1));
+        if (args.size() != nargs) {
+            return null;
+        }
+
+        //one side a column of the table, the other a constant
+        String column = column(table, args.get(0));
+        List<Token> constant = args.get(1);
+        if (column == null) {
+            column = column(table, args.get(1));
+            constant = args.get(0);
+        }
+        if (column == null || !isConstant(constant)) {
+            return null;
+        }
+
+        if (nargs == 3 && !isConstant(args.get(2))) {
+            return null;
+        }
+
+        table.index = SpatialIndex.get(cx, table.schema(), table.name(), column);
+        if (table.index == null) {
+            return null;
+        }
+
+        //evaluate the constant
+        double[] bounds = WKBEnvelope.bounds();
+        double distance = 0;
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT " + text(sql, constant) +
+                (nargs == 3 ? ", " + text(sql, args.get(2)) : ""));
+            try {
+                if (!rs.next()) {
+                    return null;
+                }
+                byte[] wkb = rs.getBytes(1);
+                if (wkb == null || wkb.length == 0 || !WKBEnvelope.envelope(wkb, bounds)) {
+                    return null;
+                }
+                if (nargs == 3) {
+                    distance = rs.getDouble(2);
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            st.close();
+        }
+
+        return "ST_IndexIntersects(" + str(table.schema()) + ", " + str(table.name()) + ", " +
+            str(column) + ", " + (bounds[WKBEnvelope.MINX] - distance) + ", " +
+            (bounds[WKBEnvelope.MINY] - distance) + ", " + (bounds[WKBEnvelope.MAXX] + distance) +
+            ", " + (bounds[WKBEnvelope.MAXY] + distance) + ")";
+    }
+
+    /**
+     * Returns the name of the column an argument refers to, if it is a column of the table.
+     */
+    String column(Table table, List<Token> arg) {
+        if (arg.size() == 1 && arg.get(0).identifier && !arg.get(0).keyword()) {
+            return arg.get(0).name();
+        }
+        if (arg.size() == 3 && arg.get(0).identifier && arg.get(1).text.equals(".")
+            && arg.get(2).identifier) {
+            String q = arg.get(0).text;
+            if (q.equalsIgnoreCase(table.qualifier) || q.equals(table.qualifier)) {
+                return arg.get(2).name();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if an expression refers to no columns, every identifier being a function name.
+     */
+    boolean isConstant(List<Token> expr) {
+        if (expr.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < expr.size(); i++) {
+            Token t = expr.get(i);
+            if (t.identifier && !t.keyword()) {
+                boolean call = i + 1 < expr.size() && expr.get(i+1).text.equals("(");
+                if (!call) {
+                    return false;
+                }
+            }
+            else if (t.text.equals("?")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the select list, qualifying a top level <tt>*</tt> so that it does not pick up the
+     * columns of the index probe.
+     */
+    String selectList(String sql, List<Token> select, Table table) {
+        StringBuffer sb = new StringBuffer();
+        int pos = select.get(0).start;
+        for (Token t : select) {
+            if (t.text.equals("*") && t.depth == 0) {
+                sb.append(sql.substring(pos, t.start)).append(table.qualifier).append(".*");
+                pos = t.end;
+            }
+        }
+        Token last = select.get(select.size() - 1);
+        sb.append(sql.substring(pos, last.end));
+        return sb.toString();
+    }
+
+    static String text(String sql, List<Token> tokens, int from, int to) {
+        return sql.substring(tokens.get(from).start, tokens.get(to - 1).end);
+    }
+
+    static String text(String sql, List<Token> tokens) {
+        return sql.substring(tokens.get(0).start, tokens.get(tokens.size() - 1).end);
+    }
+
+    static String esc(String s) {
+        return "\"" + s + "\"";
+    }
+
+    static String str(String s) {
+        return "'" + s.replace("'", "''") + "'";
+    }
+
+    //
+    // tokenizer
+    //
+    /**
+     * Splits sql into identifiers, literals and symbols, recording the parenthesis depth of each.
+     */
+    static List<Token> tokenize(String sql) {
+        List<Token> tokens = new ArrayList<Token>();
+        int depth = 0;
+        int i = 0, n = sql.length();
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            Token t = new Token();
+            if (c == '\'' || c == '"') {
+                //quoted string or identifier, quotes escaped by doubling them
+                i++;
+                while (i < n) {
+                    if (sql.charAt(i) == c) {
+                        if (i + 1 < n && sql.charAt(i + 1) == c) {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i = Math.min(i + 1, n);
+                t.identifier = c == '"';
+                t.literal = c == '\'';
+            }
+            else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                //comment to the end of the line
+                while (i < n && sql.charAt(i) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            else if (Character.isLetter(c) || c == '_') {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                    || sql.charAt(i) == '$')) {
+                    i++;
+                }
+                t.identifier = true;
+            }
+            else if (Character.isDigit(c)) {
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.'
+                    || ((sql.charAt(i) == '-' || sql.charAt(i) == '+')
+                        && Character.toUpperCase(sql.charAt(i - 1)) == 'E'))) {
+                    i++;
+                }
+                t.literal = true;
+            }
+            else {
+                i++;
+            }
+
+            t.text = sql.substring(start, i);
+            t.start = start;
+            t.end = i;
+            if (t.text.equals(")")) {
+                depth--;
+            }
+            t.depth = depth;
+            if (t.text.equals("(")) {
+                depth++;
+            }
+            tokens.add(t);
+        }
+        return tokens;
+    }
+
+    static final String[] KEYWORDS = {"AND", "OR", "NOT", "NULL", "TRUE", "FALSE", "IS", "IN",
+        "LIKE", "BETWEEN", "CASE", "WHEN", "THEN", "ELSE", "END", "WHERE", "GROUP", "ORDER",
+        "HAVING", "LIMIT", "OFFSET", "UNION", "EXCEPT", "INTERSECT", "MINUS", "FOR", "ON",
+        "JOIN", "INNER", "LEFT", "RIGHT", "OUTER", "CROSS", "NATURAL", "AS", "SELECT", "FROM"};
+
+    static class Token {
+        String text;
+        int start;
+        int end;
+        int depth;
+        boolean identifier;
+        boolean literal;
+
+        boolean is(String keyword) {
+            return identifier && text.equalsIgnoreCase(keyword);
+        }
+
+        boolean keyword() {
+            if (text.startsWith("\"")) {
+                return false;
+            }
+            for (String k : KEYWORDS) {
+                if (text.equalsIgnoreCase(k)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The name an identifier refers to, unquoted identifiers being upper case in H2.
+         */
+        String name() {
+            if (text.startsWith("\"")) {
+                return text.substring(1, text.length() - 1).replace("\"\"", "\"");
+            }
+            return text.toUpperCase();
+        }
+    }
+
+    static class Table {
+        Token schema;
+        Token name;
+        Token alias;
+        String qualifier;
+        SpatialIndex index;
+
+        String schema() {
+            return schema != null ? schema.name() : "PUBLIC";
+        }
+
+        String name() {
+            return name.name();
+        }
+    }
+}
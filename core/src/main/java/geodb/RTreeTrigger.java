@@ -0,0 +1,142 @@
+package geodb;
+
+import geodb.index.SpatialIndex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.h2.api.Trigger;
+
+/**
+ * An H2 trigger which keeps a {@link SpatialIndex} in sync with its table.
+ * <p>
+ * The trigger is created by {@link SpatialIndex#create} for inserts, updates and deletes at once,
+ * the kind of change is inferred from which of the old and new rows are present.
+ * </p>
+ */
+public class RTreeTrigger implements Trigger {
+
+    String schema;
+    String table;
+    String column;
+    int pk = -1;
+    int geom = -1;
+
+    SpatialIndex index;
+
+    public void init(Connection cx, String schemaName, String triggerName, String tableName,
+        boolean before, int type) throws SQLException {
+        schema = schemaName;
+        table = tableName;
+
+        //the trigger is named after the indexed column
+        ResultSet rs = cx.getMetaData().getColumns(null, schemaName, tableName, "%");
+        try {
+            for (int i = 0; rs.next(); i++) {
+                String name = rs.getString("COLUMN_NAME");
+                if (triggerName.equals(SpatialIndex.triggerName(tableName, name))) {
+                    column = name;
+                    geom = i;
+                }
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        if (column == null) {
+            throw new SQLException("No geometry column for spatial index trigger " + triggerName);
+        }
+    }
+
+    public void fire(Connection cx, Object[] oldRow, Object[] newRow) throws SQLException {
+        if (index == null) {
+            index = SpatialIndex.get(cx, schema, table, column);
+            if (index == null) {
+                //index dropped from under us
+                return;
+            }
+
+            ResultSet rs = cx.getMetaData().getColumns(null, schema, table, "%");
+            try {
+                for (int i = 0; rs.next(); i++) {
+                    if (rs.getString("COLUMN_NAME").equals(index.getPrimaryKey())) {
+                        pk = i;
+                    }
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+
+        WKBCodec codec = WKBCodec.get();
+        double[] oldBounds = oldRow != null ? bounds(oldRow[geom], codec.bounds1) : null;
+        double[] newBounds = newRow != null ? bounds(newRow[geom], codec.bounds2) : null;
+        long oldId = oldRow != null ? id(oldRow[pk]) : 0;
+        long newId = newRow != null ? id(newRow[pk]) : 0;
+
+        if (oldBounds != null && newBounds != null && oldId == newId
+            && same(oldBounds, newBounds)) {
+            //geometry not touched by the update
+            return;
+        }
+
+        index.update(cx, oldId, oldBounds, newId, newBounds);
+    }
+
+    static long id(Object value) {
+        return value != null ? ((Number) value).longValue() : 0;
+    }
+
+    static double[] bounds(Object value, double[] bounds) throws SQLException {
+        WKBEnvelope.reset(bounds);
+        if (value instanceof byte[]) {
+            byte[] wkb = (byte[]) value;
+            if (wkb.length > 0) {
+                WKBEnvelope.envelope(wkb, bounds);
+            }
+        }
+        else if (value instanceof InputStream) {
+            InputStream in = (InputStream) value;
+            try {
+                //leave the value readable for whoever comes next
+                boolean mark = in.markSupported();
+                if (mark) {
+                    in.mark(Integer.MAX_VALUE);
+                }
+
+                WKBCodec codec = WKBCodec.get();
+                int n = codec.load(in);
+                if (n > 0) {
+                    WKBEnvelope.envelope(codec.scratch, 0, n, bounds);
+                }
+                codec.releaseScratch();
+
+                if (mark) {
+                    in.reset();
+                }
+            }
+            catch (IOException e) {
+                throw (SQLException) new SQLException("Error reading geometry").initCause(e);
+            }
+        }
+        return bounds;
+    }
+
+    static boolean same(double[] b1, double[] b2) {
+        return b1[WKBEnvelope.MINX] == b2[WKBEnvelope.MINX]
+            && b1[WKBEnvelope.MINY] == b2[WKBEnvelope.MINY]
+            && b1[WKBEnvelope.MAXX] == b2[WKBEnvelope.MAXX]
+            && b1[WKBEnvelope.MAXY] == b2[WKBEnvelope.MAXY];
+    }
+
+    public void close() throws SQLException {
+    }
+
+    public void remove() throws SQLException {
+    }
+}
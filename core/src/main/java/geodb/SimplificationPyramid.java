@@ -0,0 +1,316 @@
+package geodb;
+
+import geodb.index.SpatialIndex;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+
+/**
+ * Simplified versions of the geometries of a column, computed ahead of time for a fixed set of
+ * tolerances, for renderers asking for the same geometries at the same few scales over and over.
+ * <p>
+ * The levels are kept in a <tt>&lt;table&gt;_&lt;column&gt;_PYRAMID</tt> table, one row per
+ * primary key and tolerance holding the result of {@link GeoDB#ST_Simplify} at that tolerance,
+ * and kept in sync with the table by a {@link PyramidTrigger}. A level is only stored when it
+ * has fewer points than the level below it, so points and small geometries take little room.
+ * The tolerances are recorded as the comment of the pyramid table.
+ * </p>
+ * <pre>
+ * CALL CreateSimplificationPyramid(null, 'COASTLINES', 'GEOM', '0.001 0.01 0.1 1');
+ * SELECT ST_SimplifyCached('COASTLINES', 'GEOM', id, 0.05) FROM coastlines WHERE ...;
+ * </pre>
+ * <p>
+ * A lookup returns the coarsest level whose tolerance does not exceed the one asked for, so the
+ * result is never simplified more than asked, or the geometry itself below the finest level.
+ * </p>
+ */
+public class SimplificationPyramid {
+
+    private SimplificationPyramid() {
+    }
+
+    /**
+     * Returns the name of the table holding the levels of a column.
+     */
+    public static String levelTable(String table, String column) {
+        return table + "_" + column + "_PYRAMID";
+    }
+
+    /**
+     * Returns the name of the trigger maintaining the levels of a column.
+     */
+    public static String triggerName(String table, String column) {
+        return levelTable(table, column) + "_TRIGGER";
+    }
+
+    /**
+     * Creates, or recreates, the pyramid of a geometry column. The levels of the rows already in
+     * the table are computed on the {@link Parallel} pool.
+     *
+     * @param schema The table schema, may be <code>null</code> to specify default schema
+     * @param tolerances The tolerances of the levels
+     */
+    public static void create(Connection cx, String schema, String table, String column,
+        double[] tolerances) throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        if (tolerances.length == 0) {
+            throw new SQLException("No tolerances for the simplification pyramid");
+        }
+        final double[] tols = tolerances.clone();
+        Arrays.sort(tols);
+
+        drop(cx, schema, table, column);
+        String pk = SpatialIndex.primaryKey(cx, schema, table);
+        String levels = GeoDB.tbl(schema, levelTable(table, column));
+
+        Statement st = cx.createStatement();
+        try {
+            st.execute("CREATE TABLE " + levels + " (ID BIGINT, TOLERANCE DOUBLE, GEOM BLOB, " +
+                "PRIMARY KEY (ID, TOLERANCE))");
+            st.execute("COMMENT ON TABLE " + levels + " IS '" + format(tols) + "'");
+        }
+        finally {
+            st.close();
+        }
+
+        final PreparedStatement ps = insert(cx, schema, table, column);
+        try {
+            Parallel.scan(cx, GeoDB.tbl(schema, table), GeoDB.esc(pk), GeoDB.esc(column),
+                Parallel.BATCH,
+                new Parallel.Task<byte[][][]>() {
+                    public byte[][][] process(long[] ids, byte[][] values, int n) {
+                        byte[][][] levels = new byte[n][][];
+                        for (int i = 0; i < n; i++) {
+                            levels[i] = simplify(values[i], tols);
+                        }
+                        return levels;
+                    }
+                },
+                new Parallel.Collector<byte[][][]>() {
+                    public void collect(long[] ids, int n, byte[][][] levels)
+                        throws SQLException {
+                        for (int i = 0; i < n; i++) {
+                            add(ps, ids[i], tols, levels[i]);
+                        }
+                        ps.executeBatch();
+                    }
+                });
+        }
+        finally {
+            ps.close();
+        }
+
+        st = cx.createStatement();
+        try {
+            st.execute("CREATE TRIGGER " + GeoDB.tbl(schema, triggerName(table, column)) +
+                " AFTER INSERT, UPDATE, DELETE ON " + GeoDB.tbl(schema, table) +
+                " FOR EACH ROW CALL \"geodb.PyramidTrigger\"");
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Drops the pyramid of a geometry column, returning false if there was none.
+     */
+    public static boolean drop(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        if (tolerances(cx, schema, table, column) == null) {
+            return false;
+        }
+
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TRIGGER IF EXISTS " + GeoDB.tbl(schema, triggerName(table, column)));
+            st.execute("DROP TABLE " + GeoDB.tbl(schema, levelTable(table, column)));
+        }
+        finally {
+            st.close();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the tolerances of the pyramid of a geometry column in increasing order, or null if
+     * the column has none.
+     */
+    public static double[] tolerances(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        ResultSet rs = cx.getMetaData().getTables(null, schema, levelTable(table, column),
+            new String[]{"TABLE"});
+        try {
+            return rs.next() ? parse(rs.getString("REMARKS")) : null;
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Returns the tolerances of the pyramids of all the columns of a table, keyed by column.
+     */
+    public static Map<String,double[]> list(Connection cx, String schema, String table)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+
+        List<String> columns = new ArrayList<String>();
+        ResultSet rs = cx.getMetaData().getColumns(null, schema, table, "%");
+        try {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        Map<String,double[]> pyramids = new LinkedHashMap<String,double[]>();
+        for (String column : columns) {
+            double[] tolerances = tolerances(cx, schema, table, column);
+            if (tolerances != null) {
+                pyramids.put(column, tolerances);
+            }
+        }
+        return pyramids;
+    }
+
+    /**
+     * Looks up a geometry simplified to the coarsest level of its pyramid not exceeding a
+     * tolerance, returning the geometry itself when no level qualifies.
+     *
+     * @param id The primary key of the row
+     */
+    public static byte[] lookup(Connection cx, String schema, String table, String column,
+        long id, double tolerance) throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        PreparedStatement ps = cx.prepareStatement("SELECT GEOM FROM " +
+            GeoDB.tbl(schema, levelTable(table, column)) + " WHERE ID = ? AND TOLERANCE <= ? " +
+            "ORDER BY TOLERANCE DESC LIMIT 1");
+        try {
+            ps.setLong(1, id);
+            ps.setDouble(2, tolerance);
+            byte[] wkb = first(ps);
+            if (wkb != null) {
+                return wkb;
+            }
+        }
+        finally {
+            ps.close();
+        }
+
+        //not simplified at that tolerance
+        String pk = SpatialIndex.primaryKey(cx, schema, table);
+        ps = cx.prepareStatement("SELECT " + GeoDB.esc(column) + " FROM " +
+            GeoDB.tbl(schema, table) + " WHERE " + GeoDB.esc(pk) + " = ?");
+        try {
+            ps.setLong(1, id);
+            return first(ps);
+        }
+        finally {
+            ps.close();
+        }
+    }
+
+    static byte[] first(PreparedStatement ps) throws SQLException {
+        ResultSet rs = ps.executeQuery();
+        try {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Simplifies a geometry at each tolerance, from the finest up, leaving out the levels which
+     * remove no points from the one below.
+     */
+    static byte[][] simplify(byte[] wkb, double[] tolerances) {
+        byte[][] levels = new byte[tolerances.length][];
+        if (wkb == null || wkb.length == 0) {
+            return levels;
+        }
+
+        Geometry g = GeoDB.gFromWKB(wkb);
+        int points = g.getNumPoints();
+        for (int i = 0; i < tolerances.length; i++) {
+            Geometry s = DouglasPeuckerSimplifier.simplify(g, tolerances[i]);
+            if (s.getNumPoints() < points) {
+                s.setSRID(g.getSRID());
+                levels[i] = GeoDB.gToWKB(s);
+                points = s.getNumPoints();
+            }
+        }
+        return levels;
+    }
+
+    static PreparedStatement insert(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        return cx.prepareStatement("INSERT INTO " + GeoDB.tbl(schema, levelTable(table, column)) +
+            " (ID, TOLERANCE, GEOM) VALUES (?, ?, ?)");
+    }
+
+    static void add(PreparedStatement ps, long id, double[] tolerances, byte[][] levels)
+        throws SQLException {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != null) {
+                ps.setLong(1, id);
+                ps.setDouble(2, tolerances[i]);
+                ps.setBytes(3, levels[i]);
+                ps.addBatch();
+            }
+        }
+    }
+
+    /**
+     * Parses a list of tolerances separated by spaces or commas.
+     */
+    static double[] parse(String tolerances) throws SQLException {
+        String s = tolerances != null ? tolerances.trim() : "";
+        if (s.length() == 0) {
+            return new double[0];
+        }
+
+        String[] split = s.split("[\\s,]+");
+        double[] tols = new double[split.length];
+        try {
+            for (int i = 0; i < split.length; i++) {
+                tols[i] = Double.parseDouble(split[i]);
+                if (tols[i] <= 0) {
+                    throw new SQLException("Tolerance must be positive: " + split[i]);
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            throw (SQLException) new SQLException("Invalid tolerances: " + tolerances)
+                .initCause(e);
+        }
+        Arrays.sort(tols);
+        return tols;
+    }
+
+    static String format(double[] tolerances) {
+        StringBuilder sb = new StringBuilder();
+        for (double t : tolerances) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+}
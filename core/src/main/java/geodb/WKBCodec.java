@@ -0,0 +1,266 @@
+package geodb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ByteArrayInStream;
+import org.locationtech.jts.io.InputStreamInStream;
+import org.locationtech.jts.io.OutputStreamOutStream;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * Per-thread reusable WKB reader/writer.
+ * <p>
+ * The JTS reader and writer are not thread safe, and creating a new one (along with its streams
+ * and buffers) for every value turns a large table scan into a lot of garbage. A codec keeps one
+ * reader, one writer and one set of buffers per thread and rebinds them to each value, so decoding
+ * or encoding a geometry only allocates the geometry itself and the resulting byte array.
+ * </p>
+ */
+public final class WKBCodec {
+
+    static final byte[] EMPTY = new byte[0];
+
+    /**
+     * output buffers larger than this are released after a write rather than held on to
+     */
+    static final int MAX_RETAINED = 1024 * 1024;
+
+    static final ThreadLocal<WKBCodec> codecs = new ThreadLocal<WKBCodec>() {
+        protected WKBCodec initialValue() {
+            return new WKBCodec();
+        }
+    };
+
+    /**
+     * Returns the codec for the calling thread.
+     */
+    public static WKBCodec get() {
+        return codecs.get();
+    }
+
+    WKBReader reader;
+    WKBWriter writer;
+
+    ByteArrayInStream bytesIn;
+    Input input;
+    InputStreamInStream streamIn;
+
+    Output output;
+    OutputStreamOutStream streamOut;
+
+    byte[] scratch = new byte[256];
+
+    /**
+     * scratch bounds arrays for envelope computations, see {@link WKBEnvelope}
+     */
+    double[] bounds1 = WKBEnvelope.bounds();
+    double[] bounds2 = WKBEnvelope.bounds();
+
+    /**
+     * the instrumented function being called on the thread, see {@link Metrics}
+     */
+    Metrics.Stats current;
+
+    WKBCodec() {
+        reader = GeoDB.wkbreader();
+        writer = GeoDB.wkbwriter();
+
+        bytesIn = new ByteArrayInStream(EMPTY);
+        input = new Input();
+        streamIn = new InputStreamInStream(input);
+
+        output = new Output();
+        streamOut = new OutputStreamOutStream(output);
+    }
+
+    /**
+     * Decodes a WKB byte array, which may be in {@link BoxedWKB boxed} format.
+     */
+    public Geometry read(byte[] wkb) throws ParseException {
+        if (BoxedWKB.isBoxed(wkb)) {
+            return read(wkb, BoxedWKB.HEADER, wkb.length - BoxedWKB.HEADER);
+        }
+
+        long t = Metrics.enabled ? System.nanoTime() : 0;
+        bytesIn.setBytes(wkb);
+        try {
+            return reader.read(bytesIn);
+        }
+        catch (IOException e) {
+            throw (ParseException) new ParseException(e.getMessage()).initCause(e);
+        }
+        finally {
+            bytesIn.setBytes(EMPTY);
+            if (t != 0) {
+                Metrics.decoded(current, wkb.length, System.nanoTime() - t);
+            }
+        }
+    }
+
+    /**
+     * Decodes <tt>len</tt> bytes of WKB starting at <tt>off</tt>, which may be in
+     * {@link BoxedWKB boxed} format.
+     */
+    public Geometry read(byte[] wkb, int off, int len) throws ParseException {
+        if (off == 0 && len == wkb.length) {
+            return read(wkb);
+        }
+        if (BoxedWKB.isBoxed(wkb, off, len)) {
+            off += BoxedWKB.HEADER;
+            len -= BoxedWKB.HEADER;
+        }
+
+        long t = Metrics.enabled ? System.nanoTime() : 0;
+        input.set(wkb, off, len);
+        try {
+            return reader.read(streamIn);
+        }
+        catch (IOException e) {
+            throw (ParseException) new ParseException(e.getMessage()).initCause(e);
+        }
+        finally {
+            input.set(EMPTY, 0, 0);
+            if (t != 0) {
+                Metrics.decoded(current, len, System.nanoTime() - t);
+            }
+        }
+    }
+
+    /**
+     * Decodes WKB from a stream, such as the blob values H2 hands to aggregates and triggers.
+     */
+    public Geometry read(InputStream in) throws IOException, ParseException {
+        int n = load(in);
+        try {
+            return read(scratch, 0, n);
+        }
+        finally {
+            releaseScratch();
+        }
+    }
+
+    /**
+     * Expands a bounds array with the bounds of a WKB value, given as a byte array or as the stream
+     * H2 hands to aggregates, without decoding it. Returns false if the bounds are still empty.
+     */
+    public boolean expand(Object value, double[] bounds) throws IOException {
+        if (value instanceof byte[]) {
+            byte[] wkb = (byte[]) value;
+            if (wkb.length > 0) {
+                WKBEnvelope.expand(wkb, 0, wkb.length, bounds);
+            }
+        }
+        else if (value instanceof InputStream) {
+            int n = load((InputStream) value);
+            try {
+                if (n > 0) {
+                    WKBEnvelope.expand(scratch, 0, n, bounds);
+                }
+            }
+            finally {
+                releaseScratch();
+            }
+        }
+        return !WKBEnvelope.isEmpty(bounds);
+    }
+
+    /**
+     * Reads a stream fully into the scratch buffer returning the number of bytes read. The bytes
+     * are only valid until the next use of the codec.
+     */
+    int load(InputStream in) throws IOException {
+        int avail = in.available();
+        if (avail > scratch.length) {
+            scratch = new byte[avail];
+        }
+
+        int n = 0;
+        while (true) {
+            if (n == scratch.length) {
+                byte[] b = new byte[scratch.length * 2];
+                System.arraycopy(scratch, 0, b, 0, n);
+                scratch = b;
+            }
+            int r = in.read(scratch, n, scratch.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    void releaseScratch() {
+        if (scratch.length > MAX_RETAINED) {
+            scratch = new byte[256];
+        }
+    }
+
+    /**
+     * Encodes a geometry as WKB.
+     */
+    public byte[] write(Geometry g) {
+        return write(g, 0);
+    }
+
+    /**
+     * Encodes a geometry as WKB leaving <tt>header</tt> zeroed bytes in front of it for the caller
+     * to fill in.
+     */
+    public byte[] write(Geometry g, int header) {
+        output.reset();
+        for (int i = 0; i < header; i++) {
+            output.write(0);
+        }
+
+        try {
+            writer.write(g, streamOut);
+            return output.toByteArray();
+        }
+        catch (IOException e) {
+            //can't happen writing to memory
+            throw new RuntimeException(e);
+        }
+        finally {
+            output.release();
+        }
+    }
+
+    /**
+     * Input stream that can be rebound to a new byte array.
+     */
+    static final class Input extends ByteArrayInputStream {
+        Input() {
+            super(EMPTY);
+        }
+
+        void set(byte[] b, int off, int len) {
+            buf = b;
+            pos = off;
+            mark = off;
+            count = off + len;
+        }
+    }
+
+    /**
+     * Output stream that drops its buffer once it grows past {@link WKBCodec#MAX_RETAINED}.
+     */
+    static final class Output extends ByteArrayOutputStream {
+        Output() {
+            super(256);
+        }
+
+        void release() {
+            if (buf.length > MAX_RETAINED) {
+                buf = new byte[256];
+            }
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package geodb;
+
+import org.locationtech.jts.geom.Envelope;
+
+/**
+ * Computes the bounding box of a WKB encoded geometry directly from its bytes.
+ * <p>
+ * The scanner walks the byte array once, reading only the header words and coordinate ordinates
+ * it needs, and never builds any geometry objects. Polygon holes are skipped entirely since the
+ * envelope of a polygon is the envelope of its shell. Both byte orders, the EWKB Z/M/SRID flags
+ * and the ISO (1000/2000/3000) type codes are understood.
+ * </p>
+ * <p>
+ * Values in {@link BoxedWKB boxed} format are not scanned at all, their stored bounds are read
+ * instead.
+ * </p>
+ * <p>
+ * Bounds are accumulated into a caller supplied array laid out as
+ * <tt>[minx, miny, maxx, maxy, minz, maxz]</tt>, so repeated calls do not allocate.
+ * </p>
+ */
+public final class WKBEnvelope {
+
+    public static final int MINX = 0;
+    public static final int MINY = 1;
+    public static final int MAXX = 2;
+    public static final int MAXY = 3;
+    public static final int MINZ = 4;
+    public static final int MAXZ = 5;
+
+    static final int POINT = 1;
+    static final int LINESTRING = 2;
+    static final int POLYGON = 3;
+    static final int MULTIPOINT = 4;
+    static final int MULTILINESTRING = 5;
+    static final int MULTIPOLYGON = 6;
+    static final int GEOMETRYCOLLECTION = 7;
+
+    private WKBEnvelope() {
+    }
+
+    /**
+     * Creates a new empty bounds array.
+     */
+    public static double[] bounds() {
+        return reset(new double[6]);
+    }
+
+    /**
+     * Resets a bounds array to empty.
+     */
+    public static double[] reset(double[] bounds) {
+        bounds[MINX] = bounds[MINY] = bounds[MINZ] = Double.POSITIVE_INFINITY;
+        bounds[MAXX] = bounds[MAXY] = bounds[MAXZ] = Double.NEGATIVE_INFINITY;
+        return bounds;
+    }
+
+    /**
+     * Returns true if the bounds array contains nothing.
+     */
+    public static boolean isEmpty(double[] bounds) {
+        return bounds[MINX] > bounds[MAXX];
+    }
+
+    /**
+     * Returns true if the bounds array contains z values.
+     */
+    public static boolean hasZ(double[] bounds) {
+        return bounds[MINZ] <= bounds[MAXZ];
+    }
+
+    /**
+     * Returns true if the xy extents of two bounds arrays intersect.
+     */
+    public static boolean intersects(double[] b1, double[] b2) {
+        return !isEmpty(b1) && !isEmpty(b2) && b1[MINX] <= b2[MAXX] && b1[MAXX] >= b2[MINX]
+            && b1[MINY] <= b2[MAXY] && b1[MAXY] >= b2[MINY];
+    }
+
+    /**
+     * Returns true if the xy extent of <tt>b1</tt> contains that of <tt>b2</tt>.
+     */
+    public static boolean contains(double[] b1, double[] b2) {
+        return !isEmpty(b1) && !isEmpty(b2) && b1[MINX] <= b2[MINX] && b1[MAXX] >= b2[MAXX]
+            && b1[MINY] <= b2[MINY] && b1[MAXY] >= b2[MAXY];
+    }
+
+    /**
+     * Returns the minimum distance between the xy extents of two bounds arrays.
+     */
+    public static double distance(double[] b1, double[] b2) {
+        double dx = Math.max(0, Math.max(b1[MINX] - b2[MAXX], b2[MINX] - b1[MAXX]));
+        double dy = Math.max(0, Math.max(b1[MINY] - b2[MAXY], b2[MINY] - b1[MAXY]));
+        return Math.sqrt(dx*dx + dy*dy);
+    }
+
+    /**
+     * Converts the xy extent of a bounds array to a JTS envelope.
+     */
+    public static Envelope toEnvelope(double[] bounds) {
+        if (isEmpty(bounds)) {
+            return new Envelope();
+        }
+        return new Envelope(bounds[MINX], bounds[MAXX], bounds[MINY], bounds[MAXY]);
+    }
+
+    /**
+     * Computes the bounds of a WKB geometry, returning false if the geometry is empty.
+     */
+    public static boolean envelope(byte[] wkb, double[] bounds) {
+        return envelope(wkb, 0, wkb.length, bounds);
+    }
+
+    /**
+     * Computes the bounds of <tt>len</tt> bytes of WKB starting at <tt>off</tt>, returning false
+     * if the geometry is empty.
+     */
+    public static boolean envelope(byte[] wkb, int off, int len, double[] bounds) {
+        if (BoxedWKB.isBoxed(wkb, off, len)) {
+            return BoxedWKB.bounds(wkb, off, bounds);
+        }
+
+        reset(bounds);
+        return expand(wkb, off, len, bounds);
+    }
+
+    /**
+     * Expands an existing bounds array with the bounds of a WKB geometry, returning false if the
+     * bounds are still empty afterwards.
+     */
+    public static boolean expand(byte[] wkb, int off, int len, double[] bounds) {
+        if (BoxedWKB.isBoxed(wkb, off, len)) {
+            //merge in the stored box, note it only carries xy
+            BoxedWKB.expand(wkb, off, bounds);
+        }
+        else {
+            scan(wkb, off, off + len, bounds);
+        }
+        return !isEmpty(bounds);
+    }
+
+    /**
+     * Scans a single geometry starting at <tt>pos</tt>, returning the position following it.
+     */
+    static int scan(byte[] b, int pos, int end, double[] bounds) {
+        if (pos + 5 > end) {
+            throw new IllegalArgumentException("Invalid WKB, unexpected end of geometry");
+        }
+
+        boolean le = b[pos] == 1;
+        int typeInt = readInt(b, pos + 1, le);
+        pos += 5;
+
+        int type = typeInt & 0xffff;
+        boolean z = (typeInt & 0x80000000) != 0;
+        boolean m = (typeInt & 0x40000000) != 0;
+        if ((typeInt & 0x20000000) != 0) {
+            //skip the srid
+            pos += 4;
+            if (pos > end) {
+                throw new IllegalArgumentException("Invalid WKB, unexpected end of geometry");
+            }
+        }
+        if (type >= 1000) {
+            //iso style type codes
+            int dim = type / 1000;
+            z = z || dim == 1 || dim == 3;
+            m = m || dim == 2 || dim == 3;
+            type = type % 1000;
+        }
+
+        int dim = 2 + (z ? 1 : 0) + (m ? 1 : 0);
+
+        switch(type) {
+        case POINT:
+            return coordinates(b, pos, end, 1, dim, z, le, bounds);
+
+        case LINESTRING:
+            return coordinates(b, pos + 4, end, count(b, pos, end, le), dim, z, le, bounds);
+
+        case POLYGON:
+            int nrings = count(b, pos, end, le);
+            pos += 4;
+            for (int i = 0; i < nrings; i++) {
+                int npoints = count(b, pos, end, le);
+                pos += 4;
+                if (i == 0) {
+                    pos = coordinates(b, pos, end, npoints, dim, z, le, bounds);
+                }
+                else {
+                    //holes lie inside the shell, skip them
+                    pos = skip(pos, end, npoints, dim);
+                }
+            }
+            return pos;
+
+        case MULTIPOINT:
+        case MULTILINESTRING:
+        case MULTIPOLYGON:
+        case GEOMETRYCOLLECTION:
+            int ngeoms = count(b, pos, end, le);
+            pos += 4;
+            for (int i = 0; i < ngeoms; i++) {
+                pos = scan(b, pos, end, bounds);
+            }
+            return pos;
+
+        default:
+            throw new IllegalArgumentException("Invalid WKB, unknown geometry type " + type);
+        }
+    }
+
+    static int coordinates(byte[] b, int pos, int end, int n, int dim, boolean z, boolean le,
+        double[] bounds) {
+        int next = skip(pos, end, n, dim);
+
+        double minx = bounds[MINX], miny = bounds[MINY], maxx = bounds[MAXX], maxy = bounds[MAXY];
+        double minz = bounds[MINZ], maxz = bounds[MAXZ];
+
+        for (int i = 0; i < n; i++, pos += dim * 8) {
+            double x = readDouble(b, pos, le);
+            double y = readDouble(b, pos + 8, le);
+            if (Double.isNaN(x)) {
+                //empty point
+                continue;
+            }
+
+            if (x < minx) minx = x;
+            if (x > maxx) maxx = x;
+            if (y < miny) miny = y;
+            if (y > maxy) maxy = y;
+
+            if (z) {
+                double zz = readDouble(b, pos + 16, le);
+                if (!Double.isNaN(zz)) {
+                    if (zz < minz) minz = zz;
+                    if (zz > maxz) maxz = zz;
+                }
+            }
+        }
+
+        bounds[MINX] = minx;
+        bounds[MINY] = miny;
+        bounds[MAXX] = maxx;
+        bounds[MAXY] = maxy;
+        bounds[MINZ] = minz;
+        bounds[MAXZ] = maxz;
+        return next;
+    }
+
+    static int skip(int pos, int end, int n, int dim) {
+        long next = pos + (long) n * dim * 8;
+        if (n < 0 || next > end) {
+            throw new IllegalArgumentException("Invalid WKB, unexpected end of geometry");
+        }
+        return (int) next;
+    }
+
+    /**
+     * Reads a point, ring or geometry count, checking it lies before <tt>end</tt>.
+     */
+    static int count(byte[] b, int pos, int end, boolean le) {
+        if (pos + 4 > end) {
+            throw new IllegalArgumentException("Invalid WKB, unexpected end of geometry");
+        }
+        return readInt(b, pos, le);
+    }
+
+    static int readInt(byte[] b, int pos, boolean le) {
+        if (le) {
+            return (b[pos] & 0xff) | (b[pos+1] & 0xff) << 8 | (b[pos+2] & 0xff) << 16
+                | (b[pos+3] & 0xff) << 24;
+        }
+        return (b[pos] & 0xff) << 24 | (b[pos+1] & 0xff) << 16 | (b[pos+2] & 0xff) << 8
+            | (b[pos+3] & 0xff);
+    }
+
+    static double readDouble(byte[] b, int pos, boolean le) {
+        long l;
+        if (le) {
+            l = (long)(0xff & b[pos+7]) << 56  |
+                (long)(0xff & b[pos+6]) << 48  |
+                (long)(0xff & b[pos+5]) << 40  |
+                (long)(0xff & b[pos+4]) << 32  |
+                (long)(0xff & b[pos+3]) << 24  |
+                (long)(0xff & b[pos+2]) << 16  |
+                (long)(0xff & b[pos+1]) << 8   |
+                (long)(0xff & b[pos]);
+        }
+        else {
+            l = (long)(0xff & b[pos]) << 56  |
+                (long)(0xff & b[pos+1]) << 48  |
+                (long)(0xff & b[pos+2]) << 40  |
+                (long)(0xff & b[pos+3]) << 32  |
+                (long)(0xff & b[pos+4]) << 24  |
+                (long)(0xff & b[pos+5]) << 16  |
+                (long)(0xff & b[pos+6]) << 8   |
+                (long)(0xff & b[pos+7]);
+        }
+        return Double.longBitsToDouble(l);
+    }
+}
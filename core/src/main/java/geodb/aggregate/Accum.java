@@ -0,0 +1,37 @@
+package geodb.aggregate;
+
+import geodb.GeoDB;
+
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Aggregate gathering a set of geometries into an array of WKB values.
+ */
+public class Accum extends CollectionAggregate {
+
+    @Override
+    protected Geometry getGeometryResult() {
+        return null;
+    }
+
+    @Override
+    public Object getResult() throws SQLException {
+        if (geometries.isEmpty()) {
+            return null;
+        }
+
+        Object[] result = new Object[geometries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = GeoDB.gToWKB(geometries.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public int getType(int[] arg0) throws SQLException {
+        return Types.ARRAY;
+    }
+}
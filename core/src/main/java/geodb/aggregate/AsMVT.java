@@ -0,0 +1,105 @@
+package geodb.aggregate;
+
+import geodb.GeoDB;
+import geodb.MVT;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Aggregate encoding a set of geometries in tile coordinates as a Mapbox Vector Tile of a single
+ * layer.
+ * <p>
+ * The aggregate takes the geometry, usually the result of <tt>ST_AsMVTGeom</tt>, optionally
+ * followed by the name of the layer, the extent of the tile, the id of the feature and
+ * alternating attribute names and values. Rows are encoded by {@link MVT} as they are added,
+ * straight from their WKB, so only the encoded features are held until the tile is written.
+ * </p>
+ */
+public class AsMVT extends GeoAggregateFunction {
+
+    /** layer name when none is given */
+    static final String DEFAULT_NAME = "default";
+
+    private List<MVT.Feature> features = new ArrayList<MVT.Feature>();
+    private String name;
+    private int extent;
+
+    @Override
+    protected void addValue(Object value) throws SQLException {
+        Object geom = value;
+        Long id = null;
+        Object[] tags = null;
+        if (value instanceof Object[]) {
+            Object[] args = (Object[]) value;
+            geom = args[0];
+            if (args.length > 1 && args[1] != null && name == null) {
+                name = args[1].toString();
+            }
+            if (args.length > 2 && args[2] != null && extent == 0) {
+                extent = ((Number) args[2]).intValue();
+            }
+            if (args.length > 3 && args[3] != null) {
+                id = ((Number) args[3]).longValue();
+            }
+            if (args.length > 4) {
+                tags = new Object[args.length - 4];
+                System.arraycopy(args, 4, tags, 0, tags.length);
+            }
+        }
+        if (geom == null) {
+            return;
+        }
+
+        try {
+            MVT.features(geom, id, tags, features);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("given geometry can not be found", e);
+        }
+    }
+
+    @Override
+    protected void add(Geometry geometry) {
+        try {
+            MVT.features(GeoDB.gToWKB(geometry), null, null, features);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("given geometry can not be found", e);
+        }
+    }
+
+    @Override
+    public void merge(GeoAggregateFunction other) {
+        AsMVT o = (AsMVT) other;
+        features.addAll(o.features);
+        if (name == null) {
+            name = o.name;
+        }
+        if (extent == 0) {
+            extent = o.extent;
+        }
+    }
+
+    @Override
+    protected Geometry getGeometryResult() {
+        return null;
+    }
+
+    @Override
+    public Object getResult() throws SQLException {
+        return MVT.tile(name != null ? name : DEFAULT_NAME,
+            extent > 0 ? extent : MVT.DEFAULT_EXTENT, features);
+    }
+
+    public void init(Connection cx) throws SQLException {
+        features.clear();
+        name = null;
+        extent = 0;
+    }
+}
@@ -0,0 +1,19 @@
+package geodb.aggregate;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Aggregate collecting a set of geometries into a single multi geometry, or a geometry collection
+ * if they are not all of the same type. Unlike {@link Union} the geometries are not noded
+ * together, so the aggregate is cheap.
+ */
+public class Collect extends CollectionAggregate {
+
+    @Override
+    protected Geometry getGeometryResult() {
+        if (geometries.isEmpty()) {
+            return null;
+        }
+        return srid(factory.buildGeometry(geometries));
+    }
+}
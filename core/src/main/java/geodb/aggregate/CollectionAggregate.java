@@ -0,0 +1,42 @@
+package geodb.aggregate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+/**
+ * Base class of the aggregates which gather the geometries of the rows and build their result
+ * from all of them at once.
+ */
+abstract class CollectionAggregate extends GeoAggregateFunction {
+
+    static final GeometryFactory factory = new GeometryFactory();
+
+    protected List<Geometry> geometries = new ArrayList<Geometry>();
+
+    @Override
+    protected void add(Geometry geometry) {
+        geometries.add(geometry);
+    }
+
+    @Override
+    public void merge(GeoAggregateFunction other) {
+        geometries.addAll(((CollectionAggregate) other).geometries);
+    }
+
+    /**
+     * Sets the srid of the result to the one of the first geometry.
+     */
+    Geometry srid(Geometry result) {
+        result.setSRID(geometries.get(0).getSRID());
+        return result;
+    }
+
+    public void init(Connection arg0) throws SQLException {
+        geometries = new ArrayList<Geometry>();
+    }
+}
@@ -1,34 +1,74 @@
 package geodb.aggregate;
 
+import geodb.WKBCodec;
+import geodb.WKBEnvelope;
+
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 
+/**
+ * Aggregate computing the bounding box of a set of geometries.
+ * <p>
+ * Rows are never decoded, the bounds of their WKB are scanned by {@link WKBEnvelope} into a
+ * single bounds array, so the aggregate allocates nothing per row.
+ * </p>
+ */
 public class Extent extends GeoAggregateFunction {
 
-    private Geometry result;
+    static final GeometryFactory factory = new GeometryFactory();
+
+    private final double[] bounds = WKBEnvelope.bounds();
+
+    @Override
+    protected void addValue(Object value) throws SQLException {
+        try {
+            WKBCodec.get().expand(value, bounds);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("given geometry can not be found", e);
+        }
+    }
 
     @Override
     protected void add(Geometry geometry) {
-        if (result == null) {
-            result = geometry;
-        } else {
-            if (geometry != null) {
-                result = result.union(geometry.getEnvelope());
+        Envelope e = geometry.getEnvelopeInternal();
+        if (!e.isNull()) {
+            bounds[WKBEnvelope.MINX] = Math.min(bounds[WKBEnvelope.MINX], e.getMinX());
+            bounds[WKBEnvelope.MINY] = Math.min(bounds[WKBEnvelope.MINY], e.getMinY());
+            bounds[WKBEnvelope.MAXX] = Math.max(bounds[WKBEnvelope.MAXX], e.getMaxX());
+            bounds[WKBEnvelope.MAXY] = Math.max(bounds[WKBEnvelope.MAXY], e.getMaxY());
+        }
+    }
+
+    @Override
+    public void merge(GeoAggregateFunction other) {
+        double[] b = ((Extent) other).bounds;
+        if (!WKBEnvelope.isEmpty(b)) {
+            for (int i = WKBEnvelope.MINX; i <= WKBEnvelope.MINY; i++) {
+                bounds[i] = Math.min(bounds[i], b[i]);
+            }
+            for (int i = WKBEnvelope.MAXX; i <= WKBEnvelope.MAXY; i++) {
+                bounds[i] = Math.max(bounds[i], b[i]);
             }
+            bounds[WKBEnvelope.MINZ] = Math.min(bounds[WKBEnvelope.MINZ], b[WKBEnvelope.MINZ]);
+            bounds[WKBEnvelope.MAXZ] = Math.max(bounds[WKBEnvelope.MAXZ], b[WKBEnvelope.MAXZ]);
         }
     }
 
     @Override
     protected Geometry getGeometryResult() {
-        if (result != null) {
-            return result.getEnvelope();
+        if (WKBEnvelope.isEmpty(bounds)) {
+            return null;
         }
-        return null;
+        return factory.toGeometry(WKBEnvelope.toEnvelope(bounds));
     }
 
     public void init(Connection arg0) throws SQLException {
-        result = null;
+        WKBEnvelope.reset(bounds);
     }
 }
@@ -1,26 +1,41 @@
 package geodb.aggregate;
 
 import geodb.GeoDB;
+import geodb.Metrics;
+import geodb.Parallel;
+import geodb.WKBCodec;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Types;
 
 import org.h2.api.AggregateFunction;
 
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.io.InputStreamInStream;
 import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.WKBReader;
 
+/**
+ * Base class of the geometry aggregates.
+ * <p>
+ * An aggregate instance is the accumulator of a partial aggregate: rows are added to it one at a
+ * time and the partial aggregates of disjoint sets of rows are combined with {@link #merge}. This
+ * lets a set of rows be aggregated in partitions, on several threads by {@link #aggregate} or in
+ * several databases, and the partial results merged on a single instance to get the result.
+ * </p>
+ */
 public abstract class GeoAggregateFunction implements AggregateFunction {
 
-    private Geometry createGeometry(ByteArrayInputStream stream) {
-        InputStreamInStream inputStreamInStream = new InputStreamInStream(stream);
+    private Geometry createGeometry(Object value) {
         Geometry geometry = null;
         try {
-            geometry = new WKBReader().read(inputStreamInStream);
+            if (value instanceof byte[]) {
+                geometry = WKBCodec.get().read((byte[]) value);
+            }
+            else {
+                geometry = WKBCodec.get().read((InputStream) value);
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException("given geometry can not be found", e);
         } catch (ParseException e) {
@@ -34,25 +49,144 @@ public abstract class GeoAggregateFunction implements AggregateFunction {
 
     protected abstract Geometry getGeometryResult();
 
+    /**
+     * Merges into this aggregate the partial aggregate of another instance of the same class,
+     * accumulated from a disjoint set of rows. The other instance must not be used afterwards.
+     */
+    public abstract void merge(GeoAggregateFunction other);
+
+    /**
+     * Returns the name of the aggregate in the {@link Metrics}, the name it is created under in
+     * {@link GeoDB#InitGeoDB} by default.
+     */
+    protected String getName() {
+        return "ST_" + getClass().getSimpleName();
+    }
+
+    private Metrics.Stats stats, resultStats;
+
+    private Metrics.Stats stats() {
+        if (stats == null) {
+            stats = Metrics.stats(getName());
+        }
+        return stats;
+    }
+
+    /**
+     * Adds a geometry value, given as WKB bytes or as the stream H2 hands to aggregates.
+     */
     public final void add(Object arg0) throws SQLException {
-        if (arg0 != null) {
-            Geometry geometry = createGeometry((ByteArrayInputStream) arg0);
-            if (geometry != null) {
-                add(geometry);
+        Metrics.Stats s = stats();
+        long t = s.start();
+        try {
+            if (arg0 != null) {
+                addValue(arg0);
             }
         }
+        finally {
+            s.end(t);
+        }
     }
 
-    public final Object getResult() throws SQLException {
-        Geometry geometryResult = getGeometryResult();
-        if (geometryResult != null) {
-            return GeoDB.gToWKB(geometryResult);
+    /**
+     * Adds a non null geometry value, decoding it and passing it to {@link #add(Geometry)}.
+     */
+    protected void addValue(Object value) throws SQLException {
+        Geometry geometry = createGeometry(value);
+        if (geometry != null) {
+            add(geometry);
         }
-        return null;
     }
 
-    public final int getType(int[] arg0) throws SQLException {
+    public Object getResult() throws SQLException {
+        if (resultStats == null) {
+            resultStats = Metrics.stats(getName() + ".result");
+        }
+        long t = resultStats.start();
+        try {
+            Geometry geometryResult = getGeometryResult();
+            if (geometryResult != null) {
+                return GeoDB.gToWKB(geometryResult);
+            }
+            return null;
+        }
+        finally {
+            resultStats.end(t);
+        }
+    }
+
+    public int getType(int[] arg0) throws SQLException {
         return Types.BLOB;
     }
 
-}
\ No newline at end of file
+    /**
+     * Aggregates the geometry column of a table across the {@link Parallel} pool, each primary
+     * key range of the table into a new instance of the aggregate, merging the partial aggregates
+     * into <tt>result</tt> as they complete.
+     *
+     * @param result The initialized aggregate holding the result
+     * @param table The quoted, and possibly schema qualified, table name
+     * @param pk The quoted name of the numeric primary key column
+     * @param column The quoted name of the geometry column
+     */
+    public static void aggregate(Connection cx, String table, String pk, String column,
+        final GeoAggregateFunction result) throws SQLException {
+        final Class<? extends GeoAggregateFunction> type = result.getClass();
+        Parallel.scan(cx, table, pk, column, Parallel.BATCH,
+            new Parallel.Task<GeoAggregateFunction>() {
+                public GeoAggregateFunction process(long[] ids, byte[][] values, int n)
+                    throws Exception {
+                    GeoAggregateFunction partial = type.newInstance();
+                    partial.init(null);
+                    for (int i = 0; i < n; i++) {
+                        partial.add(values[i]);
+                    }
+                    return partial;
+                }
+            },
+            new Parallel.Collector<GeoAggregateFunction>() {
+                public void collect(long[] ids, int n, GeoAggregateFunction partial) {
+                    result.merge(partial);
+                }
+            });
+    }
+
+    /**
+     * Looks up an aggregate class by the name it is created under in {@link GeoDB#InitGeoDB}, or
+     * by class name.
+     */
+    public static GeoAggregateFunction forName(String name) throws SQLException {
+        String n = name.toUpperCase();
+        Class<?> type;
+        try {
+            if ("ST_EXTENT".equals(n)) {
+                type = Extent.class;
+            }
+            else if ("ST_UNION_AGGREGATE".equals(n)) {
+                type = Union.class;
+            }
+            else if ("ST_COLLECT".equals(n)) {
+                type = Collect.class;
+            }
+            else if ("ST_ACCUM".equals(n)) {
+                type = Accum.class;
+            }
+            else if ("ST_POLYGONIZE".equals(n)) {
+                type = Polygonize.class;
+            }
+            else if ("ST_ASMVT".equals(n)) {
+                type = AsMVT.class;
+            }
+            else {
+                type = Class.forName(name);
+            }
+            GeoAggregateFunction agg = (GeoAggregateFunction) type.newInstance();
+            agg.init(null);
+            return agg;
+        }
+        catch (Exception e) {
+            throw (SQLException) new SQLException("No such geometry aggregate: " + name)
+                .initCause(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package geodb.aggregate;
+
+import java.util.Collection;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.operation.polygonize.Polygonizer;
+
+/**
+ * Aggregate building the geometry collection of the polygons formed by the linework of a set of
+ * geometries. The linework must be correctly noded.
+ */
+public class Polygonize extends CollectionAggregate {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Geometry getGeometryResult() {
+        if (geometries.isEmpty()) {
+            return null;
+        }
+
+        Polygonizer polygonizer = new Polygonizer();
+        polygonizer.add(geometries);
+        Collection<Polygon> polygons = polygonizer.getPolygons();
+        return srid(factory.createGeometryCollection(
+            polygons.toArray(new Geometry[polygons.size()])));
+    }
+}
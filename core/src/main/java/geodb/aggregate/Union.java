@@ -1,31 +1,210 @@
 package geodb.aggregate;
 
+import geodb.Box;
+import geodb.Hilbert;
+import geodb.Parallel;
+import geodb.WKBCodec;
+
+import java.io.ByteArrayOutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.operation.union.UnaryUnionOp;
 
+/**
+ * Aggregate computing the union of a set of geometries.
+ * <p>
+ * Unioning the rows one at a time into an ever growing result is quadratic, so the geometries are
+ * buffered instead and unioned at the end with a cascaded union, which merges them pairwise
+ * along a spatial tree. Once the buffered geometries exceed <tt>geodb.union.points</tt>
+ * coordinates they are spilled to a buffer of WKB, about a third the size of the geometries.
+ * </p>
+ * <p>
+ * Large sets are sorted along a Hilbert curve and split into one run of nearby geometries per
+ * {@link Parallel} worker, the runs unioned on the pool and their results unioned last.
+ * </p>
+ */
 public class Union extends GeoAggregateFunction {
 
-    private Geometry result;
+    /** coordinates held as geometries before spilling them to WKB */
+    static final int MAX_POINTS = Integer.getInteger("geodb.union.points", 1 << 20);
+
+    /** geometries below which the union is not spread across the pool */
+    static final int PARALLEL = 1000;
+
+    private List<Geometry> geometries = new ArrayList<Geometry>();
+    private int points;
+    private ByteArrayOutputStream spilled;
+    private int srid;
+
+    @Override
+    protected String getName() {
+        return "ST_Union_Aggregate";
+    }
 
     @Override
     protected void add(Geometry geometry) {
-        if (result == null) {
-            result = geometry;
-        } else {
-            if (geometry != null) {
-                result = result.union(geometry);
+        if (geometries.isEmpty() && spilled == null) {
+            srid = geometry.getSRID();
+        }
+        geometries.add(geometry);
+        points += geometry.getNumPoints();
+
+        if (points > MAX_POINTS) {
+            spill();
+        }
+    }
+
+    @Override
+    public void merge(GeoAggregateFunction other) {
+        Union u = (Union) other;
+        if (geometries.isEmpty() && spilled == null) {
+            srid = u.srid;
+        }
+        if (u.spilled != null) {
+            if (spilled == null) {
+                spilled = new ByteArrayOutputStream(u.spilled.size());
             }
+            byte[] b = u.spilled.toByteArray();
+            spilled.write(b, 0, b.length);
+        }
+        for (Geometry g : u.geometries) {
+            add(g);
         }
     }
 
+    void spill() {
+        if (spilled == null) {
+            spilled = new ByteArrayOutputStream(1 << 16);
+        }
+        WKBCodec codec = WKBCodec.get();
+        for (Geometry g : geometries) {
+            byte[] wkb = codec.write(g);
+            int n = wkb.length;
+            spilled.write(n >>> 24);
+            spilled.write(n >>> 16);
+            spilled.write(n >>> 8);
+            spilled.write(n);
+            spilled.write(wkb, 0, n);
+        }
+        geometries.clear();
+        points = 0;
+    }
+
+    List<Geometry> unspill() {
+        List<Geometry> all = new ArrayList<Geometry>();
+        if (spilled != null) {
+            byte[] b = spilled.toByteArray();
+            spilled = null;
+
+            WKBCodec codec = WKBCodec.get();
+            int off = 0;
+            while (off < b.length) {
+                int n = (b[off] & 0xff) << 24 | (b[off+1] & 0xff) << 16 | (b[off+2] & 0xff) << 8
+                    | (b[off+3] & 0xff);
+                off += 4;
+                try {
+                    all.add(codec.read(b, off, n));
+                }
+                catch (ParseException e) {
+                    throw new IllegalStateException("Spilled geometry is not valid", e);
+                }
+                off += n;
+            }
+        }
+        all.addAll(geometries);
+        geometries.clear();
+        return all;
+    }
+
     @Override
     protected Geometry getGeometryResult() {
+        List<Geometry> all = unspill();
+        if (all.isEmpty()) {
+            return null;
+        }
+
+        Geometry result = union(all);
+        result.setSRID(srid);
         return result;
     }
 
+    static Geometry union(List<Geometry> geometries) {
+        int threads = Parallel.threads();
+        if (threads == 1 || geometries.size() < PARALLEL) {
+            return UnaryUnionOp.union(geometries);
+        }
+
+        //order along a hilbert curve, so that each run covers a compact area
+        Envelope bounds = new Envelope();
+        for (Geometry g : geometries) {
+            bounds.expandToInclude(g.getEnvelopeInternal());
+        }
+        Box box = new Box(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+
+        final long[] keys = new long[geometries.size()];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            Envelope e = geometries.get(i).getEnvelopeInternal();
+            keys[i] = e.isNull() ? 0 :
+                Hilbert.encode(e.centre().x, e.centre().y, box, Hilbert.ORDER);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long k1 = keys[i1], k2 = keys[i2];
+                return k1 < k2 ? -1 : k1 == k2 ? 0 : 1;
+            }
+        });
+
+        List<Future<Geometry>> runs = new ArrayList<Future<Geometry>>();
+        int size = (order.length + threads - 1) / threads;
+        for (int i = 0; i < order.length; i += size) {
+            final List<Geometry> run = new ArrayList<Geometry>(size);
+            for (int j = i; j < Math.min(order.length, i + size); j++) {
+                run.add(geometries.get(order[j]));
+            }
+            runs.add(Parallel.pool().submit(new Callable<Geometry>() {
+                public Geometry call() throws Exception {
+                    return UnaryUnionOp.union(run);
+                }
+            }));
+        }
+
+        List<Geometry> partials = new ArrayList<Geometry>(runs.size());
+        try {
+            for (Future<Geometry> f : runs) {
+                partials.add(f.get());
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Error computing union", e.getCause());
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted computing union", e);
+        }
+        finally {
+            for (Future<Geometry> f : runs) {
+                f.cancel(true);
+            }
+        }
+        return UnaryUnionOp.union(partials);
+    }
+
     public void init(Connection arg0) throws SQLException {
-        result = null;
+        geometries = new ArrayList<Geometry>();
+        points = 0;
+        spilled = null;
+        srid = 0;
     }
 }
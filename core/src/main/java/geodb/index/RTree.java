@@ -0,0 +1,872 @@
+package geodb.index;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An R-tree of row ids keyed by their bounding boxes.
+ * <p>
+ * The tree lives in memory and is persisted as a set of fixed size pages, one per node, see
+ * {@link #write(Node)} and {@link #read(Map, int, int)}. Every node created or modified since the
+ * last call to {@link #clean()} is tracked in {@link #dirty}, and the pages of removed nodes in
+ * {@link #freed}, so that only the affected pages need to be written back.
+ * </p>
+ * <p>
+ * Trees are either bulk loaded with the Sort-Tile-Recursive algorithm or maintained incrementally.
+ * Insertion picks the subtree needing the least enlargement and splits overflowing nodes along the
+ * axis with the widest spread. Removal does not reinsert the entries of underfull nodes, it only
+ * drops nodes that become empty.
+ * </p>
+ */
+public class RTree {
+
+    /**
+     * default maximum number of entries per node
+     */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /**
+     * Callback for query results.
+     */
+    public static interface Visitor {
+        void visit(long id);
+    }
+
+    /**
+     * Callback for join results.
+     */
+    public static interface PairVisitor {
+        void visit(long id1, long id2);
+    }
+
+    /**
+     * Callback for nearest neighbour results.
+     */
+    public static interface DistanceVisitor {
+        void visit(long id, double distance);
+    }
+
+    final int capacity;
+    Node root;
+    int height;
+    long size;
+    int nextPage = 1;
+
+    final Set<Node> dirty = new LinkedHashSet<Node>();
+    final List<Integer> freed = new ArrayList<Integer>();
+
+    public RTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RTree(int capacity) {
+        if (capacity < 4) {
+            throw new IllegalArgumentException("Node capacity must be at least 4");
+        }
+        this.capacity = capacity;
+        root = newNode(true);
+        height = 1;
+    }
+
+    /**
+     * Returns the number of entries in the tree.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of levels in the tree.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the maximum number of entries per node.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the bounds of the whole tree as <tt>[minx, miny, maxx, maxy]</tt>, or null if the
+     * tree is empty.
+     */
+    public double[] bounds() {
+        if (root.count == 0) {
+            return null;
+        }
+        double[] b = new double[4];
+        union(root, b, 0);
+        return b;
+    }
+
+    /**
+     * Inserts an entry.
+     */
+    public void insert(long id, double minx, double miny, double maxx, double maxy) {
+        Node leaf = root;
+        while (!leaf.leaf) {
+            leaf = leaf.children[choose(leaf, minx, miny, maxx, maxy)];
+        }
+
+        int i = leaf.count++;
+        leaf.ids[i] = id;
+        setBox(leaf.boxes, i, minx, miny, maxx, maxy);
+        dirty.add(leaf);
+        size++;
+
+        if (leaf.count > capacity) {
+            split(leaf);
+        }
+        else {
+            adjust(leaf);
+        }
+    }
+
+    /**
+     * Removes an entry, returning false if it could not be found. The box must be the one the entry
+     * was inserted with, or contained in it.
+     */
+    public boolean remove(long id, double minx, double miny, double maxx, double maxy) {
+        Node[] found = new Node[1];
+        int i = find(root, id, minx, miny, maxx, maxy, found);
+        if (i < 0) {
+            return false;
+        }
+
+        Node leaf = found[0];
+        removeEntry(leaf, i);
+        size--;
+        condense(leaf);
+        return true;
+    }
+
+    /**
+     * Visits the ids of all entries whose box intersects the specified box.
+     */
+    public void query(double minx, double miny, double maxx, double maxy, Visitor visitor) {
+        if (root.count == 0) {
+            return;
+        }
+
+        Node[] stack = new Node[height * capacity + 1];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node n = stack[--top];
+            double[] b = n.boxes;
+            for (int i = 0; i < n.count; i++) {
+                int j = i * 4;
+                if (b[j] <= maxx && b[j+2] >= minx && b[j+1] <= maxy && b[j+3] >= miny) {
+                    if (n.leaf) {
+                        visitor.visit(n.ids[i]);
+                    }
+                    else {
+                        stack[top++] = n.children[i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits entries in increasing order of the distance between their box and the specified box,
+     * best first, until <tt>k</tt> entries have been visited or the distance exceeds
+     * <tt>maxDistance</tt>.
+     */
+    public void nearest(double minx, double miny, double maxx, double maxy, int k,
+        double maxDistance, DistanceVisitor visitor) {
+        if (root.count == 0 || k <= 0) {
+            return;
+        }
+
+        PriorityQueue<Item> queue = new PriorityQueue<Item>();
+        queue.add(new Item(root, 0, 0));
+
+        int found = 0;
+        while (!queue.isEmpty()) {
+            Item item = queue.poll();
+            if (item.node == null) {
+                visitor.visit(item.id, item.distance);
+                if (++found == k) {
+                    return;
+                }
+                continue;
+            }
+
+            Node n = item.node;
+            double[] b = n.boxes;
+            for (int i = 0; i < n.count; i++) {
+                int j = i * 4;
+                double dx = Math.max(0, Math.max(b[j] - maxx, minx - b[j+2]));
+                double dy = Math.max(0, Math.max(b[j+1] - maxy, miny - b[j+3]));
+                double d = Math.sqrt(dx*dx + dy*dy);
+                if (d <= maxDistance) {
+                    queue.add(n.leaf ? new Item(null, n.ids[i], d) : new Item(n.children[i], 0, d));
+                }
+            }
+        }
+    }
+
+    /**
+     * A node or entry queued by a nearest neighbour search.
+     */
+    static final class Item implements Comparable<Item> {
+        final Node node;
+        final long id;
+        final double distance;
+
+        Item(Node node, long id, double distance) {
+            this.node = node;
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public int compareTo(Item other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+
+    /**
+     * Visits the pairs of entries of two trees whose boxes intersect, traversing both trees at
+     * once. Only pairs of nodes whose boxes intersect are descended into, and within a pair of
+     * nodes only the entries intersecting the overlap of the two nodes are considered.
+     */
+    public static void join(RTree t1, RTree t2, PairVisitor visitor) {
+        double[] b1 = t1.bounds();
+        double[] b2 = t2.bounds();
+        if (b1 == null || b2 == null || !intersects(b1, 0, b2, 0)) {
+            return;
+        }
+        join(t1.root, b1, t2.root, b2, visitor);
+    }
+
+    static void join(Node n1, double[] b1, Node n2, double[] b2, PairVisitor visitor) {
+        //overlap of the two nodes
+        double[] o = new double[]{Math.max(b1[0], b2[0]), Math.max(b1[1], b2[1]),
+            Math.min(b1[2], b2[2]), Math.min(b1[3], b2[3])};
+
+        if (n1.leaf && n2.leaf) {
+            for (int i = 0; i < n1.count; i++) {
+                if (!intersects(n1.boxes, i*4, o, 0)) {
+                    continue;
+                }
+                for (int j = 0; j < n2.count; j++) {
+                    if (intersects(n1.boxes, i*4, n2.boxes, j*4)) {
+                        visitor.visit(n1.ids[i], n2.ids[j]);
+                    }
+                }
+            }
+        }
+        else if (n1.leaf) {
+            descend(n2, o, n1, b1, visitor, false);
+        }
+        else if (n2.leaf) {
+            descend(n1, o, n2, b2, visitor, true);
+        }
+        else {
+            for (int i = 0; i < n1.count; i++) {
+                if (!intersects(n1.boxes, i*4, o, 0)) {
+                    continue;
+                }
+                for (int j = 0; j < n2.count; j++) {
+                    if (intersects(n1.boxes, i*4, n2.boxes, j*4)) {
+                        join(n1.children[i], box(n1.boxes, i), n2.children[j], box(n2.boxes, j),
+                            visitor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Descends into the children of an inner node, pairing each with the same other node.
+     */
+    static void descend(Node inner, double[] o, Node other, double[] otherBox,
+        PairVisitor visitor, boolean first) {
+        for (int i = 0; i < inner.count; i++) {
+            if (intersects(inner.boxes, i*4, o, 0)) {
+                if (first) {
+                    join(inner.children[i], box(inner.boxes, i), other, otherBox, visitor);
+                }
+                else {
+                    join(other, otherBox, inner.children[i], box(inner.boxes, i), visitor);
+                }
+            }
+        }
+    }
+
+    static boolean intersects(double[] a, int i, double[] b, int j) {
+        return a[i] <= b[j+2] && a[i+2] >= b[j] && a[i+1] <= b[j+3] && a[i+3] >= b[j+1];
+    }
+
+    static double[] box(double[] boxes, int i) {
+        double[] b = new double[4];
+        System.arraycopy(boxes, i*4, b, 0, 4);
+        return b;
+    }
+
+    //
+    // bulk loading
+    //
+    /**
+     * Builds a tree from <tt>n</tt> entries with the Sort-Tile-Recursive algorithm. The boxes are
+     * laid out as <tt>[minx, miny, maxx, maxy]</tt> per entry.
+     */
+    public static RTree bulkLoad(long[] ids, double[] boxes, int n, int capacity) {
+        RTree tree = new RTree(capacity);
+        if (n == 0) {
+            return tree;
+        }
+
+        int[] order = tree.tile(boxes, n);
+        List<Node> level = new ArrayList<Node>();
+        for (int i = 0; i < n; i += capacity) {
+            Node leaf = tree.newNode(true);
+            int m = Math.min(capacity, n - i);
+            for (int j = 0; j < m; j++) {
+                int k = order[i + j];
+                leaf.ids[j] = ids[k];
+                System.arraycopy(boxes, k * 4, leaf.boxes, j * 4, 4);
+            }
+            leaf.count = m;
+            level.add(leaf);
+        }
+
+        tree.size = n;
+        tree.packLevels(level);
+        return tree;
+    }
+
+    /**
+     * Packs a level of nodes into parents until a single root remains.
+     */
+    void packLevels(List<Node> level) {
+        height = 1;
+        while (level.size() > 1) {
+            int n = level.size();
+            double[] boxes = new double[n * 4];
+            for (int i = 0; i < n; i++) {
+                union(level.get(i), boxes, i * 4);
+            }
+
+            int[] order = tile(boxes, n);
+            List<Node> parents = new ArrayList<Node>();
+            for (int i = 0; i < n; i += capacity) {
+                Node p = newNode(false);
+                int m = Math.min(capacity, n - i);
+                for (int j = 0; j < m; j++) {
+                    int k = order[i + j];
+                    Node c = level.get(k);
+                    p.children[j] = c;
+                    c.parent = p;
+                    System.arraycopy(boxes, k * 4, p.boxes, j * 4, 4);
+                }
+                p.count = m;
+                parents.add(p);
+            }
+            level = parents;
+            height++;
+        }
+
+        //replace the empty initial root
+        freePage(root);
+        root = level.get(0);
+        root.parent = null;
+    }
+
+    /**
+     * Computes the Sort-Tile-Recursive order of a set of boxes: sorted into vertical slices by the
+     * x coordinate of their centers, and within each slice by the y coordinate of their centers.
+     */
+    int[] tile(double[] boxes, int n) {
+        int[] order = new int[n];
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            keys[i] = boxes[i*4] + boxes[i*4+2];
+        }
+        sort(order, keys, 0, n);
+
+        int pages = (n + capacity - 1) / capacity;
+        int slices = (int) Math.ceil(Math.sqrt(pages));
+        int sliceSize = slices * capacity;
+
+        for (int i = 0; i < n; i++) {
+            keys[order[i]] = boxes[order[i]*4+1] + boxes[order[i]*4+3];
+        }
+        for (int i = 0; i < n; i += sliceSize) {
+            sort(order, keys, i, Math.min(n, i + sliceSize));
+        }
+        return order;
+    }
+
+    /**
+     * Sorts a range of an index array by the keys of the indexes.
+     */
+    static void sort(int[] order, double[] keys, int lo, int hi) {
+        while (hi - lo > 16) {
+            //median of three pivot
+            int mid = (lo + hi) >>> 1;
+            double a = keys[order[lo]], b = keys[order[mid]], c = keys[order[hi-1]];
+            double pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+
+            int i = lo, j = hi - 1;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) i++;
+                while (keys[order[j]] > pivot) j--;
+                if (i <= j) {
+                    int t = order[i]; order[i] = order[j]; order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+
+            //recurse into the smaller half
+            if (j - lo < hi - i) {
+                sort(order, keys, lo, j + 1);
+                lo = i;
+            }
+            else {
+                sort(order, keys, i, hi);
+                hi = j + 1;
+            }
+        }
+
+        for (int i = lo + 1; i < hi; i++) {
+            int t = order[i];
+            double k = keys[t];
+            int j = i - 1;
+            while (j >= lo && keys[order[j]] > k) {
+                order[j+1] = order[j];
+                j--;
+            }
+            order[j+1] = t;
+        }
+    }
+
+    //
+    // incremental maintenance
+    //
+    int choose(Node n, double minx, double miny, double maxx, double maxy) {
+        int best = 0;
+        double bestEnlargement = Double.POSITIVE_INFINITY;
+        double bestArea = Double.POSITIVE_INFINITY;
+
+        double[] b = n.boxes;
+        for (int i = 0; i < n.count; i++) {
+            int j = i * 4;
+            double area = (b[j+2] - b[j]) * (b[j+3] - b[j+1]);
+            double enlarged = (Math.max(b[j+2], maxx) - Math.min(b[j], minx))
+                * (Math.max(b[j+3], maxy) - Math.min(b[j+1], miny));
+            double enlargement = enlarged - area;
+            if (enlargement < bestEnlargement
+                || (enlargement == bestEnlargement && area < bestArea)) {
+                best = i;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits an overflowing node in half along the axis with the widest spread of entry centers.
+     */
+    void split(Node n) {
+        int count = n.count;
+        double[] b = n.boxes;
+
+        double minx = Double.POSITIVE_INFINITY, maxx = Double.NEGATIVE_INFINITY;
+        double miny = Double.POSITIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double cx = b[i*4] + b[i*4+2];
+            double cy = b[i*4+1] + b[i*4+3];
+            minx = Math.min(minx, cx); maxx = Math.max(maxx, cx);
+            miny = Math.min(miny, cy); maxy = Math.max(maxy, cy);
+        }
+        int axis = (maxx - minx) >= (maxy - miny) ? 0 : 1;
+
+        int[] order = new int[count];
+        double[] keys = new double[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            keys[i] = b[i*4+axis] + b[i*4+axis+2];
+        }
+        sort(order, keys, 0, count);
+
+        //copy the entries out in sorted order
+        double[] boxes = new double[count * 4];
+        long[] ids = n.leaf ? new long[count] : null;
+        Node[] children = n.leaf ? null : new Node[count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(b, order[i]*4, boxes, i*4, 4);
+            if (n.leaf) {
+                ids[i] = n.ids[order[i]];
+            }
+            else {
+                children[i] = n.children[order[i]];
+            }
+        }
+
+        Node sibling = newNode(n.leaf);
+        int half = count / 2;
+        n.count = 0;
+        for (int i = 0; i < count; i++) {
+            Node target = i < half ? n : sibling;
+            int j = target.count++;
+            System.arraycopy(boxes, i*4, target.boxes, j*4, 4);
+            if (n.leaf) {
+                target.ids[j] = ids[i];
+            }
+            else {
+                target.children[j] = children[i];
+                children[i].parent = target;
+            }
+        }
+        if (!n.leaf) {
+            for (int i = n.count; i < count; i++) {
+                n.children[i] = null;
+            }
+        }
+        dirty.add(n);
+
+        Node parent = n.parent;
+        if (parent == null) {
+            //grow a new root
+            parent = newNode(false);
+            parent.children[0] = n;
+            union(n, parent.boxes, 0);
+            parent.count = 1;
+            n.parent = parent;
+            root = parent;
+            height++;
+        }
+        else {
+            union(n, parent.boxes, indexOf(parent, n) * 4);
+        }
+
+        int i = parent.count++;
+        parent.children[i] = sibling;
+        sibling.parent = parent;
+        union(sibling, parent.boxes, i * 4);
+        dirty.add(parent);
+
+        if (parent.count > capacity) {
+            split(parent);
+        }
+        else {
+            adjust(parent);
+        }
+    }
+
+    /**
+     * Updates the boxes of the ancestors of a modified node.
+     */
+    void adjust(Node n) {
+        double[] box = new double[4];
+        while (n.parent != null) {
+            Node p = n.parent;
+            int j = indexOf(p, n) * 4;
+            union(n, box, 0);
+            if (box[0] == p.boxes[j] && box[1] == p.boxes[j+1] && box[2] == p.boxes[j+2]
+                && box[3] == p.boxes[j+3]) {
+                //nothing more changes above this point
+                return;
+            }
+            System.arraycopy(box, 0, p.boxes, j, 4);
+            dirty.add(p);
+            n = p;
+        }
+    }
+
+    /**
+     * Drops nodes left empty by a removal and shrinks the root if it has a single child.
+     */
+    void condense(Node n) {
+        while (n.count == 0 && n.parent != null) {
+            Node p = n.parent;
+            removeEntry(p, indexOf(p, n));
+            freePage(n);
+            n = p;
+        }
+        adjust(n);
+
+        while (!root.leaf && root.count == 1) {
+            Node child = root.children[0];
+            freePage(root);
+            root = child;
+            root.parent = null;
+            height--;
+        }
+    }
+
+    int find(Node n, long id, double minx, double miny, double maxx, double maxy, Node[] found) {
+        double[] b = n.boxes;
+        for (int i = 0; i < n.count; i++) {
+            int j = i * 4;
+            if (b[j] <= minx && b[j+1] <= miny && b[j+2] >= maxx && b[j+3] >= maxy) {
+                if (n.leaf) {
+                    if (n.ids[i] == id) {
+                        found[0] = n;
+                        return i;
+                    }
+                }
+                else {
+                    int k = find(n.children[i], id, minx, miny, maxx, maxy, found);
+                    if (k >= 0) {
+                        return k;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    void removeEntry(Node n, int i) {
+        int last = --n.count;
+        System.arraycopy(n.boxes, last * 4, n.boxes, i * 4, 4);
+        if (n.leaf) {
+            n.ids[i] = n.ids[last];
+        }
+        else {
+            n.children[i] = n.children[last];
+        }
+        n.clear(last);
+        dirty.add(n);
+    }
+
+    static int indexOf(Node parent, Node child) {
+        for (int i = 0; i < parent.count; i++) {
+            if (parent.children[i] == child) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Corrupt tree, node not found in its parent");
+    }
+
+    static void setBox(double[] boxes, int i, double minx, double miny, double maxx, double maxy) {
+        int j = i * 4;
+        boxes[j] = minx;
+        boxes[j+1] = miny;
+        boxes[j+2] = maxx;
+        boxes[j+3] = maxy;
+    }
+
+    /**
+     * Computes the union of the entries of a node into <tt>box</tt> at <tt>off</tt>.
+     */
+    static void union(Node n, double[] box, int off) {
+        double minx = Double.POSITIVE_INFINITY, miny = Double.POSITIVE_INFINITY;
+        double maxx = Double.NEGATIVE_INFINITY, maxy = Double.NEGATIVE_INFINITY;
+        double[] b = n.boxes;
+        for (int i = 0; i < n.count; i++) {
+            int j = i * 4;
+            minx = Math.min(minx, b[j]);
+            miny = Math.min(miny, b[j+1]);
+            maxx = Math.max(maxx, b[j+2]);
+            maxy = Math.max(maxy, b[j+3]);
+        }
+        box[off] = minx;
+        box[off+1] = miny;
+        box[off+2] = maxx;
+        box[off+3] = maxy;
+    }
+
+    Node newNode(boolean leaf) {
+        Node n = new Node(capacity, leaf);
+        n.page = nextPage++;
+        dirty.add(n);
+        return n;
+    }
+
+    void freePage(Node n) {
+        dirty.remove(n);
+        freed.add(n.page);
+    }
+
+    /**
+     * Forgets about dirty and freed pages, once they have been persisted.
+     */
+    public void clean() {
+        dirty.clear();
+        freed.clear();
+    }
+
+    //
+    // page format
+    //
+    // |--1 byte--|--2 bytes--|--entries--|
+    //
+    // flags (1 = leaf), entry count, then per entry the box as four floats rounded outwards
+    // followed by the row id (8 bytes) in a leaf or the child page (4 bytes) in an inner node
+    //
+    /**
+     * Encodes a node as a page.
+     */
+    public byte[] write(Node n) {
+        ByteBuffer buf = ByteBuffer.allocate(3 + n.count * (n.leaf ? 24 : 20));
+        buf.put((byte) (n.leaf ? 1 : 0));
+        buf.putShort((short) n.count);
+        double[] b = n.boxes;
+        for (int i = 0; i < n.count; i++) {
+            int j = i * 4;
+            buf.putFloat(down(b[j]));
+            buf.putFloat(down(b[j+1]));
+            buf.putFloat(up(b[j+2]));
+            buf.putFloat(up(b[j+3]));
+            if (n.leaf) {
+                buf.putLong(n.ids[i]);
+            }
+            else {
+                buf.putInt(n.children[i].page);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Returns the bounds of the entries of an encoded node, without decoding the rest of the tree,
+     * or null if the node is empty.
+     */
+    public static double[] bounds(byte[] page) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        boolean leaf = buf.get() == 1;
+        int count = buf.getShort();
+        if (count == 0) {
+            return null;
+        }
+
+        double[] b = new double[]{Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            b[0] = Math.min(b[0], buf.getFloat());
+            b[1] = Math.min(b[1], buf.getFloat());
+            b[2] = Math.max(b[2], buf.getFloat());
+            b[3] = Math.max(b[3], buf.getFloat());
+            buf.position(buf.position() + (leaf ? 8 : 4));
+        }
+        return b;
+    }
+
+    /**
+     * Rebuilds a tree from its pages.
+     *
+     * @param pages The encoded pages keyed by page number.
+     * @param rootPage The page number of the root.
+     * @param height The number of levels in the tree.
+     */
+    public static RTree read(Map<Integer,byte[]> pages, int rootPage, int height, int capacity,
+        long size) {
+        RTree tree = new RTree(capacity);
+        tree.root = tree.read(pages, rootPage);
+        tree.height = height;
+        tree.size = size;
+
+        int max = 0;
+        for (Integer page : pages.keySet()) {
+            max = Math.max(max, page);
+        }
+        tree.nextPage = max + 1;
+        tree.clean();
+        return tree;
+    }
+
+    Node read(Map<Integer,byte[]> pages, int page) {
+        byte[] data = pages.get(page);
+        if (data == null) {
+            throw new IllegalStateException("Corrupt index, page " + page + " is missing");
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        Node n = new Node(capacity, buf.get() == 1);
+        n.page = page;
+        n.count = buf.getShort();
+        for (int i = 0; i < n.count; i++) {
+            setBox(n.boxes, i, buf.getFloat(), buf.getFloat(), buf.getFloat(), buf.getFloat());
+            if (n.leaf) {
+                n.ids[i] = buf.getLong();
+            }
+            else {
+                Node child = read(pages, buf.getInt());
+                child.parent = n;
+                n.children[i] = child;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Rounds a double to the largest float not greater than it.
+     */
+    static float down(double d) {
+        float f = (float) d;
+        if (f > d) {
+            f = f > 0 ? Float.intBitsToFloat(Float.floatToIntBits(f) - 1)
+                : (f == 0 ? -Float.MIN_VALUE : Float.intBitsToFloat(Float.floatToIntBits(f) + 1));
+        }
+        return f;
+    }
+
+    /**
+     * Rounds a double to the smallest float not less than it.
+     */
+    static float up(double d) {
+        float f = (float) d;
+        if (f < d) {
+            f = f < 0 ? Float.intBitsToFloat(Float.floatToIntBits(f) - 1)
+                : (f == 0 ? Float.MIN_VALUE : Float.intBitsToFloat(Float.floatToIntBits(f) + 1));
+        }
+        return f;
+    }
+
+    /**
+     * A node of the tree. Entry boxes are stored in a flat array, four values per entry, with one
+     * spare slot to hold the overflowing entry before a split.
+     */
+    public static final class Node {
+        int page;
+        boolean leaf;
+        int count;
+        double[] boxes;
+        long[] ids;
+        Node[] children;
+        Node parent;
+
+        Node(int capacity, boolean leaf) {
+            this.leaf = leaf;
+            boxes = new double[(capacity + 1) * 4];
+            if (leaf) {
+                ids = new long[capacity + 1];
+            }
+            else {
+                children = new Node[capacity + 1];
+            }
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public boolean isLeaf() {
+            return leaf;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        void clear(int i) {
+            if (!leaf) {
+                children[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package geodb.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Bulk loads an {@link RTree} from a stream of entries with the Sort-Tile-Recursive algorithm,
+ * within a memory budget.
+ * <p>
+ * Entries are buffered until the budget is used up, at which point the buffer is sorted by the x
+ * coordinate of the box centers and spilled to a temporary file. Once all the entries have been
+ * added the sorted runs are merged, cut into vertical slices, and each slice is sorted by the y
+ * coordinate of the box centers and packed into full leaves. The upper levels of the tree are
+ * then packed from the leaves the same way. When everything fits in the budget nothing is
+ * written to disk.
+ * </p>
+ */
+public class RTreeBuilder {
+
+    /**
+     * default memory budget for the entries being sorted, in bytes
+     */
+    public static final long DEFAULT_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * memory used per buffered entry: the id, box, sort order and sort key
+     */
+    static final int ENTRY_SIZE = 8 + 32 + 4 + 8;
+
+    final RTree tree;
+    final int bufferSize;
+
+    long[] ids;
+    double[] boxes;
+    int n;
+    long count;
+
+    List<File> runs = new ArrayList<File>();
+    List<Integer> runSizes = new ArrayList<Integer>();
+    int spills;
+
+    public RTreeBuilder(int capacity) {
+        this(capacity, DEFAULT_MEMORY);
+    }
+
+    /**
+     * @param capacity The maximum number of entries per node
+     * @param memory The memory budget for sorting entries, in bytes
+     */
+    public RTreeBuilder(int capacity, long memory) {
+        tree = new RTree(capacity);
+        bufferSize = (int) Math.min(Integer.MAX_VALUE / 4,
+            Math.max(capacity * 4, memory / ENTRY_SIZE));
+
+        //start small, tables are not always big
+        int initial = Math.min(bufferSize, 1024);
+        ids = new long[initial];
+        boxes = new double[initial * 4];
+    }
+
+    /**
+     * Returns the number of entries added so far.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of sorted runs spilled to disk so far.
+     */
+    public int spills() {
+        return spills;
+    }
+
+    /**
+     * Adds an entry.
+     */
+    public void add(long id, double minx, double miny, double maxx, double maxy)
+        throws IOException {
+        if (n == ids.length) {
+            if (n == bufferSize) {
+                spill();
+            }
+            else {
+                grow(Math.min(bufferSize, n * 2));
+            }
+        }
+
+        ids[n] = id;
+        RTree.setBox(boxes, n, minx, miny, maxx, maxy);
+        n++;
+        count++;
+    }
+
+    /**
+     * Builds the tree from the entries added and removes any temporary files.
+     */
+    public RTree build() throws IOException {
+        try {
+            if (runs.isEmpty()) {
+                //everything fit in memory
+                RTree t = RTree.bulkLoad(ids, boxes, n, tree.capacity);
+                ids = null;
+                boxes = null;
+                return t;
+            }
+
+            if (n > 0) {
+                spill();
+            }
+            return merge();
+        }
+        finally {
+            for (File f : runs) {
+                f.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * Sorts the buffer by x and writes it out as a run.
+     */
+    void spill() throws IOException {
+        int[] order = order(boxes, n, 0);
+
+        File f = File.createTempFile("geodb", ".str");
+        f.deleteOnExit();
+        runs.add(f);
+        runSizes.add(n);
+        spills++;
+
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 65536));
+        try {
+            for (int i = 0; i < n; i++) {
+                int k = order[i];
+                out.writeLong(ids[k]);
+                out.writeDouble(boxes[k*4]);
+                out.writeDouble(boxes[k*4+1]);
+                out.writeDouble(boxes[k*4+2]);
+                out.writeDouble(boxes[k*4+3]);
+            }
+        }
+        finally {
+            out.close();
+        }
+        n = 0;
+    }
+
+    /**
+     * Merges the sorted runs, packing each vertical slice into leaves as soon as it is complete.
+     */
+    RTree merge() throws IOException {
+        int capacity = tree.capacity;
+        long pages = (count + capacity - 1) / capacity;
+        long sliceSize = (long) Math.ceil(Math.sqrt(pages)) * capacity;
+        if (sliceSize > ids.length) {
+            grow((int) Math.min(Integer.MAX_VALUE / 4, sliceSize));
+        }
+
+        PriorityQueue<Run> queue = new PriorityQueue<Run>();
+        List<RTree.Node> leaves = new ArrayList<RTree.Node>();
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = new Run(runs.get(i), runSizes.get(i));
+                if (run.next()) {
+                    queue.add(run);
+                }
+                else {
+                    run.close();
+                }
+            }
+
+            n = 0;
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                ids[n] = run.id;
+                System.arraycopy(run.box, 0, boxes, n * 4, 4);
+                n++;
+
+                if (run.next()) {
+                    queue.add(run);
+                }
+                else {
+                    run.close();
+                }
+
+                if (n == sliceSize) {
+                    pack(leaves);
+                }
+            }
+            if (n > 0) {
+                pack(leaves);
+            }
+        }
+        finally {
+            for (Run run : queue) {
+                run.close();
+            }
+        }
+
+        ids = null;
+        boxes = null;
+        tree.size = count;
+        tree.packLevels(leaves);
+        return tree;
+    }
+
+    /**
+     * Sorts the current slice by y and packs it into leaves.
+     */
+    void pack(List<RTree.Node> leaves) {
+        int capacity = tree.capacity;
+        int[] order = order(boxes, n, 1);
+        for (int i = 0; i < n; i += capacity) {
+            RTree.Node leaf = tree.newNode(true);
+            int m = Math.min(capacity, n - i);
+            for (int j = 0; j < m; j++) {
+                int k = order[i + j];
+                leaf.ids[j] = ids[k];
+                System.arraycopy(boxes, k * 4, leaf.boxes, j * 4, 4);
+            }
+            leaf.count = m;
+            leaves.add(leaf);
+        }
+        n = 0;
+    }
+
+    void grow(int size) {
+        long[] l = new long[size];
+        System.arraycopy(ids, 0, l, 0, n);
+        ids = l;
+
+        double[] d = new double[size * 4];
+        System.arraycopy(boxes, 0, d, 0, n * 4);
+        boxes = d;
+    }
+
+    /**
+     * Returns the order of the first <tt>n</tt> boxes sorted by the center along an axis.
+     */
+    static int[] order(double[] boxes, int n, int axis) {
+        int[] order = new int[n];
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            keys[i] = boxes[i*4+axis] + boxes[i*4+axis+2];
+        }
+        RTree.sort(order, keys, 0, n);
+        return order;
+    }
+
+    /**
+     * A sorted run being merged.
+     */
+    static class Run implements Comparable<Run> {
+        DataInputStream in;
+        int remaining;
+        long id;
+        double[] box = new double[4];
+        double key;
+
+        Run(File f, int size) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 65536));
+            remaining = size;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            id = in.readLong();
+            box[0] = in.readDouble();
+            box[1] = in.readDouble();
+            box[2] = in.readDouble();
+            box[3] = in.readDouble();
+            key = box[0] + box[2];
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+
+        public int compareTo(Run other) {
+            return Double.compare(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,862 @@
+package geodb.index;
+
+import geodb.GeoDB;
+import geodb.Parallel;
+import geodb.WKBEnvelope;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * A GeoDB spatial index on a geometry column, an {@link RTree} of the primary keys of the rows.
+ * <p>
+ * The tree is persisted in a table named <tt>&lt;table>_&lt;column>_RTREE</tt> holding one
+ * compact page per node, plus page 0 holding the index metadata. The pages are read once per
+ * database, the first time the index is used, and queries then run against the tree held in
+ * memory. Changes to the table are applied to the tree by {@link geodb.RTreeTrigger} and only the
+ * pages they affect are written back.
+ * </p>
+ * <p>
+ * The persisted pages take part in the transaction of the statement modifying the table, the tree
+ * in memory does not. Every write of the pages stamps the metadata page with a new random value,
+ * which the tree held in memory is checked against before it is used or changed: a rollback, or
+ * the index being recreated elsewhere, restores or replaces the stamp and the tree is read back
+ * from its pages.
+ * </p>
+ * <p>
+ * The indexed table must have a single numeric primary key column.
+ * </p>
+ */
+public class SpatialIndex {
+
+    /**
+     * version of the metadata page format
+     */
+    static final int FORMAT = 2;
+
+    /**
+     * loaded indexes, keyed by database, schema, table and column
+     */
+    static final Map<String,SpatialIndex> indexes = new HashMap<String,SpatialIndex>();
+
+    /**
+     * source of the stamps of the metadata page
+     */
+    static final Random stamps = new Random();
+
+    final String key;
+    final String schema;
+    final String table;
+    final String column;
+    String primaryKey;
+    int srid;
+    RTree tree;
+    long stamp;
+
+    SpatialIndex(String key, String schema, String table, String column) {
+        this.key = key;
+        this.schema = schema;
+        this.table = table;
+        this.column = column;
+    }
+
+    /**
+     * Returns the name of the table holding the pages of an index.
+     */
+    public static String pageTable(String table, String column) {
+        return table + "_" + column + "_RTREE";
+    }
+
+    /**
+     * Returns the name of the trigger maintaining an index.
+     */
+    public static String triggerName(String table, String column) {
+        return pageTable(table, column) + "_TRIGGER";
+    }
+
+    /**
+     * Creates, or recreates, the spatial index of a geometry column.
+     *
+     * @param schema The table schema, may be <code>null</code> to specify default schema
+     * @param srid The spatial reference system of the column
+     * @param capacity The maximum number of entries per node
+     */
+    public static SpatialIndex create(Connection cx, String schema, String table, String column,
+        int srid, int capacity) throws SQLException {
+        return create(cx, schema, table, column, srid, capacity, RTreeBuilder.DEFAULT_MEMORY);
+    }
+
+    /**
+     * Creates, or recreates, the spatial index of a geometry column.
+     *
+     * @param schema The table schema, may be <code>null</code> to specify default schema
+     * @param srid The spatial reference system of the column
+     * @param capacity The maximum number of entries per node
+     * @param memory The memory budget for sorting the entries during the build, in bytes
+     */
+    public static SpatialIndex create(Connection cx, String schema, String table, String column,
+        int srid, int capacity, long memory) throws SQLException {
+        return create(cx, schema, table, column, srid, new RTreeBuilder(capacity, memory), true);
+    }
+
+    /**
+     * Creates, or recreates, the spatial index of a geometry column from the entries added to a
+     * builder, keyed by primary key, rather than from a scan of the table. Meant for loaders
+     * computing the envelopes of the rows as they write them.
+     *
+     * @param schema The table schema, may be <code>null</code> to specify default schema
+     * @param srid The spatial reference system of the column
+     * @param entries The builder holding an entry for every row of the table
+     */
+    public static SpatialIndex create(Connection cx, String schema, String table, String column,
+        int srid, RTreeBuilder entries) throws SQLException {
+        return create(cx, schema, table, column, srid, entries, false);
+    }
+
+    static SpatialIndex create(Connection cx, String schema, String table, String column,
+        int srid, RTreeBuilder builder, boolean scan) throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        drop(cx, schema, table, column);
+
+        SpatialIndex index = new SpatialIndex(key(cx, schema, table, column), schema, table, column);
+        index.primaryKey = primaryKey(cx, schema, table);
+        index.srid = srid;
+        index.tree = index.build(cx, builder, scan);
+
+        Statement st = cx.createStatement();
+        try {
+            st.execute("CREATE TABLE " + tbl(schema, pageTable(table, column)) +
+                " (ID INT PRIMARY KEY, DATA BINARY)");
+            index.flush(cx);
+
+            st.execute("CREATE TRIGGER " + tbl(schema, triggerName(table, column)) +
+                " AFTER INSERT, UPDATE, DELETE ON " + tbl(schema, table) +
+                " FOR EACH ROW CALL \"geodb.RTreeTrigger\"");
+        }
+        finally {
+            st.close();
+        }
+
+        synchronized (indexes) {
+            indexes.put(index.key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Looks up the spatial index of a geometry column, returning null if there is none.
+     */
+    public static SpatialIndex get(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        String key = key(cx, schema, table, column);
+
+        synchronized (indexes) {
+            SpatialIndex index = indexes.get(key);
+            if (index != null && !index.sync(cx)) {
+                //dropped from under us
+                indexes.remove(key);
+                return null;
+            }
+            if (index == null && exists(cx, schema, pageTable(table, column))) {
+                index = new SpatialIndex(key, schema, table, column);
+                index.load(cx);
+                indexes.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Looks up the spatial indexes of all the columns of a table.
+     */
+    public static List<SpatialIndex> list(Connection cx, String schema, String table)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+
+        List<String> columns = new ArrayList<String>();
+        ResultSet rs = cx.getMetaData().getColumns(null, schema, table, "%");
+        try {
+            while (rs.next()) {
+                columns.add(rs.getString("COLUMN_NAME"));
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        List<SpatialIndex> list = new ArrayList<SpatialIndex>();
+        for (String column : columns) {
+            SpatialIndex index = get(cx, schema, table, column);
+            if (index != null) {
+                list.add(index);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Looks up the spatial index of a table, returning null if there is none. If more than one
+     * column is indexed the first one is returned.
+     */
+    public static SpatialIndex find(Connection cx, String schema, String table)
+        throws SQLException {
+        List<SpatialIndex> list = list(cx, schema, table);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Drops the spatial index of a geometry column, returning false if there was none.
+     */
+    public static boolean drop(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+        synchronized (indexes) {
+            indexes.remove(key(cx, schema, table, column));
+        }
+
+        if (!exists(cx, schema, pageTable(table, column))) {
+            return false;
+        }
+
+        Statement st = cx.createStatement();
+        try {
+            st.execute("DROP TRIGGER IF EXISTS " + tbl(schema, triggerName(table, column)));
+            st.execute("DROP TABLE " + tbl(schema, pageTable(table, column)));
+        }
+        finally {
+            st.close();
+        }
+        return true;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    public int getSrid() {
+        return srid;
+    }
+
+    /**
+     * Returns the maximum number of entries per node of the index.
+     */
+    public int getCapacity() {
+        return tree.capacity;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     */
+    public synchronized long size() {
+        return tree.size();
+    }
+
+    /**
+     * Returns the bounds of the index as <tt>[minx, miny, maxx, maxy]</tt>, or null if it is
+     * empty.
+     */
+    public synchronized double[] bounds() {
+        return tree.bounds();
+    }
+
+    /**
+     * Visits the primary keys of the rows whose bounding box intersects the specified box.
+     */
+    public synchronized void query(double minx, double miny, double maxx, double maxy,
+        RTree.Visitor visitor) {
+        tree.query(minx, miny, maxx, maxy, visitor);
+    }
+
+    /**
+     * Visits the primary keys of the rows in increasing order of the distance between their
+     * bounding box and the specified box, see {@link RTree#nearest}.
+     */
+    public synchronized void nearest(double minx, double miny, double maxx, double maxy, int k,
+        double maxDistance, RTree.DistanceVisitor visitor) {
+        tree.nearest(minx, miny, maxx, maxy, k, maxDistance, visitor);
+    }
+
+    /**
+     * Finds the <tt>k</tt> rows nearest to a geometry, sorted by increasing distance.
+     * <p>
+     * Box distances are only a lower bound of the real distances, so the search runs in two
+     * passes. The first visits the <tt>k</tt> entries nearest by box and reads their geometries to
+     * compute their real distances, the largest of which bounds the distance of the answer. Entries
+     * whose row no longer exists are skipped, visiting further entries to make up for them. The
+     * second visits the entries within that bound by box and refines the remaining ones the same
+     * way. The index is not locked while the geometries are read.
+     * </p>
+     */
+    public List<Neighbor> nearest(Connection cx, byte[] wkb, int k) throws SQLException {
+        List<Neighbor> neighbors = new ArrayList<Neighbor>();
+        double[] q = WKBEnvelope.bounds();
+        if (k <= 0 || !WKBEnvelope.envelope(wkb, q)) {
+            return neighbors;
+        }
+
+        final Map<Long,Neighbor> found = new HashMap<Long,Neighbor>();
+        final List<Neighbor> candidates = new ArrayList<Neighbor>();
+        RTree.DistanceVisitor visitor = new RTree.DistanceVisitor() {
+            public void visit(long id, double distance) {
+                if (!found.containsKey(id)) {
+                    Neighbor n = new Neighbor(id, distance);
+                    found.put(id, n);
+                    candidates.add(n);
+                }
+            }
+        };
+
+        Refiner refiner = new Refiner(cx, wkb, q);
+        try {
+            double bound = 0;
+            int valid = 0;
+            for (int want = k; ; want += k - valid) {
+                nearest(q[WKBEnvelope.MINX], q[WKBEnvelope.MINY], q[WKBEnvelope.MAXX],
+                    q[WKBEnvelope.MAXY], want, Double.POSITIVE_INFINITY, visitor);
+                bound = Math.max(bound, refiner.refine(candidates));
+                candidates.clear();
+
+                valid = 0;
+                for (Neighbor n : found.values()) {
+                    valid += Double.isNaN(n.distance) ? 0 : 1;
+                }
+                if (valid >= k || found.size() < want) {
+                    //enough rows, or no more entries
+                    break;
+                }
+            }
+
+            nearest(q[WKBEnvelope.MINX], q[WKBEnvelope.MINY], q[WKBEnvelope.MAXX],
+                q[WKBEnvelope.MAXY], Integer.MAX_VALUE, bound, visitor);
+            refiner.refine(candidates);
+        }
+        finally {
+            refiner.close();
+        }
+
+        for (Neighbor n : found.values()) {
+            if (!Double.isNaN(n.distance)) {
+                neighbors.add(n);
+            }
+        }
+        Collections.sort(neighbors);
+        return neighbors.size() > k ? new ArrayList<Neighbor>(neighbors.subList(0, k)) : neighbors;
+    }
+
+    /**
+     * A row found by a nearest neighbour search.
+     */
+    public static final class Neighbor implements Comparable<Neighbor> {
+        final long id;
+        double distance;
+
+        Neighbor(long id, double distance) {
+            this.id = id;
+            this.distance = distance;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        public int compareTo(Neighbor other) {
+            int c = Double.compare(distance, other.distance);
+            return c != 0 ? c : (id < other.id ? -1 : (id == other.id ? 0 : 1));
+        }
+    }
+
+    /**
+     * Computes the real distances of candidate rows.
+     */
+    class Refiner {
+        final PreparedStatement ps;
+        final byte[] wkb;
+        final double[] q;
+        final double[] bounds = WKBEnvelope.bounds();
+        Geometry g;
+
+        Refiner(Connection cx, byte[] wkb, double[] q) throws SQLException {
+            this.wkb = wkb;
+            this.q = q;
+            ps = cx.prepareStatement("SELECT " + esc(column) + " FROM " + tbl(schema, table) +
+                " WHERE " + esc(primaryKey) + " = ?");
+        }
+
+        /**
+         * Refines the candidates, returning the largest distance. Rows that are gone get a NaN
+         * distance.
+         */
+        double refine(List<Neighbor> candidates) throws SQLException {
+            double max = 0;
+            for (Neighbor n : candidates) {
+                n.distance = Double.NaN;
+                ps.setLong(1, n.id);
+                ResultSet rs = ps.executeQuery();
+                try {
+                    if (rs.next()) {
+                        byte[] other = rs.getBytes(1);
+                        if (other != null && other.length > 0) {
+                            n.distance = distance(other);
+                        }
+                    }
+                }
+                finally {
+                    rs.close();
+                }
+
+                if (!Double.isNaN(n.distance)) {
+                    max = Math.max(max, n.distance);
+                }
+            }
+            return max;
+        }
+
+        double distance(byte[] other) {
+            if (!WKBEnvelope.envelope(other, bounds)) {
+                return Double.NaN;
+            }
+            if (isPoint(q) && isPoint(bounds)) {
+                //no need to parse two points
+                return WKBEnvelope.distance(q, bounds);
+            }
+
+            if (g == null) {
+                g = GeoDB.gFromWKB(wkb);
+            }
+            return g.distance(GeoDB.gFromWKB(other));
+        }
+
+        void close() throws SQLException {
+            ps.close();
+        }
+    }
+
+    static boolean isPoint(double[] b) {
+        return b[WKBEnvelope.MINX] == b[WKBEnvelope.MAXX]
+            && b[WKBEnvelope.MINY] == b[WKBEnvelope.MAXY];
+    }
+
+    /**
+     * Applies a change to a row. The old and new bounds are laid out as in {@link WKBEnvelope},
+     * either may be null or empty.
+     */
+    public synchronized void update(Connection cx, long oldId, double[] oldBounds, long newId,
+        double[] newBounds) throws SQLException {
+        if (!sync(cx)) {
+            throw new SQLException("Spatial index " + pageTable(table, column) + " was dropped");
+        }
+
+        boolean removed = false, inserted = false;
+        if (oldBounds != null && !WKBEnvelope.isEmpty(oldBounds)) {
+            removed = tree.remove(oldId, oldBounds[WKBEnvelope.MINX], oldBounds[WKBEnvelope.MINY],
+                oldBounds[WKBEnvelope.MAXX], oldBounds[WKBEnvelope.MAXY]);
+        }
+        if (newBounds != null && !WKBEnvelope.isEmpty(newBounds)) {
+            tree.insert(newId, newBounds[WKBEnvelope.MINX], newBounds[WKBEnvelope.MINY],
+                newBounds[WKBEnvelope.MAXX], newBounds[WKBEnvelope.MAXY]);
+            inserted = true;
+        }
+
+        if (removed || inserted) {
+            flush(cx);
+        }
+    }
+
+    //
+    // building
+    //
+    /**
+     * Streams the envelopes of all the rows of the table into a builder, unless it already holds
+     * them, and builds the tree. The envelopes are computed on the {@link Parallel} worker pool,
+     * one primary key range at a time.
+     */
+    RTree build(Connection cx, final RTreeBuilder builder, boolean scan) throws SQLException {
+        if (scan) {
+            scan(cx, builder);
+        }
+        try {
+            return builder.build();
+        }
+        catch (IOException e) {
+            throw (SQLException) new SQLException("Error building spatial index").initCause(e);
+        }
+    }
+
+    void scan(Connection cx, final RTreeBuilder builder) throws SQLException {
+        Parallel.scan(cx, tbl(schema, table), esc(primaryKey), esc(column), Parallel.BATCH,
+            new Parallel.Task<double[]>() {
+                public double[] process(long[] ids, byte[][] values, int n) {
+                    double[] boxes = new double[n * 4];
+                    double[] bounds = WKBEnvelope.bounds();
+                    for (int i = 0; i < n; i++) {
+                        byte[] wkb = values[i];
+                        if (wkb == null || wkb.length == 0 || !WKBEnvelope.envelope(wkb, bounds)) {
+                            //nothing to index
+                            boxes[i*4] = Double.NaN;
+                            continue;
+                        }
+                        System.arraycopy(bounds, 0, boxes, i*4, 4);
+                    }
+                    return boxes;
+                }
+            },
+            new Parallel.Collector<double[]>() {
+                public void collect(long[] ids, int n, double[] boxes) throws IOException {
+                    for (int i = 0; i < n; i++) {
+                        if (!Double.isNaN(boxes[i*4])) {
+                            builder.add(ids[i], boxes[i*4], boxes[i*4+1], boxes[i*4+2],
+                                boxes[i*4+3]);
+                        }
+                    }
+                }
+            });
+    }
+
+    //
+    // persistence
+    //
+    /**
+     * Writes the pages modified since the last flush, and the metadata page.
+     */
+    void flush(Connection cx) throws SQLException {
+        String pages = tbl(schema, pageTable(table, column));
+        stamp = stamps.nextLong();
+
+        PreparedStatement ps = cx.prepareStatement("MERGE INTO " + pages + " KEY(ID) VALUES (?, ?)");
+        try {
+            ps.setInt(1, 0);
+            ps.setBytes(2, writeMetadata());
+            ps.addBatch();
+
+            for (Iterator<RTree.Node> i = tree.dirty.iterator(); i.hasNext(); ) {
+                RTree.Node node = i.next();
+                ps.setInt(1, node.page);
+                ps.setBytes(2, tree.write(node));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        finally {
+            ps.close();
+        }
+
+        if (!tree.freed.isEmpty()) {
+            ps = cx.prepareStatement("DELETE FROM " + pages + " WHERE ID = ?");
+            try {
+                for (Integer page : tree.freed) {
+                    ps.setInt(1, page);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+            finally {
+                ps.close();
+            }
+        }
+
+        tree.clean();
+    }
+
+    /**
+     * Reads the tree back from its pages if they were written by another instance, or rolled
+     * back, since this instance last read or wrote them. Returns false if the index is gone.
+     */
+    synchronized boolean sync(Connection cx) throws SQLException {
+        String pages = pageTable(table, column);
+        if (!exists(cx, schema, pages)) {
+            return false;
+        }
+
+        byte[] metadata;
+        PreparedStatement ps = cx.prepareStatement("SELECT DATA FROM " + tbl(schema, pages) +
+            " WHERE ID = ?");
+        try {
+            metadata = page(ps, 0);
+        }
+        finally {
+            ps.close();
+        }
+        if (metadata == null) {
+            return false;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+            if (in.readInt() == FORMAT) {
+                in.readInt();
+                in.readUTF();
+                in.skipBytes(12 + 8);
+                if (in.readLong() == stamp) {
+                    return true;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw (SQLException) new SQLException("Error reading spatial index").initCause(e);
+        }
+
+        load(cx);
+        return true;
+    }
+
+    /**
+     * Reads the tree back from its pages.
+     */
+    void load(Connection cx) throws SQLException {
+        Map<Integer,byte[]> pages = new HashMap<Integer,byte[]>();
+
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("SELECT ID, DATA FROM " +
+                tbl(schema, pageTable(table, column)));
+            try {
+                while (rs.next()) {
+                    pages.put(rs.getInt(1), rs.getBytes(2));
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            st.close();
+        }
+
+        byte[] metadata = pages.remove(0);
+        if (metadata == null) {
+            throw new SQLException("Corrupt spatial index " + pageTable(table, column) +
+                ", metadata page is missing");
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+            int format = in.readInt();
+            if (format != FORMAT) {
+                throw new SQLException("Unsupported spatial index format " + format +
+                    ", recreate the index");
+            }
+
+            srid = in.readInt();
+            primaryKey = in.readUTF();
+            int capacity = in.readInt();
+            int root = in.readInt();
+            int height = in.readInt();
+            long size = in.readLong();
+            stamp = in.readLong();
+            tree = RTree.read(pages, root, height, capacity, size);
+        }
+        catch (IOException e) {
+            throw (SQLException) new SQLException("Error reading spatial index").initCause(e);
+        }
+        catch (RuntimeException e) {
+            throw (SQLException) new SQLException("Error reading spatial index").initCause(e);
+        }
+    }
+
+    byte[] writeMetadata() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT);
+            out.writeInt(srid);
+            out.writeUTF(primaryKey);
+            out.writeInt(tree.capacity);
+            out.writeInt(tree.root.page);
+            out.writeInt(tree.height);
+            out.writeLong(tree.size);
+            out.writeLong(stamp);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            //can't happen writing to memory
+            throw new RuntimeException(e);
+        }
+    }
+
+    //
+    // helpers
+    //
+    static String key(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("CALL IFNULL(DATABASE_PATH(), 'mem:' || DATABASE())");
+            try {
+                rs.next();
+                return rs.getString(1) + "/" + schema + "/" + table + "/" + column;
+            }
+            finally {
+                rs.close();
+            }
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Returns the bounds of the spatial index of a geometry column as <tt>[minx, miny, maxx, maxy,
+     * srid]</tt>, or null if the column has no index or the index is empty.
+     * <p>
+     * Only the metadata and root pages of an index not already loaded are read, rather than the
+     * whole tree, so the bounds come back in constant time.
+     * </p>
+     */
+    public static double[] extent(Connection cx, String schema, String table, String column)
+        throws SQLException {
+        schema = schema != null ? schema : "PUBLIC";
+
+        SpatialIndex index;
+        synchronized (indexes) {
+            index = indexes.get(key(cx, schema, table, column));
+        }
+        if (index != null && index.sync(cx)) {
+            double[] b = index.bounds();
+            return b != null ? new double[]{b[0], b[1], b[2], b[3], index.getSrid()} : null;
+        }
+
+        String pages = pageTable(table, column);
+        if (!exists(cx, schema, pages)) {
+            return null;
+        }
+
+        PreparedStatement ps = cx.prepareStatement("SELECT DATA FROM " + tbl(schema, pages) +
+            " WHERE ID = ?");
+        try {
+            byte[] metadata = page(ps, 0);
+            if (metadata == null) {
+                return null;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(metadata));
+            if (in.readInt() != FORMAT) {
+                return null;
+            }
+            int srid = in.readInt();
+            in.readUTF();
+            in.readInt();
+            int root = in.readInt();
+
+            byte[] page = page(ps, root);
+            double[] b = page != null ? RTree.bounds(page) : null;
+            return b != null ? new double[]{b[0], b[1], b[2], b[3], srid} : null;
+        }
+        catch (IOException e) {
+            throw (SQLException) new SQLException("Error reading spatial index").initCause(e);
+        }
+        finally {
+            ps.close();
+        }
+    }
+
+    static byte[] page(PreparedStatement ps, int id) throws SQLException {
+        ps.setInt(1, id);
+        ResultSet rs = ps.executeQuery();
+        try {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    static boolean exists(Connection cx, String schema, String table) throws SQLException {
+        ResultSet rs = cx.getMetaData().getTables(null, schema, table, new String[]{"TABLE"});
+        try {
+            return rs.next();
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Looks up the primary key column of a table, which must be a single numeric column.
+     */
+    public static String primaryKey(Connection cx, String schema, String table) throws SQLException {
+        DatabaseMetaData md = cx.getMetaData();
+
+        String pk = null;
+        ResultSet rs = md.getPrimaryKeys(null, schema, table);
+        try {
+            while (rs.next()) {
+                if (pk != null) {
+                    pk = null;
+                    break;
+                }
+                pk = rs.getString("COLUMN_NAME");
+            }
+        }
+        finally {
+            rs.close();
+        }
+
+        if (pk != null) {
+            rs = md.getColumns(null, schema, table, pk);
+            try {
+                if (rs.next()) {
+                    switch(rs.getInt("DATA_TYPE")) {
+                    case Types.TINYINT:
+                    case Types.SMALLINT:
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                    case Types.DECIMAL:
+                    case Types.NUMERIC:
+                        return pk;
+                    }
+                }
+            }
+            finally {
+                rs.close();
+            }
+        }
+
+        throw new SQLException("Spatial index on " + table + " requires a single numeric " +
+            "primary key column");
+    }
+
+    static String tbl(String schema, String table) {
+        return esc(schema) + "." + esc(table);
+    }
+
+    static String esc(String s) {
+        return "\"" + s + "\"";
+    }
+}
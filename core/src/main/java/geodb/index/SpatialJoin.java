@@ -0,0 +1,271 @@
+package geodb.index;
+
+import geodb.GeoDB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Joins the rows of two spatially indexed tables on a spatial predicate.
+ * <p>
+ * Candidate pairs, whose bounding boxes intersect, are found by traversing both R-trees at once
+ * with {@link RTree#join}. The exact predicate is then evaluated on the candidates only. They are
+ * grouped by the row of the side with the fewest distinct rows, so that each geometry of that
+ * side is read and prepared once and tested against all of its partners, whose geometries are
+ * kept in a small cache.
+ * </p>
+ */
+public class SpatialJoin {
+
+    /**
+     * number of geometries of the inner side kept parsed
+     */
+    static final int CACHE_SIZE = 4096;
+
+    /**
+     * Join predicates. All of them imply the bounding boxes of the geometries intersect.
+     */
+    public static enum Predicate {
+        BBOX, INTERSECTS, CONTAINS, WITHIN, COVERS, COVEREDBY, OVERLAPS, TOUCHES, CROSSES, EQUALS;
+
+        /**
+         * Returns the predicate with its arguments swapped.
+         */
+        Predicate inverse() {
+            switch(this) {
+            case CONTAINS: return WITHIN;
+            case WITHIN: return CONTAINS;
+            case COVERS: return COVEREDBY;
+            case COVEREDBY: return COVERS;
+            default: return this;
+            }
+        }
+
+        boolean evaluate(PreparedGeometry p, Geometry g) {
+            switch(this) {
+            case BBOX: return true;
+            case INTERSECTS: return p.intersects(g);
+            case CONTAINS: return p.contains(g);
+            case WITHIN: return p.within(g);
+            case COVERS: return p.covers(g);
+            case COVEREDBY: return p.coveredBy(g);
+            case OVERLAPS: return p.overlaps(g);
+            case TOUCHES: return p.touches(g);
+            case CROSSES: return p.crosses(g);
+            default: return p.getGeometry().equalsTopo(g);
+            }
+        }
+
+        boolean evaluate(Geometry g1, Geometry g2) {
+            switch(this) {
+            case BBOX: return true;
+            case INTERSECTS: return g1.intersects(g2);
+            case CONTAINS: return g1.contains(g2);
+            case WITHIN: return g1.within(g2);
+            case COVERS: return g1.covers(g2);
+            case COVEREDBY: return g1.coveredBy(g2);
+            case OVERLAPS: return g1.overlaps(g2);
+            case TOUCHES: return g1.touches(g2);
+            case CROSSES: return g1.crosses(g2);
+            default: return g1.equalsTopo(g2);
+            }
+        }
+
+        /**
+         * Looks up a predicate by name, with or without the <tt>ST_</tt> prefix.
+         */
+        public static Predicate parse(String name) throws SQLException {
+            String n = name.trim().toUpperCase();
+            if (n.startsWith("ST_")) {
+                n = n.substring(3);
+            }
+            try {
+                return valueOf(n);
+            }
+            catch (IllegalArgumentException e) {
+                throw new SQLException("Unsupported spatial join predicate: " + name);
+            }
+        }
+    }
+
+    final SpatialIndex index1;
+    final SpatialIndex index2;
+    final Predicate predicate;
+
+    long[] ids1 = new long[1024];
+    long[] ids2 = new long[1024];
+    int n;
+
+    public SpatialJoin(SpatialIndex index1, SpatialIndex index2, Predicate predicate) {
+        this.index1 = index1;
+        this.index2 = index2;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Runs the join, handing each matching pair of primary keys to the visitor.
+     */
+    public void run(Connection cx, RTree.PairVisitor visitor) throws SQLException {
+        candidates();
+        if (n == 0) {
+            return;
+        }
+        if (predicate == Predicate.BBOX) {
+            for (int i = 0; i < n; i++) {
+                visitor.visit(ids1[i], ids2[i]);
+            }
+            return;
+        }
+
+        //group by the side with the fewest distinct rows
+        int[] order1 = order(ids1);
+        int[] order2 = order(ids2);
+        if (distinct(ids1, order1) <= distinct(ids2, order2)) {
+            refine(cx, index1, ids1, index2, ids2, order1, predicate, visitor, false);
+        }
+        else {
+            refine(cx, index2, ids2, index1, ids1, order2, predicate.inverse(), visitor, true);
+        }
+    }
+
+    /**
+     * Collects the candidate pairs, locking both indexes in a consistent order.
+     */
+    void candidates() {
+        SpatialIndex first = index1, second = index2;
+        if (first.key.compareTo(second.key) > 0) {
+            first = index2;
+            second = index1;
+        }
+
+        synchronized (first) {
+            synchronized (second) {
+                RTree.join(index1.tree, index2.tree, new RTree.PairVisitor() {
+                    public void visit(long id1, long id2) {
+                        if (n == ids1.length) {
+                            ids1 = grow(ids1);
+                            ids2 = grow(ids2);
+                        }
+                        ids1[n] = id1;
+                        ids2[n] = id2;
+                        n++;
+                    }
+                });
+            }
+        }
+    }
+
+    void refine(Connection cx, SpatialIndex outer, long[] outerIds, SpatialIndex inner,
+        long[] innerIds, int[] order, Predicate predicate, RTree.PairVisitor visitor,
+        boolean swapped) throws SQLException {
+
+        Map<Long,Geometry> cache = new LinkedHashMap<Long,Geometry>(CACHE_SIZE, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long,Geometry> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        PreparedStatement ps1 = select(cx, outer);
+        PreparedStatement ps2 = select(cx, inner);
+        try {
+            for (int i = 0; i < n; ) {
+                long id = outerIds[order[i]];
+                int end = i + 1;
+                while (end < n && outerIds[order[end]] == id) {
+                    end++;
+                }
+
+                Geometry g = read(ps1, id);
+                if (g != null) {
+                    PreparedGeometry p = end - i > 1 ? PreparedGeometryFactory.prepare(g) : null;
+                    for (int j = i; j < end; j++) {
+                        long other = innerIds[order[j]];
+                        Geometry h = cache.get(other);
+                        if (h == null && !cache.containsKey(other)) {
+                            h = read(ps2, other);
+                            cache.put(other, h);
+                        }
+                        if (h == null) {
+                            continue;
+                        }
+
+                        if (p != null ? predicate.evaluate(p, h) : predicate.evaluate(g, h)) {
+                            if (swapped) {
+                                visitor.visit(other, id);
+                            }
+                            else {
+                                visitor.visit(id, other);
+                            }
+                        }
+                    }
+                }
+                i = end;
+            }
+        }
+        finally {
+            ps1.close();
+            ps2.close();
+        }
+    }
+
+    static PreparedStatement select(Connection cx, SpatialIndex index) throws SQLException {
+        return cx.prepareStatement("SELECT " + SpatialIndex.esc(index.column) + " FROM " +
+            SpatialIndex.tbl(index.schema, index.table) + " WHERE " +
+            SpatialIndex.esc(index.primaryKey) + " = ?");
+    }
+
+    static Geometry read(PreparedStatement ps, long id) throws SQLException {
+        ps.setLong(1, id);
+        ResultSet rs = ps.executeQuery();
+        try {
+            if (rs.next()) {
+                byte[] wkb = rs.getBytes(1);
+                if (wkb != null && wkb.length > 0) {
+                    return GeoDB.gFromWKB(wkb);
+                }
+            }
+            return null;
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Returns the order of the candidate pairs sorted by the ids of one side.
+     */
+    int[] order(long[] ids) {
+        int[] order = new int[n];
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            keys[i] = ids[i];
+        }
+        RTree.sort(order, keys, 0, n);
+        return order;
+    }
+
+    int distinct(long[] ids, int[] order) {
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || ids[order[i]] != ids[order[i-1]]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static long[] grow(long[] a) {
+        long[] b = new long[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -1,14 +1,28 @@
 CREATE ALIAS AddGeometryColumn for "geodb.GeoDB.AddGeometryColumn"
+CREATE ALIAS ClusterSpatialTable for "geodb.GeoDB.ClusterSpatialTable"
+CREATE ALIAS CreateSimplificationPyramid for "geodb.GeoDB.CreateSimplificationPyramid"
 CREATE ALIAS CreateSpatialIndex for "geodb.GeoDB.CreateSpatialIndex"
+CREATE ALIAS CreateSpatialIndex_GeoHash for "geodb.GeoDB.CreateSpatialIndex_GeoHash"
 CREATE ALIAS DropGeometryColumn for "geodb.GeoDB.DropGeometryColumn"
 CREATE ALIAS DropGeometryColumns for "geodb.GeoDB.DropGeometryColumns"
+CREATE ALIAS DropSimplificationPyramid for "geodb.GeoDB.DropSimplificationPyramid"
 CREATE ALIAS DropSpatialIndex for "geodb.GeoDB.DropSpatialIndex"
 CREATE ALIAS EnvelopeAsText for "geodb.GeoDB.EnvelopeAsText"
+CREATE ALIAS ExplainSpatialQuery for "geodb.GeoDB.ExplainSpatialQuery"
+CREATE ALIAS GeoDB_EnableStats for "geodb.GeoDB.GeoDB_EnableStats"
+CREATE ALIAS GeoDB_ParallelMap for "geodb.GeoDB.GeoDB_ParallelMap"
+CREATE ALIAS GeoDB_ResetStats for "geodb.GeoDB.GeoDB_ResetStats"
+CREATE ALIAS GeoDB_Stats for "geodb.GeoDB.GeoDB_Stats"
 CREATE ALIAS GeometryType for "geodb.GeoDB.GeometryType"
+CREATE ALIAS ParallelAggregate for "geodb.GeoDB.ParallelAggregate"
+CREATE ALIAS SetGeometryStorage for "geodb.GeoDB.SetGeometryStorage"
+CREATE ALIAS SpatialQuery for "geodb.GeoDB.SpatialQuery"
+CREATE ALIAS ST_AddBBox FOR "geodb.GeoDB.ST_AddBBox"
 CREATE ALIAS ST_Area FOR "geodb.GeoDB.ST_Area"
 CREATE ALIAS ST_AsEWKB FOR "geodb.GeoDB.ST_AsEWKB"
 CREATE ALIAS ST_AsEWKT FOR "geodb.GeoDB.ST_AsEWKT"
 CREATE ALIAS ST_AsHexEWKB FOR "geodb.GeoDB.ST_AsHexEWKB"
+CREATE ALIAS ST_AsMVTGeom FOR "geodb.GeoDB.ST_AsMVTGeom"
 CREATE ALIAS ST_AsText FOR "geodb.GeoDB.ST_AsText"
 CREATE ALIAS ST_BBOX FOR "geodb.GeoDB.ST_BBox"
 CREATE ALIAS ST_Boundary FOR "geodb.GeoDB.ST_Boundary"
@@ -22,18 +36,26 @@ CREATE ALIAS ST_Disjoint FOR "geodb.GeoDB.ST_Disjoint"
 CREATE ALIAS ST_Distance FOR "geodb.GeoDB.ST_Distance"
 CREATE ALIAS ST_Difference FOR "geodb.GeoDB.ST_Difference"
 CREATE ALIAS ST_Dimension FOR "geodb.GeoDB.ST_Dimension"
+CREATE ALIAS ST_DropBBox FOR "geodb.GeoDB.ST_DropBBox"
 CREATE ALIAS ST_Envelope FOR "geodb.GeoDB.ST_Envelope"
 CREATE ALIAS ST_Equals FOR "geodb.GeoDB.ST_Equals"
+CREATE ALIAS ST_Estimated_Extent FOR "geodb.GeoDB.ST_Estimated_Extent"
 CREATE ALIAS ST_GeoHash FOR "geodb.GeoDB.ST_GeoHash"
+CREATE ALIAS ST_GeoHashBase32 FOR "geodb.GeoDB.ST_GeoHashBase32"
+CREATE ALIAS ST_GeoHashCover FOR "geodb.GeoDB.ST_GeoHashCover"
+CREATE ALIAS ST_GeoHashKey FOR "geodb.GeoDB.ST_GeoHashKey"
+CREATE ALIAS ST_HilbertKey FOR "geodb.GeoDB.ST_HilbertKey"
 CREATE ALIAS ST_GeomFromEWKB FOR "geodb.GeoDB.ST_GeomFromEWKB"
 CREATE ALIAS ST_GeomFromEWKT FOR "geodb.GeoDB.ST_GeomFromEWKT"
 CREATE ALIAS ST_GeomFromText FOR "geodb.GeoDB.ST_GeomFromText"
 CREATE ALIAS ST_GeomFromWKB FOR "geodb.GeoDB.ST_GeomFromWKB"
 CREATE ALIAS ST_Intersection FOR "geodb.GeoDB.ST_Intersection"
 CREATE ALIAS ST_Intersects FOR "geodb.GeoDB.ST_Intersects"
+CREATE ALIAS ST_IndexIntersects FOR "geodb.GeoDB.ST_IndexIntersects"
 CREATE ALIAS ST_IsEmpty FOR "geodb.GeoDB.ST_IsEmpty"
 CREATE ALIAS ST_IsSimple FOR "geodb.GeoDB.ST_IsSimple"
 CREATE ALIAS ST_IsValid FOR "geodb.GeoDB.ST_IsValid"
+CREATE ALIAS ST_KNN FOR "geodb.GeoDB.ST_KNN"
 CREATE ALIAS ST_MakePoint FOR "geodb.GeoDB.ST_MakePoint"
 CREATE ALIAS ST_MakeBox2D FOR "geodb.GeoDB.ST_MakeBox2D"
 CREATE ALIAS ST_Overlaps FOR "geodb.GeoDB.ST_Overlaps"
@@ -42,7 +64,12 @@ CREATE ALIAS ST_SRID FOR "geodb.GeoDB.ST_SRID"
 CREATE ALIAS ST_X FOR "geodb.GeoDB.ST_X"
 CREATE ALIAS ST_Y FOR "geodb.GeoDB.ST_Y"
 CREATE ALIAS ST_SetSRID FOR "geodb.GeoDB.ST_SetSRID"
+CREATE ALIAS ST_SpatialJoin FOR "geodb.GeoDB.ST_SpatialJoin"
 CREATE ALIAS ST_Simplify FOR "geodb.GeoDB.ST_Simplify"
+CREATE ALIAS ST_SimplifyCached FOR "geodb.GeoDB.ST_SimplifyCached"
+CREATE ALIAS ST_SimplifyPreserveTopology FOR "geodb.GeoDB.ST_SimplifyPreserveTopology"
+CREATE ALIAS ST_SimplifyToBudget FOR "geodb.GeoDB.ST_SimplifyToBudget"
+CREATE ALIAS ST_SimplifyVW FOR "geodb.GeoDB.ST_SimplifyVW"
 CREATE ALIAS ST_SymDifference FOR "geodb.GeoDB.ST_SymDifference"
 CREATE ALIAS ST_Touches FOR "geodb.GeoDB.ST_Touches"
 CREATE ALIAS ST_Union FOR "geodb.GeoDB.ST_Union"
@@ -56,5 +83,9 @@ CREATE DOMAIN MULTILINESTRING AS BLOB
 CREATE DOMAIN MULTIPOLYGON AS BLOB
 CREATE DOMAIN GEOMETRYCOLLECTION AS BLOB
 CREATE DOMAIN GEOMETRY AS BLOB
+CREATE AGGREGATE ST_Accum FOR "geodb.aggregate.Accum"
+CREATE AGGREGATE ST_AsMVT FOR "geodb.aggregate.AsMVT"
+CREATE AGGREGATE ST_Collect FOR "geodb.aggregate.Collect"
 CREATE AGGREGATE ST_Extent FOR "geodb.aggregate.Extent"
+CREATE AGGREGATE ST_Polygonize FOR "geodb.aggregate.Polygonize"
 CREATE AGGREGATE ST_Union_Aggregate FOR "geodb.aggregate.Union"
@@ -0,0 +1,52 @@
+package geodb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+
+public class BoxedWKBTest {
+
+    @Test
+    public void testBoxUnbox() throws Exception {
+        Geometry g = new WKTReader().read("LINESTRING(0 0, 10 5, -3 7)");
+        byte[] wkb = GeoDB.gToWKB(g);
+        assertFalse(BoxedWKB.isBoxed(wkb));
+
+        byte[] boxed = BoxedWKB.box(wkb);
+        assertTrue(BoxedWKB.isBoxed(boxed));
+        assertEquals(wkb.length + BoxedWKB.HEADER, boxed.length);
+        assertSame(boxed, BoxedWKB.box(boxed));
+        assertArrayEquals(boxed, BoxedWKB.encode(g));
+
+        assertArrayEquals(wkb, BoxedWKB.unbox(boxed));
+        assertSame(wkb, BoxedWKB.unbox(wkb));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        Geometry g = new WKTReader().read("POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))");
+        g.setSRID(4326);
+        byte[] boxed = BoxedWKB.encode(g);
+
+        Geometry read = GeoDB.gFromWKB(boxed);
+        assertTrue(g.equalsExact(read));
+        assertEquals(4326, read.getSRID());
+        assertEquals(new Envelope(0, 10, 0, 10), GeoDB.envFromWKB(boxed));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] boxed = BoxedWKB.encode(new WKTReader().read("GEOMETRYCOLLECTION EMPTY"));
+        assertTrue(BoxedWKB.isBoxed(boxed));
+        assertFalse(WKBEnvelope.envelope(boxed, WKBEnvelope.bounds()));
+        assertTrue(GeoDB.gFromWKB(boxed).isEmpty());
+    }
+}
@@ -0,0 +1,238 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import geodb.index.SpatialIndex;
+
+public class BulkLoaderTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.close();
+    }
+
+    @Test
+    public void testWKT() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("POINT(").append(i % 40).append(" ").append(i / 40).append(")\n");
+        }
+
+        BulkLoader loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setSrid(4326);
+        loader.setBatchSize(64);
+        assertEquals(1000, loader.load(new StringReader(sb.toString())));
+
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT id, ST_AsText(geom), ST_SRID(geom) FROM spatial " +
+            "ORDER BY id");
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(rs.next());
+            assertEquals(i + 1, rs.getLong(1));
+            assertEquals("POINT (" + (i % 40) + " " + (i / 40) + ")", rs.getString(2));
+            assertEquals(4326, rs.getInt(3));
+        }
+        rs.close();
+
+        SpatialIndex index = SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM");
+        assertNotNull(index);
+        assertEquals(1000, index.size());
+        assertEquals(4326, index.getSrid());
+        assertEquals(25, count(st, "SELECT count(*) FROM ST_IndexIntersects('PUBLIC', " +
+            "'SPATIAL', 0, 0, 4, 4)"));
+
+        //loading again appends, rebuilding the index
+        loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setSrid(4326);
+        assertEquals(2, loader.load(new StringReader("POINT(1 1)\n\nPOINT(2 2)\n")));
+        assertEquals(1002, count(st, "SELECT max(id) FROM spatial"));
+        assertEquals(1002, SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM").size());
+        st.close();
+    }
+
+    @Test
+    public void testCSV() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, name VARCHAR, " +
+            "\"_GEOM_GEOHASH\" VARCHAR, \"_GEOM_HILBERT\" BIGINT)");
+        st.execute("CALL AddGeometryColumn(null, 'SPATIAL', 'GEOM', 4326, 'POINT', 2)");
+        st.execute("CREATE TRIGGER spatial_geohash BEFORE INSERT, UPDATE ON spatial " +
+            "FOR EACH ROW CALL \"geodb.GeoHashTrigger\"");
+
+        String csv = "id,name,wkt\n" +
+            "10,one,POINT(1 1)\n" +
+            "20,\"two, \"\"quoted\"\"\",POINT(2 2)\n" +
+            "30,,0101000000000000000000084000000000000008C0\n";
+        BulkLoader loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setFormat(BulkLoader.Format.CSV);
+        loader.setSrid(4326);
+        assertEquals(3, loader.load(new StringReader(csv)));
+
+        ResultSet rs = st.executeQuery("SELECT id, name, ST_AsText(geom), geom, " +
+            "\"_GEOM_GEOHASH\", \"_GEOM_HILBERT\" FROM spatial ORDER BY id");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertEquals("one", rs.getString(2));
+        assertEquals("POINT (1 1)", rs.getString(3));
+        assertHashes(rs);
+        assertTrue(rs.next());
+        assertEquals(20, rs.getInt(1));
+        assertEquals("two, \"quoted\"", rs.getString(2));
+        assertHashes(rs);
+        assertTrue(rs.next());
+        assertEquals(30, rs.getInt(1));
+        assertEquals(null, rs.getString(2));
+        assertEquals("POINT (3 -3)", rs.getString(3));
+        assertHashes(rs);
+        rs.close();
+
+        //the trigger is back
+        assertEquals(1, count(st, "SELECT count(*) FROM INFORMATION_SCHEMA.TRIGGERS " +
+            "WHERE TRIGGER_NAME = 'SPATIAL_GEOHASH'"));
+        st.execute("INSERT INTO spatial (id, geom) VALUES " +
+            "(40, ST_GeomFromText('POINT(4 4)', 4326))");
+        rs = st.executeQuery("SELECT id, name, ST_AsText(geom), geom, " +
+            "\"_GEOM_GEOHASH\", \"_GEOM_HILBERT\" FROM spatial WHERE id = 40");
+        assertTrue(rs.next());
+        assertHashes(rs);
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testGeoJSON() throws Exception {
+        String json = "{\"type\": \"FeatureCollection\", \"features\": [" +
+            "{\"type\": \"Feature\", \"id\": 7, \"properties\": {\"name\": \"a\", \"n\": 1.5}," +
+            " \"geometry\": {\"type\": \"Point\", \"coordinates\": [1, 2]}}," +
+            "{\"type\": \"Feature\", \"properties\": {\"name\": \"b\", \"n\": 2}," +
+            " \"geometry\": {\"type\": \"Polygon\", \"coordinates\": " +
+            "[[[0, 0], [4, 0], [4, 4], [0, 4], [0, 0]]]}}," +
+            "{\"type\": \"Feature\", \"properties\": {\"name\": null, \"n\": 3}," +
+            " \"geometry\": null}" +
+            "], \"crs\": {\"type\": \"name\"}}";
+
+        BulkLoader loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setFormat(BulkLoader.Format.GEOJSON);
+        loader.setSrid(4326);
+        assertEquals(3, loader.load(new StringReader(json)));
+
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT id, name, n, ST_AsText(geom) FROM spatial " +
+            "ORDER BY id");
+        assertTrue(rs.next());
+        assertEquals(7, rs.getLong(1));
+        assertEquals("a", rs.getString(2));
+        assertEquals(1.5, rs.getDouble(3), 0);
+        assertEquals("POINT (1 2)", rs.getString(4));
+        assertTrue(rs.next());
+        assertEquals(8, rs.getLong(1));
+        assertEquals("b", rs.getString(2));
+        assertEquals("POLYGON ((0 0, 4 0, 4 4, 0 4, 0 0))", rs.getString(4));
+        assertTrue(rs.next());
+        assertEquals(9, rs.getLong(1));
+        assertEquals(null, rs.getString(4));
+        rs.close();
+
+        assertEquals(2, SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM").size());
+        assertEquals(2, count(st, "SELECT count(*) FROM ST_IndexIntersects('PUBLIC', " +
+            "'SPATIAL', 0.5, 1.5, 1.5, 2.5)"));
+        st.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CREATE TABLE spatial (id BIGINT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 10; i++) {
+            st.execute("INSERT INTO spatial VALUES (" + i + ", ST_GeomFromText('POINT(" + i +
+                " " + i + ")', 4326))");
+        }
+        GeoDB.CreateSpatialIndex(cx, null, "SPATIAL", "GEOM", "4326");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("POINT(").append(i % 40).append(" ").append(i / 40).append(")\n");
+        }
+        sb.append("POINT(1 1\n");
+
+        BulkLoader loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setSrid(4326);
+        loader.setBatchSize(64);
+        try {
+            loader.load(new StringReader(sb.toString()));
+            fail();
+        }
+        catch (SQLException e) {
+            assertEquals("Error parsing record 2001", e.getCause().getMessage());
+        }
+
+        //rolled back as a whole, with the index put back
+        assertEquals(10, count(st, "SELECT count(*) FROM spatial"));
+        SpatialIndex index = SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM");
+        assertNotNull(index);
+        assertEquals(10, index.size());
+        assertEquals(3, count(st, "SELECT count(*) FROM ST_IndexIntersects('PUBLIC', " +
+            "'SPATIAL', 0, 0, 2, 2)"));
+
+        //the triggers are back too
+        st.execute("INSERT INTO spatial VALUES (10, ST_GeomFromText('POINT(1 1)', 4326))");
+        assertEquals(11, SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM").size());
+        st.close();
+    }
+
+    @Test
+    public void testMixedIds() throws Exception {
+        BulkLoader loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setFormat(BulkLoader.Format.CSV);
+        assertEquals(3, loader.load(new StringReader("id,geom\n5,POINT(0 0)\n,POINT(1 1)\n" +
+            "2,POINT(2 2)\n")));
+
+        Statement st = cx.createStatement();
+        assertEquals(3, count(st, "SELECT count(*) FROM spatial WHERE id IN (2, 5, 6)"));
+
+        //an explicit id clashing with a generated one
+        loader = new BulkLoader(cx, null, "SPATIAL");
+        loader.setFormat(BulkLoader.Format.CSV);
+        try {
+            loader.load(new StringReader("id,geom\n,POINT(0 0)\n,POINT(1 1)\n7,POINT(2 2)\n"));
+            fail();
+        }
+        catch (SQLException e) {
+            assertTrue(e.getMessage().startsWith("Id 7 was already generated"));
+        }
+        assertEquals(3, count(st, "SELECT count(*) FROM spatial"));
+        st.close();
+    }
+
+    void assertHashes(ResultSet rs) throws Exception {
+        byte[] geom = rs.getBytes(4);
+        assertEquals(GeoDB.ST_GeoHash(geom), rs.getString(5));
+        assertEquals(GeoDB.ST_HilbertKey(geom).longValue(), rs.getLong(6));
+    }
+
+    int count(Statement st, String sql) throws Exception {
+        ResultSet rs = st.executeQuery(sql);
+        try {
+            rs.next();
+            return rs.getInt(1);
+        }
+        finally {
+            rs.close();
+        }
+    }
+}
@@ -144,6 +144,85 @@ public class GeoDBExtraFunctionsTest extends GeoDBTestSupport {
         assertThat(geometry.getArea(), is(125.0));
     }
 
+    @Test
+    public void testSimplifyPreserveTopology() throws SQLException, IOException, ParseException {
+        //a thin rectangle, which plain Douglas-Peucker collapses at this tolerance
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("select ST_SimplifyPreserveTopology(" +
+                 "ST_GeomFromText('POLYGON((0 0, 5 0.1, 10 0, 10 1, 5 1.1, 0 1, 0 0))', 4326), 2), " + 
+                 "ST_Simplify(" +
+                 "ST_GeomFromText('POLYGON((0 0, 5 0.1, 10 0, 10 1, 5 1.1, 0 1, 0 0))', 4326), 2)");
+        rs.next();
+        Geometry geometry = GeoDB.gFromWKB(rs.getBytes(1));
+        Geometry collapsed = GeoDB.gFromWKB(rs.getBytes(2));
+        st.close();
+        assertThat(geometry.getNumPoints(), is(5));
+        assertThat(geometry.getArea(), is(10.0));
+        assertThat(geometry.getSRID(), is(4326));
+        assertTrue(collapsed.isEmpty());
+    }
+
+    @Test
+    public void testSimplifyVW() throws SQLException, IOException, ParseException {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("select ST_SimplifyVW(" +
+                 "ST_GeomFromText('LINESTRING(0 0, 1 0.1, 2 0, 3 5, 4 0)', 4326), 0.5)");
+        rs.next();
+        Geometry geometry = GeoDB.gFromWKB(rs.getBytes(1));
+        st.close();
+        assertThat(geometry.toText(), is("LINESTRING (0 0, 2 0, 3 5, 4 0)"));
+    }
+
+    @Test
+    public void testSimplifyToBudget() throws SQLException, IOException, ParseException {
+        StringBuilder wkt = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < 1000; i++) {
+            wkt.append(i > 0 ? ", " : "").append(i).append(" ").append(Math.sin(i * 0.05) * 10 + 
+                (i % 7) * 0.01);
+        }
+        byte[] wkb = GeoDB.ST_GeomFromText(wkt.append(")").toString(), 4326);
+
+        for (int budget : new int[]{2, 3, 10, 50, 999, 1000}) {
+            Geometry g = GeoDB.gFromWKB(GeoDB.ST_SimplifyToBudget(wkb, budget));
+            assertTrue(g.getNumPoints() <= budget);
+            assertThat(g.getSRID(), is(4326));
+
+            //as many points as the smallest tolerance meeting the budget leaves
+            assertThat(g.getNumPoints(), is(GeoDB.gFromWKB(GeoDB.ST_Simplify(wkb, 
+                tolerance(wkb, budget))).getNumPoints()));
+        }
+
+        //end points are kept whatever the budget
+        Geometry g = GeoDB.gFromWKB(GeoDB.ST_SimplifyToBudget(wkb, 1));
+        assertThat(g.getNumPoints(), is(2));
+
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("select ST_SimplifyToBudget(" +
+                 "ST_GeomFromText('POLYGON((0 0, 5 1, 10 0, 9 5, 10 10, 5 9, 0 10, 1 5, 0 0))', 4326), 5)");
+        rs.next();
+        g = GeoDB.gFromWKB(rs.getBytes(1));
+        st.close();
+        assertTrue(g.getNumPoints() <= 5);
+        assertTrue(g.isValid());
+    }
+
+    /**
+     * Searches for the smallest tolerance simplifying a geometry to a number of vertices.
+     */
+    private double tolerance(byte[] wkb, int vertices) {
+        double lo = 0, hi = 100;
+        for (int i = 0; i < 100; i++) {
+            double mid = (lo + hi) / 2;
+            if (GeoDB.gFromWKB(GeoDB.ST_Simplify(wkb, mid)).getNumPoints() <= vertices) {
+                hi = mid;
+            }
+            else {
+                lo = mid;
+            }
+        }
+        return hi;
+    }
+
     private void insertThreePoints() throws SQLException{
     	Statement st = cx.createStatement();
         st.execute("CREATE TABLE spatial (id INT AUTO_INCREMENT PRIMARY KEY, geom BLOB)");
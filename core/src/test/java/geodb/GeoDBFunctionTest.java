@@ -181,4 +181,108 @@ public class GeoDBFunctionTest extends GeoDBTestSupport {
         double result = rs.getDouble(1);
         assertEquals(79586.125, result, 0.00001);
     }
+    
+    @Test
+    public void testBBox() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT id FROM spatial WHERE " +
+            "ST_BBox(geom, ST_GeomFromText('POLYGON((0.5 0.5, 0.5 3, 3 3, 3 0.5, 0.5 0.5))', 4326))" +
+            " ORDER BY id");
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertFalse(rs.next());
+        
+        rs.close();
+        rs = st.executeQuery("CALL EnvelopeAsText(" +
+            "ST_GeomFromText('LINESTRING(1 2, -3 4)', 4326))");
+        rs.next();
+        assertEquals("(-3.0,2.0,1.0,4.0)", rs.getString(1));
+        
+        rs.close();
+        st.close();
+    }
+    
+    @Test
+    public void testSetGeometryStorage() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL SetGeometryStorage(NULL, 'SPATIAL', 'GEOM', 'BBOX')");
+        
+        ResultSet rs = st.executeQuery("SELECT storage FROM geometry_columns WHERE " +
+            " f_table_name = 'SPATIAL' AND f_geometry_column = 'GEOM'");
+        assertTrue(rs.next());
+        assertEquals("BBOX", rs.getString(1));
+        rs.close();
+        
+        //existing and new values should be boxed
+        st.execute("INSERT INTO spatial (geom) VALUES (ST_GeomFromText('POINT(5 5)', 4326))");
+        rs = st.executeQuery("SELECT geom FROM spatial ORDER BY id");
+        int count = 0;
+        while(rs.next()) {
+            assertTrue(BoxedWKB.isBoxed(rs.getBytes(1)));
+            count++;
+        }
+        assertEquals(4, count);
+        rs.close();
+        
+        //functions should work transparently
+        rs = st.executeQuery("SELECT ST_AsText(geom), ST_SRID(geom) FROM spatial WHERE id = 4");
+        assertTrue(rs.next());
+        assertEquals("POINT (5 5)", rs.getString(1));
+        assertEquals(4326, rs.getInt(2));
+        rs.close();
+        
+        rs = st.executeQuery("SELECT id FROM spatial WHERE ST_Intersects(geom, " +
+            "ST_GeomFromText('POLYGON((0.5 0.5, 0.5 3, 3 3, 3 0.5, 0.5 0.5))', 4326)) ORDER BY id");
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertFalse(rs.next());
+        rs.close();
+        
+        //and back
+        st.execute("CALL SetGeometryStorage(NULL, 'SPATIAL', 'GEOM', 'WKB')");
+        st.execute("INSERT INTO spatial (geom) VALUES (ST_GeomFromText('POINT(6 6)', 4326))");
+        rs = st.executeQuery("SELECT geom FROM spatial");
+        while(rs.next()) {
+            assertFalse(BoxedWKB.isBoxed(rs.getBytes(1)));
+        }
+        rs.close();
+        st.close();
+    }
+    
+    @Test
+    public void testPredicates() throws Exception {
+        String square = "ST_GeomFromText('POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))', -1)";
+        String inner = "ST_GeomFromText('POLYGON((2 2, 2 3, 3 3, 3 2, 2 2))', -1)";
+        String far = "ST_GeomFromText('POLYGON((20 20, 20 30, 30 30, 30 20, 20 20))', -1)";
+        
+        assertTrue(call("ST_Intersects(" + square + ", ST_AddBBox(" + inner + "))"));
+        assertFalse(call("ST_Intersects(ST_AddBBox(" + square + "), " + far + ")"));
+        assertTrue(call("ST_Contains(" + square + ", " + inner + ")"));
+        assertFalse(call("ST_Contains(" + inner + ", " + square + ")"));
+        assertTrue(call("ST_Within(" + inner + ", " + square + ")"));
+        assertFalse(call("ST_Within(" + square + ", " + far + ")"));
+        assertTrue(call("ST_Disjoint(" + square + ", " + far + ")"));
+        assertFalse(call("ST_Disjoint(" + square + ", " + inner + ")"));
+        assertTrue(call("ST_DWithin(" + square + ", " + far + ", 15)"));
+        assertFalse(call("ST_DWithin(" + square + ", " + far + ", 14)"));
+        assertFalse(call("ST_Touches(" + square + ", " + far + ")"));
+        assertFalse(call("ST_Overlaps(" + square + ", " + far + ")"));
+        assertFalse(call("ST_Crosses(" + square + ", " + far + ")"));
+    }
+    
+    boolean call(String expr) throws SQLException {
+        Statement st = cx.createStatement();
+        try {
+            ResultSet rs = st.executeQuery("CALL " + expr);
+            rs.next();
+            return rs.getBoolean(1);
+        }
+        finally {
+            st.close();
+        }
+    }
 }
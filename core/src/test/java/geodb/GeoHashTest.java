@@ -0,0 +1,210 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GeoHashTest extends GeoDBTestSupport {
+
+    @Test
+    public void testMatchesBitString() {
+        Random r = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            double x = r.nextDouble() * 360 - 180;
+            double y = r.nextDouble() * 180 - 90;
+            for (int depth = 1; depth <= 32; depth += 7) {
+                assertEquals(bitstring(x, y, Box.WGS84, depth),
+                    new GeoString(x, y, depth).toString());
+            }
+        }
+
+        //edges of the bounds
+        assertEquals(bitstring(180, 90, Box.WGS84, 32), new GeoString(180, 90).toString());
+        assertEquals(bitstring(-180, -90, Box.WGS84, 32), new GeoString(-180, -90).toString());
+    }
+
+    @Test
+    public void testUnion() {
+        GeoString gs1 = new GeoString(-0.25, 51.5);
+        GeoString gs2 = new GeoString(-0.1, 51.4);
+        String s1 = gs1.toString(), s2 = gs2.toString();
+
+        int i = 0;
+        while (s1.charAt(i) == s2.charAt(i)) {
+            i++;
+        }
+        assertEquals(s1.substring(0, i), gs1.union(gs2).toString());
+        assertEquals(s1.substring(0, i), GeoHash.geohash(-0.25, 51.4, -0.1, 51.5));
+        assertEquals(s1, gs1.union(gs1).toString());
+    }
+
+    @Test
+    public void testBBox() {
+        GeoString gs = new GeoString(-0.25, 51.5);
+        for (int n = 0; n <= 64; n++) {
+            Box b = gs.bbox(n);
+            Box c = new GeoString(gs.toString().substring(0, n)).bbox();
+            assertEquals(c.toString(), b.toString());
+            //bounds are rounded to 6 decimals
+            assertTrue(b.l <= -0.25 + 1e-6 && b.b <= 51.5 + 1e-6);
+        }
+
+        Box b = new GeoString("0110").bbox();
+        assertEquals(-90, b.l, 1e-6);
+        assertEquals(0, b.b, 1e-6);
+        assertEquals(0, b.r, 1e-6);
+        assertEquals(45, b.t, 1e-6);
+    }
+
+    @Test
+    public void testBase32() {
+        //example from geohash.org
+        long hash = GeoHash.encode(10.40744, 57.64911, Box.WGS84, 32);
+        assertEquals("u4pruydqqvj", GeoHash.toBase32(hash, 64, 55));
+        assertEquals(GeoHash.prefix(hash, 64, 55), GeoHash.fromBase32("u4pruydqqvj"));
+        assertTrue(new GeoString(10.40744, 57.64911).toBase32().startsWith("u4pruydqqvj"));
+    }
+
+    @Test
+    public void testKeyOrder() {
+        long hash = GeoHash.encode(10.40744, 57.64911, Box.WGS84, 32);
+        for (int n = 0; n <= GeoHash.MAX_KEY_BITS; n++) {
+            long key = GeoHash.key(hash, 64, n);
+            long prefix = GeoHash.prefix(hash, 64, n);
+
+            assertTrue(key > 0);
+            assertEquals(n, GeoHash.keyLength(key));
+            assertEquals(prefix, GeoHash.keyPrefix(key));
+
+            //the keys of all longer prefixes fall in the range of the prefix
+            long min = GeoHash.minKey(prefix, n), max = GeoHash.maxKey(prefix, n);
+            for (int m = n; m <= GeoHash.MAX_KEY_BITS; m++) {
+                long k = GeoHash.key(hash, 64, m);
+                assertTrue(k >= min && k <= max);
+            }
+        }
+        assertEquals(GeoHash.key(hash, 64, 62), GeoHash.key(hash, 64, 64));
+    }
+
+    @Test
+    public void testCell() {
+        long hash = GeoHash.encode(10.40744, 57.64911, Box.WGS84, 32);
+        for (int n = 0; n <= 64; n++) {
+            double[] c = GeoHash.cell(GeoHash.prefix(hash, 64, n), n, Box.WGS84);
+            assertTrue(c[0] <= 10.40744 && c[2] > 10.40744);
+            assertTrue(c[1] <= 57.64911 && c[3] > 57.64911);
+        }
+    }
+
+    @Test
+    public void testCover() {
+        //straddles the equator and the prime meridian
+        assertEquals(0, GeoHash.keyLength(GeoHash.key(-1, -1, 1, 1)));
+
+        long[] cells = GeoHash.cover(-1, -1, 1, 1, 16);
+        assertTrue(cells.length > 1 && cells.length <= 16);
+        for (int i = 0; i < cells.length; i++) {
+            assertTrue(GeoHash.keyLength(cells[i]) > 10);
+            if (i > 0) {
+                //disjoint and sorted
+                long p = GeoHash.keyPrefix(cells[i-1]);
+                int n = GeoHash.keyLength(cells[i-1]);
+                assertTrue(GeoHash.maxKey(p, n) < cells[i]);
+            }
+        }
+
+        //every point of the box falls in a cell
+        Random r = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            double x = r.nextDouble() * 2 - 1, y = r.nextDouble() * 2 - 1;
+            long hash = GeoHash.encode(x, y, Box.WGS84, 32);
+            int found = 0;
+            for (long cell : cells) {
+                long p = GeoHash.keyPrefix(cell);
+                int n = GeoHash.keyLength(cell);
+                if (GeoHash.prefix(hash, 64, n) == p) {
+                    found++;
+                }
+            }
+            assertEquals(1, found);
+        }
+
+        assertEquals(1, GeoHash.cover(-180, -90, 180, 90, 16).length);
+        assertEquals(0, GeoHash.cover(200, 0, 210, 10, 16).length);
+        assertEquals(1, GeoHash.cover(-1, -1, 1, 1, 1).length);
+    }
+
+    @Test
+    public void testGeoHashCover() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 1000; i++) {
+            String geom = i % 10 == 0 ? "NULL" :
+                "ST_GeomFromText('POINT(" + (i % 100 - 50) + " " + (i / 10 - 50) + ")', 4326)";
+            st.execute("INSERT INTO spatial VALUES (" + i + ", " + geom + ")");
+        }
+
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial " +
+            "WHERE ST_Intersects(geom, ST_GeomFromText('POLYGON((-5 -5,-5 5,5 5,5 -5,-5 -5))', 4326))");
+        rs.next();
+        int expected = rs.getInt(1);
+        assertTrue(expected > 0);
+        rs.close();
+
+        GeoDB.CreateSpatialIndex_GeoHash(cx, null, "SPATIAL", "GEOM");
+        rs = st.executeQuery("SELECT count(*) FROM ST_GeoHashCover(-5, -5, 5, 5) c, spatial t " +
+            "WHERE t.\"_GEOM_GEOHASH\" BETWEEN c.lo AND c.hi " +
+            "AND ST_Intersects(t.geom, ST_GeomFromText('POLYGON((-5 -5,-5 5,5 5,5 -5,-5 -5))', 4326))");
+        rs.next();
+        assertEquals(expected, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(*) FROM ST_GeoHashCover(-5, -5, 5, 5) c, spatial t " +
+            "WHERE t.\"_GEOM_GEOHASH\" LIKE c.pattern " +
+            "AND ST_Intersects(t.geom, ST_GeomFromText('POLYGON((-5 -5,-5 5,5 5,5 -5,-5 -5))', 4326))");
+        rs.next();
+        assertEquals(expected, rs.getInt(1));
+        rs.close();
+
+        st.execute("ALTER TABLE spatial DROP COLUMN \"_GEOM_GEOHASH\"");
+        GeoDB.CreateSpatialIndex_GeoHash(cx, null, "SPATIAL", "GEOM", "BIGINT");
+        rs = st.executeQuery("SELECT count(*) FROM ST_GeoHashCover(-5, -5, 5, 5) c, spatial t " +
+            "WHERE t.\"_GEOM_GEOHASH\" BETWEEN c.key_lo AND c.key_hi " +
+            "AND ST_Intersects(t.geom, ST_GeomFromText('POLYGON((-5 -5,-5 5,5 5,5 -5,-5 -5))', 4326))");
+        rs.next();
+        assertEquals(expected, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+
+    /**
+     * The original bit string encoding.
+     */
+    static String bitstring(double x, double y, Box b, int depth) {
+        byte[] xbits = toBits((x - b.l) / (b.r - b.l), depth);
+        byte[] ybits = toBits((y - b.b) / (b.t - b.b), depth);
+
+        StringBuffer bits = new StringBuffer();
+        for (int i = 0; i < xbits.length; i++) {
+            bits.append(xbits[i]).append(ybits[i]);
+        }
+        return bits.toString();
+    }
+
+    static byte[] toBits(double f, int depth) {
+        f *= (1L << depth);
+        byte[] bits = new byte[depth];
+        for (int i = 1; i < depth + 1; i++) {
+            bits[i - 1] = (byte) (((long) f >> (depth - i)) & 1);
+        }
+        return bits;
+    }
+}
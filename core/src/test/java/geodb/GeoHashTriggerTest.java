@@ -0,0 +1,83 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GeoHashTriggerTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB, " +
+            "\"_GEOM_GEOHASH\" VARCHAR, \"_GEOM_HILBERT\" BIGINT)");
+        st.execute("CREATE TRIGGER spatial_geohash BEFORE INSERT, UPDATE ON spatial " +
+            "FOR EACH ROW CALL \"geodb.GeoHashTrigger\"");
+        st.close();
+    }
+
+    @Test
+    public void testInsertUpdate() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("INSERT INTO spatial (id, geom) VALUES " +
+            "(1, ST_GeomFromText('POINT(-0.25 51.5)', 4326))");
+        st.execute("INSERT INTO spatial (id, geom) VALUES " +
+            "(2, ST_GeomFromText('LINESTRING(-1 -1, 1 1)', 4326))");
+        st.execute("INSERT INTO spatial (id, geom) VALUES (3, NULL)");
+        assertHashes(st);
+
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('POINT(10 10)', 4326) " +
+            "WHERE id = 1");
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('POINT(5 5)', 4326) WHERE id = 3");
+        assertHashes(st);
+        st.close();
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("DROP TRIGGER spatial_geohash");
+        st.execute("ALTER TABLE spatial DROP COLUMN \"_GEOM_GEOHASH\"");
+        st.execute("ALTER TABLE spatial ADD \"_GEOM_GEOHASH\" BIGINT");
+        st.execute("CREATE TRIGGER spatial_geohash BEFORE INSERT, UPDATE ON spatial " +
+            "FOR EACH ROW CALL \"geodb.GeoHashTrigger\"");
+        st.execute("INSERT INTO spatial (id, geom) VALUES " +
+            "(1, ST_GeomFromText('POINT(-0.25 51.5)', 4326))");
+
+        ResultSet rs = st.executeQuery("SELECT \"_GEOM_GEOHASH\", ST_GeoHashKey(geom) " +
+            "FROM spatial");
+        assertTrue(rs.next());
+        assertEquals(rs.getLong(2), rs.getLong(1));
+        rs.close();
+        st.close();
+    }
+
+    void assertHashes(Statement st) throws Exception {
+        ResultSet rs = st.executeQuery("SELECT geom, \"_GEOM_GEOHASH\", \"_GEOM_HILBERT\" " +
+            "FROM spatial");
+        int count = 0;
+        while (rs.next()) {
+            byte[] geom = rs.getBytes(1);
+            if (geom == null) {
+                assertNull(rs.getString(2));
+                assertNull(rs.getObject(3));
+            }
+            else {
+                assertEquals(GeoDB.ST_GeoHash(geom), rs.getString(2));
+                assertEquals(GeoDB.ST_HilbertKey(geom).longValue(), rs.getLong(3));
+            }
+            count++;
+        }
+        rs.close();
+        assertEquals(3, count);
+    }
+}
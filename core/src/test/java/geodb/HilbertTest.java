@@ -0,0 +1,158 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import geodb.index.SpatialIndex;
+
+public class HilbertTest extends GeoDBTestSupport {
+
+    @Test
+    public void testCurve() {
+        int order = 5;
+        long n = 1L << (2 * order);
+        boolean[] seen = new boolean[(int) n];
+        long[] last = null;
+        for (long d = 0; d < n; d++) {
+            long[] c = Hilbert.decode(d, order);
+            assertEquals(d, Hilbert.encode(c[0], c[1], order));
+            seen[(int) (c[0] * (1 << order) + c[1])] = true;
+
+            //consecutive cells share an edge
+            if (last != null) {
+                assertEquals(1, Math.abs(c[0] - last[0]) + Math.abs(c[1] - last[1]));
+            }
+            last = c;
+        }
+        for (boolean s : seen) {
+            assertTrue(s);
+        }
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(0, Hilbert.encode(-180, -90, Box.WGS84, Hilbert.ORDER));
+        assertEquals((1L << 62) - 1, Hilbert.encode(180, -90, Box.WGS84, Hilbert.ORDER));
+        assertTrue(Hilbert.key(-1, -1, 1, 1) > 0);
+        assertEquals(Hilbert.key(10, 20, 10, 20), Hilbert.key(5, 10, 15, 30));
+    }
+
+    @Test
+    public void testClusterSpatialTable() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 400; i++) {
+            String geom = i % 10 == 0 ? "NULL" :
+                "ST_GeomFromText('POINT(" + (i % 20) + " " + (i / 20) + ")', 4326)";
+            st.execute("INSERT INTO spatial VALUES (" + i + ", " + geom + ")");
+        }
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        st.execute("CALL ClusterSpatialTable(null, 'SPATIAL', 'GEOM')");
+
+        //rows come back in the order they are stored
+        ResultSet rs = st.executeQuery("SELECT ST_HilbertKey(geom) FROM spatial");
+        int count = 0;
+        long last = -1;
+        while (rs.next()) {
+            long key = rs.getLong(1);
+            if (!rs.wasNull()) {
+                assertTrue(key >= last);
+                last = key;
+            }
+            count++;
+        }
+        rs.close();
+        assertEquals(400, count);
+
+        //the spatial index is rebuilt
+        SpatialIndex index = SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "GEOM");
+        assertEquals(360, index.size());
+        assertEquals(4326, index.getSrid());
+        rs = st.executeQuery("SELECT count(*) FROM ST_IndexIntersects('PUBLIC', 'SPATIAL', " +
+            "0, 0, 4, 4)");
+        rs.next();
+        assertEquals(20, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(*) FROM INFORMATION_SCHEMA.TABLES " +
+            "WHERE TABLE_NAME = 'SPATIAL_CLUSTER'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testClusterSpatialTableFailure() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB, other BLOB)");
+        for (int i = 0; i < 100; i++) {
+            st.execute("INSERT INTO spatial VALUES (" + i + ", ST_GeomFromText('POINT(" + i + 
+                " 0)', 4326), ST_GeomFromText('POINT(0 " + i + ")', 4326))");
+        }
+        //a geometry the hilbert key can not be computed for
+        st.execute("UPDATE spatial SET geom = X'01ffffffff' WHERE id = 50");
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'OTHER', '4326')");
+
+        try {
+            st.execute("CALL ClusterSpatialTable(null, 'SPATIAL', 'GEOM')");
+            assertTrue("should have failed", false);
+        }
+        catch(SQLException e) {
+        }
+
+        //the rows are put back, the copy dropped and the index rebuilt
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(*) FROM INFORMATION_SCHEMA.TABLES " +
+            "WHERE TABLE_NAME = 'SPATIAL_CLUSTER'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+
+        SpatialIndex index = SpatialIndex.get(cx, "PUBLIC", "SPATIAL", "OTHER");
+        assertEquals(100, index.size());
+        rs = st.executeQuery("SELECT count(*) FROM ST_IndexIntersects('PUBLIC', 'SPATIAL', " +
+            "'OTHER', -1, -1, 1, 9.5)");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testHilbertIndex() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 100; i++) {
+            st.execute("INSERT INTO spatial VALUES (" + i + ", " +
+                "ST_GeomFromText('POINT(" + (i % 10) + " " + (i / 10) + ")', 4326))");
+        }
+        st.execute("CALL CreateSpatialIndex_GeoHash(null, 'SPATIAL', 'GEOM', 'HILBERT')");
+
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial " +
+            "WHERE \"_GEOM_HILBERT\" = ST_HilbertKey(geom)");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+}
@@ -0,0 +1,235 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MVTTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, name VARCHAR, geom BLOB)");
+        st.close();
+
+        PreparedStatement ps = cx.prepareStatement("INSERT INTO spatial VALUES (?, ?, " +
+            "ST_GeomFromText(?, 4326))");
+        String[] wkt = {"POINT(5 5)", "LINESTRING(0 0, 20 5)",
+            "POLYGON((1 1, 1 9, 9 9, 9 1, 1 1), (3 3, 7 3, 7 7, 3 7, 3 3))",
+            "POINT(50 50)"};
+        for (int i = 0; i < wkt.length; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, i % 2 == 0 ? "even" : "odd");
+            ps.setString(3, wkt[i]);
+            ps.execute();
+        }
+        ps.close();
+    }
+
+    @Test
+    public void testAsMVTGeom() throws Exception {
+        assertEquals("POINT (2048 2048)", geom(0, 4096, 256, true));
+
+        //clipped at the tile edge, y pointing down
+        assertEquals("LINESTRING (0 4096, 4096 3072)", geom(1, 4096, 0, true));
+        assertEquals("LINESTRING (0 4096, 8192 2048)", geom(1, 4096, 0, false));
+        assertEquals("LINESTRING (0 16, 16 12)", geom(1, 16, 0, true));
+
+        //outside the tile
+        assertNull(geom(3, 4096, 256, true));
+    }
+
+    String geom(int id, int extent, int buffer, boolean clip) throws Exception {
+        ResultSet rs = cx.createStatement().executeQuery("SELECT ST_AsText(ST_AsMVTGeom(geom, " +
+            "ST_MakeBox2D(0, 0, 10, 10), " + extent + ", " + buffer + ", " + clip + ")) " +
+            "FROM spatial WHERE id = " + id);
+        rs.next();
+        String wkt = rs.getString(1);
+        rs.close();
+        return wkt;
+    }
+
+    @Test
+    public void testAsMVT() throws Exception {
+        ResultSet rs = cx.createStatement().executeQuery("SELECT ST_AsMVT(ST_AsMVTGeom(geom, " +
+            "ST_MakeBox2D(0, 0, 10, 10)), 'spatial', 4096, id, 'name', name, 'id', id) " +
+            "FROM spatial");
+        rs.next();
+        Map<Integer,List<Object>> tile = decode(rs.getBytes(1));
+        rs.close();
+
+        Map<Integer,List<Object>> layer = decode((byte[]) tile.get(3).get(0));
+        assertEquals(2L, layer.get(15).get(0));
+        assertEquals("spatial", new String((byte[]) layer.get(1).get(0), "UTF-8"));
+        assertEquals(4096L, layer.get(5).get(0));
+
+        //the point outside the tile is left out
+        List<Object> features = layer.get(2);
+        assertEquals(3, features.size());
+
+        //the keys and values are shared
+        assertEquals(2, layer.get(3).size());
+        assertEquals(2 + 3, layer.get(4).size());
+
+        Map<Integer,List<Object>> point = decode((byte[]) features.get(0));
+        assertEquals(0L, point.get(1).get(0));
+        assertEquals((long) MVT.POINT, point.get(3).get(0));
+        assertEquals(commands(9, 4096, 4096), packed((byte[]) point.get(4).get(0)));
+
+        //clipped at the edge of the margin
+        Map<Integer,List<Object>> line = decode((byte[]) features.get(1));
+        assertEquals((long) MVT.LINESTRING, line.get(3).get(0));
+        assertEquals(commands(9, zz(0), zz(4096), 10, zz(4352), zz(-1088)),
+            packed((byte[]) line.get(4).get(0)));
+
+        Map<Integer,List<Object>> polygon = decode((byte[]) features.get(2));
+        assertEquals((long) MVT.POLYGON, polygon.get(3).get(0));
+        List<Long> cmds = packed((byte[]) polygon.get(4).get(0));
+
+        //two rings of four points, each move to, line to and close path
+        assertEquals(2 * (1 + 2 + 1 + 6 + 1), cmds.size());
+        int[][] rings = rings(cmds);
+        assertTrue(area(rings[0]) > 0);
+        assertTrue(area(rings[1]) < 0);
+    }
+
+    @Test
+    public void testAsMVTEmpty() throws Exception {
+        ResultSet rs = cx.createStatement().executeQuery("SELECT ST_AsMVT(ST_AsMVTGeom(geom, " +
+            "ST_MakeBox2D(100, 100, 110, 110))) FROM spatial");
+        rs.next();
+        assertEquals(0, rs.getBytes(1).length);
+        rs.close();
+    }
+
+    static int zz(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static List<Long> commands(int... values) {
+        List<Long> l = new ArrayList<Long>();
+        for (int v : values) {
+            l.add((long) v);
+        }
+        return l;
+    }
+
+    /**
+     * Decodes the rings of a polygon command stream to absolute coordinates.
+     */
+    static int[][] rings(List<Long> cmds) {
+        List<int[]> rings = new ArrayList<int[]>();
+        List<Integer> ring = null;
+        int x = 0, y = 0;
+        for (int i = 0; i < cmds.size(); ) {
+            int cmd = cmds.get(i).intValue();
+            int id = cmd & 7, count = cmd >> 3;
+            i++;
+            if (id == 7) {
+                int[] r = new int[ring.size()];
+                for (int j = 0; j < r.length; j++) {
+                    r[j] = ring.get(j);
+                }
+                rings.add(r);
+                continue;
+            }
+            if (id == 1) {
+                ring = new ArrayList<Integer>();
+            }
+            for (int j = 0; j < count; j++) {
+                x += unzz(cmds.get(i++));
+                y += unzz(cmds.get(i++));
+                ring.add(x);
+                ring.add(y);
+            }
+        }
+        return rings.toArray(new int[rings.size()][]);
+    }
+
+    static int unzz(long v) {
+        return (int) ((v >>> 1) ^ -(v & 1));
+    }
+
+    static long area(int[] ring) {
+        long a = 0;
+        int n = ring.length / 2;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            a += (long) ring[j*2] * ring[i*2+1] - (long) ring[i*2] * ring[j*2+1];
+        }
+        return a;
+    }
+
+    /**
+     * Decodes a protocol buffer message into its fields, varints as longs and length delimited
+     * fields as bytes.
+     */
+    static Map<Integer,List<Object>> decode(byte[] b) {
+        Map<Integer,List<Object>> fields = new HashMap<Integer,List<Object>>();
+        int[] pos = {0};
+        while (pos[0] < b.length) {
+            long tag = varint(b, pos);
+            int field = (int) (tag >>> 3);
+            Object value;
+            switch ((int) (tag & 7)) {
+            case 0:
+                value = varint(b, pos);
+                break;
+            case 1:
+                long l = 0;
+                for (int i = 0; i < 8; i++) {
+                    l |= (long) (b[pos[0]++] & 0xff) << (i * 8);
+                }
+                value = l;
+                break;
+            case 2:
+                int len = (int) varint(b, pos);
+                byte[] v = new byte[len];
+                System.arraycopy(b, pos[0], v, 0, len);
+                pos[0] += len;
+                value = v;
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected wire type " + (tag & 7));
+            }
+            if (!fields.containsKey(field)) {
+                fields.put(field, new ArrayList<Object>());
+            }
+            fields.get(field).add(value);
+        }
+        return fields;
+    }
+
+    static List<Long> packed(byte[] b) {
+        List<Long> values = new ArrayList<Long>();
+        int[] pos = {0};
+        while (pos[0] < b.length) {
+            values.add(varint(b, pos));
+        }
+        return values;
+    }
+
+    static long varint(byte[] b, int[] pos) {
+        long v = 0;
+        for (int shift = 0; ; shift += 7) {
+            int c = b[pos[0]++] & 0xff;
+            v |= (long) (c & 0x7f) << shift;
+            if ((c & 0x80) == 0) {
+                return v;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 10; i++) {
+            st.execute("INSERT INTO spatial VALUES (" + i + ", ST_GeomFromText('POINT(" + i +
+                " " + i + ")', 4326))");
+        }
+        st.close();
+
+        Metrics.reset();
+        st = cx.createStatement();
+        st.execute("CALL GeoDB_EnableStats(true)");
+        st.close();
+    }
+
+    @After
+    public void disable() throws Exception {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial WHERE ST_Intersects(geom, " +
+            "ST_GeomFromText('POLYGON((-0.5 -0.5, 4.5 -0.5, 4.5 4.5, -0.5 4.5, -0.5 -0.5))', 4326))");
+        rs.next();
+        assertEquals(5, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT * FROM GeoDB_Stats() WHERE NAME = 'ST_Intersects'");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getLong("CALLS"));
+        assertEquals(5, rs.getLong("REJECTS"));
+        assertTrue(rs.getLong("DECODES") >= 5);
+        assertTrue(rs.getLong("BYTES_DECODED") >= 5 * 21);
+        assertTrue(rs.getLong("P50_NANOS") <= rs.getLong("P99_NANOS"));
+        assertTrue(rs.getLong("P99_NANOS") <= rs.getLong("MAX_NANOS"));
+        assertFalse(rs.next());
+        rs.close();
+
+        st.execute("CALL GeoDB_ResetStats()");
+        rs = st.executeQuery("SELECT * FROM GeoDB_Stats() WHERE NAME = 'ST_Intersects'");
+        assertFalse(rs.next());
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testAggregateStats() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ST_Extent(geom) FROM spatial");
+        rs.next();
+        rs.close();
+
+        assertEquals(10, Metrics.stats("ST_Extent").getCalls());
+        assertEquals(1, Metrics.stats("ST_Extent.result").getCalls());
+        st.close();
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        Metrics.setEnabled(false);
+
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial WHERE ST_Intersects(geom, " +
+            "ST_GeomFromText('POINT(1 1)', 4326))");
+        rs.next();
+        rs.close();
+        st.close();
+
+        assertEquals(0, Metrics.stats("ST_Intersects").getCalls());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000);
+        }
+        assertEquals(1000, h.count());
+        assertEquals(1000000, h.max());
+        assertEquals(500500, h.mean());
+
+        //buckets are within 1/16th of the value
+        long p50 = h.percentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 17 / 16);
+        long p99 = h.percentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+
+        for (long v = 1; v > 0 && v < Long.MAX_VALUE / 2; v = v * 3 + 1) {
+            int b = Metrics.Histogram.bucket(v);
+            assertTrue(Metrics.Histogram.lowest(b) <= v);
+            assertTrue(Metrics.Histogram.lowest(b + 1) > v);
+        }
+    }
+}
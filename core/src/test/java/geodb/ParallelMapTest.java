@@ -0,0 +1,104 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.locationtech.jts.geom.Geometry;
+
+public class ParallelMapTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, name VARCHAR, geom BLOB)");
+        for (int i = 0; i < 1000; i++) {
+            String geom = i % 100 == 0 ? "NULL" : 
+                "ST_GeomFromText('POINT(" + (i % 100) + " " + (i / 100) + ")', 4326)";
+            st.execute("INSERT INTO spatial VALUES (" + i + ", 'p" + i + "', " + geom + ")");
+        }
+        st.close();
+    }
+
+    @Test
+    public void testMap() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT * FROM GeoDB_ParallelMap(" +
+            "'SELECT id, name, geom FROM spatial ORDER BY id', 'ST_Buffer', 1)");
+        assertEquals(3, rs.getMetaData().getColumnCount());
+        assertEquals("ST_BUFFER", rs.getMetaData().getColumnLabel(3));
+
+        int i = 0;
+        while (rs.next()) {
+            assertEquals(i, rs.getInt(1));
+            assertEquals("p" + i, rs.getString(2));
+            byte[] wkb = rs.getBytes(3);
+            if (i % 100 == 0) {
+                assertNull(wkb);
+            }
+            else {
+                Geometry g = GeoDB.gFromWKB(wkb);
+                assertEquals("Polygon", g.getGeometryType());
+                assertEquals(Math.PI, g.getArea(), 0.1);
+                assertEquals(i % 100, g.getCentroid().getX(), 1e-6);
+            }
+            i++;
+        }
+        assertEquals(1000, i);
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testMapNoArgs() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT SUM(ST_X) FROM GeoDB_ParallelMap(" +
+            "'SELECT geom FROM spatial', 'st_x')");
+        assertTrue(rs.next());
+        assertEquals(10 * 99 * 50, rs.getDouble(1), 1e-6);
+        rs.close();
+
+        rs = st.executeQuery("SELECT * FROM GeoDB_ParallelMap('SELECT geom FROM spatial " + 
+            "WHERE id < 0', 'ST_Area')");
+        assertFalse(rs.next());
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testMapGeometryArg() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM GeoDB_ParallelMap(" +
+            "'SELECT geom FROM spatial', 'ST_Intersects', " +
+            "ST_GeomFromText('POLYGON((0 0, 10 0, 10 10, 0 10, 0 0))', 4326)) WHERE ST_INTERSECTS");
+        assertTrue(rs.next());
+        assertEquals(10 * 10, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testNoSuchFunction() throws Exception {
+        Statement st = cx.createStatement();
+        try {
+            st.executeQuery("SELECT * FROM GeoDB_ParallelMap('SELECT geom FROM spatial', " +
+                "'ST_Buffer')");
+            fail();
+        }
+        catch (SQLException e) {
+        }
+        st.close();
+    }
+}
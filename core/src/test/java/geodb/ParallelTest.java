@@ -0,0 +1,129 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 1000; i++) {
+            //leave some gaps in the keys
+            int id = i * 3;
+            String geom = i % 10 == 0 ? "NULL" : 
+                "ST_GeomFromText('POINT(" + (i % 100) + " " + (i / 10) + ")', 4326)";
+            st.execute("INSERT INTO spatial VALUES (" + id + ", " + geom + ")");
+        }
+        st.close();
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        final List<Long> ids = new ArrayList<Long>();
+        final int[] nulls = new int[1];
+        
+        Parallel.scan(cx, "\"SPATIAL\"", "\"ID\"", "\"GEOM\"", 64, 
+            new Parallel.Task<Integer>() {
+                public Integer process(long[] ids, byte[][] values, int n) {
+                    int count = 0;
+                    for (int i = 0; i < n; i++) {
+                        if (values[i] == null) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            }, 
+            new Parallel.Collector<Integer>() {
+                public void collect(long[] batch, int n, Integer count) {
+                    for (int i = 0; i < n; i++) {
+                        ids.add(batch[i]);
+                    }
+                    nulls[0] += count;
+                }
+            });
+
+        //every row seen once, in key order
+        assertEquals(1000, ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i * 3, ids.get(i).longValue());
+        }
+        assertEquals(100, nulls[0]);
+    }
+
+    @Test
+    public void testGeoHashIndex() throws Exception {
+        Statement st = cx.createStatement();
+        GeoDB.CreateSpatialIndex_GeoHash(cx, null, "SPATIAL", "GEOM");
+
+        ResultSet rs = st.executeQuery("SELECT geom, \"_GEOM_GEOHASH\" FROM spatial");
+        int count = 0;
+        while (rs.next()) {
+            byte[] geom = rs.getBytes(1);
+            if (geom == null) {
+                assertNull(rs.getString(2));
+            }
+            else {
+                assertEquals(GeoDB.ST_GeoHash(geom), rs.getString(2));
+                count++;
+            }
+        }
+        rs.close();
+        assertEquals(900, count);
+        st.close();
+    }
+    
+    @Test
+    public void testGeoHashKeyIndex() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex_GeoHash(null, 'SPATIAL', 'GEOM', 'BIGINT')");
+
+        ResultSet rs = st.executeQuery("SELECT geom, \"_GEOM_GEOHASH\" FROM spatial");
+        int count = 0;
+        while (rs.next()) {
+            byte[] geom = rs.getBytes(1);
+            if (geom == null) {
+                assertNull(rs.getObject(2));
+            }
+            else {
+                assertEquals(GeoDB.ST_GeoHashKey(geom).longValue(), rs.getLong(2));
+                count++;
+            }
+        }
+        rs.close();
+        assertEquals(900, count);
+        st.close();
+    }
+    
+    @Test
+    public void testSpatialIndex() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM " + 
+            "ST_IndexIntersects('PUBLIC', 'SPATIAL', -1, -1, 1000, 1000)");
+        rs.next();
+        assertEquals(900, rs.getInt(1));
+        rs.close();
+        
+        rs = st.executeQuery("SELECT id FROM ST_IndexIntersects('PUBLIC', 'SPATIAL', 55, 5, 55, 5)");
+        assertTrue(rs.next());
+        assertEquals(55 * 3, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+}
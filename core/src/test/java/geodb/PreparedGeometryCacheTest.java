@@ -0,0 +1,67 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.io.WKTReader;
+
+public class PreparedGeometryCacheTest extends GeoDBTestSupport {
+
+    @Test
+    public void testLookup() throws Exception {
+        String wkt = "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))";
+        byte[] wkb = GeoDB.gToWKB(new WKTReader().read(wkt));
+
+        //first sighting only records it
+        assertNull(PreparedGeometryCache.lookup(wkb));
+
+        //an equal copy gets prepared
+        PreparedGeometry p = PreparedGeometryCache.lookup(wkb.clone());
+        assertNotNull(p);
+        assertSame(p, PreparedGeometryCache.lookup(wkb.clone()));
+
+        //points are never prepared
+        byte[] point = GeoDB.gToWKB(new WKTReader().read("POINT(1 1)"));
+        assertNull(PreparedGeometryCache.lookup(point));
+        assertNull(PreparedGeometryCache.lookup(point));
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT AUTO_INCREMENT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 20; i++) {
+            st.execute("INSERT INTO spatial (geom) VALUES (ST_GeomFromText('POINT(" + i + " " + i 
+                + ")', -1))");
+        }
+
+        String poly = "ST_GeomFromText('POLYGON((-1 -1, -1 5.5, 5.5 5.5, 5.5 -1, -1 -1))', -1)";
+        ResultSet rs = st.executeQuery("SELECT count(*) FROM spatial WHERE ST_Intersects(geom, " 
+            + poly + ")");
+        rs.next();
+        assertEquals(6, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(*) FROM spatial WHERE ST_Within(geom, " + poly + ")");
+        rs.next();
+        assertEquals(6, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT count(*) FROM spatial WHERE ST_Contains(" + poly + ", geom)");
+        rs.next();
+        assertEquals(6, rs.getInt(1));
+        rs.close();
+        st.close();
+    }
+}
@@ -0,0 +1,157 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryRewriterTest extends GeoDBTestSupport {
+
+    static final String POLY = 
+        "ST_GeomFromText('POLYGON((4.5 4.5, 4.5 9, 9 9, 9 4.5, 4.5 4.5))', 4326)";
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR, " +
+            "geom BLOB)");
+        for (int i = 0; i < 100; i++) {
+            st.execute("INSERT INTO spatial (name, geom) VALUES ('p" + i + "', " + 
+                "ST_GeomFromText('POINT(" + i + " " + i + ")', 4326))");
+        }
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        st.close();
+    }
+
+    @Test
+    public void testRewrite() throws Exception {
+        QueryRewriter rw = new QueryRewriter(cx);
+
+        String q = "SELECT * FROM spatial WHERE ST_Intersects(geom, " + POLY + ")";
+        String sql = rw.rewrite(q);
+        assertTrue(sql, sql.startsWith("SELECT spatial.* FROM (SELECT ID \"_SPATIAL_INDEX_ID\" " +
+            "FROM ST_IndexIntersects('PUBLIC', 'SPATIAL', 'GEOM', 4.5, 4.5, 9.0, 9.0)) " +
+            "\"_SPATIAL_INDEX\", spatial WHERE spatial.\"ID\" = " +
+            "\"_SPATIAL_INDEX\".\"_SPATIAL_INDEX_ID\" AND (ST_Intersects(geom, "));
+        assertSameRows(q, sql, 5);
+
+        //constant first, alias, trailing clauses
+        q = "SELECT s.name FROM spatial AS s WHERE s.id > 2 AND ST_BBox(" + POLY + 
+            ", s.geom) ORDER BY s.name";
+        sql = rw.rewrite(q);
+        assertTrue(sql, sql.startsWith("SELECT s.name FROM (SELECT ID \"_SPATIAL_INDEX_ID\" " +
+            "FROM ST_IndexIntersects("));
+        assertTrue(sql, 
+            sql.endsWith("AND (s.id > 2 AND ST_BBox(" + POLY + ", s.geom)) ORDER BY s.name"));
+        assertSameRows(q, sql, 5);
+
+        //distance grows the box
+        q = "SELECT id FROM spatial WHERE ST_DWithin(geom, ST_MakePoint(5, 5), 1)";
+        sql = rw.rewrite(q);
+        assertTrue(sql, sql.contains("'GEOM', 4.0, 4.0, 6.0, 6.0)"));
+        assertSameRows(q, sql, 1);
+
+        //unqualified references to the id of the table
+        q = "SELECT id, name FROM spatial WHERE ST_Intersects(geom, " + POLY + ") ORDER BY id";
+        sql = rw.rewrite(q);
+        assertTrue(sql, sql.contains("ST_IndexIntersects("));
+        assertSameRows(q, sql, 5);
+
+        q = "SELECT id FROM spatial WHERE id > 7 AND ST_DWithin(geom, ST_MakePoint(5, 5), 3)";
+        sql = rw.rewrite(q);
+        assertTrue(sql, sql.contains("ST_IndexIntersects("));
+        assertSameRows(q, sql, 1);
+    }
+
+    /**
+     * Runs a query and its rewrite, checking they return the same rows, in the same order.
+     */
+    void assertSameRows(String q, String rewritten, int count) throws Exception {
+        List<String> expected = rows(q), actual = rows(rewritten);
+        assertEquals(count, expected.size());
+        assertEquals(expected, actual);
+    }
+
+    List<String> rows(String sql) throws Exception {
+        List<String> rows = new ArrayList<String>();
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery(sql);
+        int n = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 1; i <= n; i++) {
+                sb.append(rs.getString(i)).append('|');
+            }
+            rows.add(sb.toString());
+        }
+        rs.close();
+        st.close();
+        return rows;
+    }
+
+    @Test
+    public void testNoRewrite() throws Exception {
+        QueryRewriter rw = new QueryRewriter(cx);
+        String[] queries = {
+            //not a constant
+            "SELECT * FROM spatial WHERE ST_Intersects(geom, geom)",
+            //or
+            "SELECT * FROM spatial WHERE id = 1 OR ST_Intersects(geom, " + POLY + ")",
+            //other predicate
+            "SELECT * FROM spatial WHERE ST_Touches(geom, " + POLY + ")",
+            //join
+            "SELECT * FROM spatial a, spatial b WHERE ST_Intersects(a.geom, " + POLY + ")",
+            //no index
+            "SELECT * FROM geometry_columns WHERE ST_Intersects(type, " + POLY + ")",
+            "UPDATE spatial SET name = 'x'",
+        };
+        for (String q : queries) {
+            assertEquals(q, rw.rewrite(q));
+        }
+    }
+
+    @Test
+    public void testSpatialQuery() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ExplainSpatialQuery('SELECT * FROM spatial " + 
+            "WHERE ST_Intersects(geom, ST_MakePoint(5, 5))')");
+        rs.next();
+        assertTrue(rs.getString(1).contains("ST_IndexIntersects"));
+        rs.close();
+
+        rs = st.executeQuery("CALL SpatialQuery('SELECT * FROM spatial WHERE " + 
+            "ST_Intersects(geom, " + POLY.replace("'", "''") + ") ORDER BY id')");
+        assertEquals(3, rs.getMetaData().getColumnCount());
+        for (int i = 6; i <= 10; i++) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getInt("ID"));
+            assertEquals("p" + (i - 1), rs.getString("NAME"));
+        }
+        assertTrue(!rs.next());
+        rs.close();
+
+        //the example of the readme
+        rs = st.executeQuery("CALL SpatialQuery('SELECT id, ST_AsText(geom) FROM spatial WHERE " +
+            "ST_Intersects(geom, ST_GeomFromText(''POLYGON((-2 -2, -2 2, 2 2, 2 -2, -2 -2))'', " +
+            "4326)) ORDER BY id')");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt("ID"));
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt("ID"));
+        assertEquals("POINT (2 2)", rs.getString(2));
+        assertTrue(!rs.next());
+        rs.close();
+        st.close();
+    }
+}
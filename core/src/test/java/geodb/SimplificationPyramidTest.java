@@ -0,0 +1,163 @@
+package geodb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import geodb.index.SpatialIndex;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.locationtech.jts.geom.Geometry;
+
+public class SimplificationPyramidTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+        SimplificationPyramid.drop(cx, null, "SPATIAL", "GEOM");
+        SpatialIndex.drop(cx, null, "SPATIAL", "GEOM");
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT PRIMARY KEY, geom BLOB)");
+        st.close();
+
+        PreparedStatement ps = cx.prepareStatement("INSERT INTO spatial VALUES (?, " +
+            "ST_GeomFromText(?, 4326))");
+        for (int i = 0; i < 20; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, i % 5 == 0 ? "POINT(" + i + " " + i + ")" : wiggle(i, 200));
+            ps.execute();
+        }
+        ps.close();
+    }
+
+    static String wiggle(int offset, int n) {
+        StringBuilder sb = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(i * 0.1).append(" ").append(offset + Math.sin(i * 0.3) * (1 + i % 3) * 0.2);
+        }
+        return sb.append(")").toString();
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSimplificationPyramid(NULL, 'SPATIAL', 'GEOM', '1, 0.01 0.1')");
+
+        assertArrayEquals(new double[]{0.01, 0.1, 1}, 
+            SimplificationPyramid.tolerances(cx, null, "SPATIAL", "GEOM"), 0);
+
+        //points are never simplified
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM spatial_geom_pyramid WHERE ID = 5");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+
+        assertLevels(st);
+        st.close();
+    }
+
+    @Test
+    public void testTrigger() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSimplificationPyramid(NULL, 'SPATIAL', 'GEOM', '0.01 0.1 1')");
+
+        st.execute("INSERT INTO spatial VALUES (100, ST_GeomFromText('" + wiggle(7, 100) + 
+            "', 4326))");
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('" + wiggle(3, 300) + 
+            "', 4326) WHERE id = 1");
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('POINT(1 1)', 4326) WHERE id = 2");
+        st.execute("DELETE FROM spatial WHERE id = 3");
+        assertLevels(st);
+
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM spatial_geom_pyramid " +
+            "WHERE ID IN (2, 3)");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+
+        assertNull(GeoDB.ST_SimplifyCached(cx, "SPATIAL", "GEOM", 3, 1));
+
+        st.execute("CALL DropSimplificationPyramid(NULL, 'SPATIAL', 'GEOM')");
+        assertNull(SimplificationPyramid.tolerances(cx, null, "SPATIAL", "GEOM"));
+        st.execute("INSERT INTO spatial VALUES (101, ST_GeomFromText('POINT(1 1)', 4326))");
+        st.close();
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSimplificationPyramid(NULL, 'SPATIAL', 'GEOM', '0.01 0.1 1')");
+
+        //truncate does not fire the trigger, the levels left over are replaced
+        st.execute("TRUNCATE TABLE spatial");
+        st.execute("INSERT INTO spatial VALUES (1, ST_GeomFromText('" + wiggle(3, 300) + 
+            "', 4326))");
+        assertLevels(st);
+        st.close();
+    }
+
+    @Test
+    public void testClusterSpatialTable() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSimplificationPyramid(NULL, 'SPATIAL', 'GEOM', '0.01 0.1 1')");
+        st.execute("CALL CreateSpatialIndex(NULL, 'SPATIAL', 'GEOM', '4326')");
+        st.execute("CALL ClusterSpatialTable(NULL, 'SPATIAL', 'GEOM')");
+
+        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM spatial");
+        rs.next();
+        assertEquals(20, rs.getInt(1));
+        rs.close();
+
+        rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES " +
+            "WHERE TABLE_NAME = 'SPATIAL_CLUSTER'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        rs.close();
+
+        assertArrayEquals(new double[]{0.01, 0.1, 1}, 
+            SimplificationPyramid.tolerances(cx, null, "SPATIAL", "GEOM"), 0);
+        assertEquals(20, SpatialIndex.get(cx, null, "SPATIAL", "GEOM").size());
+        assertLevels(st);
+
+        //and still maintained
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('" + wiggle(3, 300) + 
+            "', 4326) WHERE id = 1");
+        assertLevels(st);
+        st.close();
+    }
+
+    void assertLevels(Statement st) throws Exception {
+        ResultSet rs = st.executeQuery("SELECT id, geom FROM spatial");
+        while (rs.next()) {
+            int id = rs.getInt(1);
+            byte[] wkb = rs.getBytes(2);
+            Geometry g = GeoDB.gFromWKB(wkb);
+
+            //below the finest level the geometry itself
+            assertArrayEquals(wkb, GeoDB.ST_SimplifyCached(cx, "SPATIAL", "GEOM", id, 0.001));
+
+            //otherwise the coarsest level below the tolerance
+            double[][] cases = {{0.01, 0.01}, {0.05, 0.01}, {0.1, 0.1}, {0.5, 0.1}, {5, 1}};
+            for (double[] c : cases) {
+                Geometry cached = GeoDB.gFromWKB(
+                    GeoDB.ST_SimplifyCached(cx, null, "SPATIAL", "GEOM", id, c[0]));
+                Geometry expected = GeoDB.gFromWKB(GeoDB.ST_Simplify(wkb, c[1]));
+                assertTrue(expected.equalsExact(cached));
+                assertEquals(g.getSRID(), cached.getSRID());
+            }
+        }
+        rs.close();
+    }
+}
@@ -0,0 +1,51 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+
+public class WKBCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        WKBCodec codec = WKBCodec.get();
+        assertSame(codec, WKBCodec.get());
+
+        Geometry g = new WKTReader().read("POLYGON((0 0, 0 10, 10 10, 10 0, 0 0))");
+        g.setSRID(4326);
+
+        Geometry read = codec.read(codec.write(g));
+        assertTrue(g.equalsExact(read));
+        assertEquals(4326, read.getSRID());
+
+        //reuse with a smaller geometry
+        Geometry p = new WKTReader().read("POINT(1 2)");
+        assertTrue(p.equalsExact(codec.read(codec.write(p))));
+    }
+
+    @Test
+    public void testReadWithHeader() throws Exception {
+        WKBCodec codec = WKBCodec.get();
+        Geometry g = new WKTReader().read("LINESTRING(0 0, 1 1, 2 0)");
+
+        byte[] b = codec.write(g, 5);
+        assertEquals(codec.write(g).length + 5, b.length);
+        assertTrue(g.equalsExact(codec.read(b, 5, b.length-5)));
+    }
+
+    @Test
+    public void testReadStream() throws Exception {
+        WKBCodec codec = WKBCodec.get();
+        Geometry g = new WKTReader().read("POINT(1 2)");
+
+        Geometry read = codec.read(new ByteArrayInputStream(codec.write(g)));
+        assertTrue(g.equalsExact(read));
+    }
+}
@@ -0,0 +1,107 @@
+package geodb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTReader;
+
+public class WKBEnvelopeTest {
+
+    static final String[] WKT = new String[] {
+        "POINT(1 2)",
+        "LINESTRING(0 0, 10 5, -3 7)",
+        "POLYGON((0 0, 0 10, 10 10, 10 0, 0 0), (2 2, 2 3, 3 3, 3 2, 2 2))",
+        "MULTIPOINT((1 1), (-5 4))",
+        "MULTILINESTRING((0 0, 1 1), (5 5, 6 -2))",
+        "MULTIPOLYGON(((0 0, 0 1, 1 1, 1 0, 0 0)), ((10 10, 10 12, 12 12, 10 10)))",
+        "GEOMETRYCOLLECTION(POINT(100 100), LINESTRING(-1 -1, 0 0))"
+    };
+
+    @Test
+    public void testBigEndian() throws Exception {
+        for (String wkt : WKT) {
+            assertEnvelope(wkt, GeoDB.gToWKB(new WKTReader().read(wkt)));
+        }
+    }
+
+    @Test
+    public void testLittleEndian() throws Exception {
+        WKBWriter w = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN);
+        for (String wkt : WKT) {
+            assertEnvelope(wkt, w.write(new WKTReader().read(wkt)));
+        }
+    }
+
+    @Test
+    public void test3D() throws Exception {
+        byte[] wkb = GeoDB.gToWKB(new WKTReader().read("LINESTRING(0 0 5, 1 1 -5)"));
+        double[] bounds = WKBEnvelope.bounds();
+        assertTrue(WKBEnvelope.envelope(wkb, bounds));
+        assertTrue(WKBEnvelope.hasZ(bounds));
+        assertEquals(-5, bounds[WKBEnvelope.MINZ], 0);
+        assertEquals(5, bounds[WKBEnvelope.MAXZ], 0);
+
+        //2d geometries are written with NaN z values which should be ignored
+        wkb = GeoDB.gToWKB(new WKTReader().read("POINT(0 0)"));
+        assertTrue(WKBEnvelope.envelope(wkb, bounds));
+        assertFalse(WKBEnvelope.hasZ(bounds));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        byte[] wkb = GeoDB.gToWKB(new WKTReader().read("GEOMETRYCOLLECTION EMPTY"));
+        double[] bounds = WKBEnvelope.bounds();
+        assertFalse(WKBEnvelope.envelope(wkb, bounds));
+        assertTrue(GeoDB.envFromWKB(wkb).isNull());
+    }
+
+    @Test
+    public void testExpand() throws Exception {
+        double[] bounds = WKBEnvelope.bounds();
+        byte[] p1 = GeoDB.gToWKB(new WKTReader().read("POINT(1 2)"));
+        byte[] p2 = GeoDB.gToWKB(new WKTReader().read("POINT(-1 5)"));
+        WKBEnvelope.expand(p1, 0, p1.length, bounds);
+        WKBEnvelope.expand(p2, 0, p2.length, bounds);
+        assertEquals(new Envelope(-1, 1, 2, 5), WKBEnvelope.toEnvelope(bounds));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        assertTruncated(new byte[]{1, 2, 0, 0, 0, 5});
+
+        //srid flag set with no room for the srid
+        assertTruncated(new byte[]{0, 0x20, 0, 0, 1, 0, 0});
+
+        for (String wkt : WKT) {
+            byte[] wkb = GeoDB.gToWKB(new WKTReader().read(wkt));
+            for (int n = 0; n < wkb.length; n++) {
+                byte[] b = new byte[n];
+                System.arraycopy(wkb, 0, b, 0, n);
+                assertTruncated(b);
+            }
+        }
+    }
+
+    void assertTruncated(byte[] wkb) {
+        try {
+            WKBEnvelope.envelope(wkb, WKBEnvelope.bounds());
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals("Invalid WKB, unexpected end of geometry", e.getMessage());
+        }
+    }
+
+    void assertEnvelope(String wkt, byte[] wkb) throws Exception {
+        Geometry g = new WKTReader().read(wkt);
+        assertEquals(wkt, g.getEnvelopeInternal(), GeoDB.envFromWKB(wkb));
+    }
+}
@@ -60,5 +60,50 @@ public class AggregateFunctionTest extends GeoDBTestSupport {
         assertThat(geometry.getArea(), is(0.0));
     }
 
+    @Test
+    public void testCollect() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("select st_astext(st_collect(geom)) from spatial");
+        rs.next();
+        assertThat(rs.getString(1), is("MULTIPOINT ((0 0), (1 1), (2 2))"));
+        st.close();
+    }
+
+    @Test
+    public void testAccum() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("select st_accum(geom) from spatial");
+        rs.next();
+        Object[] array = (Object[]) rs.getArray(1).getArray();
+        assertThat(array.length, is(3));
+        assertThat(GeoDB.gFromWKB((byte[]) array[2]).toText(), is("POINT (2 2)"));
+        st.close();
+    }
+
+    @Test
+    public void testPolygonize() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("DELETE FROM spatial");
+        st.execute("INSERT INTO spatial (geom) VALUES " +
+            "(ST_GeomFromText('LINESTRING(0 0, 2 0, 2 2)', 4326))");
+        st.execute("INSERT INTO spatial (geom) VALUES " +
+            "(ST_GeomFromText('LINESTRING(2 2, 0 2, 0 0)', 4326))");
+        ResultSet rs = st.executeQuery("select st_polygonize(geom) from spatial");
+        rs.next();
+        Geometry geometry = GeoDB.gFromWKB(rs.getBytes(1));
+        st.close();
+        assertThat(geometry.getNumGeometries(), is(1));
+        assertThat(geometry.getArea(), is(4.0));
+    }
 
+    @Test
+    public void testParallelAggregate() throws Exception {
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("call ParallelAggregate(null, 'SPATIAL', 'GEOM', " +
+            "'ST_Extent')");
+        rs.next();
+        Geometry geometry = GeoDB.gFromWKB(rs.getBytes(1));
+        st.close();
+        assertThat(geometry.getArea(), is(4.0));
+    }
 }
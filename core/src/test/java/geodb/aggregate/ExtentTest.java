@@ -12,14 +12,17 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import org.locationtech.jts.geom.Point;
+import geodb.BoxedWKB;
 import geodb.GeoDB;
 
+import java.io.ByteArrayInputStream;
 import java.sql.SQLException;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LinearRing;
@@ -95,4 +98,29 @@ public class ExtentTest {
         assertFalse(envelope.contains(createPoint(3.00001, 2.00001)));
         assertTrue(envelope.contains(createPoint(0.00001, 0.00001)));
     }
+
+    @Test
+    public void extentWKB() throws SQLException {
+        extent.add(new ByteArrayInputStream(GeoDB.gToWKB(createPoint(3, 5))));
+        extent.add(BoxedWKB.encode(createPolygon(0, 1, 2, 2, 2, 0, 0, 1)));
+        extent.add(GeoDB.gToWKB(createPoint(-1, 4)));
+        Geometry envelope = GeoDB.gFromWKB((byte[]) extent.getResult());
+
+        assertThat(envelope.getEnvelopeInternal(), is(equalTo(new Envelope(-1, 3, 0, 5))));
+    }
+
+    @Test
+    public void extentMerge() throws SQLException {
+        extent.add(createPoint(3, 5));
+        Extent other = new Extent();
+        other.init(null);
+        other.add(createPoint(-1, 4));
+        extent.merge(other);
+        Extent empty = new Extent();
+        empty.init(null);
+        extent.merge(empty);
+        Geometry envelope = GeoDB.gFromWKB((byte[]) extent.getResult());
+
+        assertThat(envelope.getEnvelopeInternal(), is(equalTo(new Envelope(-1, 3, 4, 5))));
+    }
 }
@@ -96,4 +96,45 @@ public class UnionTest {
         assertFalse(envelope.contains(createPoint(3.00001, 2.00001)));
         assertFalse(envelope.contains(createPoint(0, 0)));
     }
+
+    @Test
+    public void unionGrid() throws SQLException {
+        //overlapping unit squares, enough to spread the union across the pool
+        for (int i = 0; i < 2500; i++) {
+            double x = (i % 50) * 0.5, y = (i / 50) * 0.5;
+            union.add(createPolygon(x, y, x + 1, y, x + 1, y + 1, x, y + 1, x, y));
+        }
+        Geometry result = GeoDB.gFromWKB((byte[]) union.getResult());
+
+        assertThat(result.getNumGeometries(), is(1));
+        assertThat(result.getArea(), is(25.5 * 25.5));
+    }
+
+    @Test
+    public void unionSpilled() throws SQLException {
+        union.add(createPolygon(0, 1, 2, 2, 2, 0, 0, 1));
+        union.spill();
+        union.add(createPolygon(1, 1, 3, 2, 3, 0, 1, 1));
+        union.spill();
+        union.add(createPoint(10, 10));
+        Geometry result = GeoDB.gFromWKB((byte[]) union.getResult());
+
+        assertThat(result.getArea(), is(3.5));
+        assertThat(result.getNumGeometries(), is(2));
+    }
+
+    @Test
+    public void unionMerge() throws SQLException {
+        union.add(createPolygon(0, 1, 2, 2, 2, 0, 0, 1));
+        Union other = new Union();
+        other.init(null);
+        other.add(createPolygon(1, 1, 3, 2, 3, 0, 1, 1));
+        other.spill();
+        other.add(createPoint(10, 10));
+        union.merge(other);
+        Geometry result = GeoDB.gFromWKB((byte[]) union.getResult());
+
+        assertThat(result.getArea(), is(3.5));
+        assertThat(result.getNumGeometries(), is(2));
+    }
 }
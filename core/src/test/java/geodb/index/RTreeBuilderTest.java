@@ -0,0 +1,82 @@
+package geodb.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class RTreeBuilderTest {
+
+    static final int N = 5000;
+
+    @Test
+    public void testInMemory() throws Exception {
+        double[] boxes = RTreeTest.boxes(N);
+        RTreeBuilder builder = new RTreeBuilder(16);
+        add(builder, boxes);
+
+        RTree tree = builder.build();
+        assertEquals(0, builder.spills());
+        assertTree(tree, boxes);
+    }
+
+    @Test
+    public void testExternalSort() throws Exception {
+        double[] boxes = RTreeTest.boxes(N);
+
+        //room for 300 entries at a time
+        RTreeBuilder builder = new RTreeBuilder(16, 300 * RTreeBuilder.ENTRY_SIZE);
+        add(builder, boxes);
+
+        RTree tree = builder.build();
+        assertTrue(builder.spills() > 10);
+        assertTree(tree, boxes);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        RTree tree = new RTreeBuilder(16).build();
+        assertEquals(0, tree.size());
+        assertEquals(null, tree.bounds());
+    }
+
+    void add(RTreeBuilder builder, double[] boxes) throws Exception {
+        for (int i = 0; i < N; i++) {
+            builder.add(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]);
+        }
+        assertEquals(N, builder.size());
+    }
+
+    void assertTree(RTree tree, double[] boxes) {
+        assertEquals(N, tree.size());
+
+        //every entry present exactly once
+        final Set<Long> all = new TreeSet<Long>();
+        tree.query(-1000, -1000, 1000, 1000, new RTree.Visitor() {
+            public void visit(long id) {
+                assertTrue(all.add(id));
+            }
+        });
+        assertEquals(N, all.size());
+
+        //leaves are packed full
+        int leaves = leaves(tree.root);
+        assertEquals((N + 15) / 16, leaves);
+
+        new RTreeTest().assertQueries(tree, boxes, N);
+    }
+
+    int leaves(RTree.Node n) {
+        if (n.leaf) {
+            return 1;
+        }
+        int count = 0;
+        for (int i = 0; i < n.count; i++) {
+            count += leaves(n.children[i]);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,223 @@
+package geodb.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class RTreeTest {
+
+    static final int N = 2000;
+
+    @Test
+    public void testInsertQuery() throws Exception {
+        double[] boxes = boxes(N);
+        RTree tree = new RTree(8);
+        for (int i = 0; i < N; i++) {
+            tree.insert(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]);
+        }
+        assertEquals(N, tree.size());
+        assertTrue(tree.height() > 2);
+        assertQueries(tree, boxes, N);
+    }
+
+    @Test
+    public void testBulkLoad() throws Exception {
+        double[] boxes = boxes(N);
+        long[] ids = new long[N];
+        for (int i = 0; i < N; i++) {
+            ids[i] = i;
+        }
+
+        RTree tree = RTree.bulkLoad(ids, boxes, N, 8);
+        assertEquals(N, tree.size());
+        assertQueries(tree, boxes, N);
+
+        //bulk loaded trees are full, except for the last node of each level
+        assertEquals(4, tree.height());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        double[] boxes = boxes(N);
+        RTree tree = new RTree(8);
+        for (int i = 0; i < N; i++) {
+            tree.insert(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]);
+        }
+
+        assertFalse(tree.remove(N + 1, boxes[0], boxes[1], boxes[2], boxes[3]));
+        for (int i = 0; i < N; i += 2) {
+            assertTrue(tree.remove(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]));
+        }
+        assertEquals(N / 2, tree.size());
+
+        Set<Long> hits = query(tree, -1000, -1000, 1000, 1000);
+        assertEquals(N / 2, hits.size());
+        for (Long id : hits) {
+            assertEquals(1, id % 2);
+        }
+
+        for (int i = 1; i < N; i += 2) {
+            assertTrue(tree.remove(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]));
+        }
+        assertEquals(0, tree.size());
+        assertEquals(1, tree.height());
+        assertNull(tree.bounds());
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        double[] boxes = boxes(N);
+        RTree tree = new RTree(8);
+        for (int i = 0; i < N; i++) {
+            tree.insert(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]);
+        }
+
+        Map<Integer,byte[]> pages = new HashMap<Integer,byte[]>();
+        for (RTree.Node n : tree.dirty) {
+            pages.put(n.page, tree.write(n));
+        }
+
+        RTree read = RTree.read(pages, tree.root.page, tree.height(), 8, tree.size());
+        assertQueries(read, boxes, N);
+
+        //stored boxes are rounded outwards so removal still finds the exact box
+        assertTrue(read.remove(7, boxes[28], boxes[29], boxes[30], boxes[31]));
+    }
+
+    @Test
+    public void testNearest() throws Exception {
+        final double[] boxes = boxes(N);
+        RTree tree = new RTree(8);
+        for (int i = 0; i < N; i++) {
+            tree.insert(i, boxes[i*4], boxes[i*4+1], boxes[i*4+2], boxes[i*4+3]);
+        }
+
+        final List<Double> distances = new ArrayList<Double>();
+        tree.nearest(10, 10, 10, 10, 20, Double.POSITIVE_INFINITY, new RTree.DistanceVisitor() {
+            public void visit(long id, double distance) {
+                int i = (int) id;
+                double dx = Math.max(0, Math.max(boxes[i*4] - 10, 10 - boxes[i*4+2]));
+                double dy = Math.max(0, Math.max(boxes[i*4+1] - 10, 10 - boxes[i*4+3]));
+                assertEquals(Math.sqrt(dx*dx + dy*dy), distance, 0);
+                distances.add(distance);
+            }
+        });
+        assertEquals(20, distances.size());
+
+        //in order, and nothing closer was skipped
+        double[] all = new double[N];
+        for (int i = 0; i < N; i++) {
+            double dx = Math.max(0, Math.max(boxes[i*4] - 10, 10 - boxes[i*4+2]));
+            double dy = Math.max(0, Math.max(boxes[i*4+1] - 10, 10 - boxes[i*4+3]));
+            all[i] = Math.sqrt(dx*dx + dy*dy);
+        }
+        Arrays.sort(all);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(all[i], distances.get(i), 0);
+        }
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        final double[] boxes1 = boxes(N);
+        final double[] boxes2 = shift(boxes(300), 0.5);
+        RTree t1 = new RTree(8);
+        for (int i = 0; i < N; i++) {
+            t1.insert(i, boxes1[i*4], boxes1[i*4+1], boxes1[i*4+2], boxes1[i*4+3]);
+        }
+        long[] ids = new long[300];
+        for (int i = 0; i < 300; i++) {
+            ids[i] = i;
+        }
+        RTree t2 = RTree.bulkLoad(ids, boxes2, 300, 4);
+
+        Set<String> expected = new TreeSet<String>();
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < 300; j++) {
+                if (RTree.intersects(boxes1, i*4, boxes2, j*4)) {
+                    expected.add(i + "/" + j);
+                }
+            }
+        }
+        assertTrue(expected.size() > 0);
+
+        final Set<String> actual = new TreeSet<String>();
+        RTree.join(t1, t2, new RTree.PairVisitor() {
+            public void visit(long id1, long id2) {
+                assertTrue(actual.add(id1 + "/" + id2));
+            }
+        });
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testRounding() throws Exception {
+        double d = 0.1;
+        assertTrue(RTree.down(d) <= d);
+        assertTrue(RTree.up(d) >= d);
+        assertTrue(RTree.down(-d) <= -d);
+        assertTrue(RTree.up(-d) >= -d);
+        assertEquals(1f, RTree.down(1), 0);
+        assertEquals(1f, RTree.up(1), 0);
+    }
+
+    void assertQueries(RTree tree, double[] boxes, int n) {
+        Random r = new Random(1);
+        for (int q = 0; q < 50; q++) {
+            double x = r.nextDouble() * 200 - 100, y = r.nextDouble() * 200 - 100;
+            double w = r.nextDouble() * 40, h = r.nextDouble() * 40;
+
+            Set<Long> expected = new TreeSet<Long>();
+            for (int i = 0; i < n; i++) {
+                if (boxes[i*4] <= x + w && boxes[i*4+2] >= x && boxes[i*4+1] <= y + h
+                    && boxes[i*4+3] >= y) {
+                    expected.add((long) i);
+                }
+            }
+            assertEquals(expected, query(tree, x, y, x + w, y + h));
+        }
+    }
+
+    Set<Long> query(RTree tree, double minx, double miny, double maxx, double maxy) {
+        final Set<Long> hits = new TreeSet<Long>();
+        tree.query(minx, miny, maxx, maxy, new RTree.Visitor() {
+            public void visit(long id) {
+                hits.add(id);
+            }
+        });
+        return hits;
+    }
+
+    static double[] boxes(int n) {
+        Random r = new Random(0);
+        double[] boxes = new double[n * 4];
+        for (int i = 0; i < n; i++) {
+            double x = r.nextDouble() * 200 - 100, y = r.nextDouble() * 200 - 100;
+            double w = r.nextDouble() * 2, h = r.nextDouble() * 2;
+            boxes[i*4] = x;
+            boxes[i*4+1] = y;
+            boxes[i*4+2] = x + w;
+            boxes[i*4+3] = y + h;
+        }
+        return boxes;
+    }
+
+    static double[] shift(double[] boxes, double d) {
+        for (int i = 0; i < boxes.length; i++) {
+            boxes[i] += d;
+        }
+        return boxes;
+    }
+}
@@ -0,0 +1,289 @@
+package geodb.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import geodb.GeoDB;
+import geodb.GeoDBTestSupport;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpatialIndexTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS spatial");
+        st.execute("CREATE TABLE spatial (id INT AUTO_INCREMENT PRIMARY KEY, geom BLOB)");
+        for (int i = 0; i < 100; i++) {
+            st.execute("INSERT INTO spatial (geom) VALUES (ST_GeomFromText('POINT(" + i + " " + i 
+                + ")', 4326))");
+        }
+        st.close();
+    }
+
+    @Test
+    public void testCreateSpatialIndex() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+
+        ResultSet rs = cx.getMetaData().getTables(null, "PUBLIC", "SPATIAL_GEOM_RTREE", null);
+        assertTrue(rs.next());
+        rs.close();
+
+        SpatialIndex index = SpatialIndex.get(cx, null, "SPATIAL", "GEOM");
+        assertNotNull(index);
+        assertEquals(100, index.size());
+        assertEquals("ID", index.getPrimaryKey());
+        assertEquals(4326, GeoDB.GetSRID(cx, "PUBLIC", "SPATIAL"));
+
+        assertEquals(ids(5, 10), query(st, "ST_IndexIntersects('PUBLIC', 'SPATIAL', 4.5, 4.5, 9, 9)"));
+        assertEquals(ids(5, 10), 
+            query(st, "ST_IndexIntersects('PUBLIC', 'SPATIAL', 'GEOM', 9, 9, 4.5, 4.5)"));
+
+        st.execute("CALL DropSpatialIndex(null, 'SPATIAL')");
+        assertNull(SpatialIndex.get(cx, null, "SPATIAL", "GEOM"));
+        assertEquals(-1, GeoDB.GetSRID(cx, "PUBLIC", "SPATIAL"));
+        st.close();
+    }
+
+    @Test
+    public void testMaintenance() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+
+        st.execute("INSERT INTO spatial (id, geom) VALUES (1000, " +
+            "ST_GeomFromText('POINT(-50 -50)', 4326))");
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('POINT(-51 -51)', 4326) " +
+            "WHERE id = 1");
+        st.execute("DELETE FROM spatial WHERE id = 2");
+
+        String q = "ST_IndexIntersects('PUBLIC', 'SPATIAL', -60, -60, 1.5, 1.5)";
+        Set<Long> expected = new TreeSet<Long>();
+        expected.add(1L);
+        expected.add(1000L);
+        assertEquals(expected, query(st, q));
+
+        //force the index to be read back from its pages
+        SpatialIndex.indexes.clear();
+        assertEquals(expected, query(st, q));
+        assertEquals(100, SpatialIndex.get(cx, null, "SPATIAL", "GEOM").size());
+
+        //fetch the rows through a join
+        ResultSet rs = st.executeQuery("SELECT ST_AsText(t.geom) FROM " + q + " i, spatial t " +
+            "WHERE t.id = i.id ORDER BY t.id");
+        assertTrue(rs.next());
+        assertEquals("POINT (-51 -51)", rs.getString(1));
+        assertTrue(rs.next());
+        assertEquals("POINT (-50 -50)", rs.getString(1));
+        assertFalse(rs.next());
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testLargeGeometry() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+
+        //large values reach the trigger as streams
+        StringBuilder wkt = new StringBuilder("LINESTRING(");
+        for (int i = 0; i < 1000; i++) {
+            wkt.append(i > 0 ? ", " : "").append(-500 - i).append(" ").append(-500 - i % 7);
+        }
+        wkt.append(")");
+        st.execute("UPDATE spatial SET geom = ST_GeomFromText('" + wkt + "', 4326) WHERE id = 1");
+
+        Set<Long> expected = new TreeSet<Long>();
+        expected.add(1L);
+        assertEquals(expected, query(st, "ST_IndexIntersects('PUBLIC', 'SPATIAL', -2000, -2000, " +
+            "-100, -100)"));
+        st.close();
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        String q = "ST_IndexIntersects('PUBLIC', 'SPATIAL', -1, -1, 1000, 1000)";
+
+        cx.setAutoCommit(false);
+        try {
+            st.execute("DELETE FROM spatial WHERE id <= 50");
+            assertEquals(ids(50, 100), query(st, q));
+            cx.rollback();
+            assertEquals(ids(0, 100), query(st, q));
+
+            st.execute("INSERT INTO spatial (id, geom) VALUES (1000, " +
+                "ST_GeomFromText('POINT(500 500)', 4326))");
+            st.execute("UPDATE spatial SET geom = ST_GeomFromText('POINT(600 600)', 4326) " +
+                "WHERE id = 1");
+            cx.rollback();
+            assertEquals(ids(0, 100), query(st, q));
+
+            st.execute("INSERT INTO spatial (id, geom) VALUES (1000, " +
+                "ST_GeomFromText('POINT(500 500)', 4326))");
+            cx.commit();
+        }
+        finally {
+            cx.setAutoCommit(true);
+        }
+
+        Set<Long> expected = ids(0, 100);
+        expected.add(1000L);
+        assertEquals(expected, query(st, q));
+        assertEquals(101, SpatialIndex.get(cx, null, "SPATIAL", "GEOM").size());
+
+        //the pages are intact
+        SpatialIndex.indexes.clear();
+        assertEquals(expected, query(st, q));
+        assertEquals(101, SpatialIndex.get(cx, null, "SPATIAL", "GEOM").size());
+        st.close();
+    }
+
+    @Test
+    public void testRecreated() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        SpatialIndex index = SpatialIndex.get(cx, null, "SPATIAL", "GEOM");
+        assertEquals(100, index.size());
+
+        //recreated behind the back of the cached index
+        st.execute("DROP TABLE spatial");
+        st.execute("DROP TABLE spatial_geom_rtree");
+        assertNull(SpatialIndex.get(cx, null, "SPATIAL", "GEOM"));
+
+        st.execute("CREATE TABLE spatial (id INT AUTO_INCREMENT PRIMARY KEY, geom BLOB)");
+        st.execute("INSERT INTO spatial (geom) VALUES (ST_GeomFromText('POINT(0 0)', 4326))");
+        SpatialIndex.indexes.put(index.key, index);
+        SpatialIndex other = new SpatialIndex(index.key, "PUBLIC", "SPATIAL", "GEOM");
+        other.primaryKey = "ID";
+        other.srid = 4326;
+        other.tree = other.build(cx, new RTreeBuilder(RTree.DEFAULT_CAPACITY,
+            RTreeBuilder.DEFAULT_MEMORY), true);
+        st.execute("CREATE TABLE spatial_geom_rtree (ID INT PRIMARY KEY, DATA BINARY)");
+        other.flush(cx);
+
+        assertEquals(ids(0, 1), query(st, "ST_IndexIntersects('PUBLIC', 'SPATIAL', -1, -1, " +
+            "1000, 1000)"));
+        assertEquals(1, SpatialIndex.get(cx, null, "SPATIAL", "GEOM").size());
+        st.close();
+    }
+
+    @Test
+    public void testEstimatedExtent() throws Exception {
+        SpatialIndex.drop(cx, null, "SPATIAL", "GEOM");
+
+        Statement st = cx.createStatement();
+        ResultSet rs = st.executeQuery("SELECT ST_Estimated_Extent('SPATIAL', 'GEOM')");
+        rs.next();
+        assertNull(rs.getBytes(1));
+        rs.close();
+
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        st.execute("INSERT INTO spatial (id, geom) VALUES (1000, " +
+            "ST_GeomFromText('POINT(-50 -50)', 4326))");
+        assertExtent(st, "POLYGON ((-50 -50, -50 99, 99 99, 99 -50, -50 -50))");
+
+        //read from the pages of the index, without loading it
+        SpatialIndex.indexes.clear();
+        assertExtent(st, "POLYGON ((-50 -50, -50 99, 99 99, 99 -50, -50 -50))");
+        assertTrue(SpatialIndex.indexes.isEmpty());
+        st.close();
+    }
+
+    void assertExtent(Statement st, String wkt) throws Exception {
+        ResultSet rs = st.executeQuery("SELECT ST_AsText(ST_Estimated_Extent(null, 'SPATIAL', " +
+            "'GEOM')), ST_SRID(ST_Estimated_Extent('SPATIAL', 'GEOM'))");
+        rs.next();
+        assertEquals(wkt, rs.getString(1));
+        assertEquals(4326, rs.getInt(2));
+        rs.close();
+    }
+
+    @Test
+    public void testKNN() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326')");
+        st.execute("INSERT INTO spatial (id, geom) VALUES (1000, " +
+            "ST_GeomFromText('LINESTRING(10.2 0, 10.2 10)', 4326))");
+
+        ResultSet rs = st.executeQuery("SELECT id, distance FROM " +
+            "ST_KNN('PUBLIC', 'SPATIAL', ST_MakePoint(10.2, 10.2), 4)");
+        assertTrue(rs.next());
+        assertEquals(1000, rs.getLong(1));
+        assertEquals(0.2, rs.getDouble(2), 1e-9);
+        assertTrue(rs.next());
+        assertEquals(11, rs.getLong(1));
+        assertEquals(0.2 * Math.sqrt(2), rs.getDouble(2), 1e-9);
+        assertTrue(rs.next());
+        assertEquals(12, rs.getLong(1));
+        assertTrue(rs.next());
+        assertEquals(10, rs.getLong(1));
+        assertFalse(rs.next());
+        rs.close();
+
+        //rows gone from the table are skipped
+        SpatialIndex index = SpatialIndex.get(cx, null, "SPATIAL", "GEOM");
+        index.tree.insert(5000, 10.2, 10.2, 10.2, 10.2);
+        rs = st.executeQuery("SELECT id FROM " +
+            "ST_KNN('PUBLIC', 'SPATIAL', 'GEOM', ST_MakePoint(10.2, 10.2), 1)");
+        assertTrue(rs.next());
+        assertEquals(1000, rs.getLong(1));
+        assertFalse(rs.next());
+        rs.close();
+        st.close();
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("CALL CreateSpatialIndex(null, 'SPATIAL', 'GEOM', '4326', 1)");
+        assertEquals(ids(5, 10), query(st, "ST_IndexIntersects('PUBLIC', 'SPATIAL', 4.5, 4.5, 9, 9)"));
+        st.close();
+    }
+
+    @Test
+    public void testRequiresPrimaryKey() throws Exception {
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS nokey");
+        st.execute("CREATE TABLE nokey (id INT, geom BLOB)");
+        try {
+            st.execute("CALL CreateSpatialIndex(null, 'NOKEY', 'GEOM', '4326')");
+            assertTrue("should have failed", false);
+        }
+        catch(Exception e) {
+        }
+        st.close();
+    }
+
+    Set<Long> query(Statement st, String function) throws Exception {
+        Set<Long> ids = new TreeSet<Long>();
+        ResultSet rs = st.executeQuery("SELECT id FROM " + function);
+        while (rs.next()) {
+            ids.add(rs.getLong(1));
+        }
+        rs.close();
+        return ids;
+    }
+
+    Set<Long> ids(int from, int to) {
+        Set<Long> ids = new TreeSet<Long>();
+        for (int i = from; i < to; i++) {
+            //ids start at 1, point i has id i + 1
+            ids.add((long) i + 1);
+        }
+        return ids;
+    }
+}
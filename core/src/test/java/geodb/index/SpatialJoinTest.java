@@ -0,0 +1,107 @@
+package geodb.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import geodb.GeoDB;
+import geodb.GeoDBTestSupport;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpatialJoinTest extends GeoDBTestSupport {
+
+    @Before
+    public void setUpData() throws Exception {
+        GeoDB.InitGeoDB(cx);
+
+        Statement st = cx.createStatement();
+        st.execute("DROP TABLE IF EXISTS parcels");
+        st.execute("DROP TABLE IF EXISTS zoning");
+        st.execute("CREATE TABLE parcels (id INT PRIMARY KEY, geom BLOB)");
+        st.execute("CREATE TABLE zoning (id INT PRIMARY KEY, geom BLOB)");
+
+        //a 20x20 grid of unit parcels, some straddling the zone boundaries
+        for (int i = 0; i < 400; i++) {
+            double x = (i % 20) * 1.0 + (i % 7 == 0 ? 0.5 : 0);
+            double y = (i / 20) * 1.0;
+            st.execute("INSERT INTO parcels VALUES (" + i + ", " + square(x, y, 1) + ")");
+        }
+        //four zones of 10x10
+        for (int i = 0; i < 4; i++) {
+            st.execute("INSERT INTO zoning VALUES (" + i + ", " + 
+                square((i % 2) * 10, (i / 2) * 10, 10) + ")");
+        }
+
+        st.execute("CALL CreateSpatialIndex(null, 'PARCELS', 'GEOM', '-1')");
+        st.execute("CALL CreateSpatialIndex(null, 'ZONING', 'GEOM', '-1')");
+        st.close();
+    }
+
+    @Test
+    public void testWithin() throws Exception {
+        assertJoin("WITHIN", "ST_Within(p.geom, z.geom)", "'PUBLIC', 'PARCELS', 'PUBLIC', 'ZONING'");
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        //zoning has the fewest distinct rows, exercises the swapped predicate
+        assertJoin("ST_Contains", "ST_Contains(z.geom, p.geom)", 
+            "'PUBLIC', 'ZONING', 'GEOM', 'PUBLIC', 'PARCELS', 'GEOM'");
+    }
+
+    @Test
+    public void testIntersects() throws Exception {
+        assertJoin("INTERSECTS", "ST_Intersects(p.geom, z.geom)", 
+            "'PUBLIC', 'PARCELS', 'PUBLIC', 'ZONING'");
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        Statement st = cx.createStatement();
+        try {
+            st.executeQuery("SELECT * FROM ST_SpatialJoin('PUBLIC', 'PARCELS', 'PUBLIC', " +
+                "'ZONING', 'DISJOINT')");
+            assertTrue("should have failed", false);
+        }
+        catch(Exception e) {
+        }
+        st.close();
+    }
+
+    void assertJoin(String predicate, String expression, String tables) throws Exception {
+        boolean zoningFirst = tables.startsWith("'PUBLIC', 'ZONING'");
+
+        Statement st = cx.createStatement();
+        Set<String> expected = new TreeSet<String>();
+        ResultSet rs = st.executeQuery("SELECT " + (zoningFirst ? "z.id, p.id" : "p.id, z.id") + 
+            " FROM parcels p, zoning z WHERE " + expression);
+        while (rs.next()) {
+            expected.add(rs.getLong(1) + "/" + rs.getLong(2));
+        }
+        rs.close();
+        assertTrue(expected.size() > 0);
+
+        Set<String> actual = new TreeSet<String>();
+        rs = st.executeQuery("SELECT id1, id2 FROM ST_SpatialJoin(" + tables + ", '" + predicate + 
+            "')");
+        while (rs.next()) {
+            assertTrue(actual.add(rs.getLong(1) + "/" + rs.getLong(2)));
+        }
+        rs.close();
+        st.close();
+
+        assertEquals(expected, actual);
+    }
+
+    static String square(double x, double y, double size) {
+        return "ST_GeomFromText('POLYGON((" + x + " " + y + ", " + x + " " + (y + size) + ", " + 
+            (x + size) + " " + (y + size) + ", " + (x + size) + " " + y + ", " + x + " " + y + 
+            "))', -1)";
+    }
+}